@@ -88,6 +88,17 @@ public class AWBaseMonitorStatsPage extends AWComponent implements AWMonitorStat
         return null;
     }
 
+    /**
+     * Summary of the session memory report (see AWSessionMemoryReport), only when asked for
+     * with showSessionMemory=true since making a report walks the sampled sessions.
+     */
+    public List<NamedValue> sessionMemoryStats ()
+    {
+        boolean showSessionMemory = "true".equals(pageComponent().requestContext()
+            .formValueForKey("showSessionMemory"));
+        return showSessionMemory ? AWSessionMemoryReport.currentReport().summary() : null;
+    }
+
     public List getItemsToDisplay ()
     {
         Map keyValueStats = application().customKeyValueStats();
@@ -106,6 +117,12 @@ public class AWBaseMonitorStatsPage extends AWComponent implements AWMonitorStat
         return result;        
     }
     
+    public List<NamedValue> getCacheStats ()
+    {
+        AWMonitorStats monitorStats = getMonitorStats();
+        return monitorStats == null ? null : monitorStats.cacheStats();
+    }
+
     /**
      * The current item being displayed by the direct action
      */
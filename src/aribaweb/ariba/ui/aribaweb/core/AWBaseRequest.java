@@ -23,6 +23,7 @@ import ariba.ui.aribaweb.util.AWContentType;
 import ariba.ui.aribaweb.util.AWDisposable;
 import ariba.ui.aribaweb.util.AWEncodedString;
 import ariba.ui.aribaweb.util.AWFileData;
+import ariba.ui.aribaweb.util.AWFormValueTable;
 import ariba.ui.aribaweb.util.AWGenericException;
 import ariba.ui.aribaweb.util.AWMalformedRequestException;
 import ariba.ui.aribaweb.util.AWMimeReader;
@@ -75,6 +76,7 @@ abstract public class AWBaseRequest extends AWBaseObject
     private List _requestLocales;
     private Locale _preferredLocale;
     private String _applicationNumber = NoApplicationNumber;
+    private AWFormValueTable _formValueTable;
     private AWStringKeyHashtable _formValues;
     private Map _cookieValues;
     private AWEncodedString _responseId;
@@ -117,7 +119,10 @@ abstract public class AWBaseRequest extends AWBaseObject
         if (!StringUtil.nullOrEmptyOrBlankString(contentLength)) {
             _contentLength = Integer.parseInt(contentLength);
         }
-        _formValues = initFormValuesAndSenderId();
+        _formValueTable = initFormValueTable();
+        if (_formValueTable == null) {
+            _formValues = initFormValuesAndSenderId();
+        }
         String responseId = formValueForKey(AWRequestContext.ResponseIdKey, false);
 
         if (responseId != null) {
@@ -165,6 +170,8 @@ abstract public class AWBaseRequest extends AWBaseObject
         Object disposeTarget = _formValues;
         _formValues = null;
        AWUtil.dispose(disposeTarget);
+        AWUtil.dispose(_formValueTable);
+        _formValueTable = null;
         // Don't need to dispose on _cookieValues because they only hold strings
         // and dispose generates garbage for hash tables.
         _cookieValues = null;
@@ -178,6 +185,30 @@ abstract public class AWBaseRequest extends AWBaseObject
 
     abstract protected String initSessionId ();
 
+    /**
+        The form values of a url encoded request (GET or POST), indexed over
+        the request bytes and only decoded as they are asked for.  Returns
+        null for multipart requests and requests without form values, whose
+        form values are then parsed by initFormValuesAndSenderId().
+        Subclasses which override initFormValuesAndSenderId() or
+        parseFormEncodedRequest() for url encoded requests should override
+        this to return null.
+    */
+    protected AWFormValueTable initFormValueTable ()
+    {
+        if (isMultipartEncoded()) {
+            return null;
+        }
+        AWFormValueTable formValues = AWBaseRequest.formValueTable(this);
+        if (formValues != null) {
+            initCharacterEncoding(formValues);
+            if (Log.aribaweb_request.isDebugEnabled()) {
+                logFormValues(formValues);
+            }
+        }
+        return formValues;
+    }
+
     protected AWStringKeyHashtable initFormValuesAndSenderId ()
     {
         return isMultipartEncoded() ?
@@ -204,6 +235,8 @@ abstract public class AWBaseRequest extends AWBaseObject
     {
         try {
             AWStringKeyHashtable newHashtable = new AWStringKeyHashtable(1);
+            // contentStream() is the servlet input stream unless the content
+            // was explicitly buffered; the reader streams parts from it
             AWMimeReader mimeReader = new AWMimeReader(
                 contentStream(), contentLength(), contentType());
             while (true) {
@@ -313,61 +346,64 @@ abstract public class AWBaseRequest extends AWBaseObject
 
     protected AWStringKeyHashtable parseFormEncodedRequest ()
     {
-        AWStringKeyHashtable newHashtable = null;
-        Parameters formValues = AWBaseRequest.parameters(this);
-        if (formValues != null) {
-            String characterEncodingName =
-                formValues.getParameter(AWBaseRequest.CharacterEncodingKey);
-            AWCharacterEncoding characterEncoding = null;
-            if (!StringUtil.nullOrEmptyOrBlankString(characterEncodingName)) {
-                characterEncoding = AWCharacterEncoding.characterEncodingNamed(
-                    characterEncodingName);
-                if (characterEncoding != null) {
-                    setCharacterEncoding(characterEncoding);
-                }
-            }
-            // subclass might have initialized it.
-            characterEncoding = characterEncoding();
-            int elementCount = formValues.getParameterCount();
-            newHashtable =  new AWStringKeyHashtable(
-                (elementCount == 0) ? 1 : elementCount);
-            Iterator keyEnumerator = formValues.getParameterNames();
-
-            String[] debugFilterKeys = null;
-            boolean isAribawebDebugEnabled = Log.aribaweb_request.isDebugEnabled();
-            if (isAribawebDebugEnabled) {
-                Log.aribaweb_request.debug("---> form values");
-                // check for debug filter values
-                debugFilterKeys = formValues.getParameterValues(AWLogFilterListKey);
-            }
-            while (keyEnumerator.hasNext()) {
-                String keyString = (String)keyEnumerator.next();
-                String[] formValuesArray = formValues.getParameterValues(keyString);
-                if (isAribawebDebugEnabled) {
-                    boolean filter = false;
-                    if (debugFilterKeys != null) {
-                        for (int i=0, size=debugFilterKeys.length;
-                             i < size && !filter; i++) {
-                            filter = debugFilterKeys[i].equals(keyString);
-                        }
-                    }
+        AWFormValueTable formValues = AWBaseRequest.formValueTable(this);
+        if (formValues == null) {
+            return new AWStringKeyHashtable(1);
+        }
+        initCharacterEncoding(formValues);
+        if (Log.aribaweb_request.isDebugEnabled()) {
+            logFormValues(formValues);
+        }
+        return formValues.toStringKeyHashtable();
+    }
 
-                    Log.aribaweb_request.debug("name: %s,  value: %s",
-                        keyString, filter ? "**** filtered ****" :
-                        formValuesArray.length == 1 ? formValuesArray[0] :
-                            ArrayUtil.formatArray("",formValuesArray));
-                }
-                if (characterEncoding != null &&
-                    !characterEncoding.equals(AWCharacterEncoding.ISO8859_1)) {
-                    AWBaseRequest.convertStrings(formValuesArray, characterEncoding);
-                }
-                newHashtable.put(keyString, formValuesArray);
+    /**
+        Sets the request's character encoding from the form values, if they
+        name one, and has the values decoded with the request's encoding.
+    */
+    private void initCharacterEncoding (AWFormValueTable formValues)
+    {
+        String[] characterEncodingNames =
+            formValues.get(AWBaseRequest.CharacterEncodingKey, true);
+        if (characterEncodingNames != null &&
+            !StringUtil.nullOrEmptyOrBlankString(characterEncodingNames[0])) {
+            AWCharacterEncoding characterEncoding =
+                AWCharacterEncoding.characterEncodingNamed(characterEncodingNames[0]);
+            if (characterEncoding != null) {
+                setCharacterEncoding(characterEncoding);
             }
         }
-        else {
-            newHashtable = new AWStringKeyHashtable(1);
+        // subclass might have initialized it.
+        AWCharacterEncoding characterEncoding = characterEncoding();
+        if (characterEncoding != null) {
+            formValues.setCharacterEncoding(characterEncoding);
+        }
+    }
+
+    private void logFormValues (AWFormValueTable formValues)
+    {
+        Log.aribaweb_request.debug("---> form values");
+        // check for debug filter values
+        String[] debugFilterKeys = formValues.get(AWLogFilterListKey, true);
+        // note: iterating materializes all form values
+        Iterator entries = formValues.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry entry = (Map.Entry)entries.next();
+            String keyString = (String)entry.getKey();
+            String[] formValuesArray = (String[])entry.getValue();
+            boolean filter = false;
+            if (debugFilterKeys != null) {
+                for (int i=0, size=debugFilterKeys.length;
+                     i < size && !filter; i++) {
+                    filter = debugFilterKeys[i].equals(keyString);
+                }
+            }
+
+            Log.aribaweb_request.debug("name: %s,  value: %s",
+                keyString, filter ? "**** filtered ****" :
+                formValuesArray.length == 1 ? formValuesArray[0] :
+                    ArrayUtil.formatArray("",formValuesArray));
         }
-        return newHashtable;
     }
 
     /**
@@ -636,7 +672,7 @@ abstract public class AWBaseRequest extends AWBaseObject
     ///////////////
     public Map formValues ()
     {
-        return _formValues;
+        return _formValueTable != null ? _formValueTable : _formValues;
     }
 
     public String formValueForKey (String formValueKey, boolean ignoresCase)
@@ -658,7 +694,10 @@ abstract public class AWBaseRequest extends AWBaseObject
     public String[] formValuesForKey (String formValueKey, boolean ignoresCase)
     {
         String[] formValuesForKey = null;
-        if (_formValues != null) {
+        if (_formValueTable != null) {
+            formValuesForKey = _formValueTable.get(formValueKey, ignoresCase);
+        }
+        else if (_formValues != null) {
             formValuesForKey = (String[])_formValues.get(formValueKey, ignoresCase);
         }
         return formValuesForKey;
@@ -707,7 +746,9 @@ abstract public class AWBaseRequest extends AWBaseObject
     // Input Parsing
     /////////////////
     /*
-        This is quite inefficient compared to what it could be if we didn't keep converting everything to strings.  We should first find the characterEncoding by scanning the content bytes, then we can iterate through the bytes of the content doing the url decoding as we go.  When we encounter an '=' or '&', we start finish the current string and start a new one, putting the pairs into the parameters as we go.
+        Request form values are indexed over the content bytes by AWFormValueTable, which
+        only decodes the values asked for.  The string based parsing below is kept for
+        other callers.
     */
     /**
         Parse a string that is URL encoded.
@@ -840,6 +881,57 @@ abstract public class AWBaseRequest extends AWBaseObject
         return parameters;
     }
 
+    /**
+        The form values of a GET (from the query string) or url encoded POST
+        (from the content, plus query string parameters not in the content),
+        or null if there are none.  Same sources as parameters(AWRequest).
+    */
+    protected static AWFormValueTable formValueTable (AWRequest request)
+    {
+        byte[] contentBytes = null;
+        byte[] queryBytesForPost = null;
+        String contentType = request.contentType();
+        if (!StringUtil.nullOrEmptyOrBlankString(contentType)) {
+            String[] values = StringUtil.delimitedStringToArray(contentType, ';');
+            contentType = values[0].trim();
+        }
+        if (contentType == null || GETMethod.equals(request.method())) {
+            String queryString = request.queryString();
+            if (queryString != null && !queryString.equals("null")) {
+                contentBytes = AWFormValueTable.bytesForString(queryString);
+            }
+        }
+        else if (contentType.equalsIgnoreCase(
+            AWContentType.ApplicationWWWFormUrlEncoded.name)) {
+            contentBytes = request.content();
+            //sometimes we need parameters in the query string for POST also.
+            //add query string parameters also to form values
+            //if they don't exist already
+            String queryStringForPost = request.queryString();
+            Log.aribaweb_request.debug("queryStringForPost:%s", queryStringForPost);
+            if (!StringUtil.nullOrEmptyOrBlankString(queryStringForPost)
+                    && !queryStringForPost.equals("null")) {
+                queryBytesForPost = AWFormValueTable.bytesForString(queryStringForPost);
+            }
+        }
+        if (isBlank(contentBytes)) {
+            return null;
+        }
+        return new AWFormValueTable(contentBytes, queryBytesForPost);
+    }
+
+    private static boolean isBlank (byte[] bytes)
+    {
+        if (bytes != null) {
+            for (int index = 0; index < bytes.length; index++) {
+                if (!Character.isWhitespace((char)(bytes[index] & 0xFF))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     protected static void convertStrings (String[] formValuesArray,
                                           AWCharacterEncoding characterEncoding)
     {
@@ -870,35 +962,19 @@ abstract public class AWBaseRequest extends AWBaseObject
     */
     public static Map parseUrlEncodedFormValues (String formValuesString)
     {
-        AWStringKeyHashtable newHashtable = null;
-        Parameters parameters =
-            AWBaseRequest.parametersFromUrlEncodedString(formValuesString);
-        if (parameters != null) {
-            String characterEncodingName =
-                parameters.getParameter(AWBaseRequest.CharacterEncodingKey);
-            AWCharacterEncoding characterEncoding = null;
-            if (!StringUtil.nullOrEmptyOrBlankString(characterEncodingName)) {
-                characterEncoding =
-                    AWCharacterEncoding.characterEncodingNamed(characterEncodingName);
-            }
-            int elementCount = parameters.getParameterCount();
-            newHashtable = new AWStringKeyHashtable(
-                (elementCount == 0) ? 1 : elementCount);
-            Iterator keyEnumerator = parameters.getParameterNames();
-            while (keyEnumerator.hasNext()) {
-                String keyString = (String)keyEnumerator.next();
-                String[] formValuesArray = parameters.getParameterValues(keyString);
-                if (characterEncoding != null &&
-                    !characterEncoding.equals(AWCharacterEncoding.ISO8859_1)) {
-                    AWBaseRequest.convertStrings(formValuesArray, characterEncoding);
-                }
-                newHashtable.put(keyString, formValuesArray);
+        AWFormValueTable formValues =
+            new AWFormValueTable(AWFormValueTable.bytesForString(formValuesString), null);
+        String[] characterEncodingNames =
+            formValues.get(AWBaseRequest.CharacterEncodingKey, true);
+        if (characterEncodingNames != null &&
+            !StringUtil.nullOrEmptyOrBlankString(characterEncodingNames[0])) {
+            AWCharacterEncoding characterEncoding =
+                AWCharacterEncoding.characterEncodingNamed(characterEncodingNames[0]);
+            if (characterEncoding != null) {
+                formValues.setCharacterEncoding(characterEncoding);
             }
         }
-        else {
-            newHashtable = new AWStringKeyHashtable(1);
-        }
-        return newHashtable;
+        return formValues;
     }
 
     public HttpSession getSession ()
@@ -1021,6 +1097,10 @@ abstract public class AWBaseRequest extends AWBaseObject
         }
     }
 
+    /**
+        The buffered request body, or null if the body is not buffered but
+        streamed from inputStream() (multipart requests).
+    */
     public byte[] content ()
     {
         if (_content == null) {
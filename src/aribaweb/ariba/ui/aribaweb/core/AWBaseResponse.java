@@ -65,6 +65,15 @@ abstract public class AWBaseResponse extends AWBaseObject implements AWResponse
         public void responseCompleted ();
     }
 
+    /**
+        When true (the default), a response that has been written keeps only a
+        skeleton of its refresh region buffers (see AWResponseBuffer), which is
+        all the next response of the page needs for its incremental update.
+        This keeps the previous response retained in the session's
+        BrowserState small regardless of the size of the page.
+    */
+    public static boolean RetainSkeletonForDiffing = true;
+
     boolean _browserCachingEnabled;
     private AWResponseBuffer _rootBuffer;
     private AWResponseBuffer _noChangeBuffer;
@@ -327,12 +336,31 @@ abstract public class AWBaseResponse extends AWBaseObject implements AWResponse
                 _globalContents.clear();
                 _globalContents = null;
             }
+            if (RetainSkeletonForDiffing) {
+                reduceToSkeleton();
+            }
         }
         _currentBuffer = null;
         _cookies = null;
         _bufferStack = null;
     }
 
+    /**
+        Replaces the buffer trees by skeletons once the content has been
+        written.  The skeletons still support hasRootBufferChanged(),
+        hasNoChangeBufferChanged() and serving as the previous response of an
+        incremental update.
+    */
+    private void reduceToSkeleton ()
+    {
+        if (_rootBuffer != null && !_rootBuffer.isSkeleton()) {
+            _rootBuffer = _rootBuffer.skeleton(new HashMap(
+                _scopeChildren == null ? 1 : _scopeChildren.size()));
+            _noChangeBuffer = _noChangeBuffer.skeleton(null);
+        }
+        _scopeChildren = null;
+    }
+
     public void flushSizeStat ()
     {
         if (PerformanceState.threadStateEnabled()) {
@@ -0,0 +1,356 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.ui.aribaweb.core;
+
+import ariba.ui.aribaweb.util.Log;
+import ariba.util.core.Constants;
+import ariba.util.core.Fmt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+    Pushes "something changed" events for one session to the browser so
+    that AWPollInterval does not have to poll on a fixed interval.
+    <p>
+    Each session lazily creates one channel (see AWSession.changeChannel()).
+    AWPage.notifyChange() and AWSession.addNotification() bump the channel's
+    version.  The browser keeps one long poll request open against the
+    channel (see AWPollInterval and Request.setupPoll()) which the servlet
+    adaptor answers as soon as the version differs from the one the browser
+    last saw, or with "nochange" after {@link #WaitTimeoutMillis}.  On a
+    change the browser runs the regular AWPoll request, which still decides
+    whether the page is re-rendered, so the channel only has to be
+    conservative: a spurious wake up costs one poll.  On "nochange" it just
+    waits again.
+    <p>
+    Shutdown warnings are due per session on a timer rather than on an
+    event, so all channels are bumped when the shutdown warning period
+    begins, and for its duration time outs are answered as changes, which
+    lets the regular poll show the warning when it is due.
+    <p>
+    Long poll requests are answered without checking out the session; they
+    are identified by an unguessable channel key only, and only learn the
+    version number.  A waiting request is parked on a virtual thread or on
+    an asynchronous servlet request, never on a container thread; if
+    neither is available the adaptor answers immediately and the browser
+    falls back to polling on the page's poll interval.
+
+    @aribaapi private
+*/
+public final class AWChangeChannel
+{
+    /**
+        Query key carrying the channel key on long poll requests.
+    */
+    public static final String ChannelKey = "awchwait";
+
+    /**
+        Query key carrying the last version seen by the browser.
+    */
+    public static final String VersionKey = "awchv";
+
+    public static boolean IsEnabled = true;
+    public static long WaitTimeoutMillis = 50 * 1000;
+
+    private static final ConcurrentHashMap<String,AWChangeChannel> Channels =
+        new ConcurrentHashMap<String,AWChangeChannel>();
+    private static ScheduledExecutorService TimeoutExecutor;
+    private static volatile boolean IsInShutdownWarningPeriod;
+
+    /**
+        Called exactly once for each listener added with
+        {@link AWChangeChannel#addListener}, either when the channel changes,
+        is closed or when the wait times out.
+    */
+    public interface Listener
+    {
+        public void channelChanged (long version);
+    }
+
+    private final String _key;
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _changed = _lock.newCondition();
+    private long _version;
+    private boolean _isClosed;
+    private List<Waiter> _listeners;
+
+    /**
+        A registered listener and the task that times its wait out, which is
+        cancelled once the listener has been called.
+    */
+    private static final class Waiter
+    {
+        final Listener listener;
+        ScheduledFuture<?> timeout;
+
+        Waiter (Listener listener)
+        {
+            this.listener = listener;
+        }
+    }
+
+    private AWChangeChannel (String key)
+    {
+        _key = key;
+    }
+
+    /**
+        Creates and registers a new channel with a random key.
+    */
+    static AWChangeChannel create ()
+    {
+        AWChangeChannel channel = new AWChangeChannel(UUID.randomUUID().toString());
+        Channels.put(channel._key, channel);
+        return channel;
+    }
+
+    /**
+        Returns the open channel registered for <code>key</code> or null.
+    */
+    public static AWChangeChannel channelForKey (String key)
+    {
+        return key == null ? null : Channels.get(key);
+    }
+
+    public static int channelCount ()
+    {
+        return Channels.size();
+    }
+
+    /**
+        Called by AWMonitorStats when the application enters or leaves the
+        shutdown warning period.  Entering it wakes up all waiting browsers.
+    */
+    static void setIsInShutdownWarningPeriod (boolean isInShutdownWarningPeriod)
+    {
+        boolean hasBegun = isInShutdownWarningPeriod && !IsInShutdownWarningPeriod;
+        IsInShutdownWarningPeriod = isInShutdownWarningPeriod;
+        if (hasBegun) {
+            for (AWChangeChannel channel : Channels.values()) {
+                channel.notifyChange();
+            }
+        }
+    }
+
+    public String key ()
+    {
+        return _key;
+    }
+
+    public long version ()
+    {
+        _lock.lock();
+        try {
+            return _version;
+        }
+        finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+        Records a change and wakes up all waiting requests.  May be called
+        from any thread.
+    */
+    public void notifyChange ()
+    {
+        List<Waiter> listeners;
+        long version;
+        _lock.lock();
+        try {
+            if (_isClosed) {
+                return;
+            }
+            version = ++_version;
+            listeners = _listeners;
+            _listeners = null;
+            _changed.signalAll();
+        }
+        finally {
+            _lock.unlock();
+        }
+        fire(listeners, version);
+    }
+
+    /**
+        Unregisters the channel and releases all waiting requests.
+    */
+    void close ()
+    {
+        Channels.remove(_key);
+        List<Waiter> listeners;
+        long version;
+        _lock.lock();
+        try {
+            _isClosed = true;
+            version = _version;
+            listeners = _listeners;
+            _listeners = null;
+            _changed.signalAll();
+        }
+        finally {
+            _lock.unlock();
+        }
+        fire(listeners, version);
+    }
+
+    /**
+        Blocks the calling thread until the version differs from
+        <code>seenVersion</code>, the channel is closed or the time out
+        expires.  Only to be used from threads which are cheap to block
+        (i.e. virtual threads).
+        @return the current version
+    */
+    public long await (long seenVersion, long timeoutMillis)
+    {
+        _lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (!_isClosed && _version == seenVersion && nanos > 0) {
+                nanos = _changed.awaitNanos(nanos);
+            }
+            return _version;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return _version;
+        }
+        finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+        Registers <code>listener</code> to be called when the version differs
+        from <code>seenVersion</code>, or with the unchanged version once
+        <code>timeoutMillis</code> have passed.
+        @return false if the version already differs (or the channel is
+        closed), in which case the listener is not registered and the caller
+        should answer immediately.
+    */
+    public boolean addListener (long seenVersion, Listener listener,
+                                long timeoutMillis)
+    {
+        final Waiter waiter = new Waiter(listener);
+        _lock.lock();
+        try {
+            if (_isClosed || _version != seenVersion) {
+                return false;
+            }
+            if (_listeners == null) {
+                _listeners = new ArrayList<Waiter>(2);
+            }
+            _listeners.add(waiter);
+                // scheduled under the lock so that fire() always sees the
+                // task to cancel; the task itself takes the lock first
+            waiter.timeout = timeoutExecutor().schedule(new Runnable() {
+                public void run ()
+                {
+                    if (removeListener(waiter)) {
+                        call(waiter.listener, version());
+                    }
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        finally {
+            _lock.unlock();
+        }
+        return true;
+    }
+
+    private boolean removeListener (Waiter waiter)
+    {
+        _lock.lock();
+        try {
+            return _listeners != null && _listeners.remove(waiter);
+        }
+        finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+        Calls every listener in <code>listeners</code>, which the caller has
+        already detached from the channel, so each one has to be called here
+        even if an earlier one fails.
+    */
+    private static void fire (List<Waiter> listeners, long version)
+    {
+        if (listeners == null) {
+            return;
+        }
+        for (int index = 0, count = listeners.size(); index < count; index++) {
+            Waiter waiter = listeners.get(index);
+            waiter.timeout.cancel(false);
+            call(waiter.listener, version);
+        }
+    }
+
+    private static void call (Listener listener, long version)
+    {
+        try {
+            listener.channelChanged(version);
+        }
+        catch (RuntimeException e) {
+            Log.aribaweb.warn(Fmt.S("AWChangeChannel: listener %s failed", listener), e);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService timeoutExecutor ()
+    {
+        if (TimeoutExecutor == null) {
+            TimeoutExecutor = new ScheduledThreadPoolExecutor(1,
+                new java.util.concurrent.ThreadFactory() {
+                    public Thread newThread (Runnable runnable)
+                    {
+                        Thread thread = new Thread(runnable, "AWChangeChannel Timeout");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+        return TimeoutExecutor;
+    }
+
+    /**
+        The body of the answer to a long poll request: the same
+        update / nochange states as the AWPoll request, plus the version the
+        browser should wait on next.  During the shutdown warning period
+        every answer is an update, so that the browser polls for the warning.
+    */
+    public static String response (long seenVersion, long version)
+    {
+        boolean hasChanged = version != seenVersion || IsInShutdownWarningPeriod;
+        return Fmt.S("<AWPoll state='%s' version='%s'/>",
+                     hasChanged ? "update" : "nochange",
+                     Constants.getLong(version));
+    }
+
+    public String toString ()
+    {
+        return Fmt.S("AWChangeChannel %s (version %s)", _key, Constants.getLong(version()));
+    }
+}
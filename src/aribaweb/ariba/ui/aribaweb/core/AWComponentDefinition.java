@@ -37,6 +37,7 @@ import java.io.File;
 import java.util.Iterator;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AWComponentDefinition extends AWBaseObject
 {
@@ -46,7 +47,8 @@ public class AWComponentDefinition extends AWBaseObject
     private String _templateName;
     private Class _componentClass;
     private String _resourceClassName;
-    private AWRecyclePool _componentPool;
+    private volatile AWRecyclePool _componentPool;
+    private static final AtomicLong ComponentAllocations = new AtomicLong();
     private boolean _isStatelessComponent;
     private boolean _isClassless;
     private String[] _supportedBindingNames;
@@ -372,6 +374,7 @@ public class AWComponentDefinition extends AWBaseObject
         try {
                 // changed psheill.  Get latest class, or possibly subclass
             componentInstance = (AWComponent)componentClass().newInstance();
+            ComponentAllocations.incrementAndGet();
         }
         catch (IllegalAccessException illegalAccessException) {
             throw new AWGenericException(illegalAccessException);
@@ -384,6 +387,14 @@ public class AWComponentDefinition extends AWBaseObject
         return componentInstance;
     }
 
+    /**
+        Number of component instances created, over all definitions.
+    */
+    public static long componentAllocationCount ()
+    {
+        return ComponentAllocations.get();
+    }
+
     public AWComponent createComponent (AWComponentReference componentReference, AWComponent parent, AWRequestContext requestContext)
     {
         AWComponent componentInstance = newComponentInstance();
@@ -397,15 +408,19 @@ public class AWComponentDefinition extends AWBaseObject
         return componentInstance;
     }
 
-    public synchronized AWComponent sharedComponentInstance ()
+    public AWComponent sharedComponentInstance ()
     {
         if (_isReloadable) {
-            flushCacheIfClassChanged();
+            synchronized (this) {
+                flushCacheIfClassChanged();
+            }
         }
         // This lazily creates an instance if one is not available.
+        // The pool is lock free, so no synchronization is needed here.
         AWComponent componentInstance = null;
-        if (_componentPool != null) {
-            componentInstance = (AWComponent) _componentPool.checkout();
+        AWRecyclePool componentPool = _componentPool;
+        if (componentPool != null) {
+            componentInstance = (AWComponent)componentPool.checkout();
         }
         if (componentInstance == null) {
             componentInstance = newComponentInstance();
@@ -455,7 +470,7 @@ public class AWComponentDefinition extends AWBaseObject
 
     public void checkInSharedComponentInstance (AWComponent componentInstance)
     {
-        // Users must synchronize before calling this, if multithreaded
+        // the pool is thread safe -- no external synchronization needed
         _componentPool.checkin(componentInstance);
     }
 
@@ -478,8 +493,8 @@ public class AWComponentDefinition extends AWBaseObject
 
     private void initComponentPool ()
     {
-        // locking is done externally for AWComponentDefinition -- no need to have AWRecyclePool do locking.
-        _componentPool = AWRecyclePool.newPool(32, false,
+        // shared by all request threads: checked out and in without locking
+        _componentPool = AWRecyclePool.newConcurrentPool(32,
                 ((AWConcreteApplication)AWConcreteApplication.SharedInstance).isStateValidationEnabled());
     }
 
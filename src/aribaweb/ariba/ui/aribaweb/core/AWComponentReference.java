@@ -128,8 +128,11 @@ public class AWComponentReference extends AWContainerElement
         _useLocalPool = false;
         if (_isStateless && _componentDefinition.sharedComponentInstance().useLocalPool()) {
             _useLocalPool = true;
-            _sharedComponentPool = AWRecyclePool.newPool(16, AWConcreteServerApplication.AllowsConcurrentRequestHandling,
-                    ((AWConcreteApplication)AWConcreteApplication.SharedInstance).isStateValidationEnabled());
+            boolean debugEnabled =
+                ((AWConcreteApplication)AWConcreteApplication.SharedInstance).isStateValidationEnabled();
+            _sharedComponentPool = AWConcreteServerApplication.AllowsConcurrentRequestHandling
+                ? AWRecyclePool.newConcurrentPool(16, debugEnabled)
+                : AWRecyclePool.newPool(16, false, debugEnabled);
         }
         super.init(tagName, null);
     }
@@ -421,14 +424,7 @@ public class AWComponentReference extends AWContainerElement
         }
         else {
             subcomponentInstance.setupForNextCycle(null, null, null);
-            if (AWConcreteServerApplication.AllowsConcurrentRequestHandling) {
-                synchronized (_componentDefinition) {
-                    _componentDefinition.checkInSharedComponentInstance(subcomponentInstance);
-                }
-            }
-            else {
-                _componentDefinition.checkInSharedComponentInstance(subcomponentInstance);
-            }
+            _componentDefinition.checkInSharedComponentInstance(subcomponentInstance);
         }
     }
 
@@ -485,6 +481,16 @@ public class AWComponentReference extends AWContainerElement
             logPhase(requestContext, "invokeAction", true);
         }
 
+        AWElementIdIndex elementIdIndex = requestContext.elementIdIndex();
+        if (elementIdIndex != null && elementIdIndex.isDispatching()
+                && elementIdIndex.skip(requestContext)) {
+            // the sender isn't in this subcomponent (see AWElementIdIndex)
+            if (LogComponentEvaluation) {
+                logPhase(requestContext, "invokeAction", false);
+            }
+            return null;
+        }
+
         AWResponseGenerating actionResults = null;
         AWComponent subcomponentInstance = _isStateless ?
                 _statelessSubcomponentInstanceInComponent(requestContext, component) :
@@ -533,6 +539,10 @@ public class AWComponentReference extends AWContainerElement
             logPhase(requestContext, "renderResponse", true);
         }
 
+        AWElementIdIndex elementIdIndex = requestContext.elementIdIndex();
+        AWElementIdPath indexStartPath = elementIdIndex != null && elementIdIndex.isRecording()
+            ? requestContext.currentElementIdPath() : null;
+
         AWComponent subcomponentInstance = _isStateless ?
                 _statelessSubcomponentInstanceInComponent(requestContext, component) :
                 statefulSubcomponentInstanceInComponent(requestContext, component);
@@ -572,6 +582,10 @@ public class AWComponentReference extends AWContainerElement
             // requestContext.popElementIdLevel();
         }
 
+        if (indexStartPath != null) {
+            elementIdIndex.record(indexStartPath, requestContext);
+        }
+
         if (LogComponentEvaluation) {
             logPhase(requestContext, "renderResponse", false);
         }
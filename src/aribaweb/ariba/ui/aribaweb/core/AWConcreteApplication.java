@@ -28,6 +28,7 @@ import ariba.ui.aribaweb.util.AWNodeManager;
 import ariba.ui.aribaweb.util.AWNodeValidator;
 import ariba.ui.aribaweb.util.AWParameters;
 import ariba.ui.aribaweb.util.AWResource;
+import ariba.ui.aribaweb.util.AWResourceFingerprints;
 import ariba.ui.aribaweb.util.AWResourceManager;
 import ariba.ui.aribaweb.util.AWStaticSiteGenerator;
 import ariba.ui.aribaweb.util.AWUtil;
@@ -79,6 +80,7 @@ abstract public class AWConcreteApplication
     public static boolean IsResponseLoggingEnabled = false;
     public static boolean IsDirectConnectEnabled = false;
     public static boolean IsCookieSessionTrackingEnabled = false;
+    public static boolean IsResourceUrlFingerprintingEnabled = false;
     public static int RemoteHostMask = 0;
     private static Class SessionClass;
     private static Class RequestContextClass;
@@ -97,8 +99,8 @@ abstract public class AWConcreteApplication
     private String _terminateApplicationPassword = AWDirectAction.PasswordKey;
     private AWMonitorStats _monitorStats;
     private AWBookmarker _bookmarker;
-    protected String _adaptorUrl;
-    protected String _adaptorUrlSecure;
+    protected volatile String _adaptorUrl;
+    protected volatile String _adaptorUrlSecure;
     private boolean _useEmbeddedKeyPathes = true;
     AWBrandManager _brandManager;
     private GrowOnlyHashtable _componentConfigurationSources;
@@ -1900,12 +1902,58 @@ abstract public class AWConcreteApplication
     public String formatUrlForResource (String urlPrefix,
                                         AWResource resource, boolean forCache)
     {
-        return (_Staticizer != null)
-                ? _Staticizer.formatUrlForResource(urlPrefix, resource, forCache)
-                : StringUtil.strcat(urlPrefix, "/",
+        if (_Staticizer != null) {
+            return _Staticizer.formatUrlForResource(urlPrefix, resource, forCache);
+        }
+        String url = StringUtil.strcat(urlPrefix, "/",
                 resource.relativePath().replace('\\', '/'));
+        return fingerprintsResourceUrls() ? fingerprintedUrlForResource(url, resource) : url;
     }
 
+    /**
+     * Whether urls of static resources served by this server are fingerprinted (see
+     * fingerprintedUrlForResource()).  Off unless IsResourceUrlFingerprintingEnabled is set,
+     * and never with rapid turnaround, where resources change all the time.
+     */
+    public boolean fingerprintsResourceUrls ()
+    {
+        return IsResourceUrlFingerprintingEnabled && !IsRapidTurnaroundEnabled;
+    }
+
+    /**
+     * Returns the url under which the resource with the regular <code>url</code> is served,
+     * with a hash of its content, by AWDirectAction.awfpAction(): "ad/awfp/[hash][url]".
+     * Since the url changes whenever the content does, the resource is served as immutable
+     * and never revalidated by browsers.  Resources served by another server (absolute urls)
+     * and resources awfp won't serve keep their regular url.
+     */
+    protected String fingerprintedUrlForResource (String url, AWResource resource)
+    {
+        if (!url.startsWith("/") || url.startsWith("//")
+                || !AWDirectAction.isValidResourceFilename(url)) {
+            return url;
+        }
+        AWResourceFingerprints.Fingerprint fingerprint =
+            AWResourceFingerprints.fingerprint(resource);
+        if (fingerprint == null) {
+            return url;
+        }
+        String fingerprintedUrl = fingerprint.fingerprintedUrl(url);
+        if (fingerprintedUrl == null) {
+            AWDirectActionUrl directActionUrl = AWDirectActionUrl.checkoutUrl();
+            directActionUrl.setDirectActionName(AWDirectAction.AWFingerprintedResActionName);
+            fingerprintedUrl = StringUtil.strcat(directActionUrl.finishUrl(), "/",
+                                                 fingerprint.value(), url);
+            fingerprint.setFingerprintedUrl(url, fingerprintedUrl);
+            AWResourceFingerprints.register(url, resource);
+        }
+        return fingerprintedUrl;
+    }
+
+    /**
+     * Whether the urls of resources may be cached.  This includes fingerprinted urls: resource
+     * content only changes with rapid turnaround, when urls are not fingerprinted.
+     */
     public boolean canCacheResourceUrls ()
     {
         return _Staticizer == null;
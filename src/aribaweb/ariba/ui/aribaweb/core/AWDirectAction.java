@@ -28,6 +28,7 @@ import ariba.ui.aribaweb.util.AWMultiLocaleResourceManager;
 import ariba.ui.aribaweb.util.AWMutableRefCount;
 import ariba.ui.aribaweb.util.AWNodeManager;
 import ariba.ui.aribaweb.util.AWResource;
+import ariba.ui.aribaweb.util.AWResourceFingerprints;
 import ariba.ui.aribaweb.util.AWResourceManager;
 import ariba.ui.aribaweb.util.Log;
 import ariba.util.core.FastStringBuffer;
@@ -64,6 +65,8 @@ abstract public class AWDirectAction extends AWBaseObject
     public static final String AWResActionName = "awres";
     private static final int AWResActionResourceVersionIndex = 3;
     public static final String AWResTestActionName = "test_awres";
+    public static final String AWFingerprintedResActionName = "awfp";
+    private static final String ImmutableCacheControl = "public, max-age=31536000, immutable";
     public static final String PingActionName = "ping";
     public static final String ProgressCheckActionName = "progressCheck";
     public static final String ProgressCheckSessionKeyName = "awpcid";
@@ -472,6 +475,87 @@ abstract public class AWDirectAction extends AWBaseObject
         return response;
     }
 
+    /**
+     * Serves a resource under its fingerprinted url, "awfp/[hash][url]" (see
+     * AWConcreteApplication.fingerprintedUrlForResource()), as immutable, with its hash as
+     * ETag and (for scripts and style sheets) gzipped from memory if the browser accepts it.
+     * Should the resource have changed since the url was generated, the current content is
+     * served, but not as immutable.  Urls of resources not fingerprinted on this server (e.g.
+     * urls relative to a fingerprinted style sheet, or fingerprinted by an earlier instance)
+     * are redirected to the regular url.
+     */
+    public AWResponse awfpAction ()
+    {
+        AWRequest request = request();
+        AWApplication application = application();
+        String[] requestHandlerPathComponents = request.requestHandlerPath();
+        AWNodeManager nodeManager = application.getNodeManager();
+        if (nodeManager != null) {
+            requestHandlerPathComponents =
+                nodeManager.filterUrlForNodeValidation(requestHandlerPathComponents);
+        }
+        if (requestHandlerPathComponents.length < 3
+                || StringUtil.nullOrEmptyString(requestHandlerPathComponents[2])) {
+            return application.handleMalformedRequest("Invalid request.");
+        }
+        String requestedFingerprint = requestHandlerPathComponents[1];
+        FastStringBuffer urlBuffer = new FastStringBuffer();
+        for (int i = 2; i < requestHandlerPathComponents.length; i++) {
+            urlBuffer.append("/");
+            urlBuffer.append(requestHandlerPathComponents[i]);
+        }
+        String url = urlBuffer.toString();
+        if (!isValidResourceFilename(url)) {
+            Log.directAction.warning(11213, url, "invalid resource file name.");
+            return application.handleMalformedRequest("Invalid request.");
+        }
+
+        AWResponse response = application.createResponse(request);
+        AWResource resource = AWResourceFingerprints.resourceForUrl(url);
+        AWResourceFingerprints.Fingerprint fingerprint =
+            resource == null ? null : AWResourceFingerprints.fingerprint(resource);
+        if (fingerprint == null) {
+            response.setStatus(AWResponse.StatusCodes.RedirectFound);
+            response.setHeaderForKey(url, "Location");
+            return response;
+        }
+
+        String etag = StringUtil.strcat("\"", fingerprint.value(), "\"");
+        response.setBrowserCachingEnabled(true);
+        response.setHeaderForKey(etag, "ETag");
+        response.setHeaderForKey(fingerprint.value().equals(requestedFingerprint)
+                                     ? ImmutableCacheControl : "no-cache",
+                                 "Cache-Control");
+        String ifNoneMatch = request.headerForKey("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.indexOf(etag) != -1) {
+            response.setStatus(AWResponse.StatusCodes.NotModified);
+            return response;
+        }
+
+        int dot = url.lastIndexOf('.');
+        AWContentType type = AWContentType.contentTypeForFileExtension(url.substring(dot + 1));
+        if (type != null) {
+            response.setContentType(type);
+        }
+        byte[] gzippedContent = fingerprint.gzippedContent();
+        if (AWResourceFingerprints.isCompressible(url)) {
+            response.setHeaderForKey("Accept-Encoding", "Vary");
+        }
+        String acceptEncoding = request.headerForKey("Accept-Encoding");
+        if (gzippedContent != null && acceptEncoding != null
+                && acceptEncoding.indexOf("gzip") != -1) {
+            response.setHeaderForKey("gzip", "Content-Encoding");
+            response.setContent(gzippedContent);
+        }
+        else if (resource instanceof AWFileResource) {
+            response.setContentFromFile(((AWFileResource)resource)._fullPath());
+        }
+        else {
+            ((AWBaseResponse)response).setContentFromStream(resource.inputStream());
+        }
+        return response;
+    }
+
     private static Pattern invalidImageFilename = Pattern.compile(".*\\.\\..*");
     private static Pattern validResourceFilename = Pattern.compile(".*\\.(png|gif|jpg|css|ico|js)");
 
@@ -635,7 +719,8 @@ abstract public class AWDirectAction extends AWBaseObject
     protected boolean skipValidation (String actionName)
     {
         return ProgressCheckActionName.equals(actionName) ||
-               AWResActionName.equals(actionName);
+               AWResActionName.equals(actionName) ||
+               AWFingerprintedResActionName.equals(actionName);
     }
 
     /**
@@ -142,7 +142,8 @@ public final class AWDirectActionRequestHandler extends AWConcreteRequestHandler
             // then we can switch to
             // http://host/ACM/Main/ad/awimg?realm=xxxx&filename=xxxx
             if (requestHandlerPathComponentsLength > 1 &&
-                !AWDirectAction.AWResActionName.equals(actionName)) {
+                !AWDirectAction.AWResActionName.equals(actionName) &&
+                !AWDirectAction.AWFingerprintedResActionName.equals(actionName)) {
                 className = application.directActionClassNameForKey(
                     requestHandlerPathComponents[1]);
 
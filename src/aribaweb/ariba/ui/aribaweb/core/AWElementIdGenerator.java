@@ -103,6 +103,14 @@ public class AWElementIdGenerator extends AWBaseObject
         return _charArrayManager.size();
     }
 
+    /**
+     * The value of the last (innermost) level of the current path.
+     */
+    protected int currentLevelValue ()
+    {
+        return ((char[])_charArrayManager.array())[_charArrayManager.size() - 1];
+    }
+
     public boolean nextPrefixMatches (AWElementIdPath elementIdPath)
     {
         char[] targetPath = elementIdPath.privatePath();
@@ -0,0 +1,161 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.ui.aribaweb.core;
+
+import ariba.util.core.Constants;
+import ariba.util.core.MapUtil;
+import java.util.Map;
+
+/**
+ * Per page index of the element ids used by each component reference, recorded during
+ * renderResponse and used by invokeAction to skip whole subcomponents which cannot contain the
+ * request sender.
+ *
+ * A component reference does not push an elementId level of its own, so the elements of its
+ * template consume a range of ids at the level current when it is entered.  For every component
+ * reference rendered we record the elementId path on entry and the size of that range.  During
+ * invokeAction, a component reference whose recorded range does not contain the sender id is
+ * skipped by just advancing the elementId by the same amount, so neither the subcomponent nor any
+ * of its bindings are evaluated.  Without the index the subcomponent would be checked out (or
+ * looked up) and its template traversed, relying on AWFor / AWIf to skip.
+ *
+ * Nested component references entered at the same path (a component whose template starts with a
+ * component reference) share the range of the outermost one, which is conservative: the inner one
+ * is only ever asked once the sender is known to be inside the outer range, and then is never
+ * skipped.
+ *
+ * The index reflects the last rendered tree, i.e. the tree the sender ids in the request were
+ * generated from.  Since components whose invokeAction relies on being called on every request
+ * (whether or not they contain the sender) are skipped, the index is off by default and is enabled
+ * per page (see AWPage.setUsesElementIdIndex()).
+ *
+ * @aribaapi private
+ */
+public final class AWElementIdIndex
+{
+    private static final int Idle = 0;
+    private static final int Recording = 1;
+    private static final int Dispatching = 2;
+
+    // elementId path on entry to a component reference -> number of ids it consumes
+    private Map<AWElementIdPath,Integer> _extents = MapUtil.map();
+    private int _mode = Idle;
+    private int _skipCount;
+
+    protected void beginRecording ()
+    {
+        _extents.clear();
+        _mode = Recording;
+    }
+
+    /**
+     * Starts using the index for dispatch, unless the request cannot be dispatched with it
+     * (skipping disallowed, or no valid sender id).
+     */
+    protected void beginDispatching (AWRequestContext requestContext)
+    {
+        if (requestContext.allowsSkipping() && !requestContext.isPathDebugRequest()
+                && requestContext.requestSenderIdPath() != AWElementIdPath.emptyPath()) {
+            _mode = Dispatching;
+        }
+    }
+
+    protected void end ()
+    {
+        _mode = Idle;
+    }
+
+    protected boolean isRecording ()
+    {
+        return _mode == Recording;
+    }
+
+    protected boolean isDispatching ()
+    {
+        return _mode == Dispatching;
+    }
+
+    /**
+     * Records the range of ids consumed since <code>startPath</code>.  Unbalanced components
+     * (ending at another level than they started) are not recorded.
+     */
+    protected void record (AWElementIdPath startPath, AWRequestContext requestContext)
+    {
+        char[] start = startPath.privatePath();
+        if (requestContext.currentElementIdPathLength() != start.length) {
+            return;
+        }
+        int extent = requestContext.currentElementIdLevelValue() - start[start.length - 1];
+        Integer previous = _extents.get(startPath);
+        if (previous == null || previous.intValue() < extent) {
+            _extents.put(startPath, Constants.getInteger(extent));
+        }
+    }
+
+    /**
+     * Advances the elementId past the component reference about to be invoked if its recorded
+     * range does not contain the request sender.
+     * @return true if the component reference should be skipped
+     */
+    protected boolean skip (AWRequestContext requestContext)
+    {
+        AWElementIdPath startPath = requestContext.currentElementIdPath();
+        Integer extent = _extents.get(startPath);
+        if (extent == null ||
+                contains(startPath, extent.intValue(), requestContext.requestSenderIdPath())) {
+            return false;
+        }
+        requestContext.incrementElementId(extent.intValue());
+        _skipCount++;
+        return true;
+    }
+
+    /**
+     * Whether target is one of the extent ids following start at start's level, or below one of
+     * them.
+     */
+    static boolean contains (AWElementIdPath startPath, int extent, AWElementIdPath targetPath)
+    {
+        char[] start = startPath.privatePath();
+        char[] target = targetPath.privatePath();
+        int lastIndex = start.length - 1;
+        if (target == null || target.length <= lastIndex) {
+            return false;
+        }
+        for (int index = lastIndex - 1; index > -1; index--) {
+            if (start[index] != target[index]) {
+                return false;
+            }
+        }
+        int offset = target[lastIndex] - start[lastIndex];
+        return offset > 0 && offset <= extent;
+    }
+
+    public int size ()
+    {
+        return _extents.size();
+    }
+
+    /**
+     * Number of component references skipped with the help of this index.
+     */
+    public int skipCount ()
+    {
+        return _skipCount;
+    }
+}
@@ -24,7 +24,7 @@ import ariba.ui.aribaweb.util.Log;
 import ariba.ui.aribaweb.util.AWBase64;
 import ariba.util.core.StringUtil;
 import ariba.util.core.Assert;
-import ariba.util.core.GrowOnlyHashtable;
+import ariba.util.core.ClockCache;
 import ariba.util.core.FastStringBuffer;
 import ariba.util.core.Fmt;
 import ariba.util.core.PerformanceStateCounter;
@@ -34,12 +34,19 @@ import ariba.util.core.PerformanceStateCore;
  * Maintains a cache of AWElementIdPath's.  The ElementIdPath holds all useful representations of a path to
  * an AW element: the path itself (an array of chars), a checksum value computed from this array, and the
  * elemenId which is an Base64 encoded string version of the checksum.
+ *
+ * The caches (by path and by element id string) are bounded ClockCaches: lookups never lock and the
+ * least recently used paths are evicted once the cache is full.  A path evicted while a page still refers
+ * to it is simply re-created when needed; a request whose sender id is no longer in the cache falls back
+ * to a full traversal (see AWRequestContext.setCurrentRequestSenderId()).
  */
 public class AWElementIdPath extends AWBaseObject
 {
-    private static GrowOnlyHashtable ElementIdPaths = new GrowOnlyHashtable();
-    private static GrowOnlyHashtable ElementIdPathsByString = new GrowOnlyHashtable();
-    private static int ElementIdCacheMaxSize = Integer.MAX_VALUE;
+    private static final int DefaultElementIdCacheSize = 1 << 17;
+    private static volatile ClockCache<AWElementIdPath,AWElementIdPath> ElementIdPaths =
+        new ClockCache<AWElementIdPath,AWElementIdPath>(DefaultElementIdCacheSize);
+    private static volatile ClockCache<String,AWElementIdPath> ElementIdPathsByString =
+        new ClockCache<String,AWElementIdPath>(DefaultElementIdCacheSize);
     private static final AWElementIdPath EmptyPath;
     private static final AWElementIdPath NoOpPath;
     public static final int LevelMaxSize = (int)Character.MAX_VALUE;
@@ -60,11 +67,30 @@ public class AWElementIdPath extends AWBaseObject
         NoOpPath = new AWElementIdPath(new NoOpEncodedString());
     }
 
+    /**
+     * Number of cached paths.  This is O(cache capacity), for monitoring only.
+     */
     public static int size ()
     {
         return ElementIdPaths.size();
     }
 
+    /**
+     * The cache used by sharedInstance().  Exposed for monitoring.
+     */
+    public static ClockCache elementIdPathCache ()
+    {
+        return ElementIdPaths;
+    }
+
+    /**
+     * The cache used by lookup().  Exposed for monitoring.
+     */
+    public static ClockCache elementIdStringCache ()
+    {
+        return ElementIdPathsByString;
+    }
+
     protected static int computeHashcode (char[] path, int length)
     {
         // crc32Hash is a bit more crude than the CRC32, so a bit faster.
@@ -92,11 +118,20 @@ public class AWElementIdPath extends AWBaseObject
             // IE is case insensitive to element ids, so we need to lower case all ids
             String newElementIdString = StringUtil.strcat("_", checksumString.toLowerCase());
             int index = 0;
-            Object collidingElementIdPath;
+            AWElementIdPath collidingElementIdPath;
+            AWEncodedString elementId = null;
             // Iterate until no collision exists with the elementIdString. -- this should be extremely rare (1:4billion odds)
             // However, we increased the chance of collision, since we need to lower case all ids now
-            while ((collidingElementIdPath = ElementIdPathsByString.get(newElementIdString)) != null) {
-                char[] collidingPath = ((AWElementIdPath)collidingElementIdPath).privatePath();
+            // Note that only collisions with cached paths can be detected -- as before, when the
+            // caches were flushed as a whole.
+            while ((collidingElementIdPath = ElementIdPathsByString.peek(newElementIdString)) != null) {
+                if (equals(collidingElementIdPath)) {
+                    // the same path, created by a concurrent request or evicted from
+                    // ElementIdPaths only -- it must keep its id
+                    elementId = collidingElementIdPath._elementId;
+                    break;
+                }
+                char[] collidingPath = collidingElementIdPath.privatePath();
                 long collidingChecksum = AWChecksum.checksumWithLength(collidingPath, collidingPath.length);
                 if (checksum == collidingChecksum) {
                     // report if this is a real collision (with the ids in their original form)
@@ -108,8 +143,11 @@ public class AWElementIdPath extends AWBaseObject
                 newElementIdString = checksumString + Integer.toString(index, 16);
                 index++;
             }
-            _elementId = new AWEncodedString(newElementIdString);
-            ElementIdPathsByString.put(_elementId.string(), this);
+            if (elementId == null) {
+                elementId = new AWEncodedString(newElementIdString);
+                ElementIdPathsByString.intern(elementId.string(), this);
+            }
+            _elementId = elementId;
         }
     }
 
@@ -130,34 +168,39 @@ public class AWElementIdPath extends AWBaseObject
         return NoOpPath;
     }
 
+    /**
+     * Replaces the element id caches with (empty) caches holding at most maxSize paths.
+     */
     public static void setElementIdCacheMaxSize (int maxSize) 
     {
-        ElementIdCacheMaxSize = maxSize;
+        ElementIdPaths = new ClockCache<AWElementIdPath,AWElementIdPath>(maxSize);
+        ElementIdPathsByString = new ClockCache<String,AWElementIdPath>(maxSize);
+        Log.aribawebexec_elementId.info(10547);
     }
 
     // This is the only way to get a new AWElementIdPath (maintains a cache of them)
     protected static AWElementIdPath sharedInstance (AWElementIdGenerator elementIdGenerator)
     {
         elementIdGenerator.prepareForHashlookup();
-        AWElementIdPath elementIdPath = (AWElementIdPath)ElementIdPaths.get(elementIdGenerator);
+        ClockCache<AWElementIdPath,AWElementIdPath> elementIdPaths = ElementIdPaths;
+        AWElementIdPath elementIdPath = elementIdPaths.get(elementIdGenerator);
         if (elementIdPath == null) {
             char[] path = (char[])elementIdGenerator.charArrayManager().trimmedArrayCopy();
             elementIdPath = new AWElementIdPath(path);
             ElemendIdInstantiationsCounter.addCount(1);
-            if (ElementIdPaths.size() > ElementIdCacheMaxSize) {
-                ElementIdPaths = new GrowOnlyHashtable();
-                ElementIdPathsByString = new GrowOnlyHashtable();
-                Log.aribawebexec_elementId.info(10547);
-            }
-            ElementIdPaths.put(elementIdPath, elementIdPath);
+            elementIdPath = elementIdPaths.intern(elementIdPath, elementIdPath);
+        }
+        else {
+            // the two caches evict independently: keep the path's entry by element id
+            // in use as well, and restore it if it was evicted, so lookup() finds it
+            ElementIdPathsByString.intern(elementIdPath._elementId.string(), elementIdPath);
         }
         return elementIdPath;
     }
 
     protected static AWElementIdPath lookup (String elementIdString)
     {
-        AWElementIdPath elementIdPath =
-            (AWElementIdPath)ElementIdPathsByString.get(elementIdString);
+        AWElementIdPath elementIdPath = ElementIdPathsByString.get(elementIdString);
         if (elementIdPath == null && Log.aribawebexec_elementId.isDebugEnabled()) {
             Log.logStack(Log.aribawebexec_elementId,
                 Fmt.S(" <<< Lookup cache miss: %s should not occur unless the server has " +
@@ -0,0 +1,207 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.ui.aribaweb.core;
+
+import ariba.ui.aribaweb.util.AWCharacterEncoding;
+import ariba.ui.aribaweb.util.AWFormValueTable;
+import ariba.ui.aribaweb.util.AWGenericException;
+import ariba.ui.aribaweb.util.AWStringKeyHashtable;
+import ariba.ui.aribaweb.util.Parameters;
+import ariba.util.core.ArgumentParser;
+import ariba.util.core.CommandLine;
+import ariba.util.core.FastStringBuffer;
+import ariba.util.core.Fmt;
+import ariba.util.core.SystemUtil;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+    Command line tool that checks and times how the form values of a large
+    url encoded post are parsed.<p/>
+
+    It builds a UTF-8 post of <code>-fields</code> element id keyed fields,
+    the shape of a page with a big table, and compares the table
+    AWBaseRequest now indexes the content with (AWFormValueTable) with the
+    AWStringKeyHashtable it used to build from Parameters: first that both
+    give the same values for every key, then the time to parse the post and
+    read <code>-reads</code> of its fields, which is what a request that
+    only changed a few fields costs.<p/>
+
+    Exit code is 0 if all values are identical and 1 otherwise.
+
+    @aribaapi private
+*/
+public class AWFormValuesBenchmark implements CommandLine
+{
+    private static final String OptionFields = "fields";
+    private static final String OptionReads = "reads";
+    private static final String OptionIterations = "iterations";
+
+    private static final String[] Values = {
+        "", "42", "1%2C234.56", "a+few+words", "caf%C3%A9", "%E6%97%A5%E6%9C%AC"
+    };
+
+    private PrintWriter out = SystemUtil.out();
+
+    private int fieldCount;
+    private int readCount;
+    private int iterations;
+    private byte[] content;
+    private String[] keys;
+
+    public void setupArguments (ArgumentParser arguments)
+    {
+        arguments.addOptionalInteger(OptionFields, 10000, "number of fields in the post");
+        arguments.addOptionalInteger(OptionReads, 10, "number of fields read per request");
+        arguments.addOptionalInteger(OptionIterations, 200, "number of timed requests");
+    }
+
+    public void processArguments (ArgumentParser arguments)
+    {
+        fieldCount = arguments.getInteger(OptionFields);
+        readCount = arguments.getInteger(OptionReads);
+        iterations = arguments.getInteger(OptionIterations);
+
+        Random random = new Random(42);
+        FastStringBuffer buffer = new FastStringBuffer();
+        buffer.append(AWBaseRequest.CharacterEncodingKey);
+        buffer.append('=');
+        buffer.append(AWCharacterEncoding.UTF8.name);
+        keys = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            keys[i] = Fmt.S("0.%s.%s.%s", Integer.toString(i / 100),
+                            Integer.toString(i % 100), Integer.toString(random.nextInt(8)));
+            buffer.append('&');
+            buffer.append(keys[i]);
+            buffer.append('=');
+            buffer.append(Values[random.nextInt(Values.length)]);
+        }
+        content = AWFormValueTable.bytesForString(buffer.toString());
+    }
+
+    public void startup ()
+    {
+        AWStringKeyHashtable expected = parseStrings();
+        AWFormValueTable actual = parseBytes();
+        int differences = 0;
+        Iterator iterator = expected.keySet().iterator();
+        while (iterator.hasNext()) {
+            String key = (String)iterator.next();
+            if (!Arrays.equals((String[])expected.get(key), actual.get(key, false))) {
+                differences++;
+                out.println(Fmt.S("%s: expected %s, got %s", key,
+                                  toString((String[])expected.get(key)),
+                                  toString(actual.get(key, false))));
+            }
+        }
+        if (expected.size() != actual.size()) {
+            differences++;
+            out.println(Fmt.S("expected %s keys, got %s",
+                              Integer.toString(expected.size()),
+                              Integer.toString(actual.size())));
+        }
+        out.println(Fmt.S("Checked %s fields, %s differ.",
+                          Integer.toString(expected.size()), Integer.toString(differences)));
+
+        out.println(Fmt.S("%s fields, %s read, %s bytes", Integer.toString(fieldCount),
+                          Integer.toString(readCount), Integer.toString(content.length)));
+        out.println(Fmt.S("%-24s %14s", "us/request", ""));
+        out.println(Fmt.S("%-24s %14s", "AWFormValueTable", Long.toString(time(true))));
+        out.println(Fmt.S("%-24s %14s", "Parameters", Long.toString(time(false))));
+        out.flush();
+        SystemUtil.exit(differences == 0 ? 0 : 1);
+    }
+
+    private static String toString (String[] values)
+    {
+        return (values == null) ? "null" : Arrays.asList(values).toString();
+    }
+
+    private long time (boolean bytes)
+    {
+        Random random = new Random(7);
+        long sink = 0;
+            // warm up, then time
+        for (int pass = 0; pass < 2; pass++) {
+            int count = (pass == 0) ? Math.max(iterations / 4, 1) : iterations;
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                AWFormValueTable table = bytes ? parseBytes() : null;
+                AWStringKeyHashtable hashtable = bytes ? null : parseStrings();
+                for (int read = 0; read < readCount; read++) {
+                    String key = keys[random.nextInt(keys.length)];
+                    String[] values = bytes ?
+                        table.get(key, false) : (String[])hashtable.get(key, false);
+                    sink += values.length;
+                }
+            }
+            if (pass == 1) {
+                if (sink == 42) {
+                        // keeps the results alive
+                    out.print("");
+                }
+                return (System.nanoTime() - start) / 1000 / Math.max(count, 1);
+            }
+        }
+        return 0;
+    }
+
+    /**
+        What AWBaseRequest.initFormValueTable() does with the content.
+    */
+    private AWFormValueTable parseBytes ()
+    {
+        AWFormValueTable formValues = new AWFormValueTable(content, null);
+        formValues.setCharacterEncoding(AWCharacterEncoding.UTF8);
+        return formValues;
+    }
+
+    /**
+        What AWBaseRequest.parseFormEncodedRequest() did with the content
+        before AWFormValueTable.
+    */
+    private AWStringKeyHashtable parseStrings ()
+    {
+        String string;
+        try {
+            string = new String(content, AWCharacterEncoding.ISO8859_1.name);
+        }
+        catch (UnsupportedEncodingException unsupportedEncodingException) {
+            throw new AWGenericException(unsupportedEncodingException);
+        }
+        Parameters parameters = AWBaseRequest.parametersFromUrlEncodedString(string);
+        AWStringKeyHashtable hashtable =
+            new AWStringKeyHashtable(Math.max(parameters.getParameterCount(), 1));
+        Iterator names = parameters.getParameterNames();
+        while (names.hasNext()) {
+            String name = (String)names.next();
+            String[] values = parameters.getParameterValues(name);
+            AWBaseRequest.convertStrings(values, AWCharacterEncoding.UTF8);
+            hashtable.put(name, values);
+        }
+        return hashtable;
+    }
+
+    public static void main (String[] args)
+    {
+        ArgumentParser.create("ariba.ui.aribaweb.core.AWFormValuesBenchmark", args);
+    }
+}
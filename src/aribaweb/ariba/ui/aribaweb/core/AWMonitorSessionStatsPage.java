@@ -18,7 +18,9 @@
 package ariba.ui.aribaweb.core;
 
 import ariba.util.core.GrowOnlyHashtable;
+import ariba.util.core.MapUtil;
 
+import java.util.List;
 import java.util.Map;
 
 public class AWMonitorSessionStatsPage extends AWComponent
@@ -28,6 +30,10 @@ public class AWMonitorSessionStatsPage extends AWComponent
     private Map _sessionMap = null;
     public Object[] _sessions;
     public Object _currentSession;
+    public AWSessionMemoryReport _memoryReport;
+    private Map<String,AWSessionMemoryReport.SessionSize> _sessionSizes;
+    public AWSessionMemoryReport.SessionSize _currentTopSession;
+    public AWSessionMemoryReport.PageClassSize _currentPageClassSize;
 
     /////////////
     // Awake
@@ -44,12 +50,24 @@ public class AWMonitorSessionStatsPage extends AWComponent
         if (_sessionMap != null) {
             _sessions = _sessionMap.keySet().toArray();
         }
+        if ("true".equals(requestContext().formValueForKey("showMemory"))) {
+            _memoryReport = AWSessionMemoryReport.currentReport();
+            _sessionSizes = MapUtil.map();
+            for (AWSessionMemoryReport.SessionSize size :
+                    _memoryReport.topSessions(Integer.MAX_VALUE)) {
+                _sessionSizes.put(size.sessionId(), size);
+            }
+        }
     }
 
     protected void sleep ()
     {
         _sessionMap = null;
         _sessions = null;
+        _memoryReport = null;
+        _sessionSizes = null;
+        _currentTopSession = null;
+        _currentPageClassSize = null;
     }
 
     // disable automatic session validation for this page
@@ -69,6 +87,34 @@ public class AWMonitorSessionStatsPage extends AWComponent
         return state == null ? "disconnected" : state;
     }
 
+    /**
+     * The estimated size of the current session, if it was sampled by the memory report.
+     */
+    public AWSessionMemoryReport.SessionSize currentSessionSize ()
+    {
+        return _sessionSizes == null ? null
+            : _sessionSizes.get(((AWSession)_currentSession).sessionId());
+    }
+
+    /**
+     * The largest sessions of the memory report; the number is given by the "top" form value
+     * (10 by default).
+     */
+    public List<AWSessionMemoryReport.SessionSize> topSessions ()
+    {
+        String top = requestContext().formValueForKey("top");
+        int count = 10;
+        if (top != null) {
+            try {
+                count = Integer.parseInt(top);
+            }
+            catch (NumberFormatException e) {
+                // use the default
+            }
+        }
+        return _memoryReport.topSessions(count);
+    }
+
     //////////////////////
     // Stateless/full Support
     //////////////////////
@@ -18,7 +18,12 @@
 package ariba.ui.aribaweb.core;
 
 import ariba.ui.aribaweb.util.AWBaseObject;
+import ariba.ui.aribaweb.util.AWConcurrentRecyclePool;
+import ariba.ui.aribaweb.util.AWEncodedString;
+import ariba.ui.aribaweb.util.AWResourceFingerprints;
 import ariba.ui.aribaweb.util.Log;
+import ariba.util.core.ClockCache;
+import ariba.util.core.DateContext;
 import ariba.util.core.ListUtil;
 import ariba.util.core.MapUtil;
 import ariba.util.core.NamedValue;
@@ -168,6 +173,7 @@ public class AWMonitorStats extends AWBaseObject
     public void setIsInShutdownWarningPeriod (boolean isInShutdownWarningPeriod)
     {
         _isInShutdownWarningPeriod = isInShutdownWarningPeriod;
+        AWChangeChannel.setIsInShutdownWarningPeriod(isInShutdownWarningPeriod);
     }
 
     public boolean isInShutdownWarningPeriod ()
@@ -191,6 +197,52 @@ public class AWMonitorStats extends AWBaseObject
         return result;
     }
 
+    /**
+     * Sizes and hit rates of the process wide intern caches, as name/value pairs
+     * suitable for the monitor stats page.
+     */
+    public List<NamedValue> cacheStats ()
+    {
+        List<NamedValue> result = ListUtil.list();
+        addCacheStats(result, "encodedStringCache", AWEncodedString.sharedStringsCache());
+        addCacheStats(result, "elementIdPathCache", AWElementIdPath.elementIdPathCache());
+        addCacheStats(result, "elementIdLookupCache", AWElementIdPath.elementIdStringCache());
+        addCacheStats(result, "dateContextCache", DateContext.contextCache());
+        addComponentPoolStats(result);
+        result.add(new NamedValue("spooledHistoryPages", AWSession.spooledHistoryPageCount()));
+        result.add(new NamedValue("reclaimedHistoryPages", AWSession.reclaimedHistoryPageCount()));
+        result.add(new NamedValue("fingerprintedResources",
+                                  AWResourceFingerprints.registeredResourceCount()));
+        result.add(new NamedValue("fingerprintedResourceGzippedBytes",
+                                  AWResourceFingerprints.compressedBytes()));
+        return result;
+    }
+
+    protected void addCacheStats (List<NamedValue> result, String prefix, ClockCache cache)
+    {
+        result.add(new NamedValue(prefix + "Size", cache.size()));
+        result.add(new NamedValue(prefix + "Hits", cache.hitCount()));
+        result.add(new NamedValue(prefix + "Misses", cache.missCount()));
+        result.add(new NamedValue(prefix + "Evictions", cache.evictionCount()));
+        result.add(new NamedValue(prefix + "HitPercentage", cache.hitPercentage()));
+    }
+
+    protected void addComponentPoolStats (List<NamedValue> result)
+    {
+        long checkouts = AWConcurrentRecyclePool.checkoutCount();
+        long misses = AWConcurrentRecyclePool.missCount();
+        result.add(new NamedValue("componentPoolCheckouts", checkouts));
+        result.add(new NamedValue("componentPoolSharedHits",
+                                  AWConcurrentRecyclePool.sharedHitCount()));
+        result.add(new NamedValue("componentPoolMisses", misses));
+        result.add(new NamedValue("componentPoolDiscards",
+                                  AWConcurrentRecyclePool.discardCount()));
+        result.add(new NamedValue("componentPoolHitPercentage",
+            checkouts == 0 ? 0 : (int)(((checkouts - misses) * 100) / checkouts)));
+        result.add(new NamedValue("componentAllocations",
+                                  AWComponentDefinition.componentAllocationCount()));
+    }
+
     public int totalSessionsServed ()
     {
         return _totalSessionsServed;
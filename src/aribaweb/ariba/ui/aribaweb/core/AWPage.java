@@ -97,8 +97,10 @@ public final class AWPage extends AWBaseObject implements AWDisposable, AWReques
     private Map _componentConfigurations;
 
     private AWChangeNotifier _changeNotifier = null;
+    private AWChangeChannel _changeChannel = null;
     private boolean _hasChanged = false;
     private boolean _initiatePolling = false;
+    private AWElementIdIndex _elementIdIndex = UseElementIdIndexByDefault ? new AWElementIdIndex() : null;
     private int _pollInterval = defaultPollInterval();
     List _currScriptList;
 
@@ -114,6 +116,7 @@ public final class AWPage extends AWBaseObject implements AWDisposable, AWReques
     }
 
     public static boolean AllowCrossPageRefresh = true;
+    public static boolean UseElementIdIndexByDefault = false;
     public static boolean AllowParentFrame = false;
     public static boolean AllowIncrementalScriptLoading () { return AllowCrossPageRefresh; }
     public static boolean DeferGlobalScopeScript () { return true; }
@@ -540,7 +543,18 @@ public final class AWPage extends AWBaseObject implements AWDisposable, AWReques
         AWResponseGenerating actionResults = null;
         String requestSenderId = _requestContext.requestSenderId();
         if (requestSenderId != null) {
-            actionResults = _pageComponent._topLevelInvokeAction(_requestContext, _pageComponent);
+            AWElementIdIndex elementIdIndex = _elementIdIndex;
+            if (elementIdIndex != null) {
+                elementIdIndex.beginDispatching(_requestContext);
+            }
+            try {
+                actionResults = _pageComponent._topLevelInvokeAction(_requestContext, _pageComponent);
+            }
+            finally {
+                if (elementIdIndex != null) {
+                    elementIdIndex.end();
+                }
+            }
         }
 
         if (formManager != null) {
@@ -777,7 +791,18 @@ public final class AWPage extends AWBaseObject implements AWDisposable, AWReques
             for (LifecycleListener l : _LifecycleListeners) l.pageWillRender(this);
         }
 
-        _pageComponent._topLevelRenderResponse(_requestContext, _pageComponent);
+        AWElementIdIndex elementIdIndex = _elementIdIndex;
+        if (elementIdIndex != null) {
+            elementIdIndex.beginRecording();
+        }
+        try {
+            _pageComponent._topLevelRenderResponse(_requestContext, _pageComponent);
+        }
+        finally {
+            if (elementIdIndex != null) {
+                elementIdIndex.end();
+            }
+        }
         if (_requestContext._debugShouldRecord()) {
             AWResponse response = _requestContext.response();
             AWEncodedString _debugResponseId = _requestContext._debugResponseIdAsIs();
@@ -1357,6 +1382,10 @@ public final class AWPage extends AWBaseObject implements AWDisposable, AWReques
         if (isActive) {
             _hasChanged = true;
             pageComponent().notifyChange();
+            AWChangeChannel changeChannel = _changeChannel;
+            if (changeChannel != null) {
+                changeChannel.notifyChange();
+            }
         }
 
         return isActive;
@@ -1379,6 +1408,12 @@ public final class AWPage extends AWBaseObject implements AWDisposable, AWReques
     {
         if (_changeNotifier == null) {
             _changeNotifier = new AWChangeNotifier(this);
+            // notifiers fire on arbitrary threads, so grab the session's
+            // channel now, while we are on a request thread
+            AWSession session = session(false);
+            if (session != null && AWChangeChannel.IsEnabled) {
+                _changeChannel = session.changeChannel();
+            }
         }
         return _changeNotifier;
     }
@@ -1439,6 +1474,34 @@ public final class AWPage extends AWBaseObject implements AWDisposable, AWReques
         return getPollInterval() <= AWPollInterval.FrequentPollInterval;
     }
 
+    /**
+       Enables or disables the element id index for this page.  With the index, invokeAction
+       skips subcomponents which do not contain the request sender without evaluating them
+       (see AWElementIdIndex).  The index takes effect after the next renderResponse.
+       @aribaapi private
+    */
+    public void setUsesElementIdIndex (boolean usesElementIdIndex)
+    {
+        if (!usesElementIdIndex) {
+            _elementIdIndex = null;
+        }
+        else if (_elementIdIndex == null) {
+            _elementIdIndex = new AWElementIdIndex();
+        }
+    }
+
+    public boolean usesElementIdIndex ()
+    {
+        return _elementIdIndex != null;
+    }
+
+    AWElementIdIndex activeElementIdIndex ()
+    {
+        AWElementIdIndex elementIdIndex = _elementIdIndex;
+        return elementIdIndex != null && (elementIdIndex.isRecording() || elementIdIndex.isDispatching())
+            ? elementIdIndex : null;
+    }
+
     /////////
     // Debug
     /////////
@@ -52,4 +52,27 @@ public class AWPollInterval extends AWComponent
     {
         return page().pollOnError();
     }
+
+    /**
+     * The long poll url of the session's AWChangeChannel, or null if change
+     * notifications are not pushed.  The request goes to the ping direct
+     * action, so if the servlet adaptor does not answer it the browser gets
+     * an unexpected response and falls back to polling on the interval.
+     * @aribaapi private
+     */
+    public String getChangeWaitUrl ()
+    {
+        AWSession session = session(false);
+        if (!AWChangeChannel.IsEnabled || session == null) {
+            return null;
+        }
+        return AWDirectActionUrl.urlForDirectAction(AWDirectAction.PingActionName, null,
+            AWChangeChannel.ChannelKey, session.changeChannel().key());
+    }
+
+    public long getChangeVersion ()
+    {
+        AWSession session = session(false);
+        return session == null ? 0 : session.changeChannel().version();
+    }
 }
@@ -809,6 +809,20 @@ public class AWRequestContext extends AWBaseObject implements DebugState
         return _elementIdGenerator.currentLevel();
     }
 
+    protected int currentElementIdLevelValue ()
+    {
+        return _elementIdGenerator.currentLevelValue();
+    }
+
+    /**
+     * The current page's element id index, if it is recording or dispatching (see AWElementIdIndex).
+     */
+    protected AWElementIdIndex elementIdIndex ()
+    {
+        AWPage page = _currentPage;
+        return page == null ? null : page.activeElementIdIndex();
+    }
+
     public void incrementElementId ()
     {
         _elementIdGenerator.increment(1);
@@ -28,6 +28,7 @@ public interface AWResponse extends AWResponseGenerating
         public static final int NoContent     = 204;
         public static final int RedirectMoved = 301;
         public static final int RedirectFound = 302;
+        public static final int NotModified   = 304;
         public static final int ErrorNotFound = 404;
     }
     public void init (AWCharacterEncoding characterEncoding);
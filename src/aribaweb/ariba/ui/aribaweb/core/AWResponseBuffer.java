@@ -143,6 +143,11 @@ import java.util.List;
  * I do not pool AWResponseBuffers since they are quite numerous and have a fairly long life.
  *
  * Also, once a BaseResponse has been written to the client, we jettison the globalContent to free up that memory.
+ *
+ * Skeletons: the diffing above only ever looks at the name, type, checksum and length of the previous buffers and
+ * at their structure (children and the scope children map), never at their contents.  So once a response has been
+ * written, the buffer tree it keeps for diffing the next response is replaced by a skeleton (see skeleton()): a copy
+ * holding just that information, with no reference to the globalContents or to the response itself.
  */
 public final class AWResponseBuffer extends AWBaseObject
 {
@@ -250,6 +255,53 @@ public final class AWResponseBuffer extends AWBaseObject
         _globalScopeChildren = null;
     }
 
+    /**
+     * Creates a skeleton copy of the buffer at the given source (see "Skeletons" above).
+     */
+    private AWResponseBuffer (AWResponseBuffer source, HashMap scopeChildren)
+    {
+        _name = source._name;
+        _alwaysRender = source._alwaysRender;
+        _type = source._type;
+        _baseResponse = null;
+        _globalContents = null;
+        _globalScopeChildren = _type == Type.Scope ? scopeChildren : null;
+        _awchecksumValue = source._awchecksumValue;
+        _byteCount = source._byteCount;
+    }
+
+    /**
+     * Returns a copy of this buffer tree which can serve as the otherBuffer of writeTo() but holds none of the
+     * contents.  Scoped children are registered in scopeChildren, which becomes the scope children map of all
+     * scoped buffers in the copy.
+     */
+    protected AWResponseBuffer skeleton (HashMap scopeChildren)
+    {
+        AWResponseBuffer skeleton = new AWResponseBuffer(this, scopeChildren);
+        AWResponseBuffer child = _children;
+        AWResponseBuffer lastChildSkeleton = null;
+        while (child != null) {
+            AWResponseBuffer childSkeleton = child.skeleton(scopeChildren);
+            if (_type == Type.Scope) {
+                scopeChildren.put(childSkeleton._name, childSkeleton);
+            }
+            if (lastChildSkeleton == null) {
+                skeleton._children = childSkeleton;
+            }
+            else {
+                lastChildSkeleton._next = childSkeleton;
+            }
+            lastChildSkeleton = childSkeleton;
+            child = child._next;
+        }
+        return skeleton;
+    }
+
+    protected boolean isSkeleton ()
+    {
+        return _globalContents == null;
+    }
+
     protected void close ()
     {
         _contentsEndIndex = _globalContents.size();
@@ -25,6 +25,7 @@ import ariba.util.core.MapUtil;
 import ariba.util.core.PerformanceState;
 import ariba.util.core.Fmt;
 import ariba.util.core.HTTP;
+import java.lang.ref.SoftReference;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Iterator;
@@ -33,6 +34,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.http.HttpSession;
 import javax.servlet.http.HttpSessionBindingEvent;
 import javax.servlet.http.HttpSessionBindingListener;
@@ -87,10 +90,30 @@ class AXSizeLimitedHashtable extends Hashtable implements AWDisposable
     }
 }
 
+/**
+ * The page cache (for backtracking) and request ids of one frame of a session.
+ *
+ * Spooling: when AWSession.PageCacheHotSize is positive, only the pages within that distance of
+ * the current page are strongly referenced.  Older (or newer) pages are spooled, i.e. only softly
+ * referenced, so the garbage collector may reclaim them under memory pressure instead of every
+ * session keeping its whole page cache on the heap.  A spooled page is made hot again when it is
+ * restored.  A page that has been reclaimed is dropped from the history, as if it had aged out of
+ * the page cache: backtracking skips over it.  The number of spooled pages is capped per session
+ * (AWSession.MaxSpooledPagesPerSession) and per node (AWSession.MaxSpooledPagesPerNode); beyond
+ * that, pages are dropped instead of spooled.  A history that is discarded must give back its
+ * spooled pages (dispose(), clear() or releaseSpooledPages()).
+ */
 final class AWRequestHistory extends AWBaseObject implements AWDisposable
 {
+    private static final AtomicInteger SpooledPages = new AtomicInteger();
+    private static final AtomicLong ReclaimedPages = new AtomicLong();
+
     private List _requestIds = ListUtil.list();
+    // AWPages and (if spooling) SpooledPages
     private List _pages = ListUtil.list();
+    private int _spooledPageCount;
+    // spooled pages of all histories of the session
+    private final AtomicInteger _sessionSpooledPages;
     private List _appBoundaries = null;
     private List _pageCacheMarks = null;
     private int _currentRequestIdIndex = -1;
@@ -101,6 +124,14 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
 
     public void dispose ()
     {
+        // dispose spooled pages too (if they are still around)
+        for (int index = 0, count = _pages.size(); index < count; index++) {
+            Object entry = _pages.get(index);
+            if (entry instanceof SpooledPage) {
+                _pages.set(index, ((SpooledPage)entry).get());
+                releasePage(entry);
+            }
+        }
         Object disposeTarget = _pages;
         _pages = null;
         AWUtil.dispose(disposeTarget);
@@ -118,10 +149,11 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
         AWUtil.dispose(disposeTarget);
     }
 
-    protected AWRequestHistory (int pageCacheSize)
+    protected AWRequestHistory (int pageCacheSize, AtomicInteger sessionSpooledPages)
     {
         super();
         _maxPageCount = pageCacheSize;
+        _sessionSpooledPages = sessionSpooledPages;
     }
 
     private void setCurrentPageIndex (int index)
@@ -246,7 +278,7 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
         if (currentPage != null) {
             cleanUpPageState(currentPage);
         }
-        _pages.clear();
+        releasePagesFrom(0);
         setCurrentPageIndex(-1);
         _requestIds.clear();
         _currentRequestIdIndex = -1;
@@ -264,7 +296,7 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
         AWUtil.removeFromIndex(_requestIds, _currentRequestIdIndex + 1);
         // todo: deactivate notifiers associated with pages being removed from page cache
 
-        AWUtil.removeFromIndex(_pages, _currentPageIndex + 1);
+        releasePagesFrom(_currentPageIndex + 1);
         updatePageCacheMarks(_pageCacheMarks, _currentPageIndex + 1);
     }
 
@@ -278,7 +310,7 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
                 setCurrentRequestIdIndex(_currentRequestIdIndex - 1);
             }
             _requestIds.add(requestId);
-            AWPage lastPage = (AWPage)ListUtil.lastElement(_pages);
+            AWPage lastPage = (AWPage)ListUtil.lastElement(livePages());
             if (page != lastPage) {
                 // only add a page to the _pages stack if its different from previous page.
                 setCurrentPageIndex(_pages.size());
@@ -289,6 +321,7 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
                 if (lastPage != null) {
                     cleanUpPageState(lastPage);
                 }
+                spoolPages();
             }
         }
     }
@@ -325,10 +358,142 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
     private void removeFirstPage ()
     {
         // todo: deactivate AWChangeNotifiers associated with top page
-        _pages.remove(0);
-        setCurrentPageIndex(_currentPageIndex - 1);
+        removePageAt(0);
+    }
+
+    private void removePageAt (int index)
+    {
+        releasePage(_pages.remove(index));
+        if (_currentPageIndex >= index) {
+            setCurrentPageIndex(_currentPageIndex - 1);
+        }
         // shift all page cache marks
-        updatePageCacheMarks(_pageCacheMarks, 0);
+        updatePageCacheMarks(_pageCacheMarks, index);
+    }
+
+    private void releasePagesFrom (int index)
+    {
+        for (int last = _pages.size() - 1; last >= index; last--) {
+            releasePage(_pages.remove(last));
+        }
+    }
+
+    private void releasePage (Object entry)
+    {
+        if (entry instanceof SpooledPage) {
+            _spooledPageCount--;
+            _sessionSpooledPages.decrementAndGet();
+            SpooledPages.decrementAndGet();
+            ((SpooledPage)entry).clear();
+        }
+    }
+
+    /**
+     * Gives back the spooled pages of this history to the session and node counts, for a
+     * history that is being discarded.  Spooled pages still around become hot again, so the
+     * history stays usable.
+     */
+    protected void releaseSpooledPages ()
+    {
+        for (int index = 0; index < _pages.size() && _spooledPageCount > 0;) {
+            Object entry = _pages.get(index);
+            if (entry instanceof SpooledPage) {
+                AWPage page = ((SpooledPage)entry).get();
+                if (page == null) {
+                    removePageAt(index);
+                    continue;
+                }
+                releasePage(entry);
+                _pages.set(index, page);
+            }
+            index++;
+        }
+    }
+
+    /**
+     * Drops the spooled pages the garbage collector has reclaimed and returns the remaining pages,
+     * which stay strongly referenced for as long as the caller holds on to the list.  Indexes in
+     * the returned list are the same as in _pages.
+     */
+    private List livePages ()
+    {
+        if (_spooledPageCount == 0) {
+            return _pages;
+        }
+        List pages = new ArrayList(_pages.size());
+        for (int index = 0; index < _pages.size();) {
+            Object entry = _pages.get(index);
+            AWPage page = entry instanceof SpooledPage ? ((SpooledPage)entry).get() : (AWPage)entry;
+            if (page == null) {
+                ReclaimedPages.incrementAndGet();
+                removePageAt(index);
+            }
+            else {
+                pages.add(page);
+                index++;
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Makes the pages near the current page hot and spools the others (see class comment).
+     */
+    private void spoolPages ()
+    {
+        int hotPageCount = AWSession.PageCacheHotSize;
+        if (hotPageCount <= 0 && _spooledPageCount == 0) {
+            return;
+        }
+        for (int index = 0; index < _pages.size(); index++) {
+            Object entry = _pages.get(index);
+            boolean isHot = hotPageCount <= 0 || Math.abs(index - _currentPageIndex) < hotPageCount;
+            if (isHot && entry instanceof SpooledPage) {
+                AWPage page = ((SpooledPage)entry).get();
+                if (page != null) {
+                    releasePage(entry);
+                    _pages.set(index, page);
+                }
+            }
+            else if (!isHot && entry instanceof AWPage) {
+                if (_sessionSpooledPages.get() >= AWSession.MaxSpooledPagesPerSession ||
+                        SpooledPages.get() >= AWSession.MaxSpooledPagesPerNode) {
+                    removePageAt(index);
+                    index--;
+                }
+                else {
+                    _pages.set(index, new SpooledPage((AWPage)entry));
+                    _spooledPageCount++;
+                    _sessionSpooledPages.incrementAndGet();
+                    SpooledPages.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static final class SpooledPage extends SoftReference<AWPage>
+    {
+        SpooledPage (AWPage page)
+        {
+            super(page);
+        }
+    }
+
+    /**
+     * Number of pages spooled by all sessions of this node.
+     */
+    static int spooledPageCount ()
+    {
+        return SpooledPages.get();
+    }
+
+    /**
+     * Number of spooled pages reclaimed by the garbage collector (and so dropped from their
+     * page caches) since startup.
+     */
+    static long reclaimedPageCount ()
+    {
+        return ReclaimedPages.get();
     }
 
     private void updatePageCacheMarks (List cacheMarks, int indexToRemove)
@@ -349,24 +514,20 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
 
     protected void removePage (AWPage targetPage)
     {
-        int indexOfTargetPage = AWUtil.lastIndexOfIdentical(_pages, targetPage);
+        int indexOfTargetPage = AWUtil.lastIndexOfIdentical(livePages(), targetPage);
         if (indexOfTargetPage != -1) {
             // todo: deactivate AWChangeNotifier
 
-            _pages.remove(indexOfTargetPage);
-            if (_currentPageIndex >= indexOfTargetPage) {
-                setCurrentPageIndex(_currentPageIndex - 1);
-            }
-            // shift all page cache marks
-            updatePageCacheMarks(_pageCacheMarks, indexOfTargetPage);
+            removePageAt(indexOfTargetPage);
         }
     }
 
     protected AWPage restoreCurrentPage ()
     {
         AWPage currentPage = null;
-        if (!_pages.isEmpty()) {
-            currentPage = (AWPage)_pages.get(_currentPageIndex);
+        List pages = livePages();
+        if (!pages.isEmpty()) {
+            currentPage = (AWPage)pages.get(_currentPageIndex);
         }
         return currentPage;
     }
@@ -374,13 +535,15 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
     protected AWPage restoreNextPage (AWPage page)
     {
         AWPage nextPage = null;
-        int indexOfPage = AWUtil.lastIndexOfIdentical(_pages, page);
+        List pages = livePages();
+        int indexOfPage = AWUtil.lastIndexOfIdentical(pages, page);
         if (indexOfPage != -1) {
-            if (indexOfPage < (_pages.size() - 1)) {
+            if (indexOfPage < (pages.size() - 1)) {
                 indexOfPage++;
             }
             setCurrentPageIndex(indexOfPage);
-            nextPage = (AWPage)_pages.get(_currentPageIndex);
+            nextPage = (AWPage)pages.get(_currentPageIndex);
+            spoolPages();
 
             cleanUpPageState(page);
         }
@@ -390,7 +553,8 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
     protected AWPage restorePreviousPage (AWPage page)
     {
         AWPage previousPage = null;
-        int indexOfPage = AWUtil.lastIndexOfIdentical(_pages, page);
+        List pages = livePages();
+        int indexOfPage = AWUtil.lastIndexOfIdentical(pages, page);
         if (indexOfPage != -1) {
             AWConcretePageCacheMark pageCacheMark = (_pageCacheMarks != null) ?
                 (AWConcretePageCacheMark)ListUtil.lastElement(_pageCacheMarks) :
@@ -405,7 +569,8 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
                 indexOfPage--;
             }
             setCurrentPageIndex(indexOfPage);
-            previousPage = (AWPage)_pages.get(_currentPageIndex);
+            previousPage = (AWPage)pages.get(_currentPageIndex);
+            spoolPages();
 
             cleanUpPageState(page);
         }
@@ -415,10 +580,11 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
     public AWPage getPreviousPage (AWPage page)
     {
         AWPage previousPage = null;
-        int indexOfPage = AWUtil.lastIndexOfIdentical(_pages, page, _currentPageIndex);
+        List pages = livePages();
+        int indexOfPage = AWUtil.lastIndexOfIdentical(pages, page, _currentPageIndex);
         if (indexOfPage > 0) {
             indexOfPage--;
-            previousPage = (AWPage)_pages.get(indexOfPage);
+            previousPage = (AWPage)pages.get(indexOfPage);
         }
         return previousPage;
     }
@@ -427,9 +593,10 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
     {
         AWPage pageAtOffsetFromLastElement = null;
         if (offset >= 0) {
-            int index = _pages.size() - 1 - offset;
+            List pages = livePages();
+            int index = pages.size() - 1 - offset;
             if (index >= 0) {
-                pageAtOffsetFromLastElement = (AWPage)_pages.get(index);
+                pageAtOffsetFromLastElement = (AWPage)pages.get(index);
             }
         }
         return pageAtOffsetFromLastElement;
@@ -464,10 +631,9 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
                 if (inclusive) {
                     indexOfPage--;
                 }
-                for (int index = _pages.size() - 1; index > indexOfPage; index--) {
-                    _pages.remove(index);
-                }
+                releasePagesFrom(indexOfPage + 1);
                 setCurrentPageIndex(_pages.size() - 1);
+                spoolPages();
             }
         }
     }
@@ -529,7 +695,26 @@ final class AWRequestHistory extends AWBaseObject implements AWDisposable
 
     protected List<AWPage> _getPages()
     {
-        return _pages;
+        return livePages();
+    }
+
+    /**
+     * The cached pages (including spooled pages not yet reclaimed), without updating the
+     * cache.  Unlike _getPages() this may be called from a thread other than the one owning
+     * the session, e.g. by AWSessionMemoryReport.
+     */
+    protected List<AWPage> pagesSnapshot ()
+    {
+        Object[] entries = _pages.toArray();
+        List<AWPage> pages = new ArrayList<AWPage>(entries.length);
+        for (int index = 0; index < entries.length; index++) {
+            Object entry = entries[index];
+            AWPage page = entry instanceof SpooledPage ? ((SpooledPage)entry).get() : (AWPage)entry;
+            if (page != null) {
+                pages.add(page);
+            }
+        }
+        return pages;
     }
 }
 
@@ -548,6 +733,24 @@ public class AWSession extends AWBaseObject
     // This occurrs when the user clicks stop and then clicks something else.
     public static final int InterruptedNewRequest = 4;
     public static final int NoOpRequest = 5;
+
+    /**
+        Number of pages around the current page each page cache keeps on the heap; the others
+        are spooled (see AWRequestHistory).  0 (the default) disables spooling.
+    */
+    public static int PageCacheHotSize = 0;
+
+    /**
+        Maximum number of spooled pages over all sessions of this node.  Once reached, pages
+        leaving the hot part of a page cache are dropped instead of spooled.
+    */
+    public static int MaxSpooledPagesPerNode = 20000;
+
+    /**
+        Maximum number of spooled pages over all page caches of one session.  Once reached,
+        pages leaving the hot part of the session's page caches are dropped instead of spooled.
+    */
+    public static int MaxSpooledPagesPerSession = 100;
     private AWApplication _application;
     private HttpSession _httpSession;
     private String _sessionId;
@@ -570,12 +773,14 @@ public class AWSession extends AWBaseObject
     private boolean _brandTestMode = false;
 
     private Map _requestHistories;
+    private final AtomicInteger _spooledPages = new AtomicInteger();
     private AWPage _redirectPage;
 
     private int _timeoutSeconds = -1;
 
     private Object _notificationsLock;
     private List _notifications;
+    private volatile AWChangeChannel _changeChannel;
 
     private long _lastAccessedTime = -1;
     private int _requestInterval = -1;
@@ -788,6 +993,7 @@ public class AWSession extends AWBaseObject
         _characterEncoding = AWCharacterEncoding.Default;
         _application = application;
         _requestContext = requestContext;
+        releaseRequestHistories();
         _requestHistories = MapUtil.map();
         // copy the environment from page in case session is created in the middle
         // of request handling
@@ -1118,7 +1324,7 @@ public class AWSession extends AWBaseObject
         AWRequestHistory requestHistory = (AWRequestHistory)_requestHistories.get(frameName);
         if (requestHistory == null) {
             int pageCacheSize = _application.pageCacheSize();
-            requestHistory = new AWRequestHistory(pageCacheSize);
+            requestHistory = new AWRequestHistory(pageCacheSize, _spooledPages);
             _requestHistories.put(frameName, requestHistory);
         }
         return requestHistory;
@@ -1153,6 +1359,7 @@ public class AWSession extends AWBaseObject
             AWRequest request = requestContext.request();
             String requestId = request.requestId();
             if (AWBaseRequest.InitialRequestId.equals(requestId)) {
+                releaseRequestHistories();
                 _requestHistories = MapUtil.map();
             }
             AWEncodedString frameName = requestContext.frameName();
@@ -1212,7 +1419,24 @@ public class AWSession extends AWBaseObject
 
     public void removePageCache (AWEncodedString frameName)
     {
-        _requestHistories.remove(frameName);
+        AWRequestHistory requestHistory = (AWRequestHistory)_requestHistories.remove(frameName);
+        if (requestHistory != null) {
+            requestHistory.releaseSpooledPages();
+        }
+    }
+
+    /**
+     * Gives back the spooled pages of the current request histories before they are thrown away
+     * (see AWRequestHistory).
+     */
+    private void releaseRequestHistories ()
+    {
+        if (_requestHistories != null && _spooledPages.get() > 0) {
+            Iterator requestHistoryIterator = _requestHistories.values().iterator();
+            while (requestHistoryIterator.hasNext()) {
+                ((AWRequestHistory)requestHistoryIterator.next()).releaseSpooledPages();
+            }
+        }
     }
 
     public void clearAllPageCaches ()
@@ -1224,6 +1448,39 @@ public class AWSession extends AWBaseObject
         }
     }
 
+    /**
+     * Number of pages spooled by the page caches of all sessions of this node.  For
+     * AWMonitorStats, so that it need not reach into AWRequestHistory, which lives in this file.
+     */
+    static int spooledHistoryPageCount ()
+    {
+        return AWRequestHistory.spooledPageCount();
+    }
+
+    /**
+     * Number of spooled pages reclaimed by the garbage collector since startup.
+     */
+    static long reclaimedHistoryPageCount ()
+    {
+        return AWRequestHistory.reclaimedPageCount();
+    }
+
+    /**
+     * The pages cached by all page caches of this session.  See AWRequestHistory.pagesSnapshot().
+     */
+    protected List<AWPage> cachedPagesSnapshot ()
+    {
+        List<AWPage> pages = ListUtil.list();
+        Map requestHistories = _requestHistories;
+        if (requestHistories != null) {
+            Object[] histories = requestHistories.values().toArray();
+            for (int index = 0; index < histories.length; index++) {
+                pages.addAll(((AWRequestHistory)histories[index]).pagesSnapshot());
+            }
+        }
+        return pages;
+    }
+
     public void _updatePageResourceManager (AWResourceManager resourceManager)
     {
         Iterator requestHistoryIterator = _requestHistories.values().iterator();
@@ -1377,6 +1634,11 @@ public class AWSession extends AWBaseObject
             terminate();
         }
 
+        AWChangeChannel changeChannel = _changeChannel;
+        if (changeChannel != null) {
+            changeChannel.close();
+        }
+
         AWApplication app = (AWApplication)AWConcreteApplication.sharedInstance();
         app.deregisterSession(this);
 
@@ -1664,6 +1926,30 @@ public class AWSession extends AWBaseObject
                 _notifications.add(notification);
             }
         }
+        AWChangeChannel changeChannel = _changeChannel;
+        if (changeChannel != null) {
+            changeChannel.notifyChange();
+        }
+    }
+
+    /**
+        The channel used to push change notifications for this session to the
+        browser (see AWChangeChannel).  Created on first use.
+        @aribaapi private
+    */
+    public AWChangeChannel changeChannel ()
+    {
+        AWChangeChannel changeChannel = _changeChannel;
+        if (changeChannel == null) {
+            synchronized (_notificationsLock) {
+                changeChannel = _changeChannel;
+                if (changeChannel == null) {
+                    changeChannel = AWChangeChannel.create();
+                    _changeChannel = changeChannel;
+                }
+            }
+        }
+        return changeChannel;
     }
 
     public List getNotifications ()
@@ -0,0 +1,340 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.ui.aribaweb.core;
+
+import ariba.ui.aribaweb.util.AWObjectSizeEstimator;
+import ariba.ui.aribaweb.util.AWResource;
+import ariba.ui.aribaweb.util.AWResourceManager;
+import ariba.ui.aribaweb.util.Log;
+import ariba.util.core.GrowOnlyHashtable;
+import ariba.util.core.ListUtil;
+import ariba.util.core.MapUtil;
+import ariba.util.core.NamedValue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Estimate of the memory retained by the sessions of this node, for the monitor pages.
+ *
+ * For a random sample of at most MaxSampledSessions sessions the object graph of each session
+ * is walked with an AWObjectSizeEstimator: first the pages of all its page caches (charging the
+ * components, their display groups and lists etc. to the page class), then whatever else the
+ * session holds.  Application wide state (component definitions, templates, bindings, resources,
+ * the application) and other sessions are not counted.  The node total is extrapolated from the
+ * sampled sessions.
+ *
+ * Producing a report walks up to MaxSampledSessions * MaxObjectsPerSession objects, so reports
+ * are only made on demand and reused for MinReportIntervalMillis.  Sessions are walked while
+ * they may be in use, so the numbers are estimates.
+ *
+ * @aribaapi private
+ */
+public final class AWSessionMemoryReport
+{
+    public static int MaxSampledSessions = 50;
+    public static int MaxObjectsPerSession = 250000;
+    public static int MaxSampledElements = 200;
+    public static long MinReportIntervalMillis = 60 * 1000;
+
+    private static AWSessionMemoryReport LastReport;
+
+    private final long _time = System.currentTimeMillis();
+    private int _sessionCount;
+    private long _sampledBytes;
+    private int _truncatedCount;
+    private long _elapsedMillis;
+    private final List<SessionSize> _sessionSizes = ListUtil.list();
+    private final Map<String,PageClassSize> _pageClassSizes = MapUtil.map();
+
+    /**
+     * Estimated size of one sampled session.
+     */
+    public static final class SessionSize
+    {
+        private final String _sessionId;
+        private final int _pageCount;
+        private long _pageBytes;
+        private long _bytes;
+        private boolean _isTruncated;
+
+        SessionSize (String sessionId, int pageCount)
+        {
+            _sessionId = sessionId;
+            _pageCount = pageCount;
+        }
+
+        public String sessionId ()
+        {
+            return _sessionId;
+        }
+
+        public int pageCount ()
+        {
+            return _pageCount;
+        }
+
+        /**
+         * Bytes retained by the cached pages of the session.
+         */
+        public long pageBytes ()
+        {
+            return _pageBytes;
+        }
+
+        public long bytes ()
+        {
+            return _bytes;
+        }
+
+        public boolean isTruncated ()
+        {
+            return _isTruncated;
+        }
+    }
+
+    /**
+     * Estimated size of all sampled pages with the same page component class.
+     */
+    public static final class PageClassSize
+    {
+        private final String _name;
+        private int _count;
+        private long _bytes;
+
+        PageClassSize (String name)
+        {
+            _name = name;
+        }
+
+        public String name ()
+        {
+            return _name;
+        }
+
+        public int count ()
+        {
+            return _count;
+        }
+
+        public long bytes ()
+        {
+            return _bytes;
+        }
+
+        public long averageBytes ()
+        {
+            return _count == 0 ? 0 : _bytes / _count;
+        }
+    }
+
+    private static final Comparator<SessionSize> SessionSizeOrder = new Comparator<SessionSize>() {
+        public int compare (SessionSize size1, SessionSize size2)
+        {
+            return size1._bytes < size2._bytes ? 1 : (size1._bytes == size2._bytes ? 0 : -1);
+        }
+    };
+
+    private static final Comparator<PageClassSize> PageClassSizeOrder =
+        new Comparator<PageClassSize>() {
+            public int compare (PageClassSize size1, PageClassSize size2)
+            {
+                return size1._bytes < size2._bytes ? 1 : (size1._bytes == size2._bytes ? 0 : -1);
+            }
+        };
+
+    /**
+     * Returns the last report, or makes a new one if the last one is older than
+     * MinReportIntervalMillis.
+     */
+    public static synchronized AWSessionMemoryReport currentReport ()
+    {
+        if (LastReport == null
+                || System.currentTimeMillis() - LastReport._time > MinReportIntervalMillis) {
+            LastReport = new AWSessionMemoryReport();
+            LastReport.sample(sessions());
+        }
+        return LastReport;
+    }
+
+    private static Object[] sessions ()
+    {
+        GrowOnlyHashtable table = AWSessionStatusManager.getStatusManager().getSessionStatusTable();
+        if (table.isEmpty()) {
+            return new Object[0];
+        }
+        Map sessionMap = (Map)table.elementsArray()[0];
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return sessionMap.keySet().toArray();
+            }
+            catch (ConcurrentModificationException e) {
+                if (attempt == 2) {
+                    return new Object[0];
+                }
+            }
+        }
+    }
+
+    private void sample (Object[] sessions)
+    {
+        _sessionCount = sessions.length;
+        List sampled = new ArrayList(Arrays.asList(sessions));
+        if (sampled.size() > MaxSampledSessions) {
+            Collections.shuffle(sampled);
+            sampled = sampled.subList(0, MaxSampledSessions);
+        }
+        AWObjectSizeEstimator estimator =
+            new AWObjectSizeEstimator(MaxObjectsPerSession, MaxSampledElements);
+        estimator.addStopClass(AWApplication.class);
+        estimator.addStopClass(AWSession.class);
+        estimator.addStopClass(AWComponentDefinition.class);
+        estimator.addStopClass(AWElement.class);
+        estimator.addStopClass(AWBinding.class);
+        estimator.addStopClass(AWResourceManager.class);
+        estimator.addStopClass(AWResource.class);
+        estimator.addStopClass(AWRequestContext.class);
+        estimator.addStopClass(HttpSession.class);
+        estimator.addStopClass(ServletContext.class);
+        long start = System.currentTimeMillis();
+        for (int index = 0, count = sampled.size(); index < count; index++) {
+            AWSession session = (AWSession)sampled.get(index);
+            estimator.reset();
+            try {
+                addSession(session, estimator);
+            }
+            catch (RuntimeException e) {
+                // the session changed under us (e.g. was terminated) -- skip it
+                Log.aribaweb.debug("AWSessionMemoryReport: skipped session %s: %s",
+                                   session.sessionId(), e);
+            }
+        }
+        _elapsedMillis = System.currentTimeMillis() - start;
+        Collections.sort(_sessionSizes, SessionSizeOrder);
+    }
+
+    private void addSession (AWSession session, AWObjectSizeEstimator estimator)
+    {
+        List<AWPage> pages = session.cachedPagesSnapshot();
+        SessionSize sessionSize = new SessionSize(session.sessionId(), pages.size());
+        for (int index = 0, count = pages.size(); index < count; index++) {
+            AWPage page = pages.get(index);
+            long bytes = estimator.estimate(page);
+            AWComponent pageComponent = page.pageComponent();
+            String name = pageComponent == null ? "" : pageComponent.getClass().getName();
+            PageClassSize pageClassSize = _pageClassSizes.get(name);
+            if (pageClassSize == null) {
+                pageClassSize = new PageClassSize(name);
+                _pageClassSizes.put(name, pageClassSize);
+            }
+            pageClassSize._count++;
+            pageClassSize._bytes += bytes;
+            sessionSize._pageBytes += bytes;
+        }
+        sessionSize._bytes = sessionSize._pageBytes + estimator.estimate(session);
+        sessionSize._isTruncated = estimator.isTruncated();
+        if (sessionSize._isTruncated) {
+            _truncatedCount++;
+        }
+        _sampledBytes += sessionSize._bytes;
+        _sessionSizes.add(sessionSize);
+    }
+
+    public long time ()
+    {
+        return _time;
+    }
+
+    /**
+     * Number of sessions on the node when the report was made.
+     */
+    public int sessionCount ()
+    {
+        return _sessionCount;
+    }
+
+    public int sampledSessionCount ()
+    {
+        return _sessionSizes.size();
+    }
+
+    /**
+     * Number of sampled sessions whose walk was cut short by MaxObjectsPerSession.
+     */
+    public int truncatedSessionCount ()
+    {
+        return _truncatedCount;
+    }
+
+    public long averageSessionBytes ()
+    {
+        return _sessionSizes.isEmpty() ? 0 : _sampledBytes / _sessionSizes.size();
+    }
+
+    /**
+     * Estimated bytes retained by all sessions of the node.
+     */
+    public long estimatedTotalBytes ()
+    {
+        return averageSessionBytes() * _sessionCount;
+    }
+
+    public long elapsedMillis ()
+    {
+        return _elapsedMillis;
+    }
+
+    /**
+     * The <code>count</code> largest sampled sessions, largest first.
+     */
+    public List<SessionSize> topSessions (int count)
+    {
+        return new ArrayList<SessionSize>(
+            _sessionSizes.subList(0, Math.min(count, _sessionSizes.size())));
+    }
+
+    /**
+     * Sizes by page class over all sampled sessions, largest first.
+     */
+    public List<PageClassSize> pageClassSizes ()
+    {
+        List<PageClassSize> result = new ArrayList<PageClassSize>(_pageClassSizes.values());
+        Collections.sort(result, PageClassSizeOrder);
+        return result;
+    }
+
+    /**
+     * Summary as name/value pairs suitable for the monitor stats page.
+     */
+    public List<NamedValue> summary ()
+    {
+        List<NamedValue> result = ListUtil.list();
+        result.add(new NamedValue("sessionMemorySampledSessions", sampledSessionCount()));
+        result.add(new NamedValue("sessionMemoryTruncatedSessions", _truncatedCount));
+        result.add(new NamedValue("sessionMemoryAverageBytes", averageSessionBytes()));
+        result.add(new NamedValue("sessionMemoryEstimatedTotalBytes", estimatedTotalBytes()));
+        result.add(new NamedValue("sessionMemoryReportMillis", _elapsedMillis));
+        return result;
+    }
+}
@@ -22,6 +22,9 @@ import ariba.util.core.FastStringBuffer;
 import ariba.util.core.Fmt;
 import ariba.util.core.MapUtil;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import ariba.util.core.Constants;
 import ariba.util.core.ThreadDebugState;
 
@@ -32,6 +35,10 @@ import ariba.util.core.ThreadDebugState;
     Threads that attempt to check out a key value that is already checked 
     out will wait until the key is checked back in and available. 
     Threads that have waited beyond the timeout period will throw an exception.
+
+    Waiting is done on a java.util.concurrent Condition rather than with
+    Object.wait() so that request threads blocked on a session checkout do
+    not pin their carrier thread when running on virtual threads.
 */
 
 public final class AWCheckoutManager extends AWBaseObject
@@ -46,6 +53,8 @@ public final class AWCheckoutManager extends AWBaseObject
     private long _maxThreadWaitMillis = MaxThreadWaitMillis;
 
     private String _instanceName;
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _checkedIn = _lock.newCondition();
     
     public AWCheckoutManager (String instanceName)
     {
@@ -56,9 +65,15 @@ public final class AWCheckoutManager extends AWBaseObject
     ///////////////
     // Threasholds
     ///////////////
-    public synchronized void setMaxWaitingThreads (int maxWaitingThreadsPerKey)
+    public void setMaxWaitingThreads (int maxWaitingThreadsPerKey)
     {
-        _maxWaitingThreadsPerKey = maxWaitingThreadsPerKey;
+        _lock.lock();
+        try {
+            _maxWaitingThreadsPerKey = maxWaitingThreadsPerKey;
+        }
+        finally {
+            _lock.unlock();
+        }
     }
 
     public int maxWaitingThreads ()
@@ -66,9 +81,15 @@ public final class AWCheckoutManager extends AWBaseObject
         return _maxWaitingThreadsPerKey;
     }
 
-    public synchronized void setMaxThreadWaitMillis (long maxThreadWaitMillis)
+    public void setMaxThreadWaitMillis (long maxThreadWaitMillis)
     {
-        _maxThreadWaitMillis = maxThreadWaitMillis;
+        _lock.lock();
+        try {
+            _maxThreadWaitMillis = maxThreadWaitMillis;
+        }
+        finally {
+            _lock.unlock();
+        }
     }
 
     public long maxThreadWaitMillis ()
@@ -79,44 +100,56 @@ public final class AWCheckoutManager extends AWBaseObject
     ///////////////
     // Checkin/out
     ///////////////
-    public synchronized void checkin (Object key)
+    public void checkin (Object key)
     {
-        _checkedOutKeys.remove(key);
-        if (_waitingThreadForKeyCount.count(key) != 0) {
-            // only call notify if there are
-            // threads actually waiting.
-            this.notifyAll();
+        _lock.lock();
+        try {
+            _checkedOutKeys.remove(key);
+            if (_waitingThreadForKeyCount.count(key) != 0) {
+                // only signal if there are
+                // threads actually waiting.
+                _checkedIn.signalAll();
+            }
+        }
+        finally {
+            _lock.unlock();
         }
     }
 
-    public synchronized void checkout (Object key)
+    public void checkout (Object key)
     {
-        if (_checkedOutKeys.get(key) != null) {
-            Assert.that(_checkedOutKeys.get(key) != Thread.currentThread(),
-                        "Recursive call to AWCheckoutManager.checkout() detected.");
-            // We only enter this if a thread already has the key checked out.
-            if (_waitingThreadForKeyCount.count(key) >= _maxWaitingThreadsPerKey) {
-                Log.aribaweb.warning(9370, ThreadDebugState.makeString());
-                throw new AWMaxWaitingThreadException("instance " +
-                    _instanceName + " key " + key);
-            }
-            _waitingThreadForKeyCount.add(key);
-            try {
-                long checkoutDeadline = System.currentTimeMillis() + _maxThreadWaitMillis;
-                Thread checkedOutThread = _checkedOutKeys.get(key);
-                while (checkedOutThread != null) {
-                    waitForTimeout();
-                    if (System.currentTimeMillis() > checkoutDeadline) {
-                        throwThreadTimeoutException(key, checkedOutThread);
+        _lock.lock();
+        try {
+            if (_checkedOutKeys.get(key) != null) {
+                Assert.that(_checkedOutKeys.get(key) != Thread.currentThread(),
+                            "Recursive call to AWCheckoutManager.checkout() detected.");
+                // We only enter this if a thread already has the key checked out.
+                if (_waitingThreadForKeyCount.count(key) >= _maxWaitingThreadsPerKey) {
+                    Log.aribaweb.warning(9370, ThreadDebugState.makeString());
+                    throw new AWMaxWaitingThreadException("instance " +
+                        _instanceName + " key " + key);
+                }
+                _waitingThreadForKeyCount.add(key);
+                try {
+                    long checkoutDeadline = System.currentTimeMillis() + _maxThreadWaitMillis;
+                    Thread checkedOutThread = _checkedOutKeys.get(key);
+                    while (checkedOutThread != null) {
+                        waitForTimeout();
+                        if (System.currentTimeMillis() > checkoutDeadline) {
+                            throwThreadTimeoutException(key, checkedOutThread);
+                        }
+                        checkedOutThread = _checkedOutKeys.get(key);
                     }
-                    checkedOutThread = _checkedOutKeys.get(key);
+                }
+                finally {
+                    _waitingThreadForKeyCount.remove(key);
                 }
             }
-            finally {
-                _waitingThreadForKeyCount.remove(key);
-            }
+            _checkedOutKeys.put(key, Thread.currentThread());
+        }
+        finally {
+            _lock.unlock();
         }
-        _checkedOutKeys.put(key, Thread.currentThread());
     }
 
     private void throwThreadTimeoutException (Object key, Thread checkedOutThread)
@@ -136,20 +169,26 @@ public final class AWCheckoutManager extends AWBaseObject
         throw new AWThreadTimeoutException(message);
     }
 
-    public synchronized boolean isCheckedOut (Object key)
+    public boolean isCheckedOut (Object key)
     {
         if (key == null) {
             return false;
         }
-        return _checkedOutKeys.get(key) != null;
+        _lock.lock();
+        try {
+            return _checkedOutKeys.get(key) != null;
+        }
+        finally {
+            _lock.unlock();
+        }
     }
 
     private void waitForTimeout ()
     {
         // This will wait until _maxThreadWaitMillis or
-        // until notified from the checkin method
+        // until signaled from the checkin method
         try {
-            this.wait(_maxThreadWaitMillis);
+            _checkedIn.await(_maxThreadWaitMillis, TimeUnit.MILLISECONDS);
         }
         catch (InterruptedException exception) {
             // swallow the exception
@@ -0,0 +1,172 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.ui.aribaweb.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+    A recycle pool which may be shared by all request threads without locking.
+
+    Each thread has a home stripe of a few slots, selected by its thread
+    id, which it checks out from and checks in to with a single
+    compareAndSet.  Since threads rarely share a stripe this behaves like a
+    small per-thread cache, but unlike a ThreadLocal it does not strand
+    instances in short lived (e.g. virtual) threads.  When the home stripe
+    is empty or full, a bounded lock-free overflow queue shared by all
+    threads is used.
+
+    Checkout, shared hit, miss and discard counts over all pools of this
+    kind are kept in thread striped counters (see AWMonitorStats).
+*/
+public final class AWConcurrentRecyclePool extends AWRecyclePool
+{
+    private static final int Ways = 4;
+    private static final int Stripes;
+    private static final int CounterPadding = 8;
+    private static final int CheckoutCounter = 0;
+    private static final int SharedHitCounter = 1;
+    private static final int MissCounter = 2;
+    private static final int DiscardCounter = 3;
+    private static final AtomicLongArray Counters;
+
+    static {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < 2 * processors && stripes < 32) {
+            stripes <<= 1;
+        }
+        Stripes = stripes;
+        Counters = new AtomicLongArray(Stripes * CounterPadding);
+    }
+
+    private final AtomicReferenceArray<Object> _slots =
+        new AtomicReferenceArray<Object>(Stripes * Ways);
+    private final ConcurrentLinkedQueue<Object> _overflow =
+        new ConcurrentLinkedQueue<Object>();
+    private final AtomicInteger _overflowSize = new AtomicInteger();
+    private final int _maxOverflowSize;
+    private final boolean _debugEnabled;
+
+    protected AWConcurrentRecyclePool (int maxSize, boolean debugEnabled)
+    {
+        super(0, debugEnabled);
+        _maxOverflowSize = maxSize;
+        _debugEnabled = debugEnabled;
+    }
+
+    private static int stripe ()
+    {
+        // thread ids are handed out sequentially, so the low bits spread
+        // concurrent threads evenly over the stripes
+        return (int)Thread.currentThread().getId() & (Stripes - 1);
+    }
+
+    private static void count (int stripe, int counter)
+    {
+        Counters.incrementAndGet((stripe * CounterPadding) + counter);
+    }
+
+    private static long sum (int counter)
+    {
+        long total = 0;
+        for (int stripe = 0; stripe < Stripes; stripe++) {
+            total += Counters.get((stripe * CounterPadding) + counter);
+        }
+        return total;
+    }
+
+    public Object checkout ()
+    {
+        int stripe = stripe();
+        count(stripe, CheckoutCounter);
+        for (int index = stripe * Ways, end = index + Ways; index < end; index++) {
+            Object object = _slots.get(index);
+            if (object != null && _slots.compareAndSet(index, object, null)) {
+                return object;
+            }
+        }
+        Object object = _overflow.poll();
+        if (object != null) {
+            _overflowSize.decrementAndGet();
+            count(stripe, SharedHitCounter);
+            return object;
+        }
+        count(stripe, MissCounter);
+        return null;
+    }
+
+    public void checkin (Object object)
+    {
+        if (object == null) {
+            return;
+        }
+        if (_debugEnabled && object instanceof AWBaseObject) {
+            ((AWBaseObject)object).ensureFieldValuesClear();
+        }
+        int stripe = stripe();
+        for (int index = stripe * Ways, end = index + Ways; index < end; index++) {
+            if (_slots.get(index) == null && _slots.compareAndSet(index, null, object)) {
+                return;
+            }
+        }
+        if (_overflowSize.incrementAndGet() <= _maxOverflowSize) {
+            _overflow.offer(object);
+        }
+        else {
+            _overflowSize.decrementAndGet();
+            count(stripe, DiscardCounter);
+        }
+    }
+
+    /**
+        Total number of checkouts from all concurrent pools.
+    */
+    public static long checkoutCount ()
+    {
+        return sum(CheckoutCounter);
+    }
+
+    /**
+        Number of checkouts served from the shared overflow queue rather
+        than from the thread's own stripe.
+    */
+    public static long sharedHitCount ()
+    {
+        return sum(SharedHitCounter);
+    }
+
+    /**
+        Number of checkouts which found the pool empty, i.e. required the
+        caller to allocate a new instance.
+    */
+    public static long missCount ()
+    {
+        return sum(MissCounter);
+    }
+
+    /**
+        Number of checkins dropped because the pool was full.
+    */
+    public static long discardCount ()
+    {
+        return sum(DiscardCounter);
+    }
+}
@@ -18,9 +18,11 @@
 package ariba.ui.aribaweb.util;
 
 import ariba.util.core.Assert;
+import ariba.util.core.ClockCache;
 import ariba.util.core.FastStringBuffer;
 import ariba.util.core.HTML;
 import ariba.util.core.StringUtil;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /*
   Currently this only allows for three encodings.  If we need more, it may make sense to change the implementation to use a byte[][] rather than discrete instance variables.  Another thought is to use a BlockHeap for the arrays and avoid the allocation overhaed of having thousands of very short arrays.
@@ -29,9 +31,13 @@ import ariba.util.core.StringUtil;
 // subclassed by AWEscapedString and others like it
 public class AWEncodedString extends AWBaseObject
 {
-    private static int ThreadLocalCacheSize = 128;
-    private static AWSizeLimitedHashtable SharedEncodedStrings = new AWSizeLimitedHashtable(16 * ThreadLocalCacheSize);
-    private static ThreadLocal ThreadLocalEncodedStrings = new ThreadLocal();
+    private static final int DefaultSharedStringsLimit = 2048;
+    private static volatile ClockCache<String,AWEncodedString> SharedEncodedStrings =
+        new ClockCache<String,AWEncodedString>(DefaultSharedStringsLimit);
+    private static final AtomicReferenceFieldUpdater<AWEncodedString,byte[]> Bytes1Updater =
+        AtomicReferenceFieldUpdater.newUpdater(AWEncodedString.class, byte[].class, "_bytes1");
+    private static final AtomicReferenceFieldUpdater<AWEncodedString,AWEscapedString> NextUpdater =
+        AtomicReferenceFieldUpdater.newUpdater(AWEncodedString.class, AWEscapedString.class, "_next");
     private static boolean DebuggingEnabled = false;
     private static final int MaxStringLength = 512;
     private static final AWCharacterEncoding ZerothCharacterEncoding = AWCharacterEncoding.UTF8;
@@ -41,14 +47,21 @@ public class AWEncodedString extends AWBaseObject
     private final int _hashCode;
     private final String _string;
     protected final byte[] _bytes0;
-    private byte[] _bytes1;
-    protected AWEscapedString _next;
+    // set at most once (see Bytes1Updater) so all threads share the same array
+    private volatile byte[] _bytes1;
+    protected volatile AWEscapedString _next;
 
     public static void setSharedStringsLimit (int size)
     {
-        synchronized (SharedEncodedStrings) {
-            SharedEncodedStrings = new AWSizeLimitedHashtable(size);
-        }
+        SharedEncodedStrings = new ClockCache<String,AWEncodedString>(size);
+    }
+
+    /**
+     * The process wide intern cache used by sharedEncodedString().  Exposed for monitoring.
+     */
+    public static ClockCache sharedStringsCache ()
+    {
+        return SharedEncodedStrings;
     }
 
     public static AWEncodedString sharedEncodedString (String string)
@@ -58,35 +71,13 @@ public class AWEncodedString extends AWBaseObject
             if (string.length() >= MaxStringLength) {
                 sharedEncodedString = new AWEncodedString(string);
             }
-            else if (AWUtil.AllowsConcurrentRequestHandling) {
-                AWSizeLimitedHashtable encodedStringsCache = (AWSizeLimitedHashtable)ThreadLocalEncodedStrings.get();
-                if (encodedStringsCache == null) {
-                    encodedStringsCache = new AWSizeLimitedHashtable(ThreadLocalCacheSize);
-                    ThreadLocalEncodedStrings.set(encodedStringsCache);
-                }
-                sharedEncodedString = (AWEncodedString)encodedStringsCache.get(string);
-                if (sharedEncodedString == null) {
-                    synchronized (SharedEncodedStrings) {
-                        sharedEncodedString = (AWEncodedString)SharedEncodedStrings.get(string);
-                        if (sharedEncodedString == null) {
-                            sharedEncodedString = new AWEncodedString(string);
-                            if (string.length() < MaxStringLength) {
-                                SharedEncodedStrings.put(string, sharedEncodedString);
-                            }
-                        }
-                        if (string.length() < MaxStringLength) {
-                            encodedStringsCache.put(string, sharedEncodedString);
-                        }
-                    }
-                }
-            }
             else {
-                sharedEncodedString = (AWEncodedString)SharedEncodedStrings.get(string);
+                // lock free lookup -- safe with or without AllowsConcurrentRequestHandling
+                ClockCache<String,AWEncodedString> sharedEncodedStrings = SharedEncodedStrings;
+                sharedEncodedString = sharedEncodedStrings.get(string);
                 if (sharedEncodedString == null) {
-                    sharedEncodedString = new AWEncodedString(string);
-                    if (string.length() < MaxStringLength) {
-                        SharedEncodedStrings.put(string, sharedEncodedString);
-                    }
+                    sharedEncodedString = sharedEncodedStrings.intern(string,
+                        new AWEncodedString(string));
                 }
             }
         }
@@ -155,17 +146,21 @@ public class AWEncodedString extends AWBaseObject
         return DebuggingEnabled;
     }
 
-    private void setBytes (byte[] bytes, AWCharacterEncoding characterEncoding)
+    private byte[] setBytes (byte[] bytes, AWCharacterEncoding characterEncoding)
     {
         if (characterEncoding == ZerothCharacterEncoding) {
             throw new AWGenericException("Already set zeroth encoding");
         }
         else if (characterEncoding == FirstCharacterEncoding) {
-            _bytes1 = bytes;
+            // first writer wins so every thread shares one copy of the encoded bytes
+            if (!Bytes1Updater.compareAndSet(this, null, bytes)) {
+                bytes = _bytes1;
+            }
         }
         else {
             throw new AWGenericException("Unsuported characterEncoding: " + characterEncoding.name);
         }
+        return bytes;
     }
 
     public String toString ()
@@ -198,7 +193,7 @@ public class AWEncodedString extends AWBaseObject
         }
         if (bytes == null) {
             bytes = bytesForCharacterEncoding(_string, characterEncoding);
-            setBytes(bytes, characterEncoding);
+            bytes = setBytes(bytes, characterEncoding);
         }
         return bytes;
     }
@@ -270,12 +265,21 @@ public class AWEncodedString extends AWBaseObject
             escapedString = _next.escapedString(escapingType);
         }
         else {
-            escapedString = new AWEscapedString(this, escapingType);
-            _next = escapedString;
+            escapedString = linkEscapedString(new AWEscapedString(this, escapingType), escapingType);
         }
         return escapedString;
     }
 
+    /**
+     * Appends escapedString to the chain unless another thread beat us to it,
+     * in which case the escaped string on the chain is returned instead.
+     */
+    protected AWEscapedString linkEscapedString (AWEscapedString escapedString, int escapingType)
+    {
+        return NextUpdater.compareAndSet(this, null, escapedString) ?
+            escapedString : _next.escapedString(escapingType);
+    }
+
     public static AWEncodedString htmlEscapedString (Object object)
     {
         AWEncodedString encodedString = AWEncodedString.sharedEncodedString(object);
@@ -366,8 +370,7 @@ final class AWEscapedString extends AWEncodedString
             escapedString = _next.escapedString(escapingType);
         }
         else {
-            escapedString = new AWEscapedString(_original, escapingType);
-            _next = escapedString;
+            escapedString = linkEscapedString(new AWEscapedString(_original, escapingType), escapingType);
         }
         return escapedString;
     }
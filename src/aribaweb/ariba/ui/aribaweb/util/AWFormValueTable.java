@@ -0,0 +1,616 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.ui.aribaweb.util;
+
+import java.io.UnsupportedEncodingException;
+import java.util.AbstractMap;
+import java.util.Set;
+
+/**
+    The form values of a url encoded request (a query string or an
+    application/x-www-form-urlencoded body), indexed directly over the
+    encoded bytes.
+    <p>
+    Building the table makes one pass over the bytes which records the
+    offsets of every key and value and hashes each key while url decoding it
+    on the fly, so no strings are created.  A lookup hashes the requested
+    key (typically an element id) the same way and compares it against the
+    encoded bytes, and the values of a key are only decoded (and converted
+    to the request's character encoding) into the String[] the first time
+    they are asked for.  A page posting thousands of fields of which only a
+    few changed hence only pays for the few strings the components actually
+    read.
+    <p>
+    The values returned and the key semantics are those of the table built
+    from {@link Parameters} which this replaces: keys which only differ in
+    case are merged under the first spelling, each key maps to a String[] of
+    all its values in order, and query string parameters of a POST are only
+    added, with their first value, for keys not in the body.  Escapes are
+    decoded like AWBaseRequest.decodeString() does, except that a '%' too
+    close to the end of a value is kept instead of failing the request.
+    Using the table as a general Map (e.g. iterating it or putting into it)
+    turns it into a regular AWStringKeyHashtable first.
+
+    @aribaapi private
+*/
+public final class AWFormValueTable extends AbstractMap
+    implements AWDisposable, Cloneable
+{
+    private static final String[] EscapedHtml = {"amp;", "lt;", "gt;", "quot;"};
+
+    // set by decode() when the byte after the decoded one is taken as is
+    private static final int LiteralNext = 1 << 10;
+
+    private byte[] _bytes;
+    private AWCharacterEncoding _characterEncoding = AWCharacterEncoding.ISO8859_1;
+
+    // per key: first occurrence, folded hash, decoded key (only for non ascii keys or
+    // once asked for), first/last value and the decoded values
+    private int _keyCount;
+    private int[] _keyStart;
+    private int[] _keyEnd;
+    private int[] _keyHash;
+    private String[] _keys;
+    private int[] _firstValue;
+    private int[] _lastValue;
+    private String[][] _values;
+
+    // per value: offsets and next value of the same key
+    private int _valueCount;
+    private int[] _valueStart;
+    private int[] _valueEnd;
+    private int[] _nextValue;
+
+    // open addressing table of key index + 1
+    private int[] _slots;
+
+    private AWStringKeyHashtable _map;
+
+    /**
+        Indexes <code>bytes</code>, and then <code>additionalBytes</code>
+        (if not null) for keys which are not in <code>bytes</code>.
+        @throws AWGenericException if the content contains html escapes, as
+        in AWBaseRequest.parametersFromUrlEncodedString()
+    */
+    public AWFormValueTable (byte[] bytes, byte[] additionalBytes)
+    {
+        int boundary = bytes.length;
+        if (additionalBytes != null && additionalBytes.length > 0) {
+            _bytes = new byte[bytes.length + 1 + additionalBytes.length];
+            System.arraycopy(bytes, 0, _bytes, 0, bytes.length);
+            _bytes[bytes.length] = '&';
+            System.arraycopy(additionalBytes, 0, _bytes, bytes.length + 1,
+                             additionalBytes.length);
+        }
+        else {
+            _bytes = bytes;
+        }
+        index(boundary);
+    }
+
+    /**
+        Encoded bytes for a query string.  Query strings are ascii unless
+        the browser did not encode them; such characters are taken as UTF-8.
+    */
+    public static byte[] bytesForString (String string)
+    {
+        try {
+            for (int index = 0, length = string.length(); index < length; index++) {
+                if (string.charAt(index) > 0xFF) {
+                    return string.getBytes(AWCharacterEncoding.UTF8.name);
+                }
+            }
+            return string.getBytes(AWCharacterEncoding.ISO8859_1.name);
+        }
+        catch (UnsupportedEncodingException unsupportedEncodingException) {
+            throw new AWGenericException(unsupportedEncodingException);
+        }
+    }
+
+    /**
+        Sets the encoding the decoded bytes of values are converted with.
+        Values already decoded are not affected, so this should be set
+        before values other than the encoding name itself are read.
+    */
+    public void setCharacterEncoding (AWCharacterEncoding characterEncoding)
+    {
+        _characterEncoding = characterEncoding;
+    }
+
+    ///////////////
+    // Indexing
+    ///////////////
+    private void index (int boundary)
+    {
+        byte[] bytes = _bytes;
+        int length = bytes.length;
+        int pairCount = 1;
+        for (int index = 0; index < length; index++) {
+            if (bytes[index] == '&') {
+                pairCount++;
+                checkEscapedHtml(index + 1);
+            }
+        }
+        _keyStart = new int[pairCount];
+        _keyEnd = new int[pairCount];
+        _keyHash = new int[pairCount];
+        _keys = new String[pairCount];
+        _firstValue = new int[pairCount];
+        _lastValue = new int[pairCount];
+        _values = new String[pairCount][];
+        _valueStart = new int[pairCount];
+        _valueEnd = new int[pairCount];
+        _nextValue = new int[pairCount];
+        int slotCount = 4;
+        while (slotCount < pairCount * 2) {
+            slotCount <<= 1;
+        }
+        _slots = new int[slotCount];
+
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            int equals = -1;
+            while (end < length && bytes[end] != '&') {
+                if (equals == -1 && bytes[end] == '=') {
+                    equals = end;
+                }
+                end++;
+            }
+            if (end > start) {
+                if (equals == -1) {
+                    // "Invalid formValuesString -- missing '=', skipping: %s"
+                    Log.aribaweb.warning(9282, latin1String(start, end));
+                }
+                else {
+                    addPair(start, equals, end, start >= boundary);
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    private void checkEscapedHtml (int index)
+    {
+        for (int escape = 0; escape < EscapedHtml.length; escape++) {
+            String string = EscapedHtml[escape];
+            int length = string.length();
+            if (index + length <= _bytes.length) {
+                int offset = 0;
+                while (offset < length && _bytes[index + offset] == string.charAt(offset)) {
+                    offset++;
+                }
+                if (offset == length) {
+                    throw new AWGenericException(
+                        "Invalid formValuesString -- contains escaped html: " +
+                        latin1String(0, _bytes.length));
+                }
+            }
+        }
+    }
+
+    private void addPair (int start, int equals, int end, boolean isAdditional)
+    {
+        int hash = 0;
+        boolean isAscii = true;
+        boolean literal = false;
+        for (int index = start; index < equals;) {
+            int decoded = decode(index, equals, literal);
+            int character = decoded & 0xFF;
+            if (character > 0x7F) {
+                isAscii = false;
+                break;
+            }
+            hash = 31 * hash + foldCase(character);
+            index += length(decoded);
+            literal = isLiteralNext(decoded);
+        }
+        String key = null;
+        if (!isAscii) {
+            key = decodeKey(start, equals);
+            hash = key.toUpperCase().hashCode();
+        }
+        int mask = _slots.length - 1;
+        int slot = firstSlot(hash, mask);
+        int keyIndex;
+        while ((keyIndex = _slots[slot] - 1) != -1) {
+            if (_keyHash[keyIndex] == hash && keyMatches(keyIndex, start, equals, key)) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (keyIndex == -1) {
+            keyIndex = _keyCount++;
+            _slots[slot] = keyIndex + 1;
+            _keyStart[keyIndex] = start;
+            _keyEnd[keyIndex] = equals;
+            _keyHash[keyIndex] = hash;
+            _keys[keyIndex] = key;
+            _firstValue[keyIndex] = -1;
+        }
+        else if (isAdditional) {
+            // query string parameters only supply keys missing from the
+            // content, and only their first value
+            return;
+        }
+        int valueIndex = _valueCount++;
+        _valueStart[valueIndex] = equals + 1;
+        _valueEnd[valueIndex] = end;
+        _nextValue[valueIndex] = -1;
+        if (_firstValue[keyIndex] == -1) {
+            _firstValue[keyIndex] = valueIndex;
+        }
+        else {
+            _nextValue[_lastValue[keyIndex]] = valueIndex;
+        }
+        _lastValue[keyIndex] = valueIndex;
+    }
+
+    /**
+        Whether the key at start..end (whose decoded form is
+        <code>key</code> if not ascii) matches the key at keyIndex, ignoring
+        case.
+    */
+    private boolean keyMatches (int keyIndex, int start, int end, String key)
+    {
+        String existing = _keys[keyIndex];
+        if (key != null || existing != null) {
+            return (key != null ? key : decodeKey(start, end)).equalsIgnoreCase(
+                existing != null ? existing : decodeKey(_keyStart[keyIndex],
+                                                        _keyEnd[keyIndex]));
+        }
+        int index1 = _keyStart[keyIndex];
+        int end1 = _keyEnd[keyIndex];
+        int index2 = start;
+        boolean literal1 = false;
+        boolean literal2 = false;
+        while (index1 < end1 && index2 < end) {
+            int decoded1 = decode(index1, end1, literal1);
+            int decoded2 = decode(index2, end, literal2);
+            if (foldCase(decoded1 & 0xFF) != foldCase(decoded2 & 0xFF)) {
+                return false;
+            }
+            index1 += length(decoded1);
+            index2 += length(decoded2);
+            literal1 = isLiteralNext(decoded1);
+            literal2 = isLiteralNext(decoded2);
+        }
+        return index1 == end1 && index2 == end;
+    }
+
+    ///////////////
+    // Lookup
+    ///////////////
+    private int keyIndex (String key, boolean ignoresCase)
+    {
+        if (_slots == null) {
+            return -1;
+        }
+        int hash = 0;
+        int length = key.length();
+        for (int index = 0; index < length; index++) {
+            char character = key.charAt(index);
+            if (character > 0x7F) {
+                hash = key.toUpperCase().hashCode();
+                break;
+            }
+            hash = 31 * hash + foldCase(character);
+        }
+        int mask = _slots.length - 1;
+        int slot = firstSlot(hash, mask);
+        int keyIndex;
+        while ((keyIndex = _slots[slot] - 1) != -1) {
+            if (_keyHash[keyIndex] == hash && keyEquals(keyIndex, key, ignoresCase)) {
+                return keyIndex;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean keyEquals (int keyIndex, String key, boolean ignoresCase)
+    {
+        String existing = _keys[keyIndex];
+        if (existing != null) {
+            return ignoresCase ? existing.equalsIgnoreCase(key) : existing.equals(key);
+        }
+        int index = _keyStart[keyIndex];
+        int end = _keyEnd[keyIndex];
+        int length = key.length();
+        int position = 0;
+        boolean literal = false;
+        while (index < end && position < length) {
+            int decoded = decode(index, end, literal);
+            int character = decoded & 0xFF;
+            int other = key.charAt(position);
+            if (ignoresCase ? foldCase(character) != foldCase(other) : character != other) {
+                return false;
+            }
+            index += length(decoded);
+            literal = isLiteralNext(decoded);
+            position++;
+        }
+        return index == end && position == length;
+    }
+
+    /**
+        The values for <code>key</code>, decoded on first access.
+    */
+    public String[] get (String key, boolean ignoresCase)
+    {
+        if (_map != null) {
+            return (String[])_map.get(key, ignoresCase);
+        }
+        int keyIndex = keyIndex(key, ignoresCase);
+        return keyIndex == -1 ? null : values(keyIndex);
+    }
+
+    private String[] values (int keyIndex)
+    {
+        String[] values = _values[keyIndex];
+        if (values == null) {
+            int count = 0;
+            for (int value = _firstValue[keyIndex]; value != -1; value = _nextValue[value]) {
+                count++;
+            }
+            values = new String[count];
+            count = 0;
+            for (int value = _firstValue[keyIndex]; value != -1; value = _nextValue[value]) {
+                values[count++] =
+                    decodeString(_valueStart[value], _valueEnd[value], _characterEncoding);
+            }
+            _values[keyIndex] = values;
+        }
+        return values;
+    }
+
+    private String key (int keyIndex)
+    {
+        String key = _keys[keyIndex];
+        if (key == null) {
+            key = decodeKey(_keyStart[keyIndex], _keyEnd[keyIndex]);
+            _keys[keyIndex] = key;
+        }
+        return key;
+    }
+
+    /**
+        Element ids differ in their last characters only, so their hashes are
+        close together; spread them before probing.
+    */
+    private static int firstSlot (int hash, int mask)
+    {
+        int spread = hash * 0x9E3779B9;
+        return (spread ^ (spread >>> 16)) & mask;
+    }
+
+    ///////////////
+    // Decoding
+    ///////////////
+    private static int foldCase (int character)
+    {
+        return (character >= 'a' && character <= 'z') ? character - ('a' - 'A') : character;
+    }
+
+    private static int hexValue (byte digit)
+    {
+        if (digit >= '0' && digit <= '9') {
+            return digit - '0';
+        }
+        if (digit >= 'a' && digit <= 'f') {
+            return digit - 'a' + 10;
+        }
+        if (digit >= 'A' && digit <= 'F') {
+            return digit - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+        Url decodes one byte at index, like AWBaseRequest.decodeString():
+        an escape whose two characters are not a hex number decodes to those
+        two characters, taken as is.  A '%' without two characters after it
+        is kept.
+        @param literal whether the byte at index is the second character of
+        such an escape
+        @return the decoded byte in the low 8 bits, the number of encoded
+        bytes it takes above them and LiteralNext if the following byte is
+        the second character of an invalid escape
+    */
+    private int decode (int index, int end, boolean literal)
+    {
+        byte current = _bytes[index];
+        if (literal) {
+            return (current & 0xFF) | (1 << 8);
+        }
+        if (current == '+') {
+            return ' ' | (1 << 8);
+        }
+        if (current == '%' && index + 2 < end) {
+            byte first = _bytes[index + 1];
+            int high = hexValue(first);
+            int low = hexValue(_bytes[index + 2]);
+            if (high != -1 && low != -1) {
+                return ((high << 4) | low) | (3 << 8);
+            }
+            if ((first == '+' && low != -1) || (first == '-' && low == 0)) {
+                // Integer.parseInt() takes "+f" as 15 and "-0" as 0
+                return low | (3 << 8);
+            }
+            return (first & 0xFF) | (2 << 8) | LiteralNext;
+        }
+        return (current & 0xFF) | (1 << 8);
+    }
+
+    private static int length (int decoded)
+    {
+        return (decoded >> 8) & 0x3;
+    }
+
+    private static boolean isLiteralNext (int decoded)
+    {
+        return (decoded & LiteralNext) != 0;
+    }
+
+    private String decodeString (int start, int end, AWCharacterEncoding characterEncoding)
+    {
+        byte[] decoded = new byte[end - start];
+        int length = 0;
+        boolean literal = false;
+        for (int index = start; index < end;) {
+            int value = decode(index, end, literal);
+            decoded[length++] = (byte)value;
+            index += length(value);
+            literal = isLiteralNext(value);
+        }
+        try {
+            return new String(decoded, 0, length, characterEncoding.name);
+        }
+        catch (UnsupportedEncodingException unsupportedEncodingException) {
+            throw new AWGenericException(unsupportedEncodingException);
+        }
+    }
+
+    /**
+        Keys are only url decoded, not converted to the request's encoding,
+        as only values were converted by AWBaseRequest.convertStrings().
+    */
+    private String decodeKey (int start, int end)
+    {
+        return decodeString(start, end, AWCharacterEncoding.ISO8859_1);
+    }
+
+    private String latin1String (int start, int end)
+    {
+        try {
+            return new String(_bytes, start, end - start, AWCharacterEncoding.ISO8859_1.name);
+        }
+        catch (UnsupportedEncodingException unsupportedEncodingException) {
+            throw new AWGenericException(unsupportedEncodingException);
+        }
+    }
+
+    ///////////////
+    // Map
+    ///////////////
+    private AWStringKeyHashtable map ()
+    {
+        if (_map == null) {
+            _map = newMap();
+            _bytes = null;
+            _slots = null;
+        }
+        return _map;
+    }
+
+    private AWStringKeyHashtable newMap ()
+    {
+        AWStringKeyHashtable map = new AWStringKeyHashtable(Math.max(1, _keyCount));
+        for (int keyIndex = 0; keyIndex < _keyCount; keyIndex++) {
+            map.put(key(keyIndex), values(keyIndex));
+        }
+        return map;
+    }
+
+    /**
+        A copy of the form values as an AWStringKeyHashtable.  The value
+        arrays are shared, as with Hashtable.clone().
+    */
+    public AWStringKeyHashtable toStringKeyHashtable ()
+    {
+        return _map != null ? (AWStringKeyHashtable)_map.clone() : newMap();
+    }
+
+    /**
+        A copy of the table (e.g. for MapUtil.cloneMap()), which shares the
+        encoded bytes and the index with this one.  The value arrays are
+        shared, as with Hashtable.clone().
+    */
+    public Object clone ()
+    {
+        AWFormValueTable copy;
+        try {
+            copy = (AWFormValueTable)super.clone();
+        }
+        catch (CloneNotSupportedException cloneNotSupportedException) {
+            throw new AWGenericException(cloneNotSupportedException);
+        }
+        if (_map != null) {
+            copy._map = (AWStringKeyHashtable)_map.clone();
+        }
+        else if (_keys != null) {
+            // decoded lazily, so each table needs its own
+            copy._keys = (String[])_keys.clone();
+            copy._values = (String[][])_values.clone();
+        }
+        return copy;
+    }
+
+    public int size ()
+    {
+        return _map != null ? _map.size() : _keyCount;
+    }
+
+    public Object get (Object key)
+    {
+        return (key instanceof String) ? get((String)key, false) : null;
+    }
+
+    public boolean containsKey (Object key)
+    {
+        if (_map != null) {
+            return _map.containsKey(key);
+        }
+        return (key instanceof String) && keyIndex((String)key, false) != -1;
+    }
+
+    public Object put (Object key, Object value)
+    {
+        return map().put(key, value);
+    }
+
+    public Object remove (Object key)
+    {
+        return map().remove(key);
+    }
+
+    public void clear ()
+    {
+        map().clear();
+    }
+
+    public Set entrySet ()
+    {
+        return map().entrySet();
+    }
+
+    public Set keySet ()
+    {
+        return map().keySet();
+    }
+
+    public void dispose ()
+    {
+        _bytes = null;
+        _slots = null;
+        _keys = null;
+        _values = null;
+        _map = null;
+        _keyCount = 0;
+    }
+}
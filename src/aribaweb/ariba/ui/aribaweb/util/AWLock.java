@@ -17,38 +17,55 @@
 
 package ariba.ui.aribaweb.util;
 
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+    A simple binary lock which, unlike a monitor, may be released by a
+    thread other than the one that acquired it.  Implemented with a
+    ReentrantLock/Condition rather than synchronized/wait so that waiting
+    request threads do not pin the carrier when running on virtual threads.
+*/
 public class AWLock extends AWBaseObject
 {
+    private final ReentrantLock _monitor = new ReentrantLock();
+    private final Condition _unlocked = _monitor.newCondition();
     private boolean _isLocked = false;
 
-    public synchronized void lock ()
+    public void lock ()
     {
         lockObject();
     }
 
 
-    public synchronized void unlock ()
+    public void unlock ()
     {
-        _isLocked = false;
-        this.notify();
+        _monitor.lock();
+        try {
+            _isLocked = false;
+            _unlocked.signal();
+        }
+        finally {
+            _monitor.unlock();
+        }
     }
 
-    public synchronized void relock ()
+    public void relock ()
     {
         lockObject();
     }
 
     private void lockObject() {
-        while (_isLocked) {
-            try {
-                this.wait();
-            }
-            catch (InterruptedException exception) {
-                // ignore
-                exception = null;
+        _monitor.lock();
+        try {
+            while (_isLocked) {
+                _unlocked.awaitUninterruptibly();
             }
+            _isLocked = true;
+        }
+        finally {
+            _monitor.unlock();
         }
-        _isLocked = true;
     }
     
 }
@@ -17,27 +17,49 @@
 
 package ariba.ui.aribaweb.util;
 
-import ariba.util.core.FastStringBuffer;
 import ariba.util.core.Fmt;
+import ariba.util.core.FastStringBuffer;
 import ariba.util.core.MIME;
 import ariba.util.core.ProgressMonitor;
 import ariba.util.core.StringUtil;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.StringTokenizer;
 
+/**
+    Streaming parser for multipart/form-data request bodies.
+
+    The request input stream is read in large blocks into a single buffer
+    which is scanned for the boundary marker; part data is handed on in
+    bulk as soon as it can no longer be the start of a marker.  File parts
+    are spooled through an NIO channel straight to a temp file in the
+    fileUploadDirectory (or collected in memory if there is none), so the
+    memory used per upload is bounded by the buffer size rather than by the
+    size of the request.  The maxBytes limit of a part is enforced while
+    streaming, and upload progress is reported to the thread's
+    ProgressMonitor after every block read.
+*/
 public final class AWMimeReader extends AWBaseObject
 {
-    private static final int BUFFER_SIZE = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
     private final InputStream  _inputStream;
+    private final InputStream  _bufferedInputStream;
     private final byte[] _boundaryMarker;
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+    private int _bufferPosition = 0;
+    private int _bufferLimit = 0;
+    private boolean _isEndOfInput = false;
     private boolean _isAtEnd = false;
     private int _contentLength;
-    private int _position = 0;
+        // number of bytes read from _inputStream
+    private int _bytesRead = 0;
         // The maximum number of bytes that are allowed within a single chunk (parameter value) in a multipart form request
     private static int _MaxBytesPerChunk = -1;
         // True if the max size of a chunk in the request has been exceeded when processing the request input
@@ -51,6 +73,7 @@ public final class AWMimeReader extends AWBaseObject
     {
         super();
         _inputStream = inputStream;
+        _bufferedInputStream = new BufferedInput();
         _contentLength = contentLength;
         String parameterBoundary = mimeArgumentValue(contentType, MIME.ParameterBoundary);
         String boundaryString = Fmt.S("--%s", parameterBoundary);
@@ -64,9 +87,12 @@ public final class AWMimeReader extends AWBaseObject
         return _contentLength;
     }
 
+    /**
+        The number of bytes of the request body consumed so far.
+    */
     public int currentPosition ()
     {
-        return _position;
+        return _bytesRead - (_bufferLimit - _bufferPosition);
     }
 
     /**
@@ -103,129 +129,162 @@ public final class AWMimeReader extends AWBaseObject
         return null;
     }
 
-    // Todo: The two versions of readToMarker should be merged into one. This can be done by
-    // modifying the method so that it uses a byte or file output stream to which the input bytes are written
+    /**
+        Reads the next block of the request into the buffer, first moving
+        the unconsumed bytes to the front.  Never reads beyond the content
+        length.
+        @return false if there is no more input
+    */
+    private boolean fill () throws IOException
+    {
+        if (_isEndOfInput) {
+            return false;
+        }
+        int remaining = _bufferLimit - _bufferPosition;
+        if (_bufferPosition > 0) {
+            System.arraycopy(_buffer, _bufferPosition, _buffer, 0, remaining);
+            _bufferPosition = 0;
+            _bufferLimit = remaining;
+        }
+        int length = _buffer.length - _bufferLimit;
+        if (_contentLength > 0) {
+            length = Math.min(length, _contentLength - _bytesRead);
+            if (length <= 0) {
+                _isEndOfInput = true;
+                return false;
+            }
+        }
+        int bytesRead = _inputStream.read(_buffer, _bufferLimit, length);
+        if (bytesRead == -1) {
+            _isEndOfInput = true;
+            return false;
+        }
+        _bufferLimit += bytesRead;
+        _bytesRead += bytesRead;
+        ProgressMonitor.instance().setCurrentCount(_bytesRead / 1024);
+        return true;
+    }
+
+    private int read () throws IOException
+    {
+        if (_bufferPosition == _bufferLimit && !fill()) {
+            return -1;
+        }
+        return _buffer[_bufferPosition++] & 0xFF;
+    }
+
+    private boolean isAtEnd () throws IOException
+    {
+        return _isAtEnd || (_bufferPosition == _bufferLimit && !fill());
+    }
+
+    private int indexOf (byte[] markerBytes, int start, int end)
+    {
+        byte first = markerBytes[0];
+        int markerLength = markerBytes.length;
+        int last = end - markerLength;
+    outer:
+        for (int index = start; index <= last; index++) {
+            if (_buffer[index] != first) {
+                continue;
+            }
+            for (int offset = 1; offset < markerLength; offset++) {
+                if (_buffer[index + offset] != markerBytes[offset]) {
+                    continue outer;
+                }
+            }
+            return index;
+        }
+        return -1;
+    }
+
+    /**
+        Writes length bytes at offset in the buffer to the channel, unless
+        that would take the chunk beyond maxBytes, in which case only the
+        bytes up to the limit are written and the chunk is flagged as
+        oversized.
+        @return number of bytes written
+    */
+    private int write (WritableByteChannel channel, int offset, int length,
+                       int bytesWritten, int maxBytes)
+        throws IOException
+    {
+        if ((maxBytes != -1) && (bytesWritten + length > maxBytes)) {
+            length = Math.max(0, maxBytes - bytesWritten);
+            _MaxChunkSizeExceeded = true;
+        }
+        if (length > 0) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(_buffer, offset, length);
+            while (byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer);
+            }
+        }
+        return length;
+    }
 
     /**
         Reads input from the multipart form post until the marker bytes are reached.
+        Bytes beyond maxBytes are scanned for the marker but discarded.
         @param markerBytes the byte array containing the marker which signals the end of the chunk
-        @param ostream the output stream to which the chunk bytes are written
-        @param maxBytes maximum number of bytes to read
-        @return number of bytes appended to the buffer
+        @param channel the channel to which the chunk bytes are written
+        @param maxBytes maximum number of bytes to write, or -1 for no limit
+        @return number of bytes written, or -1 if the input ended before the marker
     */
     private int readToMarker (byte[] markerBytes,
-                              BufferedOutputStream ostream,
+                              WritableByteChannel channel,
                               int maxBytes)
         throws IOException
     {
-        int bytesAppendedToBuffer = 0;
-        int byteArraySize = 16 * BUFFER_SIZE;
-        AWByteArray byteArray = new AWByteArray(byteArraySize);
+        _MaxChunkSizeExceeded = false;
         int markerLength = markerBytes.length;
-        byte markerBytesEnd = markerBytes[markerLength - 1];
-
-        while (_position < _contentLength) {
-            int intRead = _inputStream.read();
-            _position++;
-            if (_position % 1024 == 0) {
-                ProgressMonitor.instance().setCurrentCount(currentPosition() / 1024);
-            }
-
-            if (intRead == -1) {
-                break;
-            }
-            byte byteRead = (byte)intRead;
-            byteArray.addElement(byteRead);
-            bytesAppendedToBuffer++;
-            if ((maxBytes != -1) && (bytesAppendedToBuffer == (maxBytes + markerLength))) {
-                // if the number of bytes has exceeded the maximum, copy what has been processed so far
-                // and process the rest of the input without adding it to the buffer
-                int byteLength = byteArray.inUse - markerLength;
-                ostream.write(byteArray.array(), 0, byteLength);
-                processOversizedChunkInRequest(byteArray, markerLength, markerBytesEnd, markerBytes);
-                break;
-            }
-            if ((byteRead == markerBytesEnd) && byteArray.endsWith(markerBytes)) {
-                int byteLength = byteArray.inUse - markerLength;
-                if (byteLength != 0) {
+        // a marker that is not fully in the buffer yet can start at most
+        // markerLength - 1 bytes before the end, and must be preceded by
+        // the CRLF we strip, so that much is always held back
+        int holdBack = markerLength + 1;
+        int chunkLength = 0;
+        int bytesWritten = 0;
+        while (true) {
+            int markerIndex = indexOf(markerBytes, _bufferPosition, _bufferLimit);
+            if (markerIndex != -1) {
+                int dataEnd = markerIndex;
+                if (chunkLength + (markerIndex - _bufferPosition) != 0) {
                     // If this chunk is non-empty, there is a carriage return and line feed (blank line) between the end
                     // input data and the beginning of the marker. We need to strip off two characters to remove them.
-                    byteLength = byteLength - 2;
-                    // Adjust the count of bytes appended to buffer to account for marker and extra CRNL
-                    bytesAppendedToBuffer = bytesAppendedToBuffer - markerLength - 2;
-                }
-                else {
-                    // Adjust the count of bytes appended to buffer to account for marker
-                    bytesAppendedToBuffer -= markerLength;
+                    dataEnd = Math.max(_bufferPosition, markerIndex - 2);
                 }
-
-                ostream.write(byteArray.array(), 0, byteLength);
-                intRead = _inputStream.read();
-                intRead = _inputStream.read();
-                if ((byte)intRead == '-') {
+                bytesWritten += write(channel, _bufferPosition, dataEnd - _bufferPosition,
+                                      bytesWritten, maxBytes);
+                _bufferPosition = markerIndex + markerLength;
+                // the marker is followed by CRLF, or by "--" for the closing marker
+                read();
+                if (read() == '-') {
                     _isAtEnd = true;
                 }
-                break;
+                return bytesWritten;
+            }
+            int safeEnd = _bufferLimit - holdBack;
+            if (safeEnd > _bufferPosition) {
+                int length = safeEnd - _bufferPosition;
+                bytesWritten += write(channel, _bufferPosition, length, bytesWritten, maxBytes);
+                chunkLength += length;
+                _bufferPosition = safeEnd;
             }
-            if (byteArray.inUse >= (byteArraySize - 16)) {
-                // If the buffer is full, we write out the current bytes and left shift the buffer so that
-                // the marker and the extra carriage return and new line which follow the chunk data and precede the
-                // marker remain in the buffer.
-                ostream.write(byteArray.array(), 0, (byteArray.inUse - markerLength - 2));
-                byteArray.leftShiftElements(byteArray.inUse - markerLength - 2);
+            if (!fill()) {
+                // malformed request: the input ended without a marker
+                bytesWritten += write(channel, _bufferPosition, _bufferLimit - _bufferPosition,
+                                      bytesWritten, maxBytes);
+                _bufferPosition = _bufferLimit;
+                _isAtEnd = true;
+                return -1;
             }
         }
-
-        return bytesAppendedToBuffer;
     }
 
     private byte[] readToMarker (byte[] markerBytes, int maxBytes) throws IOException
     {
-        int bytesAppendedToBuffer = 0;
-        byte[] buffer = null;
-        AWByteArray byteArray = new AWByteArray(16 * BUFFER_SIZE);
-        int markerLength = markerBytes.length;
-        byte markerBytesEnd = markerBytes[markerLength - 1];
-        while (_position < _contentLength) {
-            int intRead = _inputStream.read();
-            _position++;
-            if (_position % 1024 == 0) {
-                ProgressMonitor.instance().setCurrentCount(currentPosition() / 1024);
-            }
-
-            if (intRead == -1) {
-                break;
-            }
-            byte byteRead = (byte)intRead;
-            byteArray.addElement(byteRead);
-            bytesAppendedToBuffer++;
-            if ((maxBytes != -1) && (bytesAppendedToBuffer == (maxBytes + markerLength))) {
-                // if the number of bytes has exceeded the maximum, copy what has been processed so far
-                // and process the rest of the input without adding it to the buffer
-                int byteLength = byteArray.inUse - markerLength;
-                buffer = new byte[byteLength];
-                System.arraycopy(byteArray.array(), 0, buffer, 0, byteLength);
-                processOversizedChunkInRequest(byteArray, markerLength, markerBytesEnd, markerBytes);
-                break;
-            }
-            if ((byteRead == markerBytesEnd) && byteArray.endsWith(markerBytes)) {
-                int byteLength = byteArray.inUse - markerLength;
-                if (byteLength != 0) {
-                    // If this chunk is non-empty, there is a carriage return and line feed (blank line) between the end
-                    // input data and the beginning of the marker. We need to strip off two characters to remove them.
-                    byteLength = byteLength - 2;
-                }
-                buffer = new byte[byteLength];
-                System.arraycopy(byteArray.array(), 0, buffer, 0, byteLength);
-                intRead = _inputStream.read();
-                intRead = _inputStream.read();
-                if ((byte)intRead == '-') {
-                    _isAtEnd = true;
-                }
-                break;
-            }
-        }
-        return buffer;
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream(BUFFER_SIZE / 4);
+        int bytesWritten = readToMarker(markerBytes, Channels.newChannel(byteStream), maxBytes);
+        return (bytesWritten == -1) ? null : byteStream.toByteArray();
     }
 
     public static int maxBytesPerChunk ()
@@ -238,38 +297,6 @@ public final class AWMimeReader extends AWBaseObject
         _MaxBytesPerChunk = value;
     }
 
-    // This method is called when the maximum size of a chunk (parameter value) has been exceeded while processing the
-    // request input. It continues to process the input in order to scan for the marker, but it will dispose of
-    // data in byteArray to keep it from growing.
-
-    private void processOversizedChunkInRequest (AWByteArray byteArray,
-                                                 int markerLength, byte markerBytesEnd,
-                                                 byte[]markerBytes) throws IOException
-    {
-        _MaxChunkSizeExceeded = true;
-        int sizeOfByteArray = byteArray.array().length;
-        while (true) {
-            if (byteArray.inUse >= sizeOfByteArray) {
-                byteArray.leftShiftElements(sizeOfByteArray - markerLength);
-            }
-            int intRead = _inputStream.read();
-            _position++;
-            if (intRead == -1) {
-                throw new IOException("Malformed request - unexpected end of input.");
-            }
-            byte byteRead = (byte)intRead;
-            byteArray.addElement((byte)intRead);
-            if ((byteRead == markerBytesEnd) && byteArray.endsWith(markerBytes)) {
-                intRead = _inputStream.read();
-                intRead = _inputStream.read();
-                if ((byte)intRead == '-') {
-                    _isAtEnd = true;
-                }
-                break;
-            }
-        }
-    }
-
     public boolean maxChunkSizeExceeded ()
     {
         return _MaxChunkSizeExceeded;
@@ -287,10 +314,10 @@ public final class AWMimeReader extends AWBaseObject
 
     public Parameters nextHeaders () throws IOException
     {
-        if (_isAtEnd || (_position >= _contentLength)) {
+        if (isAtEnd()) {
             return null;
         }
-        return AWRFC822Header.parse(_inputStream, AWCharacterEncoding.Default);
+        return AWRFC822Header.parse(_bufferedInputStream, AWCharacterEncoding.Default);
     }
 
     public AWFileData nextChunk (String fileName, String mimeType) throws IOException
@@ -303,14 +330,17 @@ public final class AWMimeReader extends AWBaseObject
     {
         _MaxChunkSizeExceeded = false;
         AWFileData fileData = null;
-        if (_isAtEnd || (_position >= _contentLength)) {
+        if (isAtEnd()) {
             Log.aribaweb_request.debug(
                 "nextChunk _position: %s, _contentLenght %s, _isAtEnd",
-                _position, _contentLength, Boolean.toString(_isAtEnd));
+                currentPosition(), _contentLength, Boolean.toString(_isAtEnd));
             return null;
         }
         if (StringUtil.nullOrEmptyString(_fileUploadDirectory)) {
             byte[] byteArray = readToBoundary(maxBytes);
+            if (byteArray == null) {
+                throw new IOException("Malformed request - unexpected end of input.");
+            }
             Log.aribaweb_request.debug("nextChunk byteArray.length: %s",
                                        byteArray.length);
             if (byteArray.length != 0) {
@@ -321,15 +351,34 @@ public final class AWMimeReader extends AWBaseObject
         else {
             File uploadDirectory = new File(_fileUploadDirectory);
             File uploadFile = File.createTempFile("awupload", ".tmp", uploadDirectory);
-            OutputStream tempStream = new FileOutputStream(uploadFile);
+            FileOutputStream fileStream = new FileOutputStream(uploadFile);
+            OutputStream cipherStream = null;
+            WritableByteChannel channel;
             if (encrypted) {
-                tempStream = AWEncryptionProvider.getProvider().getCipherOutputStream(tempStream);
+                cipherStream = AWEncryptionProvider.getProvider().getCipherOutputStream(fileStream);
+                channel = Channels.newChannel(cipherStream);
+            }
+            else {
+                channel = fileStream.getChannel();
+            }
+            int bytesRead = -1;
+            try {
+                bytesRead = readToMarker(_boundaryMarker, channel, maxBytes);
+            }
+            finally {
+                channel.close();
+                if (cipherStream != null) {
+                    cipherStream.close();
+                }
+                fileStream.close();
+                if (bytesRead == -1) {
+                    uploadFile.delete();
+                }
+            }
+            if (bytesRead == -1) {
+                throw new IOException("Malformed request - unexpected end of input.");
             }
-            BufferedOutputStream ostream =
-                new BufferedOutputStream(tempStream);
-            int bytesRead = readToMarker(_boundaryMarker, ostream, maxBytes);
             Log.aribaweb_request.debug("nextChunk byteRead: %s", bytesRead);
-            ostream.close();
             if (!StringUtil.nullOrEmptyOrBlankString(fileName)) {
                 fileData = new AWFileData(fileName, uploadFile, mimeType,
                                           maxChunkSizeExceeded(), bytesRead, encrypted);
@@ -349,8 +398,8 @@ public final class AWMimeReader extends AWBaseObject
 
     public byte[] nextChunk (int maxBytes) throws IOException
     {
-        if (_isAtEnd || (_position >= _contentLength)) {
-            Log.aribaweb_request.debug("nextChunk2 _position: %s, _contentLenght %s, _isAtEnd", _position, _contentLength, Boolean.toString(_isAtEnd));
+        if (isAtEnd()) {
+            Log.aribaweb_request.debug("nextChunk2 _position: %s, _contentLenght %s, _isAtEnd", currentPosition(), _contentLength, Boolean.toString(_isAtEnd));
             return null;
         }
         return readToBoundary(maxBytes);
@@ -365,6 +414,18 @@ public final class AWMimeReader extends AWBaseObject
     {
         return _fileUploadDirectory;
     }
+
+    /**
+        The part headers are parsed from the reader's buffer rather than
+        from the request input stream.
+    */
+    private final class BufferedInput extends InputStream
+    {
+        public int read () throws IOException
+        {
+            return AWMimeReader.this.read();
+        }
+    }
 }
 
 /**
@@ -0,0 +1,339 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.ui.aribaweb.util;
+
+import ariba.util.core.ListUtil;
+import ariba.util.core.MapUtil;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+    Estimates the heap retained by an object graph by walking its fields
+    reflectively.
+    <p>
+    The estimate is bounded in cost rather than exact: object shallow
+    sizes are derived from the declared fields with the usual 64 bit
+    compressed oops layout, the walk stops after a fixed number of objects
+    (see {@link #isTruncated}), and of large arrays and collections only a
+    sample of the elements is walked and the result scaled up to the full
+    length.  Instances of the stop classes (shared, application wide state
+    such as templates and resource managers), classes, enums and the
+    referents of soft and weak references are never counted.
+    <p>
+    Objects are counted once per estimator: an object reachable from
+    several roots passed to {@link #estimate} is charged to the first one,
+    until {@link #reset}.  Classes whose fields cannot be made accessible
+    (JDK classes on module enabled VMs) are counted shallowly, with
+    collections, maps and strings walked through their public API instead.
+    <p>
+    An estimator is not thread safe; the graph it walks may be changed
+    concurrently, which at worst skews the estimate.
+
+    @aribaapi private
+*/
+public final class AWObjectSizeEstimator
+{
+    public static int ObjectHeaderSize = 12;
+    public static int ArrayHeaderSize = 16;
+    public static int ReferenceSize = 4;
+    public static int MapEntrySize = 32;
+    private static final int Alignment = 8;
+
+    private static final Field[] NoFields = new Field[0];
+
+    private final int _maxObjects;
+    private final int _maxSampledElements;
+    private final List<Class> _stopClasses = ListUtil.list();
+    private final Map<Class,Boolean> _isStopClass = MapUtil.map();
+    private final Map<Class,Layout> _layouts = MapUtil.map();
+    private final IdentityHashMap<Object,Object> _visited = new IdentityHashMap<Object,Object>();
+    private final List<Pending> _pending = ListUtil.list();
+    private int _objectCount;
+    private boolean _isTruncated;
+
+    /**
+        @param maxObjects the number of objects walked until {@link #reset}
+        @param maxSampledElements the number of elements walked of each
+        array or collection
+    */
+    public AWObjectSizeEstimator (int maxObjects, int maxSampledElements)
+    {
+        _maxObjects = maxObjects;
+        _maxSampledElements = Math.max(1, maxSampledElements);
+        addStopClass(Class.class);
+        addStopClass(ClassLoader.class);
+        addStopClass(Thread.class);
+        addStopClass(Enum.class);
+    }
+
+    /**
+        Objects which are instances of <code>stopClass</code> are neither
+        counted nor walked, unless passed as the root to {@link #estimate}.
+    */
+    public void addStopClass (Class stopClass)
+    {
+        _stopClasses.add(stopClass);
+        _isStopClass.clear();
+    }
+
+    /**
+        Forgets the objects counted so far, so that the next root is
+        estimated on its own.
+    */
+    public void reset ()
+    {
+        _visited.clear();
+        _pending.clear();
+        _objectCount = 0;
+        _isTruncated = false;
+    }
+
+    /**
+        Whether the object budget was exhausted since the last reset, i.e.
+        the estimates are low.
+    */
+    public boolean isTruncated ()
+    {
+        return _isTruncated;
+    }
+
+    public int objectCount ()
+    {
+        return _objectCount;
+    }
+
+    /**
+        Returns the estimated number of bytes reachable from
+        <code>root</code> and not yet counted by this estimator.
+    */
+    public long estimate (Object root)
+    {
+        double size = 0;
+        boolean isRoot = true;
+        push(root, 1.0);
+        while (!_pending.isEmpty()) {
+            Pending pending = _pending.remove(_pending.size() - 1);
+            Object object = pending.object;
+            if (_visited.containsKey(object) || (!isRoot && isStopped(object.getClass()))) {
+                continue;
+            }
+            isRoot = false;
+            if (_objectCount >= _maxObjects) {
+                _isTruncated = true;
+                _pending.clear();
+                break;
+            }
+            _visited.put(object, object);
+            _objectCount++;
+            size += pending.weight * walk(object, pending.weight);
+        }
+        return (long)size;
+    }
+
+    private void push (Object object, double weight)
+    {
+        if (object != null) {
+            _pending.add(new Pending(object, weight));
+        }
+    }
+
+    /**
+        Pushes the fields / elements of object and returns its shallow size.
+    */
+    private long walk (Object object, double weight)
+    {
+        Class objectClass = object.getClass();
+        if (objectClass.isArray()) {
+            Class componentType = objectClass.getComponentType();
+            int length = Array.getLength(object);
+            if (!componentType.isPrimitive()) {
+                Object[] elements = (Object[])object;
+                int step = length > _maxSampledElements ? length / _maxSampledElements : 1;
+                double elementWeight = weight * step;
+                for (int index = 0; index < length; index += step) {
+                    push(elements[index], elementWeight);
+                }
+            }
+            return align(ArrayHeaderSize + (long)length * primitiveSize(componentType));
+        }
+        Layout layout = layout(objectClass);
+        if (!layout.isOpaque) {
+            Field[] fields = layout.referenceFields;
+            for (int index = 0; index < fields.length; index++) {
+                try {
+                    push(fields[index].get(object), weight);
+                }
+                catch (IllegalAccessException e) {
+                    // counted shallowly
+                }
+            }
+            return layout.size;
+        }
+        if (object instanceof String) {
+            return layout.size + align(ArrayHeaderSize + 2L * ((String)object).length());
+        }
+        try {
+            if (object instanceof Collection) {
+                Collection collection = (Collection)object;
+                int size = collection.size();
+                pushSample(collection.iterator(), size, weight);
+                return layout.size + align(ArrayHeaderSize + (long)size * ReferenceSize);
+            }
+            if (object instanceof Map) {
+                Map map = (Map)object;
+                int size = map.size();
+                pushSample(map.entrySet().iterator(), size, weight);
+                return layout.size + align(ArrayHeaderSize + (long)size * ReferenceSize)
+                    + (long)size * MapEntrySize;
+            }
+        }
+        catch (RuntimeException e) {
+            // concurrently modified -- go with what we have so far
+        }
+        return layout.size;
+    }
+
+    private void pushSample (Iterator iterator, int size, double weight)
+    {
+        int count = Math.min(size, _maxSampledElements);
+        double elementWeight = count == 0 ? weight : weight * size / count;
+        for (int index = 0; index < count && iterator.hasNext(); index++) {
+            Object element = iterator.next();
+            if (element instanceof Map.Entry) {
+                Map.Entry entry = (Map.Entry)element;
+                push(entry.getKey(), elementWeight);
+                push(entry.getValue(), elementWeight);
+            }
+            else {
+                push(element, elementWeight);
+            }
+        }
+    }
+
+    private boolean isStopped (Class objectClass)
+    {
+        Boolean isStopped = _isStopClass.get(objectClass);
+        if (isStopped == null) {
+            isStopped = Boolean.FALSE;
+            for (int index = 0, count = _stopClasses.size(); index < count; index++) {
+                if (_stopClasses.get(index).isAssignableFrom(objectClass)) {
+                    isStopped = Boolean.TRUE;
+                    break;
+                }
+            }
+            _isStopClass.put(objectClass, isStopped);
+        }
+        return isStopped.booleanValue();
+    }
+
+    private Layout layout (Class objectClass)
+    {
+        Layout layout = _layouts.get(objectClass);
+        if (layout == null) {
+            layout = new Layout(objectClass);
+            _layouts.put(objectClass, layout);
+        }
+        return layout;
+    }
+
+    private static long align (long size)
+    {
+        return (size + Alignment - 1) & ~(Alignment - 1);
+    }
+
+    private static int primitiveSize (Class type)
+    {
+        if (!type.isPrimitive()) {
+            return ReferenceSize;
+        }
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+        Shallow size and reference fields of a class.
+    */
+    private static final class Layout
+    {
+        final long size;
+        final Field[] referenceFields;
+        final boolean isOpaque;
+
+        Layout (Class objectClass)
+        {
+            long size = ObjectHeaderSize;
+            List<Field> referenceFields = ListUtil.list();
+            boolean isOpaque = false;
+            for (Class current = objectClass; current != null;
+                 current = current.getSuperclass()) {
+                Field[] fields = current.getDeclaredFields();
+                for (int index = 0; index < fields.length; index++) {
+                    Field field = fields[index];
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    Class type = field.getType();
+                    size += primitiveSize(type);
+                    // the referents of soft / weak references are not retained
+                    if (type.isPrimitive() || current == java.lang.ref.Reference.class) {
+                        continue;
+                    }
+                    if (!isOpaque) {
+                        try {
+                            field.setAccessible(true);
+                            referenceFields.add(field);
+                        }
+                        catch (RuntimeException e) {
+                            isOpaque = true;
+                        }
+                    }
+                }
+            }
+            this.size = align(size);
+            this.isOpaque = isOpaque;
+            this.referenceFields =
+                isOpaque ? NoFields : referenceFields.toArray(new Field[referenceFields.size()]);
+        }
+    }
+
+    private static final class Pending
+    {
+        final Object object;
+        final double weight;
+
+        Pending (Object object, double weight)
+        {
+            this.object = object;
+            this.weight = weight;
+        }
+    }
+}
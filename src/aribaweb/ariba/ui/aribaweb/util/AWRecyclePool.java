@@ -47,6 +47,15 @@ abstract public class AWRecyclePool extends AWBaseObject
         return newPool;
     }
 
+    /**
+        Returns a pool which may be used by many threads at once without
+        locking (see AWConcurrentRecyclePool).
+    */
+    public static AWRecyclePool newConcurrentPool (int maxSize, boolean debugEnabled)
+    {
+        return new AWConcurrentRecyclePool(maxSize == -1 ? MaxSize : maxSize, debugEnabled);
+    }
+
     public Object checkout ()
     {
         Object object = null;
@@ -100,7 +109,7 @@ final class AWSynchronizedPool extends AWRecyclePool
         return super.checkout();
     }
 
-    public synchronized void checkin (AWBaseObject object)
+    public synchronized void checkin (Object object)
     {
         super.checkin(object);
     }
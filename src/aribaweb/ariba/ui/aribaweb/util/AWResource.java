@@ -29,6 +29,8 @@ public abstract class AWResource extends AWBaseObject
     protected Object _object;
     protected long _objectLastModified;
     protected int _hashCode;
+    // see AWResourceFingerprints
+    volatile AWResourceFingerprints.Fingerprint _fingerprint;
 
     protected AWResource (String resourceName, String relativePath)
     {
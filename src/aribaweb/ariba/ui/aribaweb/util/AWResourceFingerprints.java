@@ -0,0 +1,218 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.ui.aribaweb.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+    Content fingerprints of static resources, for far future cacheable
+    resource urls (see AWConcreteApplication.formatUrlForResource() and
+    AWDirectAction.awfpAction()).
+    <p>
+    The fingerprint of a resource is a hash of its content, computed on
+    first use and again whenever the resource's lastModified() changes.
+    Fingerprinted urls are registered by the resource's regular url so that
+    the serving action can find the resource again.  Compressible resources
+    (scripts and style sheets) are gzipped along with computing the
+    fingerprint and kept in memory, up to MaxCompressedBytes in total.
+
+    @aribaapi private
+*/
+public final class AWResourceFingerprints
+{
+    public static long MaxCompressedBytes = 16 * 1024 * 1024;
+    public static int MaxCompressedResourceBytes = 1024 * 1024;
+
+    private static final char[] HexDigits = "0123456789abcdef".toCharArray();
+    private static final int FingerprintBytes = 8;
+
+    private static final ConcurrentHashMap<String,AWResource> ResourcesByUrl =
+        new ConcurrentHashMap<String,AWResource>();
+    private static final AtomicLong CompressedBytes = new AtomicLong();
+
+    /**
+        The fingerprint of one version of a resource.
+    */
+    public static final class Fingerprint
+    {
+        private final String _value;
+        private final long _lastModified;
+        private final byte[] _gzippedContent;
+        private volatile String _url;
+        private volatile String _fingerprintedUrl;
+
+        Fingerprint (String value, long lastModified, byte[] gzippedContent)
+        {
+            _value = value;
+            _lastModified = lastModified;
+            _gzippedContent = gzippedContent;
+        }
+
+        public String value ()
+        {
+            return _value;
+        }
+
+        /**
+            The gzipped content of the resource, or null if not kept.
+        */
+        public byte[] gzippedContent ()
+        {
+            return _gzippedContent;
+        }
+
+        /**
+            The fingerprinted url last formatted for <code>url</code>, or
+            null.
+        */
+        public String fingerprintedUrl (String url)
+        {
+            return url.equals(_url) ? _fingerprintedUrl : null;
+        }
+
+        public void setFingerprintedUrl (String url, String fingerprintedUrl)
+        {
+            _fingerprintedUrl = fingerprintedUrl;
+            _url = url;
+        }
+    }
+
+    /**
+        Returns the current fingerprint of <code>resource</code>, or null if
+        its content cannot be read.
+    */
+    public static Fingerprint fingerprint (AWResource resource)
+    {
+        Fingerprint fingerprint = resource._fingerprint;
+        long lastModified = resource.lastModified();
+        if (fingerprint == null || fingerprint._lastModified != lastModified) {
+            synchronized (resource) {
+                fingerprint = resource._fingerprint;
+                if (fingerprint == null || fingerprint._lastModified != lastModified) {
+                    Fingerprint previous = fingerprint;
+                    fingerprint = computeFingerprint(resource, lastModified);
+                    resource._fingerprint = fingerprint;
+                    if (previous != null && previous._gzippedContent != null) {
+                        CompressedBytes.addAndGet(-previous._gzippedContent.length);
+                    }
+                }
+            }
+        }
+        return fingerprint;
+    }
+
+    private static Fingerprint computeFingerprint (AWResource resource, long lastModified)
+    {
+        byte[] content;
+        InputStream inputStream = null;
+        try {
+            inputStream = resource.inputStream();
+            content = AWUtil.getBytes(inputStream);
+        }
+        catch (RuntimeException e) {
+            Log.aribaweb.debug("AWResourceFingerprints: cannot read %s: %s", resource, e);
+            return null;
+        }
+        finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                }
+                catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new AWGenericException(e);
+        }
+        byte[] hash = digest.digest(content);
+        char[] value = new char[FingerprintBytes * 2];
+        for (int index = 0; index < FingerprintBytes; index++) {
+            value[index * 2] = HexDigits[(hash[index] >> 4) & 0xF];
+            value[index * 2 + 1] = HexDigits[hash[index] & 0xF];
+        }
+        return new Fingerprint(new String(value), lastModified, gzippedContent(resource, content));
+    }
+
+    private static byte[] gzippedContent (AWResource resource, byte[] content)
+    {
+        if (!isCompressible(resource.name()) || content.length > MaxCompressedResourceBytes
+                || CompressedBytes.get() + content.length > MaxCompressedBytes) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 3 + 64);
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            gzip.write(content);
+            gzip.close();
+            byte[] gzipped = bytes.toByteArray();
+            if (gzipped.length >= content.length) {
+                return null;
+            }
+            CompressedBytes.addAndGet(gzipped.length);
+            return gzipped;
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static boolean isCompressible (String resourceName)
+    {
+        return resourceName.endsWith(".js") || resourceName.endsWith(".css");
+    }
+
+    /**
+        Records that <code>resource</code> is served under a fingerprinted
+        version of its regular <code>url</code>.
+    */
+    public static void register (String url, AWResource resource)
+    {
+        ResourcesByUrl.put(url, resource);
+    }
+
+    /**
+        The resource registered for the regular <code>url</code>, or null.
+    */
+    public static AWResource resourceForUrl (String url)
+    {
+        return ResourcesByUrl.get(url);
+    }
+
+    public static int registeredResourceCount ()
+    {
+        return ResourcesByUrl.size();
+    }
+
+    public static long compressedBytes ()
+    {
+        return CompressedBytes.get();
+    }
+}
@@ -17,6 +17,7 @@
 
 package ariba.ui.servletadaptor;
 
+import ariba.ui.aribaweb.core.AWChangeChannel;
 import ariba.ui.aribaweb.core.AWConcreteApplication;
 import ariba.ui.aribaweb.core.AWRequestContext;
 import ariba.ui.aribaweb.core.AWResponseGenerating;
@@ -27,35 +28,240 @@ import ariba.util.core.PerformanceState;
 import ariba.util.core.StringUtil;
 import ariba.util.core.SystemUtil;
 import ariba.util.core.ThreadDebugState;
+import ariba.util.core.VirtualThreadFactory;
 import ariba.util.core.WrapperRuntimeException;
 import ariba.util.http.AribaServlet;
 import ariba.util.http.multitab.MaximumTabExceededException;
 import ariba.util.http.multitab.MultiTabHandler;
 import ariba.util.log.Logger;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 
 /**
+    The servlet that hands requests to the AWServletApplication.
+    <p>
+    Virtual thread mode: when the init parameter (or system property)
+    {@link #VirtualThreadsParameter} is "true", the container supports
+    asynchronous requests (Servlet 3.0 or later) and the VM supports virtual
+    threads (Java 21 or later), every request is put into asynchronous mode
+    and serviced on its own virtual thread, freeing the container thread
+    immediately.  The whole of service() (multi tab handler, performance
+    state, thread debug state) runs on the virtual thread, so all thread
+    locals are set up and cleared on the thread that uses them.  When any of
+    the prerequisites is missing requests are serviced as usual.
+    <p>
+    Change waits: GET requests carrying {@link AWChangeChannel#ChannelKey}
+    are long poll requests of AWPollInterval.  They never reach the
+    application; they are parked until the session's AWChangeChannel changes
+    or the wait times out, on the virtual thread in virtual thread mode or
+    as an asynchronous request otherwise.  If neither is possible they are
+    refused, and the browser falls back to polling on the poll interval.
+
     @aribaapi private
 */
 public class AWDispatcherServlet extends AribaServlet
 {
+    /**
+        Name of the servlet init parameter / system property enabling
+        virtual thread request execution.
+    */
+    public static final String VirtualThreadsParameter = "ariba.aribaweb.VirtualThreads";
+
     protected AWServletApplication _awapplication;
+    private VirtualThreadFactory _requestThreadFactory;
+    private final AtomicInteger _requestThreadId = new AtomicInteger();
 
 
-    // ** Thread Safety Considerations: the ivar _awapplication doesn't ever
-    // change, so this needs no locking.
+    // ** Thread Safety Considerations: the ivars _awapplication and
+    // _requestThreadFactory don't ever change after init, so this needs
+    // no locking.
 
     public void init (ServletConfig servletConfig) throws ServletException
     {
         AWServletApplication.initializeServletConfig(servletConfig);
         super.init(servletConfig);
         _awapplication = createApplication();
+        String virtualThreads = servletConfig.getInitParameter(VirtualThreadsParameter);
+        if (virtualThreads == null) {
+            virtualThreads = System.getProperty(VirtualThreadsParameter);
+        }
+        if ("true".equals(virtualThreads)) {
+            if (VirtualThreadFactory.isSupported() && AsyncSupport.isAvailable()) {
+                _requestThreadFactory = new VirtualThreadFactory();
+                Log.servletadaptor.info("Servicing requests on virtual threads");
+            }
+            else {
+                Log.servletadaptor.warn(Fmt.S(
+                    "%s requested but %s, servicing requests on container threads",
+                    VirtualThreadsParameter,
+                    VirtualThreadFactory.isSupported()
+                        ? "the container does not support asynchronous requests"
+                        : "this VM does not support virtual threads"));
+            }
+        }
+    }
+
+    /**
+        Returns true if requests are serviced on virtual threads.
+    */
+    public boolean usesVirtualThreads ()
+    {
+        return _requestThreadFactory != null;
+    }
+
+    public void service (HttpServletRequest request,
+                         HttpServletResponse response)
+            throws ServletException, IOException
+    {
+        if (_requestThreadFactory != null) {
+            Object asyncContext = AsyncSupport.startAsync(request);
+            if (asyncContext != null) {
+                Thread thread = _requestThreadFactory.createThread(
+                    new VirtualThreadRequest(request, response, asyncContext),
+                    Fmt.S("AWRequest-%s", String.valueOf(_requestThreadId.incrementAndGet())));
+                thread.start();
+                return;
+            }
+        }
+        super.service(request, response);
+    }
+
+    private void serviceOnCurrentThread (HttpServletRequest request,
+                                         HttpServletResponse response)
+            throws ServletException, IOException
+    {
+        super.service(request, response);
+    }
+
+    /**
+        Services one asynchronous request on a virtual thread and completes
+        the asynchronous context when done.
+    */
+    private final class VirtualThreadRequest implements Runnable
+    {
+        private final HttpServletRequest _request;
+        private final HttpServletResponse _response;
+        private final Object _asyncContext;
+
+        VirtualThreadRequest (HttpServletRequest request,
+                              HttpServletResponse response,
+                              Object asyncContext)
+        {
+            _request = request;
+            _response = response;
+            _asyncContext = asyncContext;
+        }
+
+        public void run ()
+        {
+            try {
+                serviceOnCurrentThread(_request, _response);
+            }
+            catch (Throwable throwable) { // OK
+                // already logged by LoggingServlet.service(), but there is no
+                // container thread left to turn it into an error response
+                try {
+                    if (!_response.isCommitted()) {
+                        _response.sendError(HTTP.CodeInternalServerError);
+                    }
+                }
+                catch (IOException e) {
+                    Log.aribaweb_request.debug(
+                        "** Error: exception thrown while handling exception : %s",
+                        SystemUtil.stackTrace(e));
+                }
+            }
+            finally {
+                AsyncSupport.complete(_asyncContext);
+            }
+        }
+    }
+
+    /**
+        Reflective access to the Servlet 3.0 asynchronous request API.  We
+        compile against an older servlet API, so the methods are looked up
+        at runtime.
+    */
+    private static final class AsyncSupport
+    {
+        private static final Method IsAsyncSupported;
+        private static final Method StartAsync;
+        private static final Method SetTimeout;
+        private static final Method Complete;
+
+        static {
+            Method isAsyncSupported = null;
+            Method startAsync = null;
+            Method setTimeout = null;
+            Method complete = null;
+            try {
+                Class asyncContextClass = Class.forName("javax.servlet.AsyncContext");
+                isAsyncSupported = ServletRequest.class.getMethod("isAsyncSupported");
+                startAsync = ServletRequest.class.getMethod("startAsync");
+                setTimeout = asyncContextClass.getMethod("setTimeout", Long.TYPE);
+                complete = asyncContextClass.getMethod("complete");
+            }
+            catch (ClassNotFoundException e) {
+                isAsyncSupported = null;
+            }
+            catch (NoSuchMethodException e) {
+                isAsyncSupported = null;
+            }
+            IsAsyncSupported = isAsyncSupported;
+            StartAsync = startAsync;
+            SetTimeout = setTimeout;
+            Complete = complete;
+        }
+
+        static boolean isAvailable ()
+        {
+            return IsAsyncSupported != null;
+        }
+
+        /**
+            Puts the request into asynchronous mode without a time out (our
+            own request handling enforces its limits).
+            @return the AsyncContext, or null if the request cannot be made
+            asynchronous, e.g. because a filter in the chain does not
+            support it.
+        */
+        static Object startAsync (HttpServletRequest request)
+        {
+            if (IsAsyncSupported == null) {
+                return null;
+            }
+            try {
+                if (!((Boolean)IsAsyncSupported.invoke(request)).booleanValue()) {
+                    return null;
+                }
+                Object asyncContext = StartAsync.invoke(request);
+                SetTimeout.invoke(asyncContext, Long.valueOf(0));
+                return asyncContext;
+            }
+            catch (Exception e) { // OK
+                Log.servletadaptor.debug("Unable to start asynchronous request: %s", e);
+                return null;
+            }
+        }
+
+        static void complete (Object asyncContext)
+        {
+            try {
+                Complete.invoke(asyncContext);
+            }
+            catch (Exception e) { // OK
+                Log.servletadaptor.debug("Unable to complete asynchronous request: %s", e);
+            }
+        }
     }
 
     public String applicationClassName ()
@@ -101,9 +307,105 @@ public class AWDispatcherServlet extends AribaServlet
             HttpServletResponse response,
             boolean isGet) throws IOException, ServletException
     {
+        if (isGet && request.getParameter(AWChangeChannel.ChannelKey) != null) {
+            waitForChange(request, response);
+            return;
+        }
         aribawebDispatcher(request, response);
     }
 
+    /**
+        Answers a long poll request on an AWChangeChannel.  Does not touch the
+        AWSession: the channel key is all we need.
+    */
+    private void waitForChange (HttpServletRequest request,
+                                HttpServletResponse response)
+            throws IOException
+    {
+        AWChangeChannel channel = AWChangeChannel.channelForKey(
+            request.getParameter(AWChangeChannel.ChannelKey));
+        if (channel == null) {
+            // session gone (or never existed) -- the regular poll will tell
+            response.sendError(HTTP.CodeNotFound);
+            return;
+        }
+        long seenVersion = channel.version();
+        String version = request.getParameter(AWChangeChannel.VersionKey);
+        if (version != null) {
+            try {
+                seenVersion = Long.parseLong(version);
+            }
+            catch (NumberFormatException e) {
+                response.sendError(HTTP.CodeBadRequest);
+                return;
+            }
+        }
+        if (VirtualThreadFactory.isVirtual(Thread.currentThread())) {
+            long currentVersion = channel.await(seenVersion,
+                                                AWChangeChannel.WaitTimeoutMillis);
+            writeChangeResponse(response, seenVersion, currentVersion);
+            return;
+        }
+        Object asyncContext = AsyncSupport.startAsync(request);
+        if (asyncContext == null) {
+            // can't park without tying up a container thread
+            response.sendError(HTTP.CodeServiceUnavailable);
+            return;
+        }
+        ChangeWait wait = new ChangeWait(response, asyncContext, seenVersion);
+        if (!channel.addListener(seenVersion, wait, AWChangeChannel.WaitTimeoutMillis)) {
+            wait.channelChanged(channel.version());
+        }
+    }
+
+    private static void writeChangeResponse (HttpServletResponse response,
+                                             long seenVersion,
+                                             long version)
+            throws IOException
+    {
+        byte[] bytes = AWChangeChannel.response(seenVersion, version).getBytes("UTF-8");
+        response.setContentType("text/plain; charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache, no-store");
+        response.setContentLength(bytes.length);
+        OutputStream outputStream = response.getOutputStream();
+        outputStream.write(bytes);
+        outputStream.flush();
+    }
+
+    /**
+        An asynchronous long poll request waiting on an AWChangeChannel.
+        Runs on the thread which changed the channel (or on the channel's
+        time out thread); the response is a few bytes, so writing it there
+        is cheap.
+    */
+    private static final class ChangeWait implements AWChangeChannel.Listener
+    {
+        private final HttpServletResponse _response;
+        private final Object _asyncContext;
+        private final long _seenVersion;
+
+        ChangeWait (HttpServletResponse response, Object asyncContext, long seenVersion)
+        {
+            _response = response;
+            _asyncContext = asyncContext;
+            _seenVersion = seenVersion;
+        }
+
+        public void channelChanged (long version)
+        {
+            try {
+                writeChangeResponse(_response, _seenVersion, version);
+            }
+            catch (IOException e) {
+                // the browser went away, nothing to tell it
+                Log.servletadaptor.debug("Unable to answer change wait: %s", e);
+            }
+            finally {
+                AsyncSupport.complete(_asyncContext);
+            }
+        }
+    }
+
     @Override
     public String multiTabHandlerName ()
     {
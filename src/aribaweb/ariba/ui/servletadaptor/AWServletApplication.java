@@ -131,9 +131,21 @@ public class AWServletApplication extends AWConcreteApplication
         we use the request to determine our URL prefix (which we subsequently use
         when constructing DirectAction URLs).
     */
-    public synchronized void initAdaptorUrl (HttpServletRequest servletRequest)
+    public void initAdaptorUrl (HttpServletRequest servletRequest)
     {
+        // unsynchronized check first: this runs on every request and the
+        // urls are only set once (the fields are volatile)
         boolean isRequestSecure = servletRequest.isSecure();
+        if (isRequestSecure ? _adaptorUrlSecure != null : _adaptorUrl != null) {
+            return;
+        }
+        synchronized (this) {
+            initAdaptorUrl(servletRequest, isRequestSecure);
+        }
+    }
+
+    private void initAdaptorUrl (HttpServletRequest servletRequest, boolean isRequestSecure)
+    {
         String requestUrlString = servletRequest.getRequestURL().toString();
 
         if (((_adaptorUrl == null) && (!isRequestSecure)) ||
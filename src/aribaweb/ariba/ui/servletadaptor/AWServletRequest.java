@@ -138,6 +138,13 @@ public class AWServletRequest extends AWBaseRequest
 
     protected byte[] initContent ()
     {
+        if (isMultipartEncoded()) {
+            // multipart bodies (file uploads) are parsed straight off the
+            // servlet input stream by AWMimeReader and never held in memory.
+            // Returning null (rather than an empty array) keeps content()
+            // from caching anything, so contentStream() stays the input stream.
+            return null;
+        }
         byte[] contentBytes = null;
         try {
             // This block of code largely borrowed from ariba.util.net.https.EntrustHttpsURLConnection.java
@@ -163,8 +163,13 @@ public class AWServletResponse extends AWBaseResponse
             }
         }
         else if (_inputStream != null) {
-            _bytesWritten += AWUtil.streamCopy(_inputStream, outputStream);
-            _inputStream.close();
+            try {
+                _bytesWritten += AWUtil.streamCopy(_inputStream, outputStream);
+            }
+            finally {
+                // also when the client went away, the stream may hold resources
+                _inputStream.close();
+            }
         }
         else {
             writeContent(outputStream);
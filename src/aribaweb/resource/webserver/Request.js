@@ -19,6 +19,7 @@ ariba.Request = function() {
     var AWPollEnabled = true;
     var AWPollOnError = false;
     var AWPollTimeoutId, AWPollSenderId, AWPollUpdateSenderId, AWPollInterval;
+    var AWChangeWaitUrl, AWChangeVersion, AWChangeWaitXMLHttp;
     
     // register a form value for submission -- allows submission of form values for
     // elements that are not in the current form.
@@ -249,7 +250,8 @@ ariba.Request = function() {
             return urlString;
         },
 
-        setupPoll : function (enabled, intervalSecs, senderId, updateId, pollOnError)
+        setupPoll : function (enabled, intervalSecs, senderId, updateId, pollOnError,
+                              changeWaitUrl, changeVersion)
         {
             AWPollEnabled = enabled;
             
@@ -263,17 +265,100 @@ ariba.Request = function() {
             AWPollSenderId = senderId;
             AWPollUpdateSenderId = updateId;
             AWPollOnError = pollOnError
-            
+
+            // With a change wait url the server tells us when to poll (long poll),
+            // otherwise we poll every AWPollInterval.  A wait already outstanding
+            // on the same url is left alone.
+            changeWaitUrl = changeWaitUrl || null;
+            if (AWChangeWaitUrl != changeWaitUrl) {
+                cancelWait();
+                AWChangeWaitUrl = changeWaitUrl;
+                AWChangeVersion = changeVersion;
+            }
+
         // kick off initial timer
             timer();
 
             function timer()
             {
-                if (AWPollEnabled && AWPollTimeoutId == null) {
+                if (AWPollEnabled && AWChangeWaitUrl) {
+                    waitForChange();
+                }
+                else if (AWPollEnabled && AWPollTimeoutId == null) {
                     AWPollTimeoutId = setTimeout(poll.bind(Request), AWPollInterval);
                 }
             }
 
+            function cancelWait ()
+            {
+                if (AWChangeWaitXMLHttp) {
+                    var xmlhttp = AWChangeWaitXMLHttp;
+                    AWChangeWaitXMLHttp = null;
+                    xmlhttp.onreadystatechange = Request.nullFunc;
+                    xmlhttp.abort();
+                }
+            }
+
+            // The wait request does not go through the XMLHttp queue (_asyncGet):
+            // it is idle most of the time and must not hold up other requests.
+            function waitForChange ()
+            {
+                if (AWChangeWaitXMLHttp) return;
+                var xmlhttp = Request.getXMLHttp();
+                var url = Request.appendQueryValue(AWChangeWaitUrl,
+                                                   "awchv", AWChangeVersion);
+                xmlhttp.open("GET", url, true);
+                xmlhttp.onreadystatechange = function() {
+                    if (xmlhttp.readyState == 4 && AWChangeWaitXMLHttp == xmlhttp) {
+                        AWChangeWaitXMLHttp = null;
+                        setTimeout(function () {
+                            waitCallback(xmlhttp);
+                        }, 0);
+                    }
+                };
+                AWChangeWaitXMLHttp = xmlhttp;
+                try {
+                    xmlhttp.send(null);
+                }
+                catch (e) {
+                    AWChangeWaitXMLHttp = null;
+                    waitFailed();
+                }
+            }
+
+            function waitCallback (xmlhttp)
+            {
+                var response = xmlhttp.responseText;
+                Debug.log("change wait response: " + Util.htmlEscapeValue(response));
+                var match = xmlhttp.status == 200 && response
+                    ? response.match(/^<AWPoll state='(\w+)' version='(\d+)'\/>$/) : null;
+                if (!match) {
+                    waitFailed();
+                    return;
+                }
+                AWChangeVersion = match[2];
+                if (match[1] == "nochange") {
+                    // the wait timed out -- just wait again
+                    timer();
+                    return;
+                }
+                // something changed -- the regular poll decides what to do
+                // (notifications, shutdown warnings, page updates) and then
+                // re-arms the wait
+                clearTimeout(AWPollTimeoutId);
+                AWPollTimeoutId = null;
+                poll.call(Request);
+            }
+
+            function waitFailed ()
+            {
+                // the server can't push (or the session is gone), fall back to
+                // polling on the interval
+                Debug.log("change wait failed -- polling every " + AWPollInterval + "ms");
+                AWChangeWaitUrl = null;
+                timer();
+            }
+
             function pollNow ()
             {
                 if (AWPollEnabled) {
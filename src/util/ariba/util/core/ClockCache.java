@@ -0,0 +1,310 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.util.core;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+    A bounded, concurrent cache intended for interning frequently used
+    immutable values (encoded strings, element id paths, ...).
+
+    - The table is split into small fixed size sets (shards).  A key
+      can only live in the set selected by its hash code, so the cache
+      never holds more than its capacity and never needs to rehash.
+
+    - Each set is an array which is never modified once published;
+      an insert copies the set, replaces one entry and swaps the copy
+      in with a compareAndSet.
+
+    - Lookups (get()) never lock and never write shared state other
+      than the entry's reference bit and a hit/miss counter striped by
+      thread.
+
+    - Inserts (intern()) are lock free: the victim within the set is
+      chosen with the CLOCK (second chance) algorithm.  If the set was
+      changed concurrently the insert looks for the key again in the
+      new contents before retrying, so a set never holds two equal keys
+      and all callers interning equal keys get the same value back (as
+      long as it is not evicted).
+
+    - Keys are compared with storedKey.equals(probeKey), so a caller
+      may probe with a mutable "lookup key" object whose hashCode() and
+      equals() agree with the stored key (see AWElementIdPath).
+
+    Hit, miss and eviction counts are kept so the effectiveness of the
+    cache can be reported (see AWMonitorStats).
+
+    @aribaapi ariba
+*/
+public final class ClockCache<K,V>
+{
+    private static final int Ways = 8;
+    // counters are striped by thread and padded (8 longs == 64 bytes)
+    // so that request threads looking up the same hot keys don't all
+    // hit the same cache line
+    private static final int CounterStripes = 32;
+    private static final int CounterPadding = 8;
+    private static final int HitCounter = 0;
+    private static final int MissCounter = 1;
+    private static final int EvictionCounter = 2;
+
+    private static final class Entry<K,V>
+    {
+        final K key;
+        final V value;
+        final int hash;
+        volatile boolean referenced;
+
+        Entry (K key, V value, int hash)
+        {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+        }
+    }
+
+    // one array of Ways entries per set, null while the set is empty
+    private final AtomicReferenceArray<Entry<K,V>[]> _sets;
+    private final AtomicIntegerArray _hands;
+    private final AtomicLongArray _counters;
+    private final int _setMask;
+
+    /**
+        Creates a cache that holds at most <code>capacity</code> entries
+        (rounded up to the next power of two multiple of the set size).
+    */
+    public ClockCache (int capacity)
+    {
+        int sets = 1;
+        while (sets * Ways < capacity) {
+            sets <<= 1;
+        }
+        _setMask = sets - 1;
+        _sets = new AtomicReferenceArray<Entry<K,V>[]>(sets);
+        _hands = new AtomicIntegerArray(sets);
+        _counters = new AtomicLongArray(CounterStripes * CounterPadding);
+    }
+
+    private static int spread (int hashCode)
+    {
+        // same supplemental hash as java.util.HashMap to protect
+        // against hash codes which differ only in the upper bits
+        hashCode ^= (hashCode >>> 20) ^ (hashCode >>> 12);
+        return hashCode ^ (hashCode >>> 7) ^ (hashCode >>> 4);
+    }
+
+    private void count (int counter)
+    {
+        // thread ids are handed out sequentially, so the threads of a
+        // pool land on different stripes
+        int stripe = (int)Thread.currentThread().getId() & (CounterStripes - 1);
+        _counters.incrementAndGet((stripe * CounterPadding) + counter);
+    }
+
+    private long sum (int counter)
+    {
+        long total = 0;
+        for (int stripe = 0; stripe < CounterStripes; stripe++) {
+            total += _counters.get((stripe * CounterPadding) + counter);
+        }
+        return total;
+    }
+
+    private static <K,V> Entry<K,V> find (Entry<K,V>[] entries, Object key, int hash)
+    {
+        if (entries != null) {
+            for (int index = 0; index < Ways; index++) {
+                Entry<K,V> entry = entries[index];
+                if (entry != null && entry.hash == hash &&
+                    (entry.key == key || entry.key.equals(key))) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+        Returns the value cached for <code>key</code> or null.  Never locks.
+    */
+    public V get (Object key)
+    {
+        int hash = spread(key.hashCode());
+        Entry<K,V> entry = find(_sets.get(hash & _setMask), key, hash);
+        if (entry == null) {
+            count(MissCounter);
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        count(HitCounter);
+        return entry.value;
+    }
+
+    /**
+        Like get(), but neither counts as a hit or miss nor marks the entry
+        as recently used.  For probes (e.g. collision checks) which should
+        not influence the statistics or the eviction order.
+    */
+    public V peek (Object key)
+    {
+        int hash = spread(key.hashCode());
+        Entry<K,V> entry = find(_sets.get(hash & _setMask), key, hash);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+        CLOCK sweep: give referenced entries a second chance.  Two full
+        turns of the hand are guaranteed to find a victim unless other
+        threads keep referencing the whole set, in which case -1 is
+        returned and we simply don't cache.
+    */
+    private int victim (int set, Entry<K,V>[] entries)
+    {
+        for (int step = 0, maxSteps = 2 * Ways; step < maxSteps; step++) {
+            int index = (_hands.getAndIncrement(set) & Integer.MAX_VALUE) % Ways;
+            Entry<K,V> current = entries == null ? null : entries[index];
+            if (current == null) {
+                return index;
+            }
+            if (current.referenced) {
+                current.referenced = false;
+            }
+            else {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+        Caches <code>value</code> for <code>key</code> unless an equal key
+        is already present, in which case the already cached value is
+        marked as recently used and returned.  Callers should always use
+        the returned value.
+    */
+    @SuppressWarnings("unchecked")
+    public V intern (K key, V value)
+    {
+        int hash = spread(key.hashCode());
+        int set = hash & _setMask;
+        Entry<K,V> newEntry = null;
+        while (true) {
+            Entry<K,V>[] entries = _sets.get(set);
+            Entry<K,V> existing = find(entries, key, hash);
+            if (existing != null) {
+                if (!existing.referenced) {
+                    existing.referenced = true;
+                }
+                return existing.value;
+            }
+            int index = victim(set, entries);
+            if (index == -1) {
+                return value;
+            }
+            if (newEntry == null) {
+                newEntry = new Entry<K,V>(key, value, hash);
+            }
+            Entry<K,V>[] updated = entries == null
+                ? (Entry<K,V>[])new Entry[Ways]
+                : entries.clone();
+            updated[index] = newEntry;
+            if (_sets.compareAndSet(set, entries, updated)) {
+                if (entries != null && entries[index] != null) {
+                    count(EvictionCounter);
+                }
+                return value;
+            }
+            // lost a race with another insert (or clear()): look again
+        }
+    }
+
+    /**
+        Removes all entries.  Concurrent readers may still see entries that
+        were present before the call.  Statistics are not reset.
+    */
+    public void clear ()
+    {
+        for (int set = 0, length = _sets.length(); set < length; set++) {
+            _sets.set(set, null);
+        }
+    }
+
+    /**
+        The maximum number of entries this cache can hold.
+    */
+    public int capacity ()
+    {
+        return _sets.length() * Ways;
+    }
+
+    /**
+        Counts the occupied slots.  This is O(capacity) and is intended for
+        monitoring only.
+    */
+    public int size ()
+    {
+        int size = 0;
+        for (int set = 0, length = _sets.length(); set < length; set++) {
+            Entry<K,V>[] entries = _sets.get(set);
+            for (int index = 0; entries != null && index < Ways; index++) {
+                if (entries[index] != null) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    public long hitCount ()
+    {
+        return sum(HitCounter);
+    }
+
+    public long missCount ()
+    {
+        return sum(MissCounter);
+    }
+
+    public long evictionCount ()
+    {
+        return sum(EvictionCounter);
+    }
+
+    /**
+        Hit ratio in percent (0 - 100) over the life of the cache.
+    */
+    public int hitPercentage ()
+    {
+        long hits = hitCount();
+        long total = hits + missCount();
+        return total == 0 ? 0 : (int)((hits * 100) / total);
+    }
+
+    public String toString ()
+    {
+        return Fmt.S("ClockCache: size %s/%s, hits %s, misses %s, evictions %s (%s%%)",
+                     Constants.getInteger(size()), Constants.getInteger(capacity()),
+                     Constants.getLong(hitCount()), Constants.getLong(missCount()),
+                     Constants.getLong(evictionCount()),
+                     Constants.getInteger(hitPercentage()));
+    }
+}
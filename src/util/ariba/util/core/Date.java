@@ -121,6 +121,9 @@ public class Date extends java.util.Date implements Externalizable
         // a cache of Calendar instances
     private static final GrowOnlyHashtable CALENDAR_CACHE = new GrowOnlyHashtable();
 
+        // the time zone of calendar dates
+    private static final TimeZone GMTTimeZone = TimeZone.getTimeZone("GMT");
+
         // Cache of custom timezones created from offset values
     private static final GrowOnlyHashtable TIMEZONE_CACHE = new GrowOnlyHashtable();
 
@@ -1988,30 +1991,20 @@ public class Date extends java.util.Date implements Externalizable
 
     private static int getCalendarField (java.util.Date date, int field)
     {
-            // get a Calendar instance
-        Calendar calendar = getCalendarInstance(calendarDate(date));
-        synchronized (calendar) {
-            clearCalendarFields(calendar);
-            updateCalendarFromDate(calendar, date);
-
-                // get the field
-            return calendar.get(field);
-        }
+        return getCalendarField(date, field,
+                                DateFormatter.getDefaultTimeZone(),
+                                ResourceService.getService().getLocale());
     }
 
     private static int getCalendarField (java.util.Date date, int field,
                             TimeZone tz, Locale locale)
     {
-            // get a Calendar instance
-        Calendar calendar =
-            getCalendarInstance(calendarDate(date), tz, locale);
-        synchronized (calendar) {
-            clearCalendarFields(calendar);
-            updateCalendarFromDate(calendar, date);
-
-                // get the field
-            return calendar.get(field);
+            // the cached DateContext reads the common fields without
+            // locking a shared Calendar
+        if (calendarDate(date)) {
+            tz = GMTTimeZone;
         }
+        return DateContext.get(tz, locale).get(date, field);
     }
 
     private static void setCalendarField (Date date, int field, int value)
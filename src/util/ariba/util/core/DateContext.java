@@ -0,0 +1,284 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.util.core;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+    The calendar of one time zone and locale, for reading the fields of
+    dates without setting up a Calendar for each call.
+    <p>
+    Contexts are immutable and cached (see contextCache()), so looking one
+    up and reading the year, month, day, day of week and time of day fields
+    of a date neither locks nor allocates a Calendar: the fields are
+    computed from the zone offset of the date.  This is what
+    GregorianCalendar computes, so it is only done for locales whose
+    calendar is Gregorian and for dates after the Gregorian cutover.  All
+    other fields and dates are read from a Calendar owned by the context,
+    synchronized on it like Date's calendar cache.
+
+    @aribaapi ariba
+*/
+public final class DateContext
+{
+    public static int CacheSize = 512;
+
+    private static final ClockCache<Key,DateContext> Contexts =
+        new ClockCache<Key,DateContext>(CacheSize);
+
+        // per TimeZone class, whether it compares by value
+    private static final GrowOnlyHashtable<Class,Boolean> HasValueEquality =
+        new GrowOnlyHashtable<Class,Boolean>();
+
+    private static final long MillisPerDay = 24L * 60 * 60 * 1000;
+        // Oct 15, 1582, GregorianCalendar's default cutover
+    private static final long GregorianCutover = -12219292800000L;
+
+    private final TimeZone _timeZone;
+    private final Locale _locale;
+    private final Calendar _calendar;
+    private final boolean _isGregorian;
+
+    /**
+        Cache key, comparing the time zones and locales by value.  Time
+        zones whose class does not override equals() and hashCode() (the
+        key holds a copy, which would never be identical) are compared by
+        class, ID and raw offset.
+    */
+    private static final class Key
+    {
+        final TimeZone timeZone;
+        final Locale locale;
+        final boolean hasValueEquality;
+        final int hash;
+
+        Key (TimeZone timeZone, Locale locale)
+        {
+            this.timeZone = timeZone;
+            this.locale = locale;
+            hasValueEquality = hasValueEquality(timeZone.getClass());
+            int zoneHash = hasValueEquality ?
+                timeZone.hashCode() :
+                String.valueOf(timeZone.getID()).hashCode() * 31 + timeZone.getRawOffset();
+            hash = zoneHash * 31 + locale.hashCode();
+        }
+
+        public int hashCode ()
+        {
+            return hash;
+        }
+
+        public boolean equals (Object object)
+        {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key that = (Key)object;
+            return hash == that.hash && sameTimeZone(that.timeZone) &&
+                   (locale == that.locale || locale.equals(that.locale));
+        }
+
+        private boolean sameTimeZone (TimeZone other)
+        {
+            if (timeZone == other) {
+                return true;
+            }
+            if (hasValueEquality) {
+                return timeZone.equals(other);
+            }
+            return timeZone.getClass() == other.getClass() &&
+                   SystemUtil.equal(timeZone.getID(), other.getID()) &&
+                   timeZone.getRawOffset() == other.getRawOffset();
+        }
+    }
+
+    private static boolean hasValueEquality (Class timeZoneClass)
+    {
+        Boolean hasValueEquality = HasValueEquality.get(timeZoneClass);
+        if (hasValueEquality == null) {
+            try {
+                hasValueEquality = Boolean.valueOf(
+                    timeZoneClass.getMethod("equals", Object.class).getDeclaringClass() !=
+                        Object.class &&
+                    timeZoneClass.getMethod("hashCode").getDeclaringClass() !=
+                        Object.class);
+            }
+            catch (NoSuchMethodException e) {
+                hasValueEquality = Boolean.FALSE;
+            }
+            HasValueEquality.put(timeZoneClass, hasValueEquality);
+        }
+        return hasValueEquality.booleanValue();
+    }
+
+    private DateContext (TimeZone timeZone, Locale locale)
+    {
+        _timeZone = timeZone;
+        _locale = locale;
+        _calendar = Calendar.getInstance(timeZone, locale);
+        _isGregorian = _calendar.getClass() == GregorianCalendar.class &&
+            ((GregorianCalendar)_calendar).getGregorianChange().getTime() == GregorianCutover;
+    }
+
+    /**
+        Returns the context for <code>timeZone</code> and
+        <code>locale</code>.  Contexts keep a copy of the time zone, so
+        later changes to <code>timeZone</code> are not seen by the context.
+    */
+    public static DateContext get (TimeZone timeZone, Locale locale)
+    {
+        Assert.that(timeZone != null, "Null TimeZone in DateContext.get()");
+        Assert.that(locale != null, "Null Locale in DateContext.get()");
+
+        DateContext context = Contexts.get(new Key(timeZone, locale));
+        if (context == null) {
+            TimeZone copy = (TimeZone)timeZone.clone();
+            context = Contexts.intern(new Key(copy, locale), new DateContext(copy, locale));
+        }
+        return context;
+    }
+
+    /**
+        The cache of contexts, for monitoring (see AWMonitorStats).
+    */
+    public static ClockCache contextCache ()
+    {
+        return Contexts;
+    }
+
+    public TimeZone getTimeZone ()
+    {
+        return (TimeZone)_timeZone.clone();
+    }
+
+    public Locale getLocale ()
+    {
+        return _locale;
+    }
+
+    /**
+        Whether the locale's calendar is a GregorianCalendar with the
+        default cutover, in which case the fields of dates after the
+        cutover are computed without the context's Calendar.
+    */
+    public boolean isGregorian ()
+    {
+        return _isGregorian;
+    }
+
+    public int getYear (java.util.Date date)
+    {
+        return get(date, Calendar.YEAR);
+    }
+
+    /**
+        Zero-based month, like Calendar.MONTH.
+    */
+    public int getMonth (java.util.Date date)
+    {
+        return get(date, Calendar.MONTH);
+    }
+
+    public int getDayOfMonth (java.util.Date date)
+    {
+        return get(date, Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+        Returns the value of the Calendar <code>field</code> of
+        <code>date</code> in this context's time zone and calendar.
+    */
+    public int get (java.util.Date date, int field)
+    {
+        if (_isGregorian) {
+            long millis = date.getTime();
+            long localMillis = millis + _timeZone.getOffset(millis);
+            if (localMillis >= GregorianCutover) {
+                int value = gregorianField(localMillis, field);
+                if (value >= 0) {
+                    return value;
+                }
+            }
+        }
+        synchronized (_calendar) {
+            _calendar.setTime(date);
+            return _calendar.get(field);
+        }
+    }
+
+    /**
+        The Gregorian <code>field</code> of the local time
+        <code>localMillis</code> (milliseconds since the epoch in local
+        time), or -1 if the field is not computed here.
+    */
+    private static int gregorianField (long localMillis, int field)
+    {
+        long days = localMillis / MillisPerDay;
+        int millisOfDay = (int)(localMillis - days * MillisPerDay);
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MillisPerDay;
+        }
+        switch (field) {
+          case Calendar.HOUR_OF_DAY:
+            return millisOfDay / (60 * 60 * 1000);
+          case Calendar.MINUTE:
+            return (millisOfDay / (60 * 1000)) % 60;
+          case Calendar.SECOND:
+            return (millisOfDay / 1000) % 60;
+          case Calendar.MILLISECOND:
+            return millisOfDay % 1000;
+          case Calendar.DAY_OF_WEEK:
+                // Jan 1, 1970 was a Thursday
+            return (int)(((days % 7) + 11) % 7) + 1;
+          case Calendar.YEAR:
+          case Calendar.MONTH:
+          case Calendar.DAY_OF_MONTH:
+            break;
+          default:
+            return -1;
+        }
+
+            // civil date from days since the epoch, with March based years
+            // in 400 year eras (H. Hinnant's civil_from_days).  Days after
+            // the cutover are positive once shifted to Mar 1, 0000.
+        long shifted = days + 719468;
+        long era = shifted / 146097;
+        long dayOfEra = shifted - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 -
+                          dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthFromMarch = (int)((5 * dayOfYear + 2) / 153);
+        switch (field) {
+          case Calendar.DAY_OF_MONTH:
+            return (int)(dayOfYear - (153 * monthFromMarch + 2) / 5) + 1;
+          case Calendar.MONTH:
+            return monthFromMarch < 10 ? monthFromMarch + 2 : monthFromMarch - 10;
+          default:
+            return (int)(yearOfEra + era * 400) + (monthFromMarch < 10 ? 0 : 1);
+        }
+    }
+
+    public String toString ()
+    {
+        return Fmt.S("DateContext: %s, %s", _timeZone.getID(), _locale);
+    }
+}
@@ -156,8 +156,30 @@ public class Fmt
     */
     public static String S (String control, int i1)
     {
-        return S(control, 0, Constants.getInteger(i1), Null, Null, Null,
-                 Null, Null, NoMore);
+        FormatBuffer buf = getBuffer();
+        B(buf, control, i1);
+        String result = buf.toString();
+        freeBuffer(buf);
+        return result;
+    }
+
+    /**
+        Format a message into a String.
+
+        @param control a String defining the format of the output
+        @param l1 a long argument to the format string
+        <b>control</b>
+
+        @return the formatted String
+        @aribaapi documented
+    */
+    public static String S (String control, long l1)
+    {
+        FormatBuffer buf = getBuffer();
+        B(buf, control, l1);
+        String result = buf.toString();
+        freeBuffer(buf);
+        return result;
     }
 
     /**
@@ -401,8 +423,10 @@ public class Fmt
     */
     public static void F (PrintWriter out, String control, int i1)
     {
-        F(out, control, 0, Constants.getInteger(i1),
-          Null, Null, Null, Null, Null, NoMore);
+        FormatBuffer buf = getBuffer();
+        B(buf, control, i1);
+        buf.print(out);
+        freeBuffer(buf);
     }
 
     /**
@@ -1344,10 +1368,48 @@ public class Fmt
         // ----------------------------------------------------------------
         // The master formatter.
 
+    /**
+        Formats a single long argument, without boxing it if the control
+        string has a cached template.
+    */
+    private static void B (FormatBuffer buf, String control, long l1)
+    {
+        FormatTemplate template = FormatTemplate.get(control);
+        if (template != null) {
+            template.format(buf, l1);
+        }
+        else if (l1 >= Integer.MIN_VALUE && l1 <= Integer.MAX_VALUE) {
+            interpret(buf, control, 0, Constants.getInteger((int)l1),
+                      Null, Null, Null, Null, Null, NoMore);
+        }
+        else {
+            interpret(buf, control, 0, Constants.getLong(l1),
+                      Null, Null, Null, Null, Null, NoMore);
+        }
+    }
+
+    /**
+        Formats with the cached template of control, and interprets
+        control directly if it has none.
+    */
     private static void B (FormatBuffer buf, String control, int whichArg,
                            Object a1, Object a2, Object a3, Object a4,
                            Object a5, Object a6,
                            Object[] more)
+    {
+        FormatTemplate template = FormatTemplate.get(control);
+        if (template != null) {
+            template.format(buf, whichArg, a1, a2, a3, a4, a5, a6, more);
+        }
+        else {
+            interpret(buf, control, whichArg, a1, a2, a3, a4, a5, a6, more);
+        }
+    }
+
+    private static void interpret (FormatBuffer buf, String control, int whichArg,
+                                   Object a1, Object a2, Object a3, Object a4,
+                                   Object a5, Object a6,
+                                   Object[] more)
     {
         int controlLength = control.length();
         int controlPos = 0;
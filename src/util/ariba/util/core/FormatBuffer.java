@@ -110,6 +110,7 @@ public class FormatBuffer extends FastStringBuffer
     public void append (int i, int radix)
     {
         makeRoomFor(radix >= 8 ? 12 : 33);
+        string = null;
 
         if (i < 0) {
             buffer[length++] = '-';
@@ -177,6 +178,7 @@ public class FormatBuffer extends FastStringBuffer
     {
         int len  = that.length;
         makeRoomFor(len);
+        string = null;
         for (int i = 0; i < len; i++) {
             this.buffer[length++] = that.buffer[i];
         }
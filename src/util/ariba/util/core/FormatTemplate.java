@@ -0,0 +1,422 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.util.core;
+
+import ariba.util.io.FormattingSerializer;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+/**
+    A Fmt control string parsed into its literal text and directives, so
+    that formatting with it does not parse the control string again.  The
+    literal text includes the output of %%, %/ and malformed directives.
+    <p>
+    Templates are cached by control string in a ClockCache of
+    MaxCachedTemplates entries, so control strings built at runtime (e.g.
+    localized messages) evict each other rather than filling the cache
+    for good.  Control strings longer than MaxCachedControlLength are
+    interpreted directly by Fmt as before.
+
+    @aribaapi private
+*/
+final class FormatTemplate
+{
+    static final int MaxCachedTemplates = 4096;
+    static final int MaxCachedControlLength = 1024;
+
+    private static final ClockCache<String,FormatTemplate> Templates =
+        new ClockCache<String,FormatTemplate>(MaxCachedTemplates);
+
+    private static final int StartST             = 1;
+    private static final int GetPadCharST        = 2;
+    private static final int GetPreNumberST      = 3;
+    private static final int DonePreST           = 4;
+    private static final int GetPostNumberST     = 5;
+    private static final int DonePostST          = 6;
+    private static final int CollectNumberST     = 7;
+    private static final int ConsumeDotST        = 8;
+    private static final int GetFinalCharacterST = 9;
+    private static final int UnexpectedEndST     = 10;
+    private static final int PrintNextObjectST   = 11;
+
+        // marks a %s directive, which has no pre or post
+    private static final int Plain = -2;
+
+        // literal text before each directive, then after the last one
+    private final String[] _literals;
+        // per directive: the minimum field width, or Plain
+    private final int[] _pres;
+        // per directive: the maximum number of characters
+    private final int[] _posts;
+    private final boolean[] _isLeftJustified;
+    private final boolean[] _padWithZeros;
+
+    private FormatTemplate (String[] literals, int[] pres, int[] posts,
+                            boolean[] isLeftJustified, boolean[] padWithZeros)
+    {
+        _literals = literals;
+        _pres = pres;
+        _posts = posts;
+        _isLeftJustified = isLeftJustified;
+        _padWithZeros = padWithZeros;
+    }
+
+    /**
+        Returns the template for control, or null if it is not to be cached.
+    */
+    static FormatTemplate get (String control)
+    {
+        if (control.length() > MaxCachedControlLength) {
+            return null;
+        }
+        FormatTemplate template = Templates.get(control);
+        if (template == null) {
+            template = Templates.intern(control, compile(control));
+        }
+        return template;
+    }
+
+    static int cachedTemplateCount ()
+    {
+        return Templates.size();
+    }
+
+    /**
+        Parses control like Fmt's interpreting formatter does.
+    */
+    static FormatTemplate compile (String control)
+    {
+        List<String> literals = ListUtil.list();
+        int[] pres = new int[4];
+        int[] posts = new int[4];
+        boolean[] lefts = new boolean[4];
+        boolean[] zeros = new boolean[4];
+        int count = 0;
+        FastStringBuffer literal = new FastStringBuffer();
+
+        int controlLength = control.length();
+        int controlPos = 0;
+
+        while (controlPos < controlLength) {
+            char c = control.charAt(controlPos++);
+
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            int state = StartST;
+            int nextStateAfterCollectNumber = -1;
+            boolean isLeftJustified = false;
+            boolean padWithZeros = false;
+            int pre = -1;
+            int post = -1;
+            int accumulator = 0;
+            boolean isDirective = false;
+
+        DoOneControlLoop:
+            while (true) {
+                if (controlPos < controlLength) {
+                    c = control.charAt(controlPos);
+                }
+                else {
+                    state = UnexpectedEndST;
+                }
+
+                switch (state) {
+                  case StartST:
+                    if (c == 's') {
+                        state = PrintNextObjectST;
+                    }
+                    else if (c == '-') {
+                        isLeftJustified = true;
+                        state = GetPadCharST;
+                        controlPos++;
+                    }
+                    else if (c == '+') {
+                        isLeftJustified = false;
+                        state = GetPadCharST;
+                        controlPos++;
+                    }
+                    else if (c == '0') {
+                        state = GetPadCharST;
+                    }
+                    else if (c == '%') {
+                        controlPos++;
+                        literal.append(c);
+                        break DoOneControlLoop;
+                    }
+                    else if (c == '/') {
+                        controlPos++;
+                        literal.append(File.separator);
+                        break DoOneControlLoop;
+                    }
+                    else {
+                        state = GetPreNumberST;
+                    }
+                    break;
+
+                  case GetPadCharST:
+                    if (c == '0') {
+                        padWithZeros = true;
+                        controlPos++;
+                    }
+                    state = GetPreNumberST;
+                    break;
+
+                  case GetPreNumberST:
+                    if (c >= '0' && c <= '9') {
+                        accumulator = c - '0';
+                        state = CollectNumberST;
+                        nextStateAfterCollectNumber = DonePreST;
+                        controlPos++;
+                    }
+                    else {
+                        state = ConsumeDotST;
+                    }
+                    break;
+
+                  case DonePreST:
+                    pre = accumulator;
+                    state = ConsumeDotST;
+                    break;
+
+                  case GetPostNumberST:
+                    if (c >= '0' && c <= '9') {
+                        accumulator = c - '0';
+                        state = CollectNumberST;
+                        nextStateAfterCollectNumber = DonePostST;
+                        controlPos++;
+                    }
+                    else {
+                        state = GetFinalCharacterST;
+                    }
+                    break;
+
+                  case DonePostST:
+                    state = GetFinalCharacterST;
+                    post = accumulator;
+                    break;
+
+                  case CollectNumberST:
+                    if (c >= '0' && c <= '9') {
+                        accumulator = (accumulator * 10) + (c - '0');
+                        controlPos++;
+                    }
+                    else {
+                        state = nextStateAfterCollectNumber;
+                    }
+                    break;
+
+                  case ConsumeDotST:
+                    if (c == '.') {
+                        state = GetPostNumberST;
+                        controlPos++;
+                    }
+                    else {
+                        state = GetFinalCharacterST;
+                    }
+                    break;
+
+                  case GetFinalCharacterST:
+                    controlPos++;
+                    if (c == 's') {
+                        isDirective = true;
+                    }
+                    else {
+                        literal.append("(Fmt: unknown control character)");
+                    }
+                    break DoOneControlLoop;
+
+                  case PrintNextObjectST:
+                    controlPos++;
+                    isDirective = true;
+                    pre = Plain;
+                    break DoOneControlLoop;
+
+                  case UnexpectedEndST:
+                    literal.append("(Fmt: unexpected end of control sequence)");
+                    break DoOneControlLoop;
+                }
+            }
+
+            if (isDirective) {
+                if (count == pres.length) {
+                    pres = grow(pres);
+                    posts = grow(posts);
+                    lefts = grow(lefts);
+                    zeros = grow(zeros);
+                }
+                pres[count] = pre;
+                posts[count] = post;
+                lefts[count] = isLeftJustified;
+                zeros[count] = padWithZeros;
+                count++;
+                literals.add(literal.toString());
+                literal.truncateToLength(0);
+            }
+        }
+        literals.add(literal.toString());
+
+        String[] literalArray = new String[literals.size()];
+        literals.toArray(literalArray);
+        return new FormatTemplate(literalArray, pres, posts, lefts, zeros);
+    }
+
+    private static int[] grow (int[] array)
+    {
+        int[] result = new int[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    private static boolean[] grow (boolean[] array)
+    {
+        boolean[] result = new boolean[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    /**
+        Formats the arguments into buf.  The arguments are passed like to
+        Fmt's interpreting formatter: whichArg is the index of the first
+        argument, 6 for the arguments in more only.
+    */
+    void format (FormatBuffer buf, int whichArg,
+                 Object a1, Object a2, Object a3, Object a4,
+                 Object a5, Object a6,
+                 Object[] more)
+    {
+        int count = _literals.length - 1;
+        for (int directive = 0; directive < count; directive++) {
+            appendLiteral(buf, _literals[directive]);
+            Object arg;
+            switch (whichArg++) {
+              case 0: arg = a1; break;
+              case 1: arg = a2; break;
+              case 2: arg = a3; break;
+              case 3: arg = a4; break;
+              case 4: arg = a5; break;
+              case 5: arg = a6; break;
+              default:
+                int i = whichArg - 7;
+                if (i >= more.length) {
+                    arg = "(too many controls)";
+                }
+                else {
+                    arg = more[i];
+                }
+            }
+            appendArgument(buf, directive, arg);
+        }
+        appendLiteral(buf, _literals[count]);
+    }
+
+    /**
+        Formats a single long argument into buf without boxing it.
+    */
+    void format (FormatBuffer buf, long value)
+    {
+        int count = _literals.length - 1;
+        for (int directive = 0; directive < count; directive++) {
+            appendLiteral(buf, _literals[directive]);
+            if (directive == 0) {
+                if (_pres[0] == Plain) {
+                    buf.append(value);
+                }
+                else {
+                    appendField(buf, 0, String.valueOf(value));
+                }
+            }
+            else {
+                appendArgument(buf, directive, (directive < 6) ? Fmt.Null : "(too many controls)");
+            }
+        }
+        appendLiteral(buf, _literals[count]);
+    }
+
+    private static void appendLiteral (FormatBuffer buf, String literal)
+    {
+        if (literal.length() > 0) {
+            buf.append(literal);
+        }
+    }
+
+    private void appendArgument (FormatBuffer buf, int directive, Object arg)
+    {
+        if (_pres[directive] != Plain) {
+            appendField(buf, directive, String.valueOf(arg));
+        }
+            // Handle char arrays so they print their contents.
+        else if (arg instanceof char[]) {
+            buf.append((char[])arg);
+        }
+        else if (arg instanceof Map || arg instanceof List) {
+            buf.append(FormattingSerializer.serializeObject(arg));
+        }
+        else {
+            buf.append(arg == null? "null" : arg.toString());
+        }
+    }
+
+    private void appendField (FormatBuffer buf, int directive, String argAsString)
+    {
+        int pre = _pres[directive];
+        int post = _posts[directive];
+        boolean isLeftJustified = _isLeftJustified[directive];
+        char padChar = _padWithZeros[directive] ? '0' : ' ';
+        int len = argAsString.length();
+
+            // Set min and max to sensible values.
+        if (post == -1) {
+            post = Math.max(len, pre);
+        }
+        if (pre == -1) {
+            pre = 0;
+        }
+
+            // Determine ammount of pad
+        int pad = 0;
+        if (len < post && len < pre) {
+            pad = pre - len;
+        }
+
+            // Write left side padding.
+        if (! isLeftJustified) {
+            for (int i = 0; i < pad; i++) {
+                buf.append(padChar);
+            }
+        }
+
+            // Write subject, truncating if necessary.
+        if (len <= post) {
+            buf.append(argAsString);
+        }
+        else {
+            int startPosition = isLeftJustified ? 0 : len - post;
+            buf.append(argAsString.substring(startPosition, startPosition + post));
+        }
+
+            // Write right-side padding.
+        if (isLeftJustified) {
+            for (int i = 0; i < pad; i++) {
+                buf.append(padChar);
+            }
+        }
+    }
+}
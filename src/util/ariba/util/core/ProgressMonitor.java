@@ -86,7 +86,9 @@ public class ProgressMonitor
      */
     protected String _key;
 
-    protected int _currentCount;
+    // volatile: updated by the request thread while it streams an
+    // upload, read by the thread polling for status
+    protected volatile int _currentCount;
     protected int _totalCount;
     protected String _messageFormatString;
 
@@ -37,6 +37,8 @@ import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -221,11 +223,29 @@ public class ResourceService
 
 
     /**
-        mapping of the string caches with their <code>StringTableProcessor</code>.
+        mapping of the string caches (<code>StringTables</code>) with their
+        <code>StringTableProcessor</code>.
         @aribaapi private
     */
     protected final Map stringTableProcessors = MapUtil.map();
 
+    /**
+        Keys found missing by getLocalizedString, so that each is only
+        warned about once.  Kept apart from the string tables, which are
+        read without locking.
+        @aribaapi private
+    */
+    private final ConcurrentHashMap<String,Boolean> missingStrings =
+        new ConcurrentHashMap<String,Boolean>();
+
+    /**
+        Run by clearCache for caches elsewhere that hold values computed
+        from localized strings.
+        @aribaapi private
+    */
+    private static final List<Runnable> ClearCacheHooks =
+        new CopyOnWriteArrayList<Runnable>();
+
     /**
         default string table processor. this processor read the 3 column strings csv files.
         @aribaapi private
@@ -727,7 +747,7 @@ public class ResourceService
     */
     public void registerStringProcessor (StringTableProcessor processor)
     {
-        Assert.that(stringTableProcessors.put(processor, new Gridtable()) == null,
+        Assert.that(stringTableProcessors.put(processor, new StringTables()) == null,
                     "the stringTableProcessor %s was already registered !",
                     processor);
 
@@ -744,13 +764,30 @@ public class ResourceService
     {
         for (Iterator i = stringTableProcessors.keySet().iterator(); i.hasNext(); ) {
             Object processor = i.next();
-            Gridtable stringTables = (Gridtable)stringTableProcessors.get(processor);
-            synchronized (stringTables) {
-                stringTables.clear();
-            }
+            StringTables stringTables = (StringTables)stringTableProcessors.get(processor);
+            stringTables.clear();
+        }
+        missingStrings.clear();
+        for (Runnable hook : ClearCacheHooks) {
+            hook.run();
         }
     }
 
+    /**
+        Registers a hook that every <code>clearCache</code> runs after the
+        string tables are cleared.  Classes that cache values computed from
+        localized strings, such as parsed lists of formats, use it to drop
+        them when the strings are reloaded.
+
+        @param hook the hook to run, must not be null.
+        @aribaapi ariba
+    */
+    public static void registerClearCacheHook (Runnable hook)
+    {
+        Assert.that(hook != null, "null clear cache hook");
+        ClearCacheHooks.add(hook);
+    }
+
 
     /*-----------------------------------------------------------------------
         Help Methods
@@ -1044,7 +1081,11 @@ public class ResourceService
         }
 
         if (localized == null) {
-            if (displayWarning) {
+            if (displayWarning
+                    && missingStrings.putIfAbsent(
+                        StringUtil.strcat(stringTable, ":", String.valueOf(locale),
+                                          defaultingLocale ? ":" : "!", key),
+                        Boolean.TRUE) == null) {
                 String msg = Fmt.S("Missing string resource: %s in %s for locale %s",
                                    key,
                                    stringTable,
@@ -1057,11 +1098,6 @@ public class ResourceService
             }
 
             localized = key;
-            // Prevent the same error from happening. Synchronize because other methods
-            // can use iterators on the map and could get ConcurrentModificationException.
-            synchronized (strings) {
-                strings.put(key, localized);
-            }     
         }
 
         return localized;
@@ -1528,12 +1564,9 @@ public class ResourceService
             return null;
         }
 
-        Gridtable stringTables = (Gridtable)stringTableProcessors.get(processor);
-        Map twinMap;
+        StringTables stringTables = (StringTables)stringTableProcessors.get(processor);
         Map strings = null;
-        synchronized (stringTables) {
-            twinMap = (Map)stringTables.get(path, locale);
-        }
+        Map twinMap = stringTables.get(path, locale);
 
         if (twinMap != null) {
             strings = (Map)twinMap.get(Constants.getBoolean(defaultingLocale));
@@ -1546,12 +1579,10 @@ public class ResourceService
                                      processor,
                                      defaultingLocale,
                                      defaultingSystem);
-            synchronized (stringTables) {
-                    // at this point we may be a client-side ResourceService storing
-                    // a map returned by a server-side ResourceService
-                if (twinMap != null) {
-                    stringTables.put(path, locale, twinMap);
-                }
+                // at this point we may be a client-side ResourceService storing
+                // a map returned by a server-side ResourceService
+            if (twinMap != null) {
+                stringTables.put(path, locale, twinMap);
             }
             strings = (Map)twinMap.get(Constants.getBoolean(defaultingLocale));
         }
@@ -1643,10 +1674,8 @@ public class ResourceService
                                   Map stringTable,
                                   StringTableProcessor processor)
     {
-        Gridtable stringTables = (Gridtable)stringTableProcessors.get(processor);
-        synchronized (stringTables) {
-            stringTables.put(path, locale, stringTable);
-        }
+        StringTables stringTables = (StringTables)stringTableProcessors.get(processor);
+        stringTables.put(path, locale, stringTable);
     }
 
 
@@ -1705,7 +1734,7 @@ public class ResourceService
     {
         Assert.that(processor != null,
                     "StringCSVProcessor must not be null for getStringTable");
-        Gridtable stringTables = (Gridtable)stringTableProcessors.get(processor);
+        StringTables stringTables = (StringTables)stringTableProcessors.get(processor);
         loadStringsIntoTable(stringBaseURL,
                              stringTables,
                              getSearchDirs(locale, defaultingLocale),
@@ -1713,9 +1742,7 @@ public class ResourceService
                              displayWarning,
                              processor,
                              defaultingLocale);
-        synchronized (stringTables) {
-            return (Map)stringTables.get(path, locale);
-        }
+        return stringTables.get(path, locale);
     }
 
     /* Debug facility for runtime pseudo localization */
@@ -1738,7 +1765,7 @@ public class ResourceService
     }
     
     private static void loadStringsIntoTable (URL stringBaseURL,
-                                              Gridtable stringTables,
+                                              StringTables stringTables,
                                               List<Locale> searchLocales,
                                               String path,
                                               boolean displayWarning,
@@ -1756,11 +1783,8 @@ public class ResourceService
             Locale searchLocale = searchLocales.get(i);
 
             Map thisLocaleStrings = null;
-            Map twinMap;
-            synchronized (stringTables) {
-                    // get the strings for this level in the search path
-                twinMap = (Map)stringTables.get(path, searchLocale);
-            }
+                // get the strings for this level in the search path
+            Map twinMap = stringTables.get(path, searchLocale);
             if (twinMap != null) {
                 thisLocaleStrings =
                     (Map)twinMap.get(Constants.getBoolean(defaultingLocale));
@@ -1769,7 +1793,8 @@ public class ResourceService
                 // if strings have been loaded for this level already, just
                 // merge them into the strings from all the previous levels
             if (thisLocaleStrings != null) {
-            	// Synchronized because getLocalizedString could modify source map during merge.
+            	// Synchronized because clients (e.g. AWLocal) may modify the source map
+            	// during merge.
             	synchronized (thisLocaleStrings) {
                     processor.mergeStringTables(allStrings, thisLocaleStrings);
             	}
@@ -1782,7 +1807,7 @@ public class ResourceService
                                               processor);
                 processor.mergeStringTables(allStrings, strings);
                 if (twinMap == null) {
-                    twinMap = MapUtil.map();
+                    twinMap = new ConcurrentHashMap();
                 }
                 //twinMap contains two keys, Boolean.TRUE and Boolean FALSE,
                 //that indicated the detaultingLocale is true or false. The
@@ -1792,10 +1817,60 @@ public class ResourceService
                 }
                 twinMap.put(Constants.getBoolean(defaultingLocale),
                             MapUtil.copyMap(allStrings));
-                synchronized (stringTables) {
-                    stringTables.put(path, searchLocale, twinMap);
+                stringTables.put(path, searchLocale, twinMap);
+            }
+        }
+    }
+
+    /**
+        The string tables loaded for one <code>StringTableProcessor</code>,
+        keyed by path and locale.  Each value is a "twin map" holding the
+        strings with and without locale defaulting.  Lookups don't lock, so
+        the strings of each rendered label can be found without contending
+        with other threads; <code>clear</code> swaps in an empty table.
+
+        @aribaapi private
+    */
+    protected static final class StringTables
+    {
+        private static final Object NullLocale = new Object();
+
+        private volatile ConcurrentHashMap<String,ConcurrentHashMap<Object,Map>> _tables =
+            new ConcurrentHashMap<String,ConcurrentHashMap<Object,Map>>();
+
+        public Map get (String path, Locale locale)
+        {
+            ConcurrentHashMap<Object,Map> tables = _tables.get(path);
+            return (tables == null) ? null : tables.get(localeKey(locale));
+        }
+
+        public void put (String path, Locale locale, Map twinMap)
+        {
+            ConcurrentHashMap<String,ConcurrentHashMap<Object,Map>> allTables = _tables;
+            ConcurrentHashMap<Object,Map> tables = allTables.get(path);
+            if (tables == null) {
+                tables = new ConcurrentHashMap<Object,Map>();
+                ConcurrentHashMap<Object,Map> existing = allTables.putIfAbsent(path, tables);
+                if (existing != null) {
+                    tables = existing;
                 }
             }
+            if (twinMap == null) {
+                tables.remove(localeKey(locale));
+            }
+            else {
+                tables.put(localeKey(locale), twinMap);
+            }
+        }
+
+        public void clear ()
+        {
+            _tables = new ConcurrentHashMap<String,ConcurrentHashMap<Object,Map>>();
+        }
+
+        private static Object localeKey (Locale locale)
+        {
+            return (locale == null) ? NullLocale : locale;
         }
     }
 
@@ -2041,10 +2116,25 @@ public class ResourceService
                 return null;
             }
 
+                // the compiled bundle of the file, if it is a file and up to date
+            File file = (StringTableBundle.bundleDirectory() != null)
+                ? URLUtil.file(url, false) : null;
+            String consumerName = consumer.getClass().getName();
+            if (file != null) {
+                Map strings = StringTableBundle.load(file, consumerName);
+                if (strings != null) {
+                    return strings;
+                }
+            }
+
             in = url.openStream();
             CSVReader reader = new CSVReader(consumer);
             reader.readForSpecifiedEncoding(in, url.toString());
-            return consumer.getStrings();
+            Map strings = consumer.getStrings();
+            if (file != null && strings != null) {
+                StringTableBundle.compile(file, consumerName, strings);
+            }
+            return strings;
         }
         catch (TunnelingException ex) {
             /* this only happens when the StringCSVConsumer has an exception
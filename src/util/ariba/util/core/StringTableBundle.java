@@ -0,0 +1,522 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.util.core;
+
+import ariba.util.log.Log;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+    Compiled binary form of a string table csv file, as parsed by one kind
+    of <code>StringCSVConsumer</code>.
+    <p>
+    When a bundle directory is configured (system property
+    <code>ariba.util.stringTableBundles</code>, or
+    <code>setBundleDirectory</code>), ResourceService writes the strings of
+    each csv file it parses to a bundle there, and on later runs maps the
+    bundle instead of parsing the csv file again.  A bundle is a pool of
+    all distinct strings followed by the entries of each map, sorted by
+    key; it is memory mapped and strings are only decoded when looked up.
+    Nested maps (e.g. the per component tables of MergedStringLocalizer)
+    are decoded into mutable maps when looked up.
+    <p>
+    A bundle records the modification time and length of its csv file and
+    is ignored (and rewritten) once they differ, so the csv file stays the
+    source.  Tables with values other than strings and maps of strings are
+    not compiled.
+
+    @aribaapi private
+*/
+public final class StringTableBundle
+{
+    public static final String BundleDirectoryProperty = "ariba.util.stringTableBundles";
+    public static final String BundleExtension = ".strb";
+
+    private static final int Magic = 0x41535442;
+    private static final int Version = 1;
+
+    private static volatile File BundleDirectory;
+
+    static {
+        String directory = System.getProperty(BundleDirectoryProperty);
+        if (!StringUtil.nullOrEmptyOrBlankString(directory)) {
+            BundleDirectory = new File(directory);
+        }
+    }
+
+    private final CharBuffer _chars;
+    private final IntBuffer _stringOffsets;
+    private final IntBuffer _mapOffsets;
+    private final IntBuffer _entries;
+
+    private StringTableBundle (ByteBuffer buffer)
+    {
+        int stringCount = buffer.getInt();
+        _stringOffsets = slice(buffer, (stringCount + 1) * 4).asIntBuffer();
+        int mapCount = buffer.getInt();
+        _mapOffsets = slice(buffer, (mapCount + 1) * 4).asIntBuffer();
+        int entryCount = _mapOffsets.get(mapCount);
+        _entries = slice(buffer, entryCount * 8).asIntBuffer();
+        int charCount = _stringOffsets.get(stringCount);
+        _chars = slice(buffer, charCount * 2).asCharBuffer();
+    }
+
+    /**
+        The directory bundles are read from and written to, or null if
+        string tables are not compiled.
+    */
+    public static File bundleDirectory ()
+    {
+        return BundleDirectory;
+    }
+
+    public static void setBundleDirectory (File directory)
+    {
+        BundleDirectory = directory;
+    }
+
+    /**
+        Returns the strings of the bundle compiled from <code>csvFile</code>
+        for <code>consumerName</code>, or null if there is no up to date
+        bundle.
+    */
+    public static Map load (File csvFile, String consumerName)
+    {
+        File bundleFile = bundleFile(csvFile, consumerName);
+        if (bundleFile == null || !bundleFile.isFile()) {
+            return null;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(bundleFile, "r");
+            FileChannel channel = file.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != Magic || buffer.getInt() != Version
+                    || buffer.getLong() != csvFile.lastModified()
+                    || buffer.getLong() != csvFile.length()
+                    || !csvFile.getAbsolutePath().equals(readString(buffer))
+                    || !consumerName.equals(readString(buffer))) {
+                return null;
+            }
+            return new StringTableBundle(buffer).map(0);
+        }
+        catch (IOException e) {
+            Log.util.debug("StringTableBundle: cannot read %s: %s", bundleFile, e);
+            return null;
+        }
+        catch (RuntimeException e) {
+                // truncated or otherwise corrupt
+            Log.util.debug("StringTableBundle: cannot read %s: %s", bundleFile, e);
+            return null;
+        }
+        finally {
+            IOUtil.close(file);
+        }
+    }
+
+    /**
+        Writes the <code>strings</code> parsed from <code>csvFile</code> by
+        a consumer of <code>consumerName</code> to a bundle.  Failures are
+        only logged: the csv file is simply parsed again next time.
+    */
+    public static void compile (File csvFile, String consumerName, Map strings)
+    {
+        File bundleFile = bundleFile(csvFile, consumerName);
+        if (bundleFile == null) {
+            return;
+        }
+        Compiler compiler = new Compiler();
+        if (!compiler.addMap(strings)) {
+            Log.util.debug("StringTableBundle: %s has values other than strings", csvFile);
+            return;
+        }
+        File tempFile = null;
+        DataOutputStream out = null;
+        try {
+            File directory = bundleFile.getParentFile();
+            directory.mkdirs();
+            tempFile = File.createTempFile("strings", ".tmp", directory);
+            out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(Magic);
+            out.writeInt(Version);
+            out.writeLong(csvFile.lastModified());
+            out.writeLong(csvFile.length());
+            writeString(out, csvFile.getAbsolutePath());
+            writeString(out, consumerName);
+            compiler.write(out);
+            out.close();
+            out = null;
+            bundleFile.delete();
+            if (tempFile.renameTo(bundleFile)) {
+                tempFile = null;
+            }
+        }
+        catch (IOException e) {
+            Log.util.debug("StringTableBundle: cannot write %s: %s", bundleFile, e);
+        }
+        finally {
+            IOUtil.close(out);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+        The bundle file for <code>csvFile</code> and <code>consumerName</code>:
+        a name derived from both, as tables of the same name exist for
+        every locale.  The full path and consumer are verified on load.
+    */
+    static File bundleFile (File csvFile, String consumerName)
+    {
+        File directory = BundleDirectory;
+        if (directory == null) {
+            return null;
+        }
+        String path = csvFile.getAbsolutePath();
+        String name = csvFile.getName();
+        if (name.endsWith(".csv")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return new File(directory, StringUtil.strcat(
+            name, "_", Integer.toHexString(path.hashCode()), "_",
+            Integer.toHexString(consumerName.hashCode()), BundleExtension));
+    }
+
+    private static ByteBuffer slice (ByteBuffer buffer, int length)
+    {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    private static String readString (ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        char[] chars = new char[length];
+        for (int index = 0; index < length; index++) {
+            chars[index] = buffer.getChar();
+        }
+        return new String(chars);
+    }
+
+    private static void writeString (DataOutputStream out, String string)
+        throws IOException
+    {
+        out.writeInt(string.length());
+        out.writeChars(string);
+    }
+
+    String string (int index)
+    {
+        int start = _stringOffsets.get(index);
+        int end = _stringOffsets.get(index + 1);
+        char[] chars = new char[end - start];
+        for (int position = start; position < end; position++) {
+            chars[position - start] = _chars.get(position);
+        }
+        return new String(chars);
+    }
+
+    /**
+        Compares <code>key</code> to the pooled string <code>index</code>
+        without decoding it.
+    */
+    int compare (String key, int index)
+    {
+        int start = _stringOffsets.get(index);
+        int length = _stringOffsets.get(index + 1) - start;
+        int keyLength = key.length();
+        int count = Math.min(keyLength, length);
+        for (int position = 0; position < count; position++) {
+            int difference = key.charAt(position) - _chars.get(start + position);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return keyLength - length;
+    }
+
+    Object value (int reference)
+    {
+        if (reference >= 0) {
+            return string(reference);
+        }
+            // a nested map: decode it, callers may modify it
+        return MapUtil.copyMap(map(-reference - 1));
+    }
+
+    BundleMap map (int mapIndex)
+    {
+        return new BundleMap(this, _mapOffsets.get(mapIndex), _mapOffsets.get(mapIndex + 1));
+    }
+
+    /**
+        Read only view of one map of a bundle.  Entries are (key, value)
+        pairs of pool indexes, sorted by key; a negative value refers to a
+        nested map.
+    */
+    static final class BundleMap extends AbstractMap
+    {
+        private final StringTableBundle _bundle;
+        private final int _start;
+        private final int _end;
+
+        BundleMap (StringTableBundle bundle, int start, int end)
+        {
+            _bundle = bundle;
+            _start = start;
+            _end = end;
+        }
+
+        public int size ()
+        {
+            return _end - _start;
+        }
+
+        public boolean containsKey (Object key)
+        {
+            return indexOf(key) >= 0;
+        }
+
+        public Object get (Object key)
+        {
+            int index = indexOf(key);
+            return (index < 0) ? null : _bundle.value(_bundle._entries.get(index * 2 + 1));
+        }
+
+        private int indexOf (Object key)
+        {
+            if (!(key instanceof String)) {
+                return -1;
+            }
+            String string = (String)key;
+            int low = _start;
+            int high = _end - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = _bundle.compare(string, _bundle._entries.get(middle * 2));
+                if (comparison == 0) {
+                    return middle;
+                }
+                if (comparison > 0) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle - 1;
+                }
+            }
+            return -1;
+        }
+
+        public Set entrySet ()
+        {
+            return new AbstractSet() {
+                public int size ()
+                {
+                    return BundleMap.this.size();
+                }
+
+                public Iterator iterator ()
+                {
+                    return new Iterator() {
+                        private int _index = _start;
+
+                        public boolean hasNext ()
+                        {
+                            return _index < _end;
+                        }
+
+                        public Object next ()
+                        {
+                            if (_index >= _end) {
+                                throw new NoSuchElementException();
+                            }
+                            int entry = _index++ * 2;
+                            IntBuffer entries = _bundle._entries;
+                            return new BundleEntry(_bundle.string(entries.get(entry)),
+                                                   _bundle.value(entries.get(entry + 1)));
+                        }
+
+                        public void remove ()
+                        {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    private static final class BundleEntry implements Map.Entry
+    {
+        private final Object _key;
+        private final Object _value;
+
+        BundleEntry (Object key, Object value)
+        {
+            _key = key;
+            _value = value;
+        }
+
+        public Object getKey ()
+        {
+            return _key;
+        }
+
+        public Object getValue ()
+        {
+            return _value;
+        }
+
+        public Object setValue (Object value)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean equals (Object object)
+        {
+            if (!(object instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry other = (Map.Entry)object;
+            return _key.equals(other.getKey()) && _value.equals(other.getValue());
+        }
+
+        public int hashCode ()
+        {
+            return _key.hashCode() ^ _value.hashCode();
+        }
+    }
+
+    /**
+        Collects the string pool and map entries of a table.
+    */
+    private static final class Compiler
+    {
+        private final Map<String,Integer> _stringIndexes = MapUtil.map();
+        private final List<String> _strings = ListUtil.list();
+        private final List<int[]> _maps = ListUtil.list();
+
+        /**
+            Adds <code>map</code> and the maps nested in it.  Returns false
+            if they hold anything but strings.
+        */
+        boolean addMap (Map map)
+        {
+            return addMapReference(map) != 0;
+        }
+
+        /**
+            Returns the value reference (-(map index + 1)) of the added
+            map, or 0 if it cannot be compiled.
+        */
+        private int addMapReference (Map map)
+        {
+            int mapIndex = _maps.size();
+            _maps.add(null);
+            Object[] keys = map.keySet().toArray();
+            for (int index = 0; index < keys.length; index++) {
+                if (!(keys[index] instanceof String)) {
+                    return 0;
+                }
+            }
+            Arrays.sort(keys);
+            int[] entries = new int[keys.length * 2];
+            for (int index = 0; index < keys.length; index++) {
+                Object value = map.get(keys[index]);
+                int reference;
+                if (value instanceof String) {
+                    reference = stringIndex((String)value);
+                }
+                else if (value instanceof Map) {
+                    reference = addMapReference((Map)value);
+                    if (reference == 0) {
+                        return 0;
+                    }
+                }
+                else {
+                    return 0;
+                }
+                entries[index * 2] = stringIndex((String)keys[index]);
+                entries[index * 2 + 1] = reference;
+            }
+            _maps.set(mapIndex, entries);
+            return -mapIndex - 1;
+        }
+
+        private int stringIndex (String string)
+        {
+            Integer index = _stringIndexes.get(string);
+            if (index == null) {
+                index = Constants.getInteger(_strings.size());
+                _stringIndexes.put(string, index);
+                _strings.add(string);
+            }
+            return index.intValue();
+        }
+
+        void write (DataOutputStream out)
+            throws IOException
+        {
+            int stringCount = _strings.size();
+            out.writeInt(stringCount);
+            int offset = 0;
+            for (int index = 0; index < stringCount; index++) {
+                out.writeInt(offset);
+                offset += _strings.get(index).length();
+            }
+            out.writeInt(offset);
+            int mapCount = _maps.size();
+            out.writeInt(mapCount);
+            int entryOffset = 0;
+            for (int index = 0; index < mapCount; index++) {
+                out.writeInt(entryOffset);
+                entryOffset += _maps.get(index).length / 2;
+            }
+            out.writeInt(entryOffset);
+            for (int index = 0; index < mapCount; index++) {
+                int[] entries = _maps.get(index);
+                for (int entry = 0; entry < entries.length; entry++) {
+                    out.writeInt(entries[entry]);
+                }
+            }
+            for (int index = 0; index < stringCount; index++) {
+                out.writeChars(_strings.get(index));
+            }
+        }
+    }
+}
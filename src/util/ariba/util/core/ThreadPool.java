@@ -63,6 +63,15 @@ import java.util.Set;
     add threads indefinitely.
     </li>
     </ul>
+    <p>
+    A pool can also be created in work stealing mode (see
+    {@link #ThreadPool(String, ThreadManager, int, int, long, int, String,
+    boolean, ThreadFactory)}). In that mode every thread has its own queue
+    and idle threads steal from busy ones, so execute() does not
+    synchronize on the pool (see {@link WorkStealingScheduler}). Passing a
+    {@link VirtualThreadFactory} runs the pooled runnables on virtual
+    threads when the VM supports them. Capacity, handler and monitor
+    semantics are the same in both modes.
     @aribaapi ariba
 */
 public class ThreadPool implements Executor
@@ -86,6 +95,14 @@ public class ThreadPool implements Executor
 
     private ThreadPoolMonitor _monitor = null;
 
+    private final ThreadFactory _threadFactory;
+
+    /**
+        non null if this pool runs in work stealing mode, in which case
+        _queue and _threads are unused.
+    */
+    private final WorkStealingScheduler _scheduler;
+
     /**
         Creates a new ThreadPool starting 1 thread and containing
         up to 5 threads. Threads die after 30 minutes of inactivity.
@@ -119,6 +136,40 @@ public class ThreadPool implements Executor
                        int queueCapacity,
                        String handlerClassName)
     {
+        this(name, threadManager, minThreads, maxThreads, timeout,
+             queueCapacity, handlerClassName, false, null);
+    }
+
+    /**
+        Creates a new ThreadPool.
+        @param name the name used for the threads
+        @param threadManager the ThreadManager used to manage the threads
+        @param minThreads the number of threads to start with
+        @param maxThreads the maximum number of threads managed by the pool
+        @param timeout the maximum time a thread remains inactive
+        @param queueCapacity the size of the queue to hold the runnables. Note
+        that it is possible for the queue to grow beyond this initial capacity.
+        @param handlerClassName the name of the handling class. If <code>null</code>
+        {@link DefaultRejectedExecutionHandler} will be used.
+        @param workStealing if <code>true</code> use per thread queues with
+        work stealing instead of one queue guarded by the pool monitor
+        @param threadFactory creates the pooled threads. If <code>null</code>
+        {@link JavaThreadFactory} will be used; use {@link VirtualThreadFactory}
+        for virtual threads.
+        @aribaapi ariba
+    */
+    public ThreadPool (String name,
+                       ThreadManager threadManager,
+                       int minThreads,
+                       int maxThreads,
+                       long timeout,
+                       int queueCapacity,
+                       String handlerClassName,
+                       boolean workStealing,
+                       ThreadFactory threadFactory)
+    {
+        this._threadFactory = (threadFactory == null) ?
+            new JavaThreadFactory() : threadFactory;
         this._inactivityTimeOut = timeout;
         this._maxThreads = maxThreads;
         this._minThreads = minThreads;
@@ -132,8 +183,18 @@ public class ThreadPool implements Executor
                 handlerClassName, "ariba.util.core.RejectedExecutionHandler");
         Assert.that(this._handler != null,
                     "Error instantiating %s", handlerClassName);
-        for (int i = 0; i < minThreads; i++) {
-            createExecutor();
+        if (workStealing) {
+            this._scheduler = new WorkStealingScheduler(
+                this, _name, _threadManager, _threadFactory,
+                minThreads, maxThreads, timeout, queueCapacity);
+        }
+        else {
+            this._scheduler = null;
+            synchronized (this) {
+                for (int i = 0; i < minThreads; i++) {
+                    createExecutor();
+                }
+            }
         }
         if (Log.threadpool.isDebugEnabled()) {
             Log.threadpool.debug(
@@ -158,10 +219,21 @@ public class ThreadPool implements Executor
         @exception RejectedExecutionException if the execution is rejected.
         @aribaapi ariba
     */
-    public synchronized void execute (Runnable command)
+    public void execute (Runnable command)
     {
-        executeWithoutNotify(command, false, true);
-        notify();
+        if (_scheduler != null) {
+            if (!_scheduler.execute(command, false)) {
+                _handler.handle(command, this);
+            }
+            if (_monitor != null) {
+                _monitor.monitor(this);
+            }
+            return;
+        }
+        synchronized (this) {
+            executeWithoutNotify(command, false, true);
+            notify();
+        }
     }
 
     /**
@@ -169,9 +241,15 @@ public class ThreadPool implements Executor
         {@link ThreadPoolRejectedExecutionHandler}. Use with
         caution!! Do not make this public method.
     */
-    synchronized void forceExecuteWithoutNotify (Runnable command)
+    void forceExecuteWithoutNotify (Runnable command)
     {
-        executeWithoutNotify(command, true, false);
+        if (_scheduler != null) {
+            _scheduler.execute(command, true);
+            return;
+        }
+        synchronized (this) {
+            executeWithoutNotify(command, true, false);
+        }
     }
 
     private void executeWithoutNotify (Runnable command,
@@ -206,7 +284,7 @@ public class ThreadPool implements Executor
     */
     public int getThreadCount ()
     {
-        return _threads.size();
+        return (_scheduler != null) ? _scheduler.getThreadCount() : _threads.size();
     }
     
     /**
@@ -215,12 +293,54 @@ public class ThreadPool implements Executor
      */
     public int getQueueSize ()
     {
+        if (_scheduler != null) {
+            return _scheduler.getQueueSize();
+        }
         // this method is not synchronized like any of the
         // other methods accessing the queue. But we're just 
         // accessing the size of the list so it's fine
         return _queue.getSize();
     }
 
+    /**
+     * Returns true if this pool was created in work stealing mode.
+     * @aribaapi ariba
+     */
+    public boolean isWorkStealing ()
+    {
+        return _scheduler != null;
+    }
+
+    /**
+     * Returns the number of runnables a thread took from another thread's
+     * queue. Always 0 unless in work stealing mode.
+     * @aribaapi ariba
+     */
+    public long getStealCount ()
+    {
+        return (_scheduler != null) ? _scheduler.getStealCount() : 0;
+    }
+
+    /**
+     * Returns the number of threads waiting for work. Only tracked in
+     * work stealing mode.
+     * @aribaapi ariba
+     */
+    public int getIdleThreadCount ()
+    {
+        return (_scheduler != null) ? _scheduler.getIdleThreadCount() : 0;
+    }
+
+    /**
+     * Returns the number of runnables that ran to completion. Only tracked
+     * in work stealing mode.
+     * @aribaapi ariba
+     */
+    public long getCompletedCount ()
+    {
+        return (_scheduler != null) ? _scheduler.getCompletedCount() : 0;
+    }
+
     /**
      * Returns the configured max thread limit.
      * @return
@@ -385,7 +505,7 @@ public class ThreadPool implements Executor
 
         PooledExecutor ()
         {
-            _thread = new Thread(this,
+            _thread = _threadFactory.createThread(this,
                                  Fmt.S("PooledExecutor - %s - %s",
                                        _name,
                                        String.valueOf(++_threadId)));
@@ -18,8 +18,11 @@ package ariba.util.core;
 
 
 /**
-    This interface specifies a hook to monitor the thread pool. Currently,
-    we only use this for unit test.
+    This interface specifies a hook to monitor the thread pool. It is
+    called after each execute; implementations can read
+    {@link ThreadPool#getQueueSize}, {@link ThreadPool#getThreadCount} and,
+    for work stealing pools, {@link ThreadPool#getStealCount} and
+    {@link ThreadPool#getIdleThreadCount}.
     @aribaapi ariba
 */
 public interface ThreadPoolMonitor
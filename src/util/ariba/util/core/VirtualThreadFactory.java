@@ -0,0 +1,106 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.util.core;
+
+import ariba.util.log.Log;
+import java.lang.reflect.Method;
+
+/**
+    A ThreadFactory that creates virtual threads when the running VM
+    supports them (Java 21 and later) and plain Java Threads otherwise.
+    The virtual thread API is reached through reflection so that this
+    class compiles and runs on older VMs.
+
+    @aribaapi ariba
+*/
+public class VirtualThreadFactory implements ThreadFactory
+{
+    private static final Method OfVirtual;
+    private static final Method BuilderName;
+    private static final Method BuilderUnstarted;
+    private static final Method IsVirtual;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderUnstarted = null;
+        Method isVirtual = null;
+        try {
+            Class builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builderClass.getMethod("name", String.class);
+            builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+            isVirtual = Thread.class.getMethod("isVirtual");
+        }
+        catch (ClassNotFoundException e) {
+            ofVirtual = null;
+        }
+        catch (NoSuchMethodException e) {
+            ofVirtual = null;
+        }
+        OfVirtual = ofVirtual;
+        BuilderName = builderName;
+        BuilderUnstarted = builderUnstarted;
+        IsVirtual = isVirtual;
+    }
+
+    private final ThreadFactory _fallback = new JavaThreadFactory();
+
+    /**
+        @return <code>true</code> if this VM can create virtual threads
+        @aribaapi ariba
+    */
+    public static boolean isSupported ()
+    {
+        return OfVirtual != null;
+    }
+
+    /**
+        @return <code>true</code> if <code>thread</code> is a virtual thread,
+        i.e. may block without tying up a platform thread
+        @aribaapi ariba
+    */
+    public static boolean isVirtual (Thread thread)
+    {
+        if (IsVirtual == null) {
+            return false;
+        }
+        try {
+            return ((Boolean)IsVirtual.invoke(thread)).booleanValue();
+        }
+        catch (Exception e) { // OK
+            return false;
+        }
+    }
+
+    public Thread createThread (Runnable target, String name)
+    {
+        if (OfVirtual != null) {
+            try {
+                Object builder = OfVirtual.invoke(null);
+                builder = BuilderName.invoke(builder, name);
+                return (Thread)BuilderUnstarted.invoke(builder, target);
+            }
+            catch (Exception e) { // OK
+                Log.util.debug("Unable to create virtual thread %s, using a platform thread: %s",
+                               name, e);
+            }
+        }
+        return _fallback.createThread(target, name);
+    }
+}
@@ -0,0 +1,450 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.util.core;
+
+import ariba.util.log.Log;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+    The work stealing engine behind a {@link ThreadPool} created in
+    work stealing mode.
+    <p>
+    Every worker owns a {@link Deque}, guarded by the worker's own
+    monitor. Runnables submitted from a worker thread go to that worker's
+    deque; runnables submitted from other threads are spread round robin
+    over the workers. A worker runs its own runnables in FIFO order and,
+    when it has none left, steals the youngest runnable of another worker.
+    There is no pool wide lock: execute() touches one worker deque and a
+    few atomic counters, and idle workers are parked and unparked
+    individually instead of through wait()/notify() on the pool.
+    <p>
+    The queue capacity and {@link RejectedExecutionHandler} semantics are
+    the same as for the classic ThreadPool: when more than queueCapacity
+    runnables are waiting, the handler is called, and a forced execute (see
+    {@link ThreadPoolRejectedExecutionHandler}) may grow the pool up to ten
+    times its maximum size.
+
+    @aribaapi private
+*/
+final class WorkStealingScheduler
+{
+    private final ThreadPool _pool;
+    private final String _name;
+    private final ThreadManager _threadManager;
+    private final ThreadFactory _threadFactory;
+    private final int _minThreads;
+    private final int _maxThreads;
+    private final int _queueCapacity;
+    private final long _inactivityTimeOutNanos;
+
+    private volatile Worker[] _workers = new Worker[0];
+    private final ConcurrentLinkedQueue _idleWorkers = new ConcurrentLinkedQueue();
+    private final AtomicInteger _threadCount = new AtomicInteger();
+    private final AtomicInteger _queued = new AtomicInteger();
+    private final AtomicInteger _nextWorker = new AtomicInteger();
+    private final AtomicInteger _threadId = new AtomicInteger();
+    private final AtomicLong _stealCount = new AtomicLong();
+    private final AtomicLong _completedCount = new AtomicLong();
+
+    WorkStealingScheduler (ThreadPool pool,
+                           String name,
+                           ThreadManager threadManager,
+                           ThreadFactory threadFactory,
+                           int minThreads,
+                           int maxThreads,
+                           long timeout,
+                           int queueCapacity)
+    {
+        _pool = pool;
+        _name = name;
+        _threadManager = threadManager;
+        _threadFactory = threadFactory;
+        _minThreads = minThreads;
+        _maxThreads = Math.max(1, maxThreads);
+        _queueCapacity = queueCapacity;
+        _inactivityTimeOutNanos = timeout * 1000000L;
+        for (int i = 0; i < minThreads; i++) {
+            startWorker(null, _maxThreads);
+        }
+    }
+
+    /**
+        Queues the runnable.
+        @return <code>false</code> if the queue is full and force is false,
+        in which case the caller should call the RejectedExecutionHandler.
+    */
+    boolean execute (Runnable command, boolean force)
+    {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        int queued = _queued.incrementAndGet();
+        if (queued > _queueCapacity && !force) {
+            _queued.decrementAndGet();
+            return false;
+        }
+        if (queued == _queueCapacity + 1) {
+            Log.threadpool.warning(9031, _name, Constants.getInteger(_queueCapacity));
+        }
+        int threadLimit = force ? _maxThreads * 10 : _maxThreads;
+            // push before waking: a worker woken first could look for work,
+            // find none and park again before the runnable is pushed
+        if (!push(command) && wakeIdleWorker() == null) {
+            startWorker(null, threadLimit);
+        }
+        return true;
+    }
+
+    /**
+        Pushes the runnable on a worker deque.
+        @return <code>true</code> if a new worker was started for it
+    */
+    private boolean push (Runnable command)
+    {
+        Thread current = Thread.currentThread();
+        while (true) {
+            Worker[] workers = _workers;
+            int count = workers.length;
+            if (count == 0) {
+                // every worker retired since we checked -- start one,
+                // ignoring the limit, rather than leave the runnable behind
+                if (startWorker(command, Integer.MAX_VALUE)) {
+                    return true;
+                }
+                continue;
+            }
+            Worker target = null;
+            for (int i = 0; i < count; i++) {
+                if (workers[i].thread == current) {
+                    target = workers[i];
+                    break;
+                }
+            }
+            if (target == null) {
+                int index = (_nextWorker.getAndIncrement() & Integer.MAX_VALUE) % count;
+                target = workers[index];
+            }
+            if (target.push(command)) {
+                return false;
+            }
+        }
+    }
+
+    private Worker wakeIdleWorker ()
+    {
+        Worker worker;
+        while ((worker = (Worker)_idleWorkers.poll()) != null) {
+            if (worker.idle.compareAndSet(true, false)) {
+                LockSupport.unpark(worker.thread);
+                return worker;
+            }
+        }
+        return null;
+    }
+
+    private boolean startWorker (Runnable firstTask, int threadLimit)
+    {
+        while (true) {
+            int count = _threadCount.get();
+            if (count >= threadLimit) {
+                return false;
+            }
+            if (_threadCount.compareAndSet(count, count + 1)) {
+                break;
+            }
+        }
+        Worker worker = new Worker();
+        if (firstTask != null) {
+            worker.push(firstTask);
+        }
+        try {
+            worker.thread = _threadFactory.createThread(worker,
+                Fmt.S("PooledExecutor - %s - %s", _name,
+                      String.valueOf(_threadId.incrementAndGet())));
+            worker.thread.setDaemon(true);
+            addWorker(worker);
+            if (_threadCount.get() > _maxThreads) {
+                Log.threadpool.info(9032, _name, worker.thread.getName(),
+                                    Constants.getInteger(_threadCount.get()));
+            }
+            worker.thread.start();
+        }
+        catch (OutOfMemoryError oome) {
+            // Cannot create and/or start the thread because of lack of memory or
+            // native threads.  Hand the runnable back to the remaining workers.
+            removeWorker(worker);
+            _threadCount.decrementAndGet();
+            Log.threadpool.warning(9863, _name, Constants.getInteger(_threadCount.get()),
+                                   SystemUtil.stackTrace(oome));
+            if (firstTask != null) {
+                if (_workers.length == 0) {
+                    throw oome;
+                }
+                if (!push(firstTask)) {
+                    wakeIdleWorker();
+                }
+            }
+        }
+        return true;
+    }
+
+    private synchronized void addWorker (Worker worker)
+    {
+        Worker[] workers = _workers;
+        Worker[] newWorkers = new Worker[workers.length + 1];
+        System.arraycopy(workers, 0, newWorkers, 0, workers.length);
+        newWorkers[workers.length] = worker;
+        _workers = newWorkers;
+    }
+
+    private synchronized void removeWorker (Worker worker)
+    {
+        Worker[] workers = _workers;
+        int index = -1;
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i] == worker) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return;
+        }
+        Worker[] newWorkers = new Worker[workers.length - 1];
+        System.arraycopy(workers, 0, newWorkers, 0, index);
+        System.arraycopy(workers, index + 1, newWorkers, index, workers.length - index - 1);
+        _workers = newWorkers;
+    }
+
+    private Runnable stealFor (Worker thief)
+    {
+        Worker[] workers = _workers;
+        int count = workers.length;
+        if (count < 2) {
+            return null;
+        }
+        int start = (int)(System.nanoTime() & Integer.MAX_VALUE) % count;
+        for (int i = 0; i < count; i++) {
+            Worker victim = workers[(start + i) % count];
+            if (victim != thief) {
+                Runnable runnable = victim.steal();
+                if (runnable != null) {
+                    _stealCount.incrementAndGet();
+                    return runnable;
+                }
+            }
+        }
+        return null;
+    }
+
+    int getThreadCount ()
+    {
+        return _threadCount.get();
+    }
+
+    int getQueueSize ()
+    {
+        return Math.max(0, _queued.get());
+    }
+
+    long getStealCount ()
+    {
+        return _stealCount.get();
+    }
+
+    long getCompletedCount ()
+    {
+        return _completedCount.get();
+    }
+
+    int getIdleThreadCount ()
+    {
+        int idle = 0;
+        Worker[] workers = _workers;
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i].idle.get()) {
+                idle++;
+            }
+        }
+        return idle;
+    }
+
+    private final class Worker implements Runnable
+    {
+        private final Deque _deque = new Deque(16);
+        private boolean _retired;
+            // set when retireIfEmpty() already took us off _threadCount
+        private boolean _uncounted;
+        final AtomicBoolean idle = new AtomicBoolean();
+        volatile Thread thread;
+
+        synchronized boolean push (Runnable runnable)
+        {
+            if (_retired) {
+                return false;
+            }
+            _deque.enqueue(runnable);
+            return true;
+        }
+
+        synchronized Runnable poll ()
+        {
+            return _deque.isEmpty() ? null : (Runnable)_deque.dequeue();
+        }
+
+        synchronized Runnable steal ()
+        {
+            return _deque.isEmpty() ? null : (Runnable)_deque.pop();
+        }
+
+        /**
+            Retires this worker if its deque is empty and the pool has more
+            than minThreads threads.  The thread count is decremented with a
+            compareAndSet, so concurrently retiring workers cannot take the
+            pool below minThreads.
+        */
+        synchronized boolean retireIfEmpty ()
+        {
+            if (!_deque.isEmpty()) {
+                return false;
+            }
+            while (true) {
+                int count = _threadCount.get();
+                if (count <= _minThreads) {
+                    return false;
+                }
+                if (_threadCount.compareAndSet(count, count - 1)) {
+                    _retired = true;
+                    _uncounted = true;
+                    return true;
+                }
+            }
+        }
+
+        private Runnable nextRunnable ()
+        {
+            Runnable runnable = poll();
+            if (runnable == null) {
+                runnable = stealFor(this);
+            }
+            return runnable;
+        }
+
+        /**
+            Parks until woken up or the inactivity time out expires.
+            @return a runnable, or null if this worker should exit
+        */
+        private Runnable awaitRunnable ()
+        {
+            idle.set(true);
+            _idleWorkers.add(this);
+            // re-check after advertising ourselves to avoid missing a
+            // runnable pushed just before we went idle
+            Runnable runnable = nextRunnable();
+            if (runnable != null) {
+                idle.set(false);
+                return runnable;
+            }
+            long deadline = System.nanoTime() + _inactivityTimeOutNanos;
+            while (idle.get()) {
+                if (_inactivityTimeOutNanos == 0) {
+                    LockSupport.park(this);
+                }
+                else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+                Thread.interrupted();
+            }
+            if (idle.compareAndSet(true, false)) {
+                // timed out while nobody was looking for us
+                _idleWorkers.remove(this);
+                runnable = nextRunnable();
+                if (runnable == null && retireIfEmpty()) {
+                    return null;
+                }
+                return runnable != null ? runnable : poll();
+            }
+            return nextRunnable();
+        }
+
+        public void run ()
+        {
+            try {
+                while (true) {
+                    Runnable runnable = nextRunnable();
+                    if (runnable == null) {
+                        if (_retired) {
+                            break;
+                        }
+                        runnable = awaitRunnable();
+                        if (_retired) {
+                            break;
+                        }
+                        if (runnable == null) {
+                            continue;
+                        }
+                    }
+                    _queued.decrementAndGet();
+                    _threadManager.setupThread();
+                    try {
+                        runnable.run();
+                    }
+                    catch (Throwable t) { // OK
+                        Log.threadpool.error(2867,
+                                             _name,
+                                             runnable.getClass().getName(),
+                                             SystemUtil.stackTrace(t));
+                    }
+                    finally {
+                        _threadManager.cleanupThread();
+                        _completedCount.incrementAndGet();
+                    }
+                }
+            }
+            finally {
+                boolean counted;
+                synchronized (this) {
+                    _retired = true;
+                    counted = !_uncounted;
+                    _uncounted = true;
+                }
+                removeWorker(this);
+                if (counted) {
+                    _threadCount.decrementAndGet();
+                }
+                Log.threadpool.info(9033, _name, thread.getName(),
+                                    Constants.getInteger(_threadCount.get()));
+                // anything left behind (only possible if we died on an
+                // Error) is handed to the remaining workers
+                Runnable orphan;
+                while ((orphan = poll()) != null) {
+                    _queued.decrementAndGet();
+                    _pool.execute(orphan);
+                }
+            }
+        }
+    }
+}
@@ -223,16 +223,7 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
         Locale     locale,
         String     pattern)
     {
-        DecimalFormat fmt = null;
-        try
-        {
-            fmt = acquireDecimalFormat(locale, pattern);
-            return getStringValue(value, scale, locale, fmt);
-        }
-        finally
-        {
-            releaseDecimalFormat(fmt,locale, pattern);
-        }
+        return getStringValue(value, scale, locale, decimalCodec(locale, pattern));
     }
 
     /**
@@ -254,6 +245,30 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
         int           scale,
         Locale        locale,
         DecimalFormat fmt)
+    {
+        return getStringValue(value, scale, locale, new DecimalCodec(fmt));
+    }
+
+    /**
+        Returns a formatted string for this <code>value</code> using
+        this <code>scale</code> to determine how many fractional digits are
+        shown.  Uses the localized symbols of the <code>DecimalCodec</code>
+        passed in to format the number.
+
+        @param value <code>BigDecimal</code> to convert to a string value.
+        @param scale The number of decimal places to create in the string value.
+        @param locale <code>Locale</code> to use to format the string.
+        @param codec The <code>DecimalCodec</code> to use for the localized
+                     symbols.
+
+        @return Returns a string representation of the <code>BigDecimal</code>.
+        @aribaapi private
+    */
+    public static String getStringValue (
+        BigDecimal   value,
+        int          scale,
+        Locale       locale,
+        DecimalCodec codec)
     {
         if (value == null) {
             return Constants.EmptyString;
@@ -265,30 +280,7 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
             value = value.setScale(scale, BigDecimal.ROUND_HALF_UP);
         }
 
-        FastStringBuffer buf = new FastStringBuffer(value.toPlainString());
-
-        DecimalFormatSymbols symbols = fmt.getDecimalFormatSymbols();
-
-            // Extract localized characters for parsing numbers
-        char decimalSep = symbols.getDecimalSeparator();
-        char groupSep   = symbols.getGroupingSeparator();
-        int  groupSize  = fmt.getGroupingSize();
-        String negativePrefix = fmt.getNegativePrefix();
-        String negativeSuffix = fmt.getNegativeSuffix();
-        String positivePrefix = fmt.getPositivePrefix();
-        String positiveSuffix = fmt.getPositiveSuffix();
-
-            // Remove any canonical negative sign
-        int minusSign = buf.indexOf(CanonicalMinusSign);
-        if (minusSign > -1) {
-            buf.removeCharAt(minusSign);
-        }
-
-            // Replace the canonical decimal separator with a localized version
-        int decimal = buf.indexOf(CanonicalDecimalSeparator);
-        if (decimal > -1) {
-            buf.replace(decimal, decimalSep, 1);
-        }
+        char groupSep = codec.getGroupingSeparator();
 
             // temporary hack to work around bug in IE where
             // the group separator of Canadian English is ';'
@@ -296,28 +288,7 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
             groupSep = CanadianEnglishGroupSeparator;
         }
 
-            // Insert any group separators.  If no decimal separator exists,
-            // then start inserting group separators relative to the end of
-            // the string.
-        if (decimal < 0) {
-            decimal = buf.length();
-        }
-        if (groupSize > 0) {
-            for (int i = decimal-groupSize; i > 0; i -= groupSize) {
-                buf.insert(groupSep, i);
-            }
-        }
-
-        if (value.signum() >= 0) {
-            buf.insert(positivePrefix, 0);
-            buf.append(positiveSuffix);
-        }
-        else {
-            buf.insert(negativePrefix, 0);
-            buf.append(negativeSuffix);
-        }
-
-        return buf.toString();
+        return codec.format(value, groupSep);
     }
 
     /*-----------------------------------------------------------------------
@@ -424,23 +395,15 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
       throws ParseException
     {
         Assert.that(locale != null, "invalid null Locale");
-        DecimalFormat fmt = null;
-        try
-        {
-            fmt = acquireDecimalFormat(locale, pattern);
-            string = LocaleSupport.normalizeNumber(string, locale);
+        DecimalCodec codec = decimalCodec(locale, pattern);
+        string = LocaleSupport.normalizeNumber(string, locale);
 
-            DecimalParseInfo info = parseBigDecimal(string, fmt, strict);
-            // if strict then the string prefix and string suffix should be empty
-            if (strict) {
-                BigDecimalParser.assertStrict(info);
-            }
-            return info.number;
-        }
-        finally
-        {
-            releaseDecimalFormat(fmt,locale, pattern);
+        DecimalParseInfo info = parseBigDecimal(string, codec, strict);
+        // if strict then the string prefix and string suffix should be empty
+        if (strict) {
+            BigDecimalParser.assertStrict(info);
         }
+        return info.number;
     }
 
     /**
@@ -494,16 +457,7 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
       throws ParseException
     {
         Assert.that(locale != null, "invalid null Locale");
-        DecimalFormat fmt = null;
-        try
-        {
-            fmt = acquireDecimalFormat(locale);
-            return parseBigDecimal(string, fmt, strict);
-        }
-        finally
-        {
-            releaseDecimalFormat(fmt,locale);
-        }
+        return parseBigDecimal(string, decimalCodec(locale, null), strict);
     }
 
     /**
@@ -558,7 +512,7 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
     {
         DecimalParseInfo info = null;
         if (!strict) {
-            info = _parseBigDecimal(string, fmt);
+            info = _parseBigDecimal(string, new DecimalCodec(fmt));
         }
         else {
             info = BigDecimalParser.strictParse(string, fmt);
@@ -566,15 +520,51 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
         return info;
     }
 
+    /**
+        Parse the <code>string</code> parameter and return a
+        <code>DecimalParseInfo</code> that returns information gleaned
+        from parse such as the <code>BigDecimal</code> number
+        corresponding to the string, the number of decimal places,
+        etc.
+
+        If the parse cannot be performed successfully, the parser throws
+        a <code>ParseException</code>.
+
+        @param string The string to parse.
+        @param codec The <code>DecimalCodec</code> to use for the localized
+                     symbols.
+
+        @return Returns the <code>DecimalParseInfo</code> corresponding to the
+                <code>string</code> parameter.
+        @aribaapi private
+    */
+    public static DecimalParseInfo parseBigDecimal (String string, DecimalCodec codec)
+      throws ParseException
+    {
+        return _parseBigDecimal(string, codec);
+    }
+
+    private static DecimalParseInfo parseBigDecimal (String string,
+                                                     DecimalCodec codec,
+                                                     boolean strict)
+      throws ParseException
+    {
+        if (!strict) {
+            return _parseBigDecimal(string, codec);
+        }
+            // reads the shared format, does not format or parse with it
+        return BigDecimalParser.strictParse(string, codec.getDecimalFormat());
+    }
+
     /**
      * TODO: move this into the BigDecimalParser (not done to minimize diff).
      *  -mgower July 12, 2010
      * @param string
-     * @param fmt
+     * @param codec
      * @return
      * @throws ParseException
      */
-    private static DecimalParseInfo _parseBigDecimal (String string, DecimalFormat fmt)
+    private static DecimalParseInfo _parseBigDecimal (String string, DecimalCodec codec)
         throws ParseException
     {
         /*
@@ -591,27 +581,32 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
             // if "(10)" is a valid string, neither will be ignored
         boolean ignoreNegativeSuffix = false;
 
-        DecimalFormatSymbols symbols = fmt.getDecimalFormatSymbols();
+        int length = string.length();
 
-            // Initialize the parsing result buffers
-        FastStringBuffer numberBuffer = new FastStringBuffer();
-        FastStringBuffer prefixStringStringBuffer = new FastStringBuffer();
-        FastStringBuffer suffixStringStringBuffer = new FastStringBuffer();
+            // Initialize the parsing result buffers.  The number takes at
+            // most one char per input char after a slot for the sign; the
+            // prefix and suffix buffers are only made if there is any text
+            // around it.
+        char[] numberBuffer = new char[length + 1];
+        int numberLength = 1;
+        FastStringBuffer prefixStringStringBuffer = null;
+        FastStringBuffer suffixStringStringBuffer = null;
 
         // Extract localized characters for parsing numbers
             // For the string "1,234.56" '.' is the decimal separator.
-        char decimalSep = symbols.getDecimalSeparator();
+        char decimalSep = codec.getDecimalSeparator();
             //For the string "1,234.56" ',' is the grouping separator.
-        char groupSep   = symbols.getGroupingSeparator();
+        char groupSep   = codec.getGroupingSeparator();
             // The negativePrefix will typically be ( or -, as in (100) or -100.
-        String negativePrefix = fmt.getNegativePrefix();
+        String negativePrefix = codec.getNegativePrefix();
             // The negative suffix will typically be ) or '', as in (100) or -100.
             // Something like 100- is allowed in some locals as well though.
-        String negativeSuffix = fmt.getNegativeSuffix();
-        int length = string.length();
+        String negativeSuffix = codec.getNegativeSuffix();
 
-        Log.util.debug("parseBigDecimal: string = %s, neg prefix = %s, neg suffix = %s",
-                       string, negativePrefix, negativeSuffix);
+        if (Log.util.isDebugEnabled()) {
+            Log.util.debug("parseBigDecimal: string = %s, neg prefix = %s, neg suffix = %s",
+                           string, negativePrefix, negativeSuffix);
+        }
 
         // housekeeping for negative signs
         boolean negativePrefixIsMissing =
@@ -658,7 +653,7 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
                 // Are we on the format's negative prefix?  If so, skip it
                 // We check for the canonical negative prefix below
             if (!negPrefixFound && !foundDigits && negativePrefix.length() > 0 &&
-                string.indexOf(negativePrefix, i) == i)
+                string.startsWith(negativePrefix, i))
             {
                 Log.util.debug("found neg prefix at %s", i);
                 negPrefixFound = true;
@@ -667,7 +662,7 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
                 // Are we on the negative suffix?  If so, skip it
             else if (!negSuffixFound && foundDigits &&
                      negativeSuffix.length() > 0 &&
-                     string.indexOf(negativeSuffix, i) == i)
+                     string.startsWith(negativeSuffix, i))
             {
                 negSuffixFound = true;
                 Log.util.debug("found neg suffix at %s", i);
@@ -684,7 +679,7 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
 
                     // Replace with the canonical decimal separator for the
                     // BigDecimal constructor.
-                numberBuffer.append(CanonicalDecimalSeparator);
+                numberBuffer[numberLength++] = CanonicalDecimalSeparator;
                 decimalLocation = i;
             }
 
@@ -702,19 +697,20 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
                     // If we found a suffix yet there's still digits,
                     // then we've got exponential notation or an invalid number
                 boolean exponentialOrInvalid =
-                        suffixStringStringBuffer.length() > 0 || negSuffixFound;
+                        suffixStringStringBuffer != null || negSuffixFound;
                 if (exponentialOrInvalid) {
                     char prevChar = string.charAt(i -1);
                     boolean exponential = prevChar == 'E' || prevChar == 'e';
                     if (exponential) {
-                        return BigDecimalParser.parseExponentialBigDecimal(string, fmt);
+                        return BigDecimalParser.parseExponentialBigDecimal(
+                            string, codec.getDecimalFormat());
                     }
                     else {
                         throw makeParseException(InvalidCharacterInNumberKey, 1);
                     }
                 }
 
-                numberBuffer.append(curChar);
+                numberBuffer[numberLength++] = curChar;
                 foundDigits = true;
                 if (decimalLocation > NOT_FOUND) {
                     // decimal place has been found
@@ -727,10 +723,16 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
                 // we're on the prefix string, AKA random text before the number
             else if (!foundDigits)
             {
+                if (prefixStringStringBuffer == null) {
+                    prefixStringStringBuffer = new FastStringBuffer();
+                }
                 prefixStringStringBuffer.append(curChar);
             }
                 // must be the string suffix
             else {
+                if (suffixStringStringBuffer == null) {
+                    suffixStringStringBuffer = new FastStringBuffer();
+                }
                 suffixStringStringBuffer.append(curChar);
             }
         } // end input string loop
@@ -750,32 +752,35 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
 
             // Put back a canonical minus sign if the number is negative
         boolean isNegative = negativePrefixIsValid && negativeSuffixIsValid;
+        int numberStart = 1;
         if (isNegative) {
-            numberBuffer.insert(CanonicalMinusSign, 0);
+            numberBuffer[0] = CanonicalMinusSign;
+            numberStart = 0;
         }
 
         // sanity check
-        boolean noNumbers = numberBuffer.length() == 0;
+        boolean noNumbers = numberLength == numberStart;
         if (noNumbers) {
             throw makeParseException(NoDigitsFoundKey, 0);
         }
 
         // convert number buffer to big decimal
-        String numberString = numberBuffer.toString();
         BigDecimal amount = Constants.ZeroBigDecimal;
         try {
-            amount = new BigDecimal(numberString);
+            amount = new BigDecimal(numberBuffer, numberStart, numberLength - numberStart);
         }
         catch (NumberFormatException e) {
             throw makeParseException(NumberFormatErrorKey, 0);
         }
 
         // convert other buffers to strings
-        String prefixString = prefixStringStringBuffer.toString();
+        String prefixString = (prefixStringStringBuffer == null) ?
+            null : prefixStringStringBuffer.toString();
         if (StringUtil.nullOrEmptyOrBlankString(prefixString)) {
             prefixString = null;
         }
-        String suffixString = suffixStringStringBuffer.toString();
+        String suffixString = (suffixStringStringBuffer == null) ?
+            null : suffixStringStringBuffer.toString();
         if (StringUtil.nullOrEmptyOrBlankString(suffixString)) {
             suffixString = null;
         }
@@ -841,10 +846,8 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
                 
                 BigDecimal parsedBigDecimal = new BigDecimal(string);
                 String parsedString = parsedBigDecimal.toPlainString();
-                DecimalFormat canonicalExponentialFormat =
-                        acquireDecimalFormat(Locale.ENGLISH);
-                return BigDecimalFormatter.parseBigDecimal(parsedString,
-                                                           canonicalExponentialFormat);
+                return BigDecimalFormatter.parseBigDecimal(
+                    parsedString, decimalCodec(Locale.ENGLISH, null));
             }
             catch (ParseException e) {
                 throw StrictParseException.make(e, string);
@@ -2289,16 +2292,8 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
     */
     public static DecimalFormatSymbols getDecimalFormatSymbol (Locale locale)
     {
-        DecimalFormat fmt = null;
-        try
-        {
-            fmt = acquireDecimalFormat(locale);
-            return fmt.getDecimalFormatSymbols();
-        }
-        finally
-        {
-            releaseDecimalFormat(fmt,locale);
-        }
+            // a copy, so the caller may change it
+        return decimalCodec(locale, null).getDecimalFormat().getDecimalFormatSymbols();
     }
 
     /**
@@ -2404,25 +2399,8 @@ public class BigDecimalFormatter extends DecimalFormatterCommon
         return fmt;
     }
 
-    private static DecimalFormat acquireDecimalFormat (Locale locale)
-    {
-        return acquireDecimalFormat(locale, null);
-    }
-
-    private static DecimalFormat acquireDecimalFormat (Locale locale, String pattern)
-    {
-        return (DecimalFormat)factory.acquireFormat(Formatter.BigDecimalFormatterType,
-                                                    locale, pattern);
-    }
-
-    private static void releaseDecimalFormat (DecimalFormat df,Locale locale)
-    {
-        releaseDecimalFormat(df, locale, null);
-    }
-
-    private static void releaseDecimalFormat (DecimalFormat df,
-                                              Locale locale, String pattern)
+    static DecimalCodec decimalCodec (Locale locale, String pattern)
     {
-        factory.releaseFormat(df,Formatter.BigDecimalFormatterType,locale,pattern);
+        return factory.decimalCodec(Formatter.BigDecimalFormatterType, locale, pattern);
     }
 }
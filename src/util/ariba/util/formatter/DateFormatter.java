@@ -219,6 +219,9 @@ public class DateFormatter extends Formatter
         // standard format for displaying date in GMT
     private static final String GMTFormat = "d MMM yyyy HH:mm:ss 'GMT'";
 
+        // time zone calendar dates are formatted in
+    private static final TimeZone CalendarTimeZone = TimeZone.getTimeZone("GMT");
+
         // date format string showing time (for use as a filename suffix)
     private static final String FileTimeFormat = "hh_mm_ssa";
 
@@ -238,8 +241,22 @@ public class DateFormatter extends Formatter
         // parseDate() rejects year < 100
     private static final int InvalidYearThreshold = 100;
 
-        // Cache of date format patterns
-    private static final MultiKeyHashtable Patterns = new MultiKeyHashtable(2);
+        // Cache of date format patterns, guarded by PatternsLock.  Built
+        // from localized strings, so dropped whenever ResourceService
+        // reloads them.
+    private static final Object PatternsLock = new Object();
+    private static MultiKeyHashtable Patterns = new MultiKeyHashtable(2);
+
+    static {
+        ResourceService.registerClearCacheHook(new Runnable() {
+            public void run ()
+            {
+                synchronized (PatternsLock) {
+                    Patterns = new MultiKeyHashtable(2);
+                }
+            }
+        });
+    }
 
     /*-----------------------------------------------------------------------
         Constructor
@@ -443,6 +460,16 @@ public class DateFormatter extends Formatter
         }
         // get a date format instance for the given pattern and locale
         Assert.that(locale != null, "invalid null Locale");
+
+            // numeric patterns read the fields off the cached DateContext
+        TimeZone zone = calendarDate(date) ? CalendarTimeZone : timeZone;
+        if (zone != null) {
+            String string = NumericDateFormat.format(date, pattern, locale, zone);
+            if (string != null) {
+                return string;
+            }
+        }
+
         SimpleDateFormat fmt = null;
         try
         {
@@ -1599,7 +1626,7 @@ public class DateFormatter extends Formatter
 
     private static String[] acquirePatterns (String formatsKey, Locale locale)
     {
-        synchronized (Patterns) {
+        synchronized (PatternsLock) {
             String[] patterns = (String[])Patterns.get(formatsKey, locale);
             if (patterns == null) {
                 // get the separator key used in date format lists
@@ -1614,6 +1641,7 @@ public class DateFormatter extends Formatter
                 }
                 patterns = new String[list.size()];
                 ListUtil.copyInto(list, patterns, 0);
+                Patterns.put(formatsKey, locale, patterns);
             }
             return patterns;
         }
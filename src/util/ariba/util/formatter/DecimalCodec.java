@@ -0,0 +1,473 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.util.formatter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParsePosition;
+
+/**
+    An immutable snapshot of the localized symbols, grouping and affixes of
+    a <code>DecimalFormat</code>, which prints and parses decimal numbers
+    without the per call state of the format.  A codec can be shared by any
+    number of threads, and apart from the string it returns it allocates
+    little more than one character array per call.<p/>
+
+    <code>BigDecimal</code> values are printed with the rules
+    <code>BigDecimalFormatter</code> has always used.  <code>double</code>
+    values are printed and parsed exactly like the format does, with at
+    least one integer digit; the first time it is asked to, the codec checks
+    a set of sample values against the format and hands anything it cannot
+    reproduce back to the caller (see <code>canFormat</code> and
+    <code>parseDouble</code>).
+
+    @aribaapi private
+*/
+public final class DecimalCodec
+{
+        // DecimalFormat caps the fraction digits of doubles at this
+    private static final int MaxDoubleFractionDigits = 340;
+
+    private static final double[] SampleValues = {
+        0.0, -0.0, 1.0, -1.0, 0.5, -2.5, 0.125, 0.135, 7.0E-4, 3.0E-7,
+        1234567.891, -987654321.0625, 1.0E21, 1.0E23, 123456.5
+    };
+
+    private static final int[][] SampleFractionDigits = {
+        {0, 0}, {2, 2}, {0, 3}, {1, 8}
+    };
+
+    private static final int Unverified = 0;
+    private static final int Verified   = 1;
+    private static final int Rejected   = 2;
+
+    private final DecimalFormat format;
+    private final char decimalSeparator;
+    private final char groupingSeparator;
+    private final char zeroDigit;
+    private final int groupingSize;
+    private final boolean groupingUsed;
+    private final String positivePrefix;
+    private final String positiveSuffix;
+    private final String negativePrefix;
+    private final String negativeSuffix;
+
+        // racy but idempotent
+    private volatile int formatState = Unverified;
+    private volatile int parseState = Unverified;
+
+    /**
+        Creates a codec for the current settings of <code>fmt</code>.  The
+        codec keeps <code>fmt</code> for the cases it hands back and for
+        <code>getDecimalFormat</code>, so it must not be changed afterwards.
+
+        @param fmt the format to take the symbols, grouping and affixes from
+        @aribaapi private
+    */
+    public DecimalCodec (DecimalFormat fmt)
+    {
+        format = fmt;
+        DecimalFormatSymbols symbols = fmt.getDecimalFormatSymbols();
+        decimalSeparator = symbols.getDecimalSeparator();
+        groupingSeparator = symbols.getGroupingSeparator();
+        zeroDigit = symbols.getZeroDigit();
+        groupingSize = fmt.getGroupingSize();
+        groupingUsed = fmt.isGroupingUsed();
+        positivePrefix = fmt.getPositivePrefix();
+        positiveSuffix = fmt.getPositiveSuffix();
+        negativePrefix = fmt.getNegativePrefix();
+        negativeSuffix = fmt.getNegativeSuffix();
+    }
+
+    /**
+        Returns the format this codec was created from.  It is shared, so
+        callers may read it but must neither change it nor use it to format
+        or parse.
+        @aribaapi private
+    */
+    public DecimalFormat getDecimalFormat ()
+    {
+        return format;
+    }
+
+    /** @aribaapi private */
+    public char getDecimalSeparator ()
+    {
+        return decimalSeparator;
+    }
+
+    /** @aribaapi private */
+    public char getGroupingSeparator ()
+    {
+        return groupingSeparator;
+    }
+
+    /** @aribaapi private */
+    public String getNegativePrefix ()
+    {
+        return negativePrefix;
+    }
+
+    /** @aribaapi private */
+    public String getNegativeSuffix ()
+    {
+        return negativeSuffix;
+    }
+
+    /*-----------------------------------------------------------------------
+        BigDecimal
+      -----------------------------------------------------------------------*/
+
+    /**
+        Prints <code>value</code> at its own scale: the canonical digits
+        with the localized decimal separator, <code>groupSeparator</code>
+        every grouping size integer digits and the positive or negative
+        affixes.  Digits are not localized.
+    */
+    String format (BigDecimal value, char groupSeparator)
+    {
+        String plain = value.toPlainString();
+        boolean negative = value.signum() < 0;
+        int start = negative ? 1 : 0;
+        int length = plain.length();
+        int point = plain.indexOf('.', start);
+        int integerEnd = (point < 0) ? length : point;
+        int integerDigits = integerEnd - start;
+        int groups = (groupingSize > 0 && integerDigits > 0) ?
+            (integerDigits - 1) / groupingSize : 0;
+        String prefix = negative ? negativePrefix : positivePrefix;
+        String suffix = negative ? negativeSuffix : positiveSuffix;
+
+        char[] chars = new char[prefix.length() + length - start + groups + suffix.length()];
+        int count = copy(prefix, chars, 0);
+        int nextGroup = integerEnd - groups * groupingSize;
+        for (int i = start; i < integerEnd; i++) {
+            if (i == nextGroup) {
+                chars[count++] = groupSeparator;
+                nextGroup += groupingSize;
+            }
+            chars[count++] = plain.charAt(i);
+        }
+        if (point >= 0) {
+            chars[count++] = decimalSeparator;
+            plain.getChars(point + 1, length, chars, count);
+            count += length - point - 1;
+        }
+        count = copy(suffix, chars, count);
+        return new String(chars, 0, count);
+    }
+
+    /*-----------------------------------------------------------------------
+        double
+      -----------------------------------------------------------------------*/
+
+    /**
+        Returns true if <code>format(double, int, int, boolean)</code>
+        prints <code>value</code> exactly like the format would.
+    */
+    boolean canFormat (double value, int maxFraction)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value)
+            || maxFraction > MaxDoubleFractionDigits) {
+            return false;
+        }
+        if (formatState == Unverified) {
+            formatState = verifyFormat() ? Verified : Rejected;
+        }
+        return formatState == Verified;
+    }
+
+    /**
+        Prints <code>value</code> like the format with at least one integer
+        digit and <code>minFraction</code> to <code>maxFraction</code>
+        fraction digits, rounding half even.  If <code>trim</code> is true
+        trailing zeros are dropped as <code>DecimalFormatterCommon.trimString</code>
+        does.  Only valid if <code>canFormat</code> is true.
+    */
+    String format (double value, int minFraction, int maxFraction, boolean trim)
+    {
+            // DecimalFormat.setMinimumFractionDigits, then setMaximumFractionDigits
+        maxFraction = Math.max(maxFraction, 0);
+        minFraction = Math.min(Math.max(minFraction, 0), maxFraction);
+
+        boolean negative = value < 0.0 || (value == 0.0 && 1.0 / value < 0.0);
+        double magnitude = Math.abs(value);
+            // the digits of Double.toString, which are the digits DecimalFormat
+            // starts from; past maxFraction round the exact binary value, which
+            // is what DecimalFormat's half even rounding of those digits amounts to
+        BigDecimal decimal = BigDecimal.valueOf(magnitude);
+        if (decimal.scale() > maxFraction) {
+            decimal = new BigDecimal(magnitude).setScale(maxFraction, RoundingMode.HALF_EVEN);
+        }
+        String plain = decimal.toPlainString();
+        int length = plain.length();
+        int point = plain.indexOf('.');
+        int integerEnd = (point < 0) ? length : point;
+        int fractionEnd = length;
+        if (point >= 0) {
+            int minEnd = point + 1 + minFraction;
+            while (fractionEnd > minEnd && plain.charAt(fractionEnd - 1) == '0') {
+                fractionEnd--;
+            }
+        }
+        int fractionDigits = (point < 0) ? 0 : fractionEnd - point - 1;
+        int padding = Math.max(minFraction - fractionDigits, 0);
+        int groups = (groupingUsed && groupingSize > 0) ?
+            (integerEnd - 1) / groupingSize : 0;
+        String prefix = negative ? negativePrefix : positivePrefix;
+        String suffix = negative ? negativeSuffix : positiveSuffix;
+
+        char[] chars = new char[prefix.length() + integerEnd + groups + 1 +
+                                fractionDigits + padding + suffix.length()];
+        int count = copy(prefix, chars, 0);
+        int nextGroup = integerEnd - groups * groupingSize;
+        for (int i = 0; i < integerEnd; i++) {
+            if (i == nextGroup) {
+                chars[count++] = groupingSeparator;
+                nextGroup += groupingSize;
+            }
+            chars[count++] = (char)(plain.charAt(i) - '0' + zeroDigit);
+        }
+        if (fractionDigits + padding > 0) {
+            chars[count++] = decimalSeparator;
+            for (int i = integerEnd + 1; i < fractionEnd; i++) {
+                chars[count++] = (char)(plain.charAt(i) - '0' + zeroDigit);
+            }
+            for (int i = 0; i < padding; i++) {
+                chars[count++] = zeroDigit;
+            }
+        }
+        count = copy(suffix, chars, count);
+        if (trim) {
+            count = trim(chars, count);
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+        Parses <code>string</code> like the format would if it is a plain
+        number: an affix, digits with grouping separators between them, at
+        most one decimal separator and the matching affix, nothing else.
+        Returns <code>NaN</code> for anything else, which the caller has to
+        parse with the format instead.
+    */
+    double parseDouble (String string)
+    {
+        if (string == null || !canParse()) {
+            return Double.NaN;
+        }
+        return parse(string);
+    }
+
+    private double parse (String string)
+    {
+        int length = string.length();
+
+            // affixes as DecimalFormat.subparse: the longest match wins
+        boolean positive = string.startsWith(positivePrefix);
+        boolean negative = string.startsWith(negativePrefix);
+        if (positive && negative) {
+            if (positivePrefix.length() > negativePrefix.length()) {
+                negative = false;
+            }
+            else if (positivePrefix.length() < negativePrefix.length()) {
+                positive = false;
+            }
+        }
+        if (!positive && !negative) {
+            return Double.NaN;
+        }
+        int position = positive ? positivePrefix.length() : negativePrefix.length();
+
+            // one spare for the sign
+        char[] chars = new char[length - position + 1];
+        int count = 1;
+        boolean sawDigit = false;
+        boolean sawDecimal = false;
+        for (; position < length; position++) {
+            char ch = string.charAt(position);
+            if (isDigit(ch)) {
+                chars[count++] = (char)(digit(ch) + '0');
+                sawDigit = true;
+            }
+            else if (ch == decimalSeparator && !sawDecimal) {
+                chars[count++] = '.';
+                sawDecimal = true;
+            }
+            else if (ch == groupingSeparator && groupingUsed && !sawDecimal) {
+                    // DecimalFormat backs up over a separator that is not
+                    // followed by a digit; leave those cases to it
+                if (!sawDigit || position + 1 >= length ||
+                    !isDigit(string.charAt(position + 1))) {
+                    return Double.NaN;
+                }
+            }
+            else {
+                break;
+            }
+        }
+        if (!sawDigit) {
+            return Double.NaN;
+        }
+
+        if (positive) {
+            positive = string.startsWith(positiveSuffix, position);
+        }
+        if (negative) {
+            negative = string.startsWith(negativeSuffix, position);
+        }
+        if (positive && negative) {
+            if (positiveSuffix.length() > negativeSuffix.length()) {
+                negative = false;
+            }
+            else if (positiveSuffix.length() < negativeSuffix.length()) {
+                positive = false;
+            }
+        }
+        if (positive == negative) {
+            return Double.NaN;
+        }
+        position += positive ? positiveSuffix.length() : negativeSuffix.length();
+        if (position != length) {
+            return Double.NaN;
+        }
+
+        int start = 1;
+        if (negative) {
+            chars[0] = '-';
+            start = 0;
+        }
+        return Double.parseDouble(new String(chars, start, count - start));
+    }
+
+    private boolean canParse ()
+    {
+        if (parseState == Unverified) {
+            parseState = verifyParse() ? Verified : Rejected;
+        }
+        return parseState == Verified;
+    }
+
+    private boolean isDigit (char ch)
+    {
+        return (ch >= '0' && ch <= '9') || (ch >= zeroDigit && ch <= zeroDigit + 9);
+    }
+
+    private int digit (char ch)
+    {
+        int digit = ch - zeroDigit;
+        return (digit >= 0 && digit <= 9) ? digit : ch - '0';
+    }
+
+    /**
+        DecimalFormatterCommon.trimString on chars[0, count)
+    */
+    private int trim (char[] chars, int count)
+    {
+        int index = -1;
+        for (int i = 0; i < count; i++) {
+            if (chars[i] == decimalSeparator) {
+                index = i;
+                break;
+            }
+        }
+        if (index > 0) {
+            int lastIndex = count - 1;
+            for (int i = lastIndex; i >= index; i--) {
+                if (chars[i] != '0') {
+                    if (chars[i] == decimalSeparator) {
+                        count = i;
+                    }
+                    else if (i < lastIndex) {
+                        count = i + 1;
+                    }
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int copy (String string, char[] chars, int count)
+    {
+        int length = string.length();
+        string.getChars(0, length, chars, count);
+        return count + length;
+    }
+
+    /*-----------------------------------------------------------------------
+        Verification against the format
+      -----------------------------------------------------------------------*/
+
+    private DecimalFormat sampleFormat ()
+    {
+        DecimalFormat fmt = (DecimalFormat)format.clone();
+        fmt.setMinimumIntegerDigits(1);
+        return fmt;
+    }
+
+    private boolean verifyFormat ()
+    {
+        if (format.getMultiplier() != 1 || format.isDecimalSeparatorAlwaysShown()) {
+            return false;
+        }
+        DecimalFormat fmt = sampleFormat();
+        for (int i = 0; i < SampleFractionDigits.length; i++) {
+            int min = SampleFractionDigits[i][0];
+            int max = SampleFractionDigits[i][1];
+            fmt.setMinimumFractionDigits(min);
+            fmt.setMaximumFractionDigits(max);
+            for (int j = 0; j < SampleValues.length; j++) {
+                double value = SampleValues[j];
+                if (!fmt.format(value).equals(format(value, min, max, false))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean verifyParse ()
+    {
+        if (format.getMultiplier() != 1 || format.isParseIntegerOnly()
+            || format.isParseBigDecimal() || decimalSeparator == groupingSeparator
+            || startsWithLetterOrDigit(positiveSuffix)
+            || startsWithLetterOrDigit(negativeSuffix)) {
+            return false;
+        }
+        DecimalFormat fmt = sampleFormat();
+        fmt.setMaximumFractionDigits(8);
+        for (int j = 0; j < SampleValues.length; j++) {
+            String string = fmt.format(SampleValues[j]);
+            double value = parse(string);
+            Number expected = fmt.parse(string, new ParsePosition(0));
+            if (Double.isNaN(value) || expected == null ||
+                Double.compare(value, expected.doubleValue()) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWithLetterOrDigit (String string)
+    {
+        return string.length() > 0 && Character.isLetterOrDigit(string.charAt(0));
+    }
+}
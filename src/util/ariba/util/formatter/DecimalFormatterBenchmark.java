@@ -0,0 +1,351 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.util.formatter;
+
+import ariba.util.core.ArgumentParser;
+import ariba.util.core.CommandLine;
+import ariba.util.core.Fmt;
+import ariba.util.core.ListUtil;
+import ariba.util.core.StringUtil;
+import ariba.util.core.SystemUtil;
+import ariba.util.i18n.I18NUtil;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+    Command line tool that checks and times <code>DoubleFormatter</code> and
+    <code>BigDecimalFormatter</code> against <code>java.text</code>.<p/>
+
+    For every locale the VM has number formats for (or the ones given with
+    <code>-locales</code>) it first compares, byte for byte, what the
+    formatters print and parse with what a <code>DecimalFormat</code> set up
+    the same way gives.  <code>BigDecimalFormatter</code> is compared with
+    its documented differences applied to the format: ASCII digits, grouping
+    always on, the scale rounded half up before formatting and the Canadian
+    English group separator.  It then times both sides over the same values
+    on <code>-threads</code> threads, giving each thread its own
+    <code>DecimalFormat</code>s, which is the best case for
+    <code>java.text</code>.<p/>
+
+    Exit code is 0 if all output is identical and 1 otherwise.
+
+    @aribaapi private
+*/
+public class DecimalFormatterBenchmark implements CommandLine
+{
+    private static final String OptionLocales = "locales";
+    private static final String OptionThreads = "threads";
+    private static final String OptionIterations = "iterations";
+
+    private static final int[][] FractionDigits = {
+        {0, 0}, {2, 2}, {0, 3}, {1, 8}, {0, 17}
+    };
+
+    private static final String[] Operations = {
+        "format double", "parse double", "format BigDecimal", "parse BigDecimal"
+    };
+
+    private PrintWriter out = SystemUtil.out();
+
+    private Locale[] locales;
+    private int threadCount;
+    private int iterations;
+    private double[] values;
+    private BigDecimal[] decimals;
+
+    private int checked;
+    private int differences;
+
+    public void setupArguments (ArgumentParser arguments)
+    {
+        arguments.addOptionalString(OptionLocales, "",
+            "comma separated locales, all available locales if empty");
+        arguments.addOptionalInteger(OptionThreads, 4, "number of threads to time with");
+        arguments.addOptionalInteger(OptionIterations, 20,
+            "number of passes over all locales and values per thread");
+    }
+
+    public void processArguments (ArgumentParser arguments)
+    {
+        String names = arguments.getString(OptionLocales);
+        if (StringUtil.nullOrEmptyOrBlankString(names)) {
+            locales = NumberFormat.getAvailableLocales();
+        }
+        else {
+            String[] split = StringUtil.delimitedStringToArray(names, ',');
+            locales = new Locale[split.length];
+            for (int i = 0; i < split.length; i++) {
+                locales[i] = I18NUtil.getLocaleFromString(split[i].trim());
+            }
+        }
+        threadCount = arguments.getInteger(OptionThreads);
+        iterations = arguments.getInteger(OptionIterations);
+
+        double[] fixed = {
+            0.0, -0.0, 1.0, -1.0, 0.5, 2.5, -2.5, 0.125, 0.135, 7.0E-4, 3.0E-7,
+            0.1, 1.005, 2.675, 99.995, 1234567.891, -987654321.0625, 1.0E21, 1.0E23
+        };
+        Random random = new Random(42);
+        values = new double[fixed.length + 40];
+        decimals = new BigDecimal[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i < fixed.length) ? fixed[i] :
+                (random.nextBoolean() ? -1 : 1) *
+                Math.pow(10, random.nextInt(24) - 8) * random.nextDouble();
+            decimals[i] = new BigDecimal(values[i]).setScale(random.nextInt(8),
+                                                             RoundingMode.HALF_UP);
+        }
+    }
+
+    public void startup ()
+    {
+        for (int i = 0; i < locales.length; i++) {
+            check(locales[i]);
+        }
+        out.println(Fmt.S("Checked %s outputs over %s locales, %s differ.",
+                          Integer.toString(checked),
+                          Integer.toString(locales.length),
+                          Integer.toString(differences)));
+        out.flush();
+
+        out.println(Fmt.S("%-20s %14s %14s", "ns/op", "formatter", "java.text"));
+        for (int operation = 0; operation < Operations.length; operation++) {
+            long formatter = time(operation, true);
+            long javaText = time(operation, false);
+            out.println(Fmt.S("%-20s %14s %14s", Operations[operation],
+                              Long.toString(formatter), Long.toString(javaText)));
+        }
+        out.flush();
+        SystemUtil.exit(differences == 0 ? 0 : 1);
+    }
+
+    /*-----------------------------------------------------------------------
+        Check
+      -----------------------------------------------------------------------*/
+
+    private void check (Locale locale)
+    {
+        DecimalFormat doubleFormat = doubleFormat(locale);
+        for (int i = 0; i < FractionDigits.length; i++) {
+            int min = FractionDigits[i][0];
+            int max = FractionDigits[i][1];
+            doubleFormat.setMinimumFractionDigits(min);
+            doubleFormat.setMaximumFractionDigits(max);
+            for (int j = 0; j < values.length; j++) {
+                double value = values[j];
+                String expected = doubleFormat.format(value);
+                compare(locale, "format", expected,
+                        DoubleFormatter.getStringValue(value, min, max, null, locale, false));
+                compare(locale, "trim", DecimalFormatterCommon.trimString(expected, locale),
+                        DoubleFormatter.getStringValue(value, min, max, null, locale, true));
+                compare(locale, Fmt.S("parse %s", expected),
+                        parseReference(doubleFormat, expected), parse(expected, locale));
+            }
+        }
+
+        DecimalFormat decimalFormat = decimalFormat(locale);
+        for (int j = 0; j < decimals.length; j++) {
+            for (int scale = 0; scale < 4; scale++) {
+                decimalFormat.setMinimumFractionDigits(scale);
+                decimalFormat.setMaximumFractionDigits(scale);
+                BigDecimal value = decimals[j];
+                compare(locale, "BigDecimal",
+                        decimalFormat.format(value.setScale(scale, RoundingMode.HALF_UP)),
+                        BigDecimalFormatter.getStringValue(value, scale, locale));
+            }
+        }
+    }
+
+    private void compare (Locale locale, String what, String expected, String actual)
+    {
+        checked++;
+        if (!expected.equals(actual)) {
+            differences++;
+            out.println(Fmt.S("%s %s: expected [%s], got [%s]",
+                              locale, what, expected, actual));
+        }
+    }
+
+    private static String parseReference (DecimalFormat fmt, String string)
+    {
+        Number number = fmt.parse(string, new ParsePosition(0));
+        return (number == null) ? "error" : Double.toString(number.doubleValue());
+    }
+
+    private static String parse (String string, Locale locale)
+    {
+        try {
+            return Double.toString(DoubleFormatter.parseDouble(string, locale));
+        }
+        catch (java.text.ParseException e) {
+            return "error";
+        }
+    }
+
+    /**
+        A DecimalFormat set up the way DoubleFormatter sets up its own.
+    */
+    private static DecimalFormat doubleFormat (Locale locale)
+    {
+        DecimalFormat fmt = (DecimalFormat)NumberFormat.getNumberInstance(locale);
+        fmt.setGroupingUsed(true);
+        fmt.setMinimumIntegerDigits(1);
+        return fmt;
+    }
+
+    /**
+        A DecimalFormat with the documented differences of BigDecimalFormatter
+        applied.
+    */
+    private static DecimalFormat decimalFormat (Locale locale)
+    {
+        DecimalFormat fmt = (DecimalFormat)NumberFormat.getNumberInstance(locale);
+        fmt.setGroupingUsed(true);
+        DecimalFormatSymbols symbols = fmt.getDecimalFormatSymbols();
+        symbols.setZeroDigit('0');
+        if (locale.equals(Locale.CANADA)) {
+            symbols.setGroupingSeparator(',');
+        }
+        fmt.setDecimalFormatSymbols(symbols);
+        return fmt;
+    }
+
+    /*-----------------------------------------------------------------------
+        Timing
+      -----------------------------------------------------------------------*/
+
+    private long time (final int operation, final boolean formatter)
+    {
+            // warm up, then time
+        run(operation, formatter, 1, Math.max(iterations / 10, 1));
+        long start = System.nanoTime();
+        long operations = run(operation, formatter, threadCount, iterations);
+        return (System.nanoTime() - start) * threadCount / Math.max(operations, 1);
+    }
+
+    private long run (final int operation, final boolean formatter,
+                      int threads, final int passes)
+    {
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long[] counts = new long[threads];
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            new Thread("DecimalFormatterBenchmark-" + i) {
+                public void run ()
+                {
+                    try {
+                        counts[thread] = pass(operation, formatter, passes);
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        try {
+            done.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long total = 0;
+        for (int i = 0; i < threads; i++) {
+            total += counts[i];
+        }
+        return total;
+    }
+
+    private long pass (int operation, boolean formatter, int passes)
+    {
+        List formats = ListUtil.list();
+        List strings = ListUtil.list();
+        for (int i = 0; i < locales.length; i++) {
+            DecimalFormat fmt = doubleFormat(locales[i]);
+            fmt.setMaximumFractionDigits(2);
+            formats.add(fmt);
+            String[] localized = new String[values.length];
+            for (int j = 0; j < values.length; j++) {
+                localized[j] = fmt.format(values[j]);
+            }
+            strings.add(localized);
+        }
+
+        long count = 0;
+        long sink = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            for (int i = 0; i < locales.length; i++) {
+                Locale locale = locales[i];
+                DecimalFormat fmt = (DecimalFormat)formats.get(i);
+                String[] localized = (String[])strings.get(i);
+                for (int j = 0; j < values.length; j++) {
+                    sink += operate(operation, formatter, locale, fmt,
+                                    values[j], decimals[j], localized[j]);
+                    count++;
+                }
+            }
+        }
+        if (sink == 42) {
+                // keeps the results alive
+            out.print("");
+        }
+        return count;
+    }
+
+    private static long operate (int operation, boolean formatter, Locale locale,
+                                 DecimalFormat fmt, double value, BigDecimal decimal,
+                                 String string)
+    {
+        try {
+            switch (operation) {
+              case 0:
+                return formatter ?
+                    DoubleFormatter.getStringValue(value, 0, 2, null, locale, false).length() :
+                    fmt.format(value).length();
+              case 1:
+                return (long)(formatter ?
+                    DoubleFormatter.parseDouble(string, locale) :
+                    fmt.parse(string).doubleValue());
+              case 2:
+                return formatter ?
+                    BigDecimalFormatter.getStringValue(decimal, 2, locale).length() :
+                    fmt.format(decimal).length();
+              default:
+                return formatter ?
+                    BigDecimalFormatter.parseBigDecimalInfo(string, locale).integerDigits :
+                    fmt.parse(string).intValue();
+            }
+        }
+        catch (java.text.ParseException e) {
+            return 0;
+        }
+    }
+
+    public static void main (String[] args)
+    {
+        ArgumentParser.create("ariba.util.formatter.DecimalFormatterBenchmark", args);
+    }
+}
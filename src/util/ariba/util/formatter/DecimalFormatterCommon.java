@@ -18,7 +18,6 @@
 package ariba.util.formatter;
 
 import ariba.util.core.StringUtil;
-import java.text.DecimalFormatSymbols;
 import java.util.Locale;
 
 
@@ -81,12 +80,11 @@ public abstract class DecimalFormatterCommon extends Formatter
         }
 
             // Get the decimal separator char
-            // Note: The set of symbols returned by BigDecimalFormatter.getDecimalFormatSymbol
+            // Note: The symbols of BigDecimalFormatter's codec
             // will work for both DoubleFormatter and BigDecimalFormatter since the only difference
             // between the DecimalFormat objects is the initial isGroupingUsed value.
             
-        DecimalFormatSymbols symbols = BigDecimalFormatter.getDecimalFormatSymbol(locale);
-        char decimalSep = symbols.getDecimalSeparator();
+        char decimalSep = BigDecimalFormatter.decimalCodec(locale, null).getDecimalSeparator();
 
             // Search for the decimal separator
         int index = str.indexOf(decimalSep);
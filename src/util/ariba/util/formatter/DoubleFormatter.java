@@ -348,6 +348,11 @@ public class DoubleFormatter extends DecimalFormatterCommon
             // locale must be non-null
         Assert.that(locale != null, "invalid null Locale");
 
+        DecimalCodec codec = decimalCodec(locale, pattern);
+        if (codec.canFormat(value, maxPrecision)) {
+            return codec.format(value, minPrecision, maxPrecision, trim);
+        }
+
         DecimalFormat fmt = null;
         try
         {
@@ -452,7 +457,7 @@ public class DoubleFormatter extends DecimalFormatterCommon
         @aribaapi documented
         @see java.text.DecimalFormat
     */
-    public static synchronized double parseDouble (
+    public static double parseDouble (
         String string, String pattern, Locale locale, boolean strict) 
       throws ParseException
     {
@@ -462,12 +467,20 @@ public class DoubleFormatter extends DecimalFormatterCommon
         DecimalFormat specifiedFormat = null;
         DecimalFormat canonicalFormat = null;
         try {
-            specifiedFormat = acquireDecimalFormat(locale, pattern);
-            Number number;
+            DecimalCodec codec = decimalCodec(locale, pattern);
             if (strict) {
                 // guard
-                assertValidGroupingSeparators(string, specifiedFormat);
+                assertValidGroupingSeparators(string, codec.getDecimalFormat());
+            }
+                // plain numbers, which the specified format would take as a whole
+            double value = codec.parseDouble(string);
+            if (!Double.isNaN(value)) {
+                return value;
+            }
 
+            specifiedFormat = acquireDecimalFormat(locale, pattern);
+            Number number;
+            if (strict) {
                 // parse with passed in values
                 ParsePosition parsePosition = new ParsePosition(0);
                 number = specifiedFormat.parse(string, parsePosition);
@@ -549,7 +562,8 @@ public class DoubleFormatter extends DecimalFormatterCommon
 
         if (cacheMiss) {
             groupingPattern = createGroupingSeparatorPattern(fmt);
-            groupingSeparatorsPatternCache.put(fmt, groupingPattern);
+                // key by a copy: fmt goes back to the pool and may be reused
+            groupingSeparatorsPatternCache.put((DecimalFormat)fmt.clone(), groupingPattern);
 
         }
 
@@ -940,6 +954,11 @@ public class DoubleFormatter extends DecimalFormatterCommon
         return fmt;
     }
 
+    private static DecimalCodec decimalCodec (Locale locale, String pattern)
+    {
+        return factory.decimalCodec(Formatter.DoubleFormatterType, locale, pattern);
+    }
+
     private static DecimalFormat acquireDecimalFormat (Locale locale)
     {
         return acquireDecimalFormat(locale, null);
@@ -25,11 +25,13 @@ import ariba.util.core.Date;
 import ariba.util.core.MapUtil;
 import java.util.Map;
 import ariba.util.core.ResourceService;
+import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.util.Locale;
 import java.text.Format;
-import java.util.ArrayList;
-import ariba.util.core.MultiKeyHashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import ariba.util.core.Fmt;
 
 /**
@@ -1039,18 +1041,27 @@ abstract public class Formatter implements StringParser, Compare
     protected static final int IntegerArrayTFormatterType = 8;
     protected static final int IntArrayFormatterType      = 9;
 
-    private static MultiKeyHashtable[] formatCache = new MultiKeyHashtable[]
+    /**
+        The maximum number of idle <code>Format</code> instances kept per
+        formatter type, locale and pattern.  Instances released beyond that
+        are left to the garbage collector.
+        @aribaapi private
+    */
+    public static int MaxPooledFormats = 16;
+
+        // per formatter type: FormatKey -> FormatPool
+    private static final ConcurrentHashMap[] formatPools = new ConcurrentHashMap[]
         {
-            new MultiKeyHashtable(2),
-            new MultiKeyHashtable(2),
-            new MultiKeyHashtable(2),
-            new MultiKeyHashtable(2),
-            new MultiKeyHashtable(2),
-            new MultiKeyHashtable(2),
-            new MultiKeyHashtable(2),
-            new MultiKeyHashtable(2),
-            new MultiKeyHashtable(2),
-            new MultiKeyHashtable(2),
+            new ConcurrentHashMap(),
+            new ConcurrentHashMap(),
+            new ConcurrentHashMap(),
+            new ConcurrentHashMap(),
+            new ConcurrentHashMap(),
+            new ConcurrentHashMap(),
+            new ConcurrentHashMap(),
+            new ConcurrentHashMap(),
+            new ConcurrentHashMap(),
+            new ConcurrentHashMap(),
         };
 
     protected Format instantiateFormat (int type, Locale locale, String pattern)
@@ -1060,28 +1071,24 @@ abstract public class Formatter implements StringParser, Compare
         return null;
     }
 
+    /**
+        Returns a <code>Format</code> for exclusive use by the caller until
+        it is passed back to <code>releaseFormat</code>.  Idle instances are
+        reused; otherwise a copy is cloned from a pristine prototype made by
+        <code>instantiateFormat</code> the first time the type, locale and
+        pattern are asked for, which is much cheaper than resolving the
+        locale data again.  Neither acquiring nor releasing blocks other
+        threads.
+    */
     protected Format acquireFormat (int type, Locale locale, String pattern)
     {
-        MultiKeyHashtable cache = formatCache[type];
-        if (pattern == null) {
-            pattern = "";
-        }
-
-        synchronized(cache)
-        {
-            ArrayList elements = (ArrayList)cache.get(locale,pattern);
-            if (elements == null) {
-                elements = new ArrayList();
-                cache.put(locale,pattern,elements);
-            }
-            if (elements.isEmpty()) {
-                return instantiateFormat(type,locale,pattern);
-            }
-            else {
-                int i = elements.size()-1;
-                return (Format)elements.remove(i);
-            }
+        FormatPool pool = formatPool(type, locale, pattern, true);
+        Format format = pool.free.poll();
+        if (format != null) {
+            pool.freeCount.decrementAndGet();
+            return format;
         }
+        return (Format)pool.prototype.clone();
     }
 
     protected void releaseFormat (Format format,int type, Locale locale, String pattern)
@@ -1090,20 +1097,89 @@ abstract public class Formatter implements StringParser, Compare
             return;
         }
 
-        if (pattern == null) {
-            pattern = "";
+        FormatPool pool = formatPool(type, locale, pattern, false);
+        Assert.that(pool != null, "no format pool. release without acquire?");
+        if (pool.freeCount.incrementAndGet() <= MaxPooledFormats) {
+            pool.free.offer(format);
+        }
+        else {
+            pool.freeCount.decrementAndGet();
+        }
+    }
+
+    /**
+        Returns the <code>DecimalCodec</code> for the <code>DecimalFormat</code>
+        this formatter instantiates for the type, locale and pattern.  The
+        codec is made once from the pool's prototype and shared by all
+        threads, so using it neither acquires nor releases a format.
+    */
+    DecimalCodec decimalCodec (int type, Locale locale, String pattern)
+    {
+        FormatPool pool = formatPool(type, locale, pattern, true);
+        DecimalCodec codec = pool.codec;
+        if (codec == null) {
+                // the prototype is never changed, so the codec may keep it
+            codec = new DecimalCodec((DecimalFormat)pool.prototype);
+            pool.codec = codec;
+        }
+        return codec;
+    }
+
+    private FormatPool formatPool (int type, Locale locale, String pattern, boolean create)
+    {
+        ConcurrentHashMap pools = formatPools[type];
+        FormatKey key = new FormatKey(locale, (pattern == null) ? "" : pattern);
+        FormatPool pool = (FormatPool)pools.get(key);
+        if (pool == null && create) {
+            pool = new FormatPool(instantiateFormat(type, locale, key.pattern));
+            FormatPool existing = (FormatPool)pools.putIfAbsent(key, pool);
+            if (existing != null) {
+                pool = existing;
+            }
         }
+        return pool;
+    }
 
-        MultiKeyHashtable cache = formatCache[type];
+    private static final class FormatKey
+    {
+        final Locale locale;
+        final String pattern;
 
-        synchronized(cache)
+        FormatKey (Locale locale, String pattern)
         {
-            // ToDo: should add a high water limit so that formatters
-            // are not cached after the cache reaches a certain size.
+            this.locale = locale;
+            this.pattern = pattern;
+        }
 
-            ArrayList elements = (ArrayList)cache.get(locale,pattern);
-            Assert.that(elements != null, "no elements list. release without acquire?");
-            elements.add(format);
+        public boolean equals (Object object)
+        {
+            if (!(object instanceof FormatKey)) {
+                return false;
+            }
+            FormatKey other = (FormatKey)object;
+            return pattern.equals(other.pattern)
+                && (locale == null ? other.locale == null : locale.equals(other.locale));
+        }
+
+        public int hashCode ()
+        {
+            return pattern.hashCode() * 31 + (locale == null ? 0 : locale.hashCode());
+        }
+    }
+
+    private static final class FormatPool
+    {
+            // never handed out, only cloned
+        final Format prototype;
+        final ConcurrentLinkedQueue<Format> free = new ConcurrentLinkedQueue<Format>();
+            // size() of the queue is not constant time
+        final AtomicInteger freeCount = new AtomicInteger();
+            // made on first use by decimalCodec; racy but idempotent
+        volatile DecimalCodec codec;
+
+        FormatPool (Format prototype)
+        {
+            this.prototype = prototype;
         }
     }
 }
@@ -0,0 +1,241 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.util.formatter;
+
+import ariba.util.core.ClockCache;
+import ariba.util.core.DateContext;
+import ariba.util.core.FastStringBuffer;
+import ariba.util.core.GrowOnlyHashtable;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+    Formats dates with <code>SimpleDateFormat</code> patterns made of
+    numeric fields only (years, months as numbers, days, 24 hour clock
+    hours, minutes, seconds and milliseconds, e.g. "yyyy-MM-dd HH:mm:ss"),
+    reading the fields from the cached <code>DateContext</code> of the time
+    zone and locale instead of a pooled <code>SimpleDateFormat</code>.
+    <p>
+    The output is the one of <code>SimpleDateFormat</code>.  Patterns with
+    other fields (names, 12 hour clock, time zones, ...) and locales which
+    do not use a Gregorian calendar or ASCII digits are not handled here.
+
+    @aribaapi private
+*/
+final class NumericDateFormat
+{
+    private static final int CacheSize = 256;
+
+        // compiled patterns, NotNumeric for the ones not handled here
+    private static final ClockCache<String,NumericDateFormat> Formats =
+        new ClockCache<String,NumericDateFormat>(CacheSize);
+    private static final NumericDateFormat NotNumeric =
+        new NumericDateFormat(null, null, null);
+
+        // per locale, whether SimpleDateFormat prints ASCII digits
+    private static final GrowOnlyHashtable<Locale,Boolean> AsciiDigits =
+        new GrowOnlyHashtable<Locale,Boolean>();
+
+    private static final int Literal = -1;
+
+        // per element, a Calendar field (or Literal) and its pattern count
+    private final int[] _fields;
+    private final int[] _counts;
+    private final String[] _literals;
+
+    private NumericDateFormat (int[] fields, int[] counts, String[] literals)
+    {
+        _fields = fields;
+        _counts = counts;
+        _literals = literals;
+    }
+
+    /**
+        Returns <code>date</code> formatted with <code>pattern</code> like a
+        SimpleDateFormat for <code>locale</code> in <code>timeZone</code>
+        would, or null if the pattern or locale is not handled here.
+    */
+    static String format (java.util.Date date, String pattern, Locale locale,
+                          TimeZone timeZone)
+    {
+        NumericDateFormat format = Formats.get(pattern);
+        if (format == null) {
+            format = Formats.intern(pattern, compile(pattern));
+        }
+        if (format == NotNumeric || !hasAsciiDigits(locale)) {
+            return null;
+        }
+        DateContext context = DateContext.get(timeZone, locale);
+        if (!context.isGregorian()) {
+            return null;
+        }
+        return format.format(date, context);
+    }
+
+    private String format (java.util.Date date, DateContext context)
+    {
+        FastStringBuffer buffer = new FastStringBuffer(_fields.length * 4);
+        for (int i = 0; i < _fields.length; i++) {
+            int field = _fields[i];
+            if (field == Literal) {
+                buffer.append(_literals[i]);
+                continue;
+            }
+            int value = context.get(date, field);
+            int count = _counts[i];
+            if (field == Calendar.MONTH) {
+                value++;
+            }
+            else if (field == Calendar.YEAR && count == 2) {
+                value %= 100;
+            }
+            appendPadded(buffer, value, count);
+        }
+        return buffer.toString();
+    }
+
+    private static void appendPadded (FastStringBuffer buffer, int value, int count)
+    {
+        String digits = Integer.toString(value);
+        for (int i = digits.length(); i < count; i++) {
+            buffer.append('0');
+        }
+        buffer.append(digits);
+    }
+
+    /**
+        Parses the pattern the way SimpleDateFormat does, returning
+        NotNumeric if it has fields other than numeric ones or is invalid.
+    */
+    private static NumericDateFormat compile (String pattern)
+    {
+        if (pattern == null) {
+            return NotNumeric;
+        }
+        int length = pattern.length();
+        int[] fields = new int[length];
+        int[] counts = new int[length];
+        String[] literals = new String[length];
+        int count = 0;
+        FastStringBuffer literal = new FastStringBuffer();
+        int index = 0;
+        while (index < length) {
+            char c = pattern.charAt(index);
+            if (c == '\'') {
+                    // '' is a quote, otherwise quoted text up to the next
+                    // single quote, in which '' is a quote as well
+                if (index + 1 < length && pattern.charAt(index + 1) == '\'') {
+                    literal.append('\'');
+                    index += 2;
+                    continue;
+                }
+                index++;
+                while (true) {
+                    if (index == length) {
+                            // unterminated quote
+                        return NotNumeric;
+                    }
+                    char quoted = pattern.charAt(index++);
+                    if (quoted == '\'') {
+                        if (index < length && pattern.charAt(index) == '\'') {
+                            literal.append('\'');
+                            index++;
+                            continue;
+                        }
+                        break;
+                    }
+                    literal.append(quoted);
+                }
+                continue;
+            }
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+                literal.append(c);
+                index++;
+                continue;
+            }
+            int run = 1;
+            while (index + run < length && pattern.charAt(index + run) == c) {
+                run++;
+            }
+            int field = numericField(c, run);
+            if (field == Literal) {
+                return NotNumeric;
+            }
+            if (literal.length() > 0) {
+                fields[count] = Literal;
+                literals[count++] = literal.toString();
+                literal.truncateToLength(0);
+            }
+            fields[count] = field;
+            counts[count++] = run;
+            index += run;
+        }
+        if (literal.length() > 0) {
+            fields[count] = Literal;
+            literals[count++] = literal.toString();
+        }
+        int[] compiledFields = new int[count];
+        int[] compiledCounts = new int[count];
+        String[] compiledLiterals = new String[count];
+        System.arraycopy(fields, 0, compiledFields, 0, count);
+        System.arraycopy(counts, 0, compiledCounts, 0, count);
+        System.arraycopy(literals, 0, compiledLiterals, 0, count);
+        return new NumericDateFormat(compiledFields, compiledCounts, compiledLiterals);
+    }
+
+    private static int numericField (char letter, int count)
+    {
+        switch (letter) {
+          case 'y':
+            return Calendar.YEAR;
+          case 'M':
+                // MMM and longer are month names
+            return count <= 2 ? Calendar.MONTH : Literal;
+          case 'd':
+            return Calendar.DAY_OF_MONTH;
+          case 'H':
+            return Calendar.HOUR_OF_DAY;
+          case 'm':
+            return Calendar.MINUTE;
+          case 's':
+            return Calendar.SECOND;
+          case 'S':
+            return Calendar.MILLISECOND;
+          default:
+            return Literal;
+        }
+    }
+
+    private static boolean hasAsciiDigits (Locale locale)
+    {
+        Boolean hasAsciiDigits = AsciiDigits.get(locale);
+        if (hasAsciiDigits == null) {
+                // SimpleDateFormat prints numbers with the locale's
+                // integer format
+            NumberFormat numberFormat = NumberFormat.getIntegerInstance(locale);
+            hasAsciiDigits = Boolean.valueOf(
+                numberFormat instanceof DecimalFormat &&
+                ((DecimalFormat)numberFormat).getDecimalFormatSymbols().getZeroDigit() == '0');
+            AsciiDigits.put(locale, hasAsciiDigits);
+        }
+        return hasAsciiDigits.booleanValue();
+    }
+}
@@ -19,11 +19,21 @@ package ariba.util.io;
 import ariba.util.core.ListUtil;
 import ariba.util.core.SetUtil;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
     Resource-limited sort
@@ -40,6 +50,10 @@ import java.util.TreeSet;
     merge as many buffers as possible, but if many threads do this, it could lead to an exhaustion of file handles. This
     allows us to do better than the 2 minimum.
 
+    With a parallelism above 1 (see setParallelism()) the initial buffers are sorted and written by worker threads
+    while the source is read.  The resource limit is then shared by the buffers in memory at the same time, so memory
+    use stays within it.  Buffers are merged with a heap, k at a time.
+
     @aribaapi ariba
 */
 
@@ -89,11 +103,25 @@ public class BufferedSort
                 throws IOException;
     }
 
+    /**
+        A SortBuffer whose factory can create a different kind of buffer for the sort result, e.g. an
+        uncompressed one when the intermediate buffers are compressed.
+    */
+    public static interface ResultSortBuffer extends SortBuffer
+    {
+        /*
+            Creates a new sort buffer for the result of the sort, ready to be written to
+        */
+        public SortBuffer newResultSortBuffer()
+                throws IOException;
+    }
+
     protected SortBuffer source;
     protected long resourceLimit;
     protected long upperBufferLimit;
     protected long minConcurrentBfLimit;
     protected ComparatorHelper comparator;
+    protected int parallelism = 1;
 
     protected List<SortBuffer> fromBuffers = ListUtil.list();
     protected List<SortBuffer> toBuffers = ListUtil.list();
@@ -123,6 +151,19 @@ public class BufferedSort
         this.comparator = new ComparatorHelper(comparator);
     }
 
+    /**
+        Sets the number of threads sorting initial buffers concurrently.  Buffers are written from those
+        threads, so with a parallelism above 1 SortBuffer.write() and close() must be safe to call from
+        another thread than the one that created the buffer, and the comparator must be thread safe since
+        several buffers are sorted with it at the same time.
+
+        @param parallelism - number of threads, 1 (the default) sorts on the calling thread
+     */
+    public void setParallelism (int parallelism)
+    {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
     /**
         Performs the sort.
 
@@ -211,7 +252,8 @@ public class BufferedSort
                 sort.close();
                 remaining.add(sort);
             }
-            toBuffers.add(mergeSort(mergable));
+            boolean isResult = remaining.isEmpty() && toBuffers.isEmpty();
+            toBuffers.add(mergeSort(mergable, isResult));
             fromBuffers = remaining;
         }
     }
@@ -276,14 +318,16 @@ public class BufferedSort
     /*
         Merge multiple files at once
     */
-    private SortBuffer mergeSort (List<SortBuffer> mergable)
+    private SortBuffer mergeSort (List<SortBuffer> mergable, boolean isResult)
             throws IOException
     {
         SortBuffer[] mergeList = mergable.toArray(new SortBuffer[mergable.size()]);
 
-        SortedSet<SortHelper> sorted = new TreeSet<SortHelper>(comparator);
+            // the position breaks ties, so equal elements keep the order of their buffers
+        PriorityQueue<SortHelper> sorted =
+            new PriorityQueue<SortHelper>(Math.max(1, mergeList.length), comparator);
 
-        SortBuffer output = source.newSortBuffer();
+        SortBuffer output = newSortBuffer(isResult);
         cleanup.add(output);
 
         for (int i = 0;i < mergeList.length;i++) {
@@ -294,8 +338,7 @@ public class BufferedSort
         }
 
         while (!sorted.isEmpty()) {
-            SortHelper smallest = sorted.first();
-            sorted.remove(smallest);
+            SortHelper smallest = sorted.poll();
             output.write(smallest.orig);
             int position = smallest.position;
             Resource replacement = mergeList[position].next();
@@ -303,7 +346,8 @@ public class BufferedSort
                 mergeList[position] = null;
             }
             else {
-                sorted.add(new SortHelper(replacement, position));
+                smallest.orig = replacement;
+                sorted.add(smallest);
             }
         }
 
@@ -318,6 +362,14 @@ public class BufferedSort
         return output;
     }
 
+    private SortBuffer newSortBuffer (boolean isResult)
+            throws IOException
+    {
+        return (isResult && source instanceof ResultSortBuffer)
+            ? ((ResultSortBuffer)source).newResultSortBuffer()
+            : source.newSortBuffer();
+    }
+
     /*
          Split the initial set of data into sorted chunks according to resource limits.
     */
@@ -325,40 +377,133 @@ public class BufferedSort
             throws IOException
     {
         long resourcesUsed;
-        int position = 0;
+            // the buffers in memory at the same time share the resource limit
+        long bufferLimit = Math.max(1, resourceLimit / parallelism);
+        ExecutorService executor = (parallelism > 1) ? newExecutor() : null;
+        LinkedList<Future<Object>> pending = new LinkedList<Future<Object>>();
 
         try {
             source.open(true);
             Resource current = source.next();
             while (current != null) {
                 resourcesUsed = 0;
-                SortedSet<SortHelper> sortBuffer = new TreeSet<SortHelper>(comparator);
+                List<Resource> sortBuffer = new ArrayList<Resource>();
 
-                while ((resourcesUsed < resourceLimit || sortBuffer.size() < 2) &&
+                while ((resourcesUsed < bufferLimit || sortBuffer.size() < 2) &&
                        current != null) {
                     resourcesUsed += current.resourceSize();
-                    sortBuffer.add(new SortHelper(current, position));
-                    position++;
+                    sortBuffer.add(current);
                     current = source.next();
                 }
 
                 if (!sortBuffer.isEmpty()) {
-                    SortBuffer out = source.newSortBuffer();
+                    SortBuffer out = newSortBuffer(current == null && toBuffers.isEmpty());
                     cleanup.add(out);
-                    try {
-                        for (SortHelper entry : sortBuffer) {
-                            out.write(entry.orig);
-                        }
+                    toBuffers.add(out);
+                    BufferWriter writer = new BufferWriter(sortBuffer, out, comparator.ref);
+                    if (executor == null) {
+                        writer.call();
                     }
-                    finally {
-                        out.close();
+                    else {
+                        pending.add(executor.submit(writer));
+                        if (pending.size() >= parallelism - 1) {
+                            await(pending.removeFirst());
+                        }
                     }
-                    toBuffers.add(out);
                 }
             }
+            while (!pending.isEmpty()) {
+                await(pending.removeFirst());
+            }
         }
         finally {
+            if (executor != null) {
+                    // don't let writers run into the cleanup of their buffers
+                executor.shutdownNow();
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
             source.close();
         }
     }
+
+    private ExecutorService newExecutor ()
+    {
+        return Executors.newFixedThreadPool(parallelism - 1, new ThreadFactory() {
+            private int count;
+            public synchronized Thread newThread (Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "BufferedSort-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static void await (Future<Object> future)
+            throws IOException
+    {
+        try {
+            future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            IOException exception = new IOException(String.valueOf(cause));
+            exception.initCause(cause);
+            throw exception;
+        }
+    }
+
+    /*
+        Sorts one initial buffer and writes it out.  The sort is stable, so equal elements keep their
+        source order.
+    */
+    private static class BufferWriter
+        implements Callable<Object>
+    {
+        private List<Resource> resources;
+        private SortBuffer out;
+        private Comparator<Resource> comparator;
+
+        public BufferWriter (List<Resource> resources,
+                             SortBuffer out,
+                             Comparator<Resource> comparator)
+        {
+            this.resources = resources;
+            this.out = out;
+            this.comparator = comparator;
+        }
+
+        public Object call ()
+                throws IOException
+        {
+            Collections.sort(resources, comparator);
+            try {
+                for (Resource resource : resources) {
+                    out.write(resource);
+                }
+            }
+            finally {
+                out.close();
+            }
+            return null;
+        }
+    }
 }
@@ -0,0 +1,900 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.util.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+    The implementation of CSVReader.readMapped().
+    <p>
+    The file is memory mapped and split into chunks that end after a line
+    break outside of quoted fields.  Finding the chunk boundaries is a
+    sequential scan over the bytes, which is only correct for encodings in
+    which the quote, comma, CR and LF characters are the ASCII bytes and no
+    byte of a multi-byte character is one of them (see isAsciiCompatible()).
+    Chunks are decoded and tokenized in parallel; the tokens are kept as
+    offsets into the decoded chars of the chunk and handed to the consumer
+    as CSVRecord views.  Tokenizing follows CSVReader.read(Reader, String)
+    exactly, including line numbers and error reporting.
+    <p>
+    Chunks are delivered in file order (by the calling thread), in the order
+    they are tokenized (by the calling thread), or concurrently by the
+    worker threads.  At most two chunks more than there are threads are in
+    flight, and their buffers are reused.
+
+    @aribaapi private
+*/
+final class CSVChunkReader
+{
+    private static final int ScanWindowSize = 64 * 1024 * 1024;
+
+    private static final char DoubleQuote  = '"';
+    private static final char Comma        = ',';
+    private static final char CR           = '\r';
+    private static final char LF           = '\n';
+    private static final char Space        = ' ';
+    private static final char Tab          = '\t';
+
+    private static final int StateBeginningOfLine  = 2;
+    private static final int StateBeginningOfField = 3;
+    private static final int StateEndOfField       = 4;
+    private static final int StateInUnquotedField  = 5;
+    private static final int StateInQuotedField    = 6;
+    private static final int StateEOF              = 7;
+    private static final int StateQuoteSeen        = 8;
+    private static final int StateEndOfLine        = 9;
+
+    private final CSVConsumer _consumer;
+    private final CSVErrorHandler _errorHandler;
+    private final boolean _returnNoValueAsNull;
+    private final int _numberOfLines;
+    private final int _parallelism;
+    private final int _chunkSize;
+    private final int _deliveryOrder;
+
+    private String _location;
+    private Charset _charset;
+    private FileChannel _channel;
+    private volatile boolean _stopped;
+    private final ConcurrentLinkedQueue<Chunk> _freeChunks =
+        new ConcurrentLinkedQueue<Chunk>();
+
+    CSVChunkReader (CSVConsumer consumer,
+                    CSVErrorHandler errorHandler,
+                    boolean returnNoValueAsNull,
+                    int numberOfLines,
+                    int parallelism,
+                    int chunkSize,
+                    int deliveryOrder)
+    {
+        _consumer = consumer;
+        _errorHandler = errorHandler;
+        _returnNoValueAsNull = returnNoValueAsNull;
+        _numberOfLines = numberOfLines;
+        _parallelism = parallelism;
+        _chunkSize = chunkSize;
+        _deliveryOrder = deliveryOrder;
+    }
+
+    /**
+        Whether the chunk boundaries of files in charset can be found on the
+        bytes.
+    */
+    static boolean isAsciiCompatible (Charset charset)
+    {
+        String specials = "\",\r\n \t";
+        ByteBuffer encoded = charset.encode(specials);
+        if (encoded.remaining() != specials.length()) {
+            return false;
+        }
+        for (int index = 0; index < specials.length(); index++) {
+            if (encoded.get(index) != specials.charAt(index)) {
+                return false;
+            }
+        }
+        String name = charset.name().toUpperCase();
+            // bytes >= 0x80 only start or continue multi-byte characters in
+            // these, so the ASCII bytes always stand for themselves
+        return name.startsWith("UTF-8") || name.startsWith("ISO-8859")
+            || name.startsWith("WINDOWS-125") || name.equals("US-ASCII")
+            || name.startsWith("EUC-") || name.equals("GBK") || name.equals("GB18030")
+            || name.equals("BIG5") || name.equals("SHIFT_JIS") || name.equals("WINDOWS-31J");
+    }
+
+    void read (File file, Charset charset, String location)
+      throws IOException
+    {
+        _location = location;
+        _charset = charset;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            _channel = in.getChannel();
+            long size = _channel.size();
+            if (size == 0) {
+                return;
+            }
+            BoundaryScanner scanner = new BoundaryScanner(size);
+            if (_parallelism <= 1 || size <= _chunkSize) {
+                readSequentially(scanner);
+            }
+            else {
+                readInParallel(scanner);
+            }
+        }
+        finally {
+            _channel = null;
+            in.close();
+        }
+    }
+
+    private void readSequentially (BoundaryScanner scanner)
+      throws IOException
+    {
+        CSVRecord record = new CSVRecord();
+        while (scanner.hasMore()) {
+            long start = scanner.position();
+            int lineNumber = scanner.lineNumber();
+            long end = scanner.nextBoundary();
+            Chunk chunk = tokenize(start, end, lineNumber);
+            boolean more = deliver(chunk, record);
+            _freeChunks.add(chunk);
+            if (!more) {
+                break;
+            }
+        }
+    }
+
+    private void readInParallel (BoundaryScanner scanner)
+      throws IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(_parallelism, new ThreadFactory() {
+            private int _count;
+            public synchronized Thread newThread (Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "CSVReader-" + (++_count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            if (_deliveryOrder == CSVReader.DeliverInFileOrder) {
+                readInFileOrder(scanner, executor);
+            }
+            else {
+                readAsCompleted(scanner, executor);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        finally {
+            _stopped = true;
+            executor.shutdownNow();
+        }
+    }
+
+    private void readInFileOrder (BoundaryScanner scanner, ExecutorService executor)
+      throws IOException, InterruptedException
+    {
+        int window = _parallelism + 2;
+        LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+        CSVRecord record = new CSVRecord();
+        try {
+            while (!_stopped && scanner.hasMore()) {
+                pending.add(executor.submit(chunkTask(scanner, false)));
+                if (pending.size() >= window) {
+                    Chunk chunk = result(pending.getFirst());
+                    pending.removeFirst();
+                    deliverAndRecycle(chunk, record);
+                }
+            }
+            while (!_stopped && !pending.isEmpty()) {
+                Chunk chunk = result(pending.getFirst());
+                pending.removeFirst();
+                deliverAndRecycle(chunk, record);
+            }
+        }
+        finally {
+            _stopped = true;
+                // the tasks read the channel, which is closed once we return
+            while (!pending.isEmpty()) {
+                awaitQuietly(pending.removeFirst());
+            }
+        }
+    }
+
+    private void readAsCompleted (BoundaryScanner scanner, ExecutorService executor)
+      throws IOException, InterruptedException
+    {
+        int window = _parallelism + 2;
+        boolean concurrently = _deliveryOrder == CSVReader.DeliverConcurrently;
+        CompletionService<Chunk> completed = new ExecutorCompletionService<Chunk>(executor);
+        CSVRecord record = new CSVRecord();
+        int inFlight = 0;
+        try {
+            while (!_stopped && scanner.hasMore()) {
+                completed.submit(chunkTask(scanner, concurrently));
+                inFlight++;
+                if (inFlight >= window) {
+                    Future<Chunk> future = completed.take();
+                    inFlight--;
+                    completeChunk(result(future), record, concurrently);
+                }
+            }
+            while (!_stopped && inFlight > 0) {
+                Future<Chunk> future = completed.take();
+                inFlight--;
+                completeChunk(result(future), record, concurrently);
+            }
+        }
+        finally {
+            _stopped = true;
+                // the tasks read the channel, which is closed once we return,
+                // and concurrent consumers must be done by then too
+            for (; inFlight > 0; inFlight--) {
+                takeQuietly(completed);
+            }
+        }
+    }
+
+    /**
+        Waits for future to be done, ignoring its outcome and interrupts
+        (which are restored): the reader is stopped, and returning or
+        rethrowing the exception that stopped it.
+    */
+    private static void awaitQuietly (Future<Chunk> future)
+    {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+            catch (ExecutionException e) {
+                break;
+            }
+            catch (CancellationException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+        Like awaitQuietly(), for the next task of completed to be done.
+    */
+    private static void takeQuietly (CompletionService<Chunk> completed)
+    {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                completed.take();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void completeChunk (Chunk chunk, CSVRecord record, boolean wasDelivered)
+    {
+        if (wasDelivered) {
+            _freeChunks.add(chunk);
+        }
+        else {
+            deliverAndRecycle(chunk, record);
+        }
+    }
+
+    private void deliverAndRecycle (Chunk chunk, CSVRecord record)
+    {
+            // only in file order does a line past numberOfLines mean that all
+            // lines to come are too
+        if (!deliver(chunk, record) && _deliveryOrder == CSVReader.DeliverInFileOrder) {
+            _stopped = true;
+        }
+        _freeChunks.add(chunk);
+    }
+
+    private Callable<Chunk> chunkTask (BoundaryScanner scanner, final boolean deliver)
+      throws IOException
+    {
+        final long start = scanner.position();
+        final int lineNumber = scanner.lineNumber();
+        final long end = scanner.nextBoundary();
+        return new Callable<Chunk>() {
+            public Chunk call ()
+              throws IOException
+            {
+                if (_stopped) {
+                    return new Chunk();
+                }
+                Chunk chunk = tokenize(start, end, lineNumber);
+                if (deliver) {
+                    deliver(chunk, new CSVRecord());
+                }
+                return chunk;
+            }
+        };
+    }
+
+    private static Chunk result (Future<Chunk> future)
+      throws IOException, InterruptedException
+    {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            IOException exception = new IOException(String.valueOf(cause));
+            exception.initCause(cause);
+            throw exception;
+        }
+    }
+
+    private boolean canConsume (int lineNumber)
+    {
+        return ((_numberOfLines == CSVReader.AllLines) || (lineNumber <= _numberOfLines));
+    }
+
+    /**
+        Hands the records of chunk to the consumer, reporting errors before the
+        record they were found in.
+        @return false if a line past numberOfLines was reached
+    */
+    private boolean deliver (Chunk chunk, CSVRecord record)
+    {
+        int error = 0;
+        for (int index = 0; index < chunk._recordCount; index++) {
+            for (; error < chunk._errorCount && chunk._errorRecords[error] <= index; error++) {
+                handleError(chunk._errorCodes[error], chunk._errorLines[error]);
+            }
+            int lineNumber = chunk._recordLines[index];
+            if (_stopped || !canConsume(lineNumber)) {
+                return false;
+            }
+            int first = chunk._recordFirstTokens[index];
+            int count = chunk._recordFirstTokens[index + 1] - first;
+            record.set(chunk._chars, chunk._scratch, chunk._tokenStarts,
+                       chunk._tokenLengths, first, count);
+            if (_consumer instanceof CSVRecordConsumer) {
+                ((CSVRecordConsumer)_consumer).consumeRecord(_location, lineNumber, record);
+            }
+            else {
+                _consumer.consumeLineOfTokens(_location, lineNumber, record.toList());
+            }
+        }
+        for (; error < chunk._errorCount; error++) {
+            handleError(chunk._errorCodes[error], chunk._errorLines[error]);
+        }
+        return true;
+    }
+
+    private void handleError (int code, int lineNumber)
+    {
+        synchronized (_errorHandler) {
+            _errorHandler.handleError(code, _location, lineNumber);
+        }
+    }
+
+    private Chunk tokenize (long start, long end, int lineNumber)
+      throws IOException
+    {
+        if (end - start > Integer.MAX_VALUE / 2) {
+            throw new IOException("CSV line too long at byte " + start + " of " + _location);
+        }
+        MappedByteBuffer bytes = _channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        CharsetDecoder decoder = _charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        Chunk chunk = _freeChunks.poll();
+        if (chunk == null) {
+            chunk = new Chunk();
+        }
+        chunk.decode(bytes, decoder);
+        chunk.tokenize(lineNumber, _returnNoValueAsNull);
+        return chunk;
+    }
+
+    /**
+        Finds the chunk boundaries: the first line start at least chunkSize
+        bytes after the start of the chunk.  Follows the states of the tokenizer
+        on the bytes to tell line breaks from newlines in quoted fields, and
+        counts line numbers like the tokenizer does.
+    */
+    private final class BoundaryScanner
+    {
+        private final long _size;
+        private long _position;
+        private int _lineNumber = 1;
+        private boolean _isPastLineLimit;
+        private MappedByteBuffer _window;
+        private long _windowStart;
+        private int _windowLimit;
+
+        BoundaryScanner (long size)
+        {
+            _size = size;
+        }
+
+        long position ()
+        {
+            return _position;
+        }
+
+        int lineNumber ()
+        {
+            return _lineNumber;
+        }
+
+        /**
+            Whether there is another chunk to read.  The first chunk past the
+            numberOfLines limit is still read, since the errors in its first
+            line are reported before the reader stops.
+        */
+        boolean hasMore ()
+        {
+            return _position < _size && !_isPastLineLimit;
+        }
+
+        /**
+            Advances to the next chunk boundary (or the end of the file) and
+            returns it.
+        */
+        long nextBoundary ()
+          throws IOException
+        {
+            _isPastLineLimit = !canConsume(_lineNumber);
+            long target = _position + _chunkSize;
+            if (target >= _size) {
+                    // last chunk: the line number is not needed any more
+                _position = _size;
+                return _size;
+            }
+            int state = StateBeginningOfField;
+            long position = _position;
+            int lineNumber = _lineNumber;
+            while (position < _size) {
+                int offset = (int)(position - _windowStart);
+                if (_window == null || offset >= _windowLimit) {
+                    _windowStart = position;
+                    _windowLimit = (int)Math.min(ScanWindowSize, _size - position);
+                    _window = _channel.map(FileChannel.MapMode.READ_ONLY, _windowStart,
+                                           _windowLimit);
+                    offset = 0;
+                }
+                int ch = _window.get(offset);
+                switch (state) {
+                  case StateBeginningOfField: {
+                      if (ch == Space || ch == Tab) {
+                          position++;
+                      }
+                      else if (ch == DoubleQuote) {
+                          state = StateInQuotedField;
+                          position++;
+                      }
+                      else {
+                          state = StateInUnquotedField;
+                      }
+                      break;
+                  }
+                  case StateInUnquotedField: {
+                      if (ch == Comma || ch == CR || ch == LF) {
+                          state = StateEndOfField;
+                      }
+                      else {
+                          position++;
+                      }
+                      break;
+                  }
+                  case StateInQuotedField: {
+                      position++;
+                      if (ch == DoubleQuote) {
+                          state = StateQuoteSeen;
+                      }
+                      break;
+                  }
+                  case StateQuoteSeen: {
+                      if (ch == DoubleQuote) {
+                          state = StateInQuotedField;
+                          position++;
+                      }
+                      else {
+                          state = StateEndOfField;
+                      }
+                      break;
+                  }
+                  case StateEndOfField: {
+                      if (ch == Space || ch == Tab) {
+                          position++;
+                      }
+                      else if (ch == Comma) {
+                          state = StateBeginningOfField;
+                          position++;
+                      }
+                      else if (ch == CR || ch == LF) {
+                          state = StateEndOfLine;
+                      }
+                      else {
+                              // missing comma: the tokenizer starts a new field here
+                          state = StateBeginningOfField;
+                      }
+                      break;
+                  }
+                  case StateEndOfLine: {
+                      if (ch == LF) {
+                          lineNumber++;
+                          position++;
+                      }
+                      else if (ch == CR) {
+                          position++;
+                      }
+                      else if (position >= target) {
+                          _position = position;
+                          _lineNumber = lineNumber;
+                          return position;
+                      }
+                      else {
+                          state = StateBeginningOfField;
+                      }
+                      break;
+                  }
+                  default: {
+                      break;
+                  }
+                }
+            }
+            _position = _size;
+            _lineNumber = lineNumber;
+            return _size;
+        }
+    }
+
+    /**
+        The decoded chars of one chunk and the offsets of its tokens and
+        records.  Reused for later chunks once delivered.
+    */
+    static final class Chunk
+    {
+        char[] _chars = new char[0];
+        int _charCount;
+        char[] _scratch = new char[256];
+        int _scratchCount;
+        int[] _tokenStarts = new int[1024];
+        int[] _tokenLengths = new int[1024];
+        int _tokenCount;
+        int[] _recordFirstTokens = new int[257];
+        int[] _recordLines = new int[256];
+        int _recordCount;
+        int[] _errorCodes = new int[4];
+        int[] _errorLines = new int[4];
+        int[] _errorRecords = new int[4];
+        int _errorCount;
+
+        void decode (ByteBuffer bytes, CharsetDecoder decoder)
+          throws IOException
+        {
+            int capacity = (int)(bytes.remaining() * (double)decoder.maxCharsPerByte()) + 16;
+            if (_chars.length < capacity) {
+                _chars = new char[capacity];
+            }
+            CharBuffer chars = CharBuffer.wrap(_chars);
+            CoderResult result = decoder.decode(bytes, chars, true);
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+            result = decoder.flush(chars);
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+            _charCount = chars.position();
+        }
+
+        /**
+            Tokenizes the chars like CSVReader.read(Reader, String).
+        */
+        void tokenize (int lineNumber, boolean returnNoValueAsNull)
+        {
+            char[] chars = _chars;
+            int end = _charCount;
+            int lineNumberToConsume = lineNumber;
+            _tokenCount = 0;
+            _recordCount = 0;
+            _recordFirstTokens[0] = 0;
+            _scratchCount = 0;
+            _errorCount = 0;
+
+            int position = 0;
+            int ch = (end > 0) ? chars[0] : -1;
+            int state = StateBeginningOfField;
+            boolean currentTokenIsQuoted = false;
+            int tokenStart = 0;
+            int tokenEnd = 0;
+            boolean tokenNeedsCopy = false;
+
+            while (state != StateEOF) {
+                switch (state) {
+
+                  case StateBeginningOfLine: {
+                      addRecord(lineNumberToConsume);
+                      state = StateBeginningOfField;
+                      break;
+                  }
+
+                  case StateBeginningOfField: {
+                      while ((ch == Space) || (ch == Tab)) {
+                          ch = (++position < end) ? chars[position] : -1;
+                      }
+                      if (ch == DoubleQuote) {
+                          state = StateInQuotedField;
+                          currentTokenIsQuoted = true;
+                          ch = (++position < end) ? chars[position] : -1;
+                      }
+                      else {
+                          state = StateInUnquotedField;
+                          currentTokenIsQuoted = false;
+                      }
+                      break;
+                  }
+
+                  case StateEndOfField: {
+                      if (!currentTokenIsQuoted) {
+                              // like String.trim()
+                          while (tokenStart < tokenEnd && chars[tokenStart] <= Space) {
+                              tokenStart++;
+                          }
+                          while (tokenStart < tokenEnd && chars[tokenEnd - 1] <= Space) {
+                              tokenEnd--;
+                          }
+                      }
+
+                      while ((ch == Space) || (ch == Tab)) {
+                          ch = (++position < end) ? chars[position] : -1;
+                      }
+
+                      if (returnNoValueAsNull &&
+                          !currentTokenIsQuoted &&
+                          tokenStart == tokenEnd)
+                      {
+                          addToken(0, -1);
+                      }
+                      else if (tokenNeedsCopy) {
+                          addToken(~_scratchCount, unescape(tokenStart, tokenEnd));
+                      }
+                      else {
+                          addToken(tokenStart, tokenEnd - tokenStart);
+                      }
+                      tokenNeedsCopy = false;
+
+                      if (ch == Comma) {
+                          state = StateBeginningOfField;
+                          ch = (++position < end) ? chars[position] : -1;
+                      }
+
+                      else if (ch == LF || ch == CR) {
+                          lineNumberToConsume = lineNumber;
+                          state = StateBeginningOfLine;
+                          if (ch == LF) {
+                              lineNumber++;
+                          }
+
+                          for (; ch == LF || ch == CR;) {
+                              ch = (++position < end) ? chars[position] : -1;
+                              if (ch == LF) {
+                                  lineNumber++;
+                              }
+                          }
+
+                          if (ch == -1) {
+                              state = StateEOF;
+                          }
+                      }
+
+                      else if (ch == -1) {
+                          state = StateEOF;
+                          lineNumberToConsume = lineNumber;
+                          lineNumber++;
+                      }
+
+                      else {
+                          addError(CSVReader.ErrorMissingComma, lineNumber);
+                          state = StateBeginningOfField;
+                      }
+
+                      break;
+                  }
+
+                  case StateInUnquotedField: {
+                      tokenStart = position;
+                      while (ch >= 0 && ch != Comma && ch != CR && ch != LF) {
+                          ch = (++position < end) ? chars[position] : -1;
+                      }
+                      tokenEnd = position;
+
+                      state = StateEndOfField;
+                      break;
+                  }
+
+                  case StateInQuotedField: {
+                      tokenStart = position;
+                      while (state == StateInQuotedField) {
+                          while (ch >= 0 && ch != DoubleQuote) {
+                              if (ch == CR) {
+                                  tokenNeedsCopy = true;
+                              }
+                              ch = (++position < end) ? chars[position] : -1;
+                          }
+                          tokenEnd = position;
+
+                          /*
+                              A doubleQuote ends the quoted token, unless there
+                              are two in a row.  Two doubleQuotes in a row is
+                              taken to mean a doubleQuote character value.
+                          */
+                          if (ch == DoubleQuote) {
+                              ch = (++position < end) ? chars[position] : -1;
+                              if (ch == DoubleQuote) {
+                                  tokenNeedsCopy = true;
+                                  ch = (++position < end) ? chars[position] : -1;
+                              }
+                              else {
+                                  /* that was the matching quote */
+                                  break;
+                              }
+                          }
+                          else {
+                              addError(CSVReader.ErrorUnbalancedQuotes, lineNumber);
+                              break;
+                          }
+                      }
+
+                      state = StateEndOfField;
+                      break;
+                  }
+
+                  default: {
+                      state = StateEOF;
+                      break;
+                  }
+                }
+            }
+
+            if (_tokenCount > _recordFirstTokens[_recordCount]) {
+                addRecord(lineNumberToConsume);
+            }
+        }
+
+        /**
+            Copies the quoted token content between start and end to scratch,
+            dropping CRs and unescaping doubled quotes.
+            @return the length of the copy
+        */
+        private int unescape (int start, int end)
+        {
+            if (_scratch.length < _scratchCount + end - start) {
+                _scratch = grow(_scratch, _scratchCount + end - start);
+            }
+            char[] chars = _chars;
+            char[] scratch = _scratch;
+            int length = 0;
+            for (int index = start; index < end; index++) {
+                char ch = chars[index];
+                if (ch == CR) {
+                    continue;
+                }
+                scratch[_scratchCount + length++] = ch;
+                if (ch == DoubleQuote) {
+                        // skip the second quote of the pair
+                    index++;
+                }
+            }
+            _scratchCount += length;
+            return length;
+        }
+
+        private void addToken (int start, int length)
+        {
+            if (_tokenCount == _tokenStarts.length) {
+                _tokenStarts = grow(_tokenStarts, _tokenCount + 1);
+                _tokenLengths = grow(_tokenLengths, _tokenCount + 1);
+            }
+            _tokenStarts[_tokenCount] = start;
+            _tokenLengths[_tokenCount] = length;
+            _tokenCount++;
+        }
+
+        private void addRecord (int lineNumber)
+        {
+            if (_recordCount + 1 == _recordFirstTokens.length) {
+                _recordFirstTokens = grow(_recordFirstTokens, _recordCount + 2);
+                _recordLines = grow(_recordLines, _recordFirstTokens.length - 1);
+            }
+            _recordLines[_recordCount] = lineNumber;
+            _recordCount++;
+            _recordFirstTokens[_recordCount] = _tokenCount;
+        }
+
+        private void addError (int code, int lineNumber)
+        {
+            if (_errorCount == _errorCodes.length) {
+                _errorCodes = grow(_errorCodes, _errorCount + 1);
+                _errorLines = grow(_errorLines, _errorCount + 1);
+                _errorRecords = grow(_errorRecords, _errorCount + 1);
+            }
+            _errorCodes[_errorCount] = code;
+            _errorLines[_errorCount] = lineNumber;
+            _errorRecords[_errorCount] = _recordCount;
+            _errorCount++;
+        }
+
+        private static int[] grow (int[] array, int minimum)
+        {
+            int[] result = new int[Math.max(minimum, array.length * 2)];
+            System.arraycopy(array, 0, result, 0, array.length);
+            return result;
+        }
+
+        private static char[] grow (char[] array, int minimum)
+        {
+            char[] result = new char[Math.max(minimum, array.length * 2)];
+            System.arraycopy(array, 0, result, 0, array.length);
+            return result;
+        }
+    }
+}
@@ -41,6 +41,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.MalformedInputException;
 import java.util.List;
 
@@ -58,6 +59,27 @@ public final class CSVReader
       //represents All Lines
     public static final int AllLines = -1;
 
+    /**
+        readMapped() delivers lines in file order, from the calling thread.
+        @aribaapi ariba
+    */
+    public static final int DeliverInFileOrder = 1;
+    /**
+        readMapped() delivers chunks in the order they are tokenized, from the
+        calling thread; lines are in file order within a chunk.
+        @aribaapi ariba
+    */
+    public static final int DeliverInChunkOrder = 2;
+    /**
+        readMapped() delivers chunks from the worker threads as they are
+        tokenized; the consumer and error handler must be thread safe.  Lines
+        are in file order within a chunk.
+        @aribaapi ariba
+    */
+    public static final int DeliverConcurrently = 3;
+
+    public static final int DefaultChunkSize = 4 * 1024 * 1024;
+
     private static final char DoubleQuote  = '"';
     private static final char Comma        = ',';
     private static final char CR           = '\r';
@@ -82,6 +104,9 @@ public final class CSVReader
     private boolean returnNoValueAsNull = false;
       //Max number of lines to consider while reading. -1 implies all.
     private int numberOfLines = AllLines;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = DefaultChunkSize;
+    private int deliveryOrder = DeliverInFileOrder;
 
     /**
         Create a new CSVReader using a specific CSVConsumer to handle
@@ -180,6 +205,87 @@ public final class CSVReader
         returnNoValueAsNull = value;
     }
 
+    /**
+        Sets the number of threads readMapped() tokenizes with.  The
+        default is the number of processors; 1 reads on the calling thread.
+        @param n number of threads
+        @aribaapi ariba
+    */
+    public void setParallelism (int n)
+    {
+        Assert.that(n >= 1, "Parallelism %s is not valid.", n);
+        parallelism = n;
+    }
+
+    /**
+        Sets the size in bytes of the chunks readMapped() splits the file into.
+        @param size chunk size
+        @aribaapi ariba
+    */
+    public void setChunkSize (int size)
+    {
+        Assert.that(size > 0, "Chunk size %s is not valid.", size);
+        chunkSize = size;
+    }
+
+    /**
+        Sets the order in which readMapped() delivers lines: one of
+        DeliverInFileOrder (the default), DeliverInChunkOrder or
+        DeliverConcurrently.
+        @param order delivery order
+        @aribaapi ariba
+    */
+    public void setDeliveryOrder (int order)
+    {
+        Assert.that(order >= DeliverInFileOrder && order <= DeliverConcurrently,
+                    "Delivery order %s is not valid.", order);
+        deliveryOrder = order;
+    }
+
+    /**
+        Reads the specified file like read(File, String), but memory maps
+        it and tokenizes chunks of it in parallel (see setParallelism(),
+        setChunkSize() and setDeliveryOrder()).  If the consumer is a
+        CSVRecordConsumer, lines are passed as CSVRecord views instead of
+        Lists of Strings.  Lines, line numbers and errors are the same as for
+        read(File, String).
+        <p>
+        The file is split on its bytes, so the encoding must represent quotes,
+        commas and line breaks as single ASCII bytes (e.g. UTF-8 or
+        ISO-8859-1).  For other encodings (e.g. UTF-16) this falls back to
+        read(File, String).
+
+        @param file a path to the file to read
+        @param encoding the encoding to use to read the data
+
+        @exception IOException any IOException reading from the file
+        @aribaapi ariba
+    */
+    public void readMapped (File file, String encoding)
+      throws IOException
+    {
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        }
+        catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+        if (!CSVChunkReader.isAsciiCompatible(charset)) {
+            read(file, encoding);
+            return;
+        }
+        this.encoding = encoding;
+        CSVChunkReader reader = new CSVChunkReader(csvConsumer,
+                                                   csvErrorHandler,
+                                                   returnNoValueAsNull,
+                                                   numberOfLines,
+                                                   parallelism,
+                                                   chunkSize,
+                                                   deliveryOrder);
+        reader.read(file, charset, file.getCanonicalPath());
+    }
+
     /**
         Reads the specified URL, using the character encoding for the
         default locale.
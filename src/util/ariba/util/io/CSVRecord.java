@@ -0,0 +1,199 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.util.io;
+
+import ariba.util.core.Fmt;
+import ariba.util.core.ListUtil;
+import java.util.List;
+
+/**
+    The tokens of one line read by CSVReader.readMapped().  Tokens are views
+    over the decoded chunk of the file (or, for quoted tokens with escaped
+    quotes, over a copy), so no String is created unless asked for.  The
+    record and its token views are reused for the next line: they are only
+    valid during CSVRecordConsumer.consumeRecord().
+
+    @aribaapi ariba
+*/
+public final class CSVRecord
+{
+    private char[] _chars;
+    private char[] _scratch;
+    private int[] _starts;
+    private int[] _lengths;
+    private int _first;
+    private int _size;
+    private TokenView[] _views = new TokenView[16];
+
+    CSVRecord ()
+    {
+    }
+
+    /**
+        Points this record at the tokens first to first + size in the given
+        token arrays.  A negative start is the complement of an offset in
+        scratch, a negative length a null token.
+    */
+    void set (char[] chars, char[] scratch, int[] starts, int[] lengths,
+              int first, int size)
+    {
+        _chars = chars;
+        _scratch = scratch;
+        _starts = starts;
+        _lengths = lengths;
+        _first = first;
+        _size = size;
+    }
+
+    /**
+        @return the number of tokens in the line
+        @aribaapi ariba
+    */
+    public int size ()
+    {
+        return _size;
+    }
+
+    /**
+        Returns a view of the token at index, or null for an empty value if the
+        reader returns empty values as null.  The view is reused by the next
+        call for the same index and by the next line.
+
+        @param index the 0-based token index
+        @return the token
+        @exception IndexOutOfBoundsException if index is not less than size()
+        @aribaapi ariba
+    */
+    public CharSequence token (int index)
+    {
+        checkIndex(index);
+        int length = _lengths[_first + index];
+        if (length < 0) {
+            return null;
+        }
+        if (index >= _views.length) {
+            TokenView[] views = new TokenView[Math.max(index + 1, _views.length * 2)];
+            System.arraycopy(_views, 0, views, 0, _views.length);
+            _views = views;
+        }
+        TokenView view = _views[index];
+        if (view == null) {
+            view = new TokenView();
+            _views[index] = view;
+        }
+        int start = _starts[_first + index];
+        if (start >= 0) {
+            view.set(_chars, start, length);
+        }
+        else {
+            view.set(_scratch, ~start, length);
+        }
+        return view;
+    }
+
+    /**
+        @param index the 0-based token index
+        @return the token as a new String, or null
+        @exception IndexOutOfBoundsException if index is not less than size()
+        @aribaapi ariba
+    */
+    public String tokenString (int index)
+    {
+        checkIndex(index);
+        int length = _lengths[_first + index];
+        if (length < 0) {
+            return null;
+        }
+        int start = _starts[_first + index];
+        return (start >= 0)
+            ? new String(_chars, start, length)
+            : new String(_scratch, ~start, length);
+    }
+
+    private void checkIndex (int index)
+    {
+            // the arrays hold the tokens of the whole chunk, so an index past
+            // this record would silently read the next record's tokens
+        if (index < 0 || index >= _size) {
+            throw new IndexOutOfBoundsException(
+                Fmt.S("index %s, size %s", Integer.toString(index), Integer.toString(_size)));
+        }
+    }
+
+    /**
+        @return the tokens as a new List of Strings, as passed to
+        CSVConsumer.consumeLineOfTokens()
+        @aribaapi ariba
+    */
+    public List toList ()
+    {
+        List tokens = ListUtil.list(_size);
+        for (int index = 0; index < _size; index++) {
+            tokens.add(tokenString(index));
+        }
+        return tokens;
+    }
+
+    public String toString ()
+    {
+        return toList().toString();
+    }
+
+    /**
+        A reusable CharSequence over a range of a char array.
+    */
+    static final class TokenView implements CharSequence
+    {
+        private char[] _array;
+        private int _offset;
+        private int _length;
+
+        void set (char[] array, int offset, int length)
+        {
+            _array = array;
+            _offset = offset;
+            _length = length;
+        }
+
+        public int length ()
+        {
+            return _length;
+        }
+
+        public char charAt (int index)
+        {
+            if (index < 0 || index >= _length) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            return _array[_offset + index];
+        }
+
+        public CharSequence subSequence (int start, int end)
+        {
+            if (start < 0 || end > _length || start > end) {
+                throw new IndexOutOfBoundsException();
+            }
+            return new String(_array, _offset + start, end - start);
+        }
+
+        public String toString ()
+        {
+            return new String(_array, _offset, _length);
+        }
+    }
+}
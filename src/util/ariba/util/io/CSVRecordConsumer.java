@@ -0,0 +1,43 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.util.io;
+
+/**
+    A CSVConsumer that can take the lines read by CSVReader.readMapped() as
+    CSVRecord views, without a String and List being created for each line.
+    The other read methods of CSVReader still call consumeLineOfTokens().
+
+    @aribaapi ariba
+*/
+public interface CSVRecordConsumer extends CSVConsumer
+{
+    /**
+        Called once per CSV line read by CSVReader.readMapped().  The record and
+        its tokens are only valid for the duration of the call.  Depending on the
+        delivery order of the reader this may be called concurrently from
+        several threads.
+
+        @param path the CSV source file
+        @param lineNumber the current line being reported, 1-based.
+        @param record the tokens parsed from one line in the file
+        @aribaapi ariba
+    */
+    public void consumeRecord (String path,
+                               int    lineNumber,
+                               CSVRecord record);
+}
@@ -23,19 +23,30 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.Comparator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
     A utility to sort the contents of a file. The sorting is done in a resource-limited
     fashion and is suitable to sort large files. The resource limit is counting lines since the size of a string
     in bytes is not straightforward to determine.
+
+    Without a comparator the initial runs are sorted by DefaultParallelism threads (sharing the line limit)
+    while the source is read; with a comparator they are sorted on the calling thread unless a parallelism is
+    passed explicitly, since the comparator is then called from several threads at once.  The intermediate
+    files can optionally be compressed.
 */
 
 public class FileSort
 {
     private static final int DefaultMaxLines = 200000;
     private static final int DefaultMaxHandles = 10;
+    public static final int DefaultParallelism =
+        Math.min(4, Runtime.getRuntime().availableProcessors());
 
 
     private static class StringResource
@@ -97,31 +108,36 @@ public class FileSort
     }
 
     private static class SortBuffer
-        implements BufferedSort.SortBuffer
+        implements BufferedSort.ResultSortBuffer
     {
         private static int numOpen = 0;
         private File tempDirectory;
         private String encoding;
-        private static final int BufferSize = 8192*2;
+        private boolean compressRuns;
+        private boolean isCompressed;
+        private static final int BufferSize = 8192*8;
 
 
         private File file;
         private BufferedReader reader;
         private BufferedWriter writer;
 
-        public SortBuffer (File tempDirectory, String encoding)
+        public SortBuffer (File tempDirectory, String encoding, boolean compressRuns, boolean isCompressed)
         {
             this.tempDirectory = tempDirectory;
             this.encoding = encoding;
+            this.compressRuns = compressRuns;
+            this.isCompressed = isCompressed;
             file = TempFile.createTempFile(tempDirectory, "sort","buf");
             file.deleteOnExit();
         }
 
 
-        public SortBuffer (File original, File tempDirectory, String encoding)
+        public SortBuffer (File original, File tempDirectory, String encoding, boolean compressRuns)
         {
             this.tempDirectory = tempDirectory;
             this.encoding = encoding;
+            this.compressRuns = compressRuns;
             file = original;
         }
 
@@ -145,7 +161,11 @@ public class FileSort
                 return false;
             }
             numOpen++;
-            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), encoding), BufferSize);
+            InputStream in = new FileInputStream(file);
+            if (isCompressed) {
+                in = new GZIPInputStream(in, BufferSize);
+            }
+            reader = new BufferedReader(new InputStreamReader(in, encoding), BufferSize);
 
             return true;
         }
@@ -177,14 +197,24 @@ public class FileSort
         protected SortBuffer openForWrite ()
                 throws IOException
         {
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), encoding), BufferSize);
+            OutputStream out = new FileOutputStream(file);
+            if (isCompressed) {
+                out = new GZIPOutputStream(out, BufferSize);
+            }
+            writer = new BufferedWriter(new OutputStreamWriter(out, encoding), BufferSize);
             return this;
         }
 
         public BufferedSort.SortBuffer newSortBuffer ()
                 throws IOException
         {
-            return new SortBuffer(tempDirectory, encoding).openForWrite();
+            return new SortBuffer(tempDirectory, encoding, compressRuns, compressRuns).openForWrite();
+        }
+
+        public BufferedSort.SortBuffer newResultSortBuffer ()
+                throws IOException
+        {
+            return new SortBuffer(tempDirectory, encoding, compressRuns, false).openForWrite();
         }
     }
 
@@ -213,7 +243,9 @@ public class FileSort
      @param encoding encoding of the source file
      @param maxLines maximum number of lines concurrently in memory
      @param maxHandles maximum number of concurrently open file handles
-     @param comparator string comparator to be used
+     @param comparator string comparator to be used, or null for the natural order. Runs are sorted
+            in parallel only for the natural order; use the overload taking a parallelism to sort in parallel
+            with a (thread safe) comparator
      @return file object pointing to the sorted file
 
      @throws IOException
@@ -226,8 +258,38 @@ public class FileSort
                              Comparator<String> comparator)
             throws IOException
     {
-        SortBuffer sb = new SortBuffer(source, tempDirectory, encoding);
+        return sort(source, tempDirectory, encoding, maxLines, maxHandles, comparator,
+                    (comparator == null) ? DefaultParallelism : 1, false);
+    }
+
+    /**
+
+     @param source file object pointing to the source file. The source file will not be changed
+     @param tempDirectory directory to store temporary files in. The resulting sorted file will be in this directory
+     @param encoding encoding of the source file
+     @param maxLines maximum number of lines concurrently in memory
+     @param maxHandles maximum number of concurrently open file handles
+     @param comparator string comparator to be used, or null for the natural order. With a parallelism
+            above 1 it is called from several threads at once and must be thread safe
+     @param parallelism number of threads sorting runs concurrently
+     @param compressRuns whether to gzip the intermediate files (the sorted file is not compressed)
+     @return file object pointing to the sorted file
+
+     @throws IOException
+     */
+    public static File sort (File source,
+                             File tempDirectory,
+                             String encoding,
+                             int maxLines,
+                             int maxHandles,
+                             Comparator<String> comparator,
+                             int parallelism,
+                             boolean compressRuns)
+            throws IOException
+    {
+        SortBuffer sb = new SortBuffer(source, tempDirectory, encoding, compressRuns);
         BufferedSort bsort = new BufferedSort(sb, maxLines, maxHandles, new SortComparator(comparator));
+        bsort.setParallelism(parallelism);
 
         return ((SortBuffer)bsort.sort()).getFile();
 
@@ -124,6 +124,20 @@ public class ArchivingAppender extends FileAppender
     */
     private String archiveDirectoryName;
 
+    /**
+        Number of times the log file was rolled over.
+        @aribaapi private
+    */
+    private volatile long rolloverCount;
+
+    /**
+        Time, in microseconds, spent holding the appender lock for the
+        most recent rollover and for all rollovers.
+        @aribaapi private
+    */
+    private volatile long lastRolloverMicros;
+    private volatile long totalRolloverMicros;
+
     /**
         Construct an ArchivingAppender.
 
@@ -240,15 +254,62 @@ public class ArchivingAppender extends FileAppender
     */
     public void archiveLogFile ()
     {
+        LogFile logFile;
         synchronized (this) {
+            long start = System.nanoTime();
             closeFile();
-            createLogFile(fileBaseName);
+            logFile = createLogFile(fileBaseName);
             try {
                 setFile(fileName, fileAppend, bufferedIO, bufferSize);
             }
             catch (IOException e) {
             }
+            long elapsedMicros = (System.nanoTime() - start) / 1000;
+            lastRolloverMicros = elapsedMicros;
+            totalRolloverMicros += elapsedMicros;
+            rolloverCount++;
         }
+        logFileArchived(logFile);
+    }
+
+    /**
+        Called after the log file has been switched, without holding the
+        appender lock, so that subclasses can post-process the archived
+        file without blocking logging threads.
+        @param logFile the LogFile returned by {@link #createLogFile}
+        @aribaapi private
+    */
+    protected void logFileArchived (LogFile logFile)
+    {
+    }
+
+    /**
+        @return the number of times the log file was archived
+        @aribaapi ariba
+    */
+    public long getRolloverCount ()
+    {
+        return rolloverCount;
+    }
+
+    /**
+        @return the time in microseconds logging was blocked by the most recent
+        rollover
+        @aribaapi ariba
+    */
+    public long getLastRolloverMicros ()
+    {
+        return lastRolloverMicros;
+    }
+
+    /**
+        @return the average time in microseconds logging was blocked by a rollover
+        @aribaapi ariba
+    */
+    public long getAverageRolloverMicros ()
+    {
+        long count = rolloverCount;
+        return count == 0 ? 0 : totalRolloverMicros / count;
     }
 
     /**
@@ -370,11 +431,12 @@ public class ArchivingAppender extends FileAppender
             DefaultLogMaxMegaBytes :
             maxArchiveSizeMegaBytes);
         monitorDirectories();
-        createLogFile(fileBaseName);
+        LogFile logFile = createLogFile(fileBaseName);
         if (getLayout() == null) {
             setLayout(new StandardLayout());
         }
         super.activateOptions();
+        logFileArchived(logFile);
 
 
     }
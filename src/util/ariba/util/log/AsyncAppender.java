@@ -20,14 +20,19 @@ package ariba.util.log;
 import ariba.util.core.FastStringBuffer;
 import ariba.util.core.SystemUtil;
 import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 import org.apache.log4j.Appender;
+import org.apache.log4j.Level;
 import org.apache.log4j.helpers.AppenderAttachableImpl;
-import org.apache.log4j.helpers.BoundedFIFO;
 import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LoggingEvent;
 
 /**
- Basically cloned from log4j's AsyncAppender in log4j 1.2.8. Unfortunately
+ Originally cloned from log4j's AsyncAppender in log4j 1.2.8. Unfortunately
  that class was not designed to be overridden from outside its package, so
  it had to be duplicated.
 
@@ -41,6 +46,27 @@ import org.apache.log4j.spi.LoggingEvent;
  AsyncAppender and available externally (see the xxxMessage(s) methods,
  below).
 
+ 3) Events are handed to the dispatcher through a lock free ring buffer
+ ({@link EventRing}) instead of a BoundedFIFO guarded by a monitor, and
+ doAppend() is not synchronized, so logging threads never contend on a
+ lock. The dispatcher drains up to <b>BatchSize</b> events at a time and
+ appends the whole batch while holding the appenders lock once.
+
+ 4) What happens when the buffer is full is controlled by the
+ <b>OverflowPolicy</b> option:
+ <ul>
+ <li><code>Block</code> (default) - the logging thread waits for room, as
+ before.</li>
+ <li><code>DropOldest</code> - the oldest buffered event is discarded to make
+ room.</li>
+ <li><code>DropBelowLevel</code> - events below <b>DropThreshold</b>
+ (default WARN) are discarded, more severe events wait for room.</li>
+ </ul>
+
+ 5) Queue depth, dropped events and dispatch latency are counted (see
+ {@link #getQueueDepth}, {@link #getDroppedCount},
+ {@link #getAverageDispatchLatencyMillis}).
+
  @see org.apache.log4j.AsyncAppender
  @aribaapi private
 */
@@ -52,20 +78,49 @@ public class AsyncAppender extends org.apache.log4j.AppenderSkeleton
     */
     public static final int DEFAULT_BUFFER_SIZE = 128;
 
-    BoundedFIFO bf = new BoundedFIFO(DEFAULT_BUFFER_SIZE);
+    /**
+        The default number of events dispatched per batch.
+    */
+    public static final int DEFAULT_BATCH_SIZE = 32;
+
+    public static final String PolicyBlock = "Block";
+    public static final String PolicyDropOldest = "DropOldest";
+    public static final String PolicyDropBelowLevel = "DropBelowLevel";
+
+    private static final int BlockPolicy = 0;
+    private static final int DropOldestPolicy = 1;
+    private static final int DropBelowLevelPolicy = 2;
+
+    /**
+        How long a blocked producer or an idle dispatcher parks before
+        checking the buffer again.
+    */
+    private static final long ParkNanos = 1000 * 1000;
+
+    volatile EventRing ring = new EventRing(DEFAULT_BUFFER_SIZE);
 
     AppenderAttachableImpl aai;
 
-    Dispatcher dispatcher;
+    final Dispatcher dispatcher;
 
     boolean locationInfo = false;
 
-    boolean interruptedWarningMessage = false;
-
     boolean isConsoleWriteSuspended;
     private static final String PREFIX = "(IMPORTANT) Async appender ";
 
-    private boolean _closed;
+    private volatile boolean _closed;
+
+    private volatile int overflowPolicy = BlockPolicy;
+    private volatile Level dropThreshold = Level.WARN;
+    volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    // written by the dispatcher thread only
+    volatile long dispatchedCount;
+    volatile long batchCount;
+    volatile long totalDispatchLatencyMillis;
+    volatile long maxDispatchLatencyMillis;
 
     public AsyncAppender (boolean isConsoleWriteSuspended)
     {
@@ -73,7 +128,7 @@ public class AsyncAppender extends org.apache.log4j.AppenderSkeleton
         // for all.
         this.isConsoleWriteSuspended = isConsoleWriteSuspended;
         aai = new AppenderAttachableImpl();
-        dispatcher = new Dispatcher(bf, this);
+        dispatcher = new Dispatcher(this);
         dispatcher.start();
     }
 
@@ -84,10 +139,34 @@ public class AsyncAppender extends org.apache.log4j.AppenderSkeleton
         }
     }
 
+    /**
+        Same as AppenderSkeleton.doAppend() but not synchronized: the ring
+        buffer is safe for concurrent producers, so there is no reason to
+        serialize logging threads here.
+    */
+    public void doAppend (LoggingEvent event)
+    {
+        if (_closed) {
+            return;
+        }
+        if (!isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+        for (Filter filter = headFilter; filter != null; filter = filter.getNext()) {
+            int decision = filter.decide(event);
+            if (decision == Filter.DENY) {
+                return;
+            }
+            if (decision == Filter.ACCEPT) {
+                break;
+            }
+        }
+        append(event);
+    }
+
     public void append (LoggingEvent event)
     {
-        // If appender was closed, don't accept any more logging events, so we
-        // avoid a NPE on 'bf' below.
+        // If appender was closed, don't accept any more logging events.
         if (_closed) {
             return;
         }
@@ -101,39 +180,67 @@ public class AsyncAppender extends org.apache.log4j.AppenderSkeleton
         if (locationInfo) {
             event.getLocationInformation();
         }
-        synchronized (bf) {
-                /**
-                    If low level Logger debugging is on, send messages
-                    whenever we start with the buffer full.
-                    @see Logger#isDebugging
-                */
-            if (bf.isFull() && Logger.isDebugging()) {
-                printMessage("full buffer.", this, bf, null);
-            }
-            while (bf.isFull()) {
-                try {
-                    bf.wait();
+
+        if (offer(event)) {
+            dispatcher.wakeUp();
+            return;
+        }
+
+            /**
+                If low level Logger debugging is on, send messages
+                whenever we start with the buffer full.
+                @see Logger#isDebugging
+            */
+        if (Logger.isDebugging()) {
+            printMessage("full buffer.", this, ring, null);
+        }
+        int policy = overflowPolicy;
+        if (policy == DropBelowLevelPolicy && !event.getLevel().isGreaterOrEqual(dropThreshold)) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        if (policy == DropOldestPolicy) {
+            while (!offer(event)) {
+                if (ring.poll() != null) {
+                    droppedCount.incrementAndGet();
                 }
-                catch (InterruptedException e) {
-                    if (!interruptedWarningMessage) {
-                        interruptedWarningMessage = true;
-                        LogLog.warn("AsyncAppender interrupted.", e);
-                    }
-                    else {
-                        LogLog.warn("AsyncAppender interrupted again.");
-                    }
+            }
+        }
+        else {
+            blockedCount.incrementAndGet();
+            while (!offer(event)) {
+                dispatcher.wakeUp();
+                if (_closed) {
+                    droppedCount.incrementAndGet();
+                    return;
                 }
+                LockSupport.parkNanos(ParkNanos);
             }
+        }
+        dispatcher.wakeUp();
+    }
 
-            bf.put(event);
-            bf.notify();
+    /**
+        Offers the event to the current ring, following it to the new one
+        if the buffer is being resized.
+    */
+    private boolean offer (LoggingEvent event)
+    {
+        while (true) {
+            EventRing ring = this.ring;
+            if (ring.offer(event)) {
+                return true;
+            }
+            if (!ring.isRetired()) {
+                return false;
+            }
         }
     }
 
     /**
      Close this <code>AsyncAppender</code> by interrupting the
      dispatcher thread which will process all pending events before
-     exiting.
+     exiting. Events appended after that are discarded.
     */
     public void close ()
     {
@@ -157,9 +264,7 @@ public class AsyncAppender extends org.apache.log4j.AppenderSkeleton
             LogLog.error("Got an InterruptedException while waiting for the " +
                          "dispatcher to finish.", e);
         }
-        dispatcher = null;
-        bf = null;
-        
+
         // Unregister this so it doesn't get polled for messages.
         Logger.unregisterAsyncAppender(this);
     }
@@ -242,18 +347,32 @@ public class AsyncAppender extends org.apache.log4j.AppenderSkeleton
     /**
       The <b>BufferSize</b> option takes a non-negative integer value.
       This integer value determines the maximum size of the bounded
-      buffer. Increasing the size of the buffer is always
-      safe. However, if an existing buffer holds unwritten elements,
-      then <em>decreasing the buffer size will result in event
-      loss.</em> Nevertheless, while script configuring the
-      AsyncAppender, it is safe to set a buffer size smaller than the
-      {@link #DEFAULT_BUFFER_SIZE default buffer size} because
-      configurators guarantee that an appender cannot be used before
-      being completely configured.
+      buffer (rounded up to a power of two). It may be changed while the
+      appender is in use: logging threads switch to the new buffer, and
+      the events still in the old one are moved over, waiting for the
+      dispatcher to make room if the new buffer is smaller. Events are only
+      lost if the appender is closed meanwhile.
     */
-    public void setBufferSize (int size)
+    public synchronized void setBufferSize (int size)
     {
-        bf.resize(size);
+        EventRing oldRing = ring;
+        EventRing newRing = new EventRing(size);
+        ring = newRing;
+        // producers still holding the old ring fail to offer from now on and
+        // retry with the new one
+        oldRing.retire();
+        LoggingEvent event;
+        while ((event = oldRing.pollRetired()) != null) {
+            while (!newRing.offer(event)) {
+                if (_closed) {
+                    droppedCount.incrementAndGet();
+                    break;
+                }
+                dispatcher.wakeUp();
+                LockSupport.parkNanos(ParkNanos);
+            }
+        }
+        dispatcher.wakeUp();
     }
 
     /**
@@ -261,7 +380,129 @@ public class AsyncAppender extends org.apache.log4j.AppenderSkeleton
     */
     public int getBufferSize ()
     {
-        return bf.getMaxSize();
+        return ring.capacity();
+    }
+
+    /**
+      The <b>BatchSize</b> option is the maximum number of events the
+      dispatcher appends while holding the appenders lock.
+    */
+    public void setBatchSize (int size)
+    {
+        batchSize = Math.max(1, size);
+    }
+
+    public int getBatchSize ()
+    {
+        return batchSize;
+    }
+
+    /**
+      The <b>OverflowPolicy</b> option is one of <code>Block</code>,
+      <code>DropOldest</code> or <code>DropBelowLevel</code>.
+    */
+    public void setOverflowPolicy (String policy)
+    {
+        if (PolicyDropOldest.equalsIgnoreCase(policy)) {
+            overflowPolicy = DropOldestPolicy;
+        }
+        else if (PolicyDropBelowLevel.equalsIgnoreCase(policy)) {
+            overflowPolicy = DropBelowLevelPolicy;
+        }
+        else {
+            if (!PolicyBlock.equalsIgnoreCase(policy)) {
+                LogLog.warn("Unknown AsyncAppender OverflowPolicy " + policy +
+                            ", using " + PolicyBlock);
+            }
+            overflowPolicy = BlockPolicy;
+        }
+    }
+
+    public String getOverflowPolicy ()
+    {
+        switch (overflowPolicy) {
+            case DropOldestPolicy:
+                return PolicyDropOldest;
+            case DropBelowLevelPolicy:
+                return PolicyDropBelowLevel;
+            default:
+                return PolicyBlock;
+        }
+    }
+
+    /**
+      The <b>DropThreshold</b> option is the level below which events are
+      discarded when the buffer is full and the policy is
+      <code>DropBelowLevel</code>.
+    */
+    public void setDropThreshold (String level)
+    {
+        dropThreshold = Level.toLevel(level, Level.WARN);
+    }
+
+    public String getDropThreshold ()
+    {
+        return dropThreshold.toString();
+    }
+
+    /**
+        @return the number of events waiting to be dispatched
+    */
+    public int getQueueDepth ()
+    {
+        return ring.size();
+    }
+
+    /**
+        @return the number of events discarded because the buffer was full
+    */
+    public long getDroppedCount ()
+    {
+        return droppedCount.get();
+    }
+
+    /**
+        @return the number of times a logging thread had to wait for room
+    */
+    public long getBlockedCount ()
+    {
+        return blockedCount.get();
+    }
+
+    /**
+        @return the number of events handed to the attached appenders
+    */
+    public long getDispatchedCount ()
+    {
+        return dispatchedCount;
+    }
+
+    /**
+        @return the average number of events dispatched per batch
+    */
+    public long getAverageBatchSize ()
+    {
+        long batches = batchCount;
+        return batches == 0 ? 0 : dispatchedCount / batches;
+    }
+
+    /**
+        @return the average time between an event's creation and its
+        dispatch to the attached appenders
+    */
+    public long getAverageDispatchLatencyMillis ()
+    {
+        long count = dispatchedCount;
+        return count == 0 ? 0 : totalDispatchLatencyMillis / count;
+    }
+
+    /**
+        @return the longest time between an event's creation and its
+        dispatch to the attached appenders
+    */
+    public long getMaxDispatchLatencyMillis ()
+    {
+        return maxDispatchLatencyMillis;
     }
 
     /**
@@ -269,7 +510,7 @@ public class AsyncAppender extends org.apache.log4j.AppenderSkeleton
 
         @aribaapi private
     */
-    void printMessage(String s, AsyncAppender app, BoundedFIFO buff,
+    void printMessage(String s, AsyncAppender app, EventRing buff,
                            Throwable th)
     {
         if (!isConsoleWriteSuspended) {
@@ -296,20 +537,165 @@ public class AsyncAppender extends org.apache.log4j.AppenderSkeleton
 // ------------------------------------------------------------------------------
 // ----------------------------------------------------------------------------
 
-class Dispatcher extends Thread
+/**
+    Bounded lock free queue of logging events (D. Vyukov's bounded
+    MPMC queue). Each slot carries a sequence number which tells
+    producers and consumers whether the slot is free for the current
+    lap, so neither side ever takes a lock. Producers may also poll, which
+    is how the DropOldest policy makes room.
+    <p>
+    A ring that is replaced (see AsyncAppender.setBufferSize()) is retired:
+    a flag bit in the enqueue position makes all further offers fail.
+*/
+final class EventRing
 {
+    private static final long Retired = 1L << 62;
+
+    private final AtomicReferenceArray events;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private final AtomicLong dequeuePosition = new AtomicLong();
+
+    EventRing (int size)
+    {
+        int capacity = 2;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        mask = capacity - 1;
+        events = new AtomicReferenceArray(capacity);
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
 
-    BoundedFIFO bf;
+    boolean offer (LoggingEvent event)
+    {
+        while (true) {
+            long position = enqueuePosition.get();
+            if ((position & Retired) != 0) {
+                return false;
+            }
+            int index = (int)position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    events.set(index, event);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            }
+            else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    LoggingEvent poll ()
+    {
+        while (true) {
+            long position = dequeuePosition.get();
+            int index = (int)position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (dequeuePosition.compareAndSet(position, position + 1)) {
+                    LoggingEvent event = (LoggingEvent)events.get(index);
+                    events.set(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return event;
+                }
+            }
+            else if (difference < 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+        Makes all further offers fail.
+    */
+    void retire ()
+    {
+        long position;
+        do {
+            position = enqueuePosition.get();
+        } while (!enqueuePosition.compareAndSet(position, position | Retired));
+    }
+
+    boolean isRetired ()
+    {
+        return (enqueuePosition.get() & Retired) != 0;
+    }
+
+    /**
+        Polls a retired ring. Unlike poll(), waits for events whose producers
+        got a slot before the ring was retired but have not stored them yet.
+        @return null once the ring is empty
+    */
+    LoggingEvent pollRetired ()
+    {
+        long end = enqueuePosition.get() & ~Retired;
+        while (dequeuePosition.get() < end) {
+            LoggingEvent event = poll();
+            if (event != null) {
+                return event;
+            }
+            Thread.yield();
+        }
+        return null;
+    }
+
+    /**
+        Polls up to batch.length events into batch.
+        @return the number of events polled
+    */
+    int drainTo (LoggingEvent[] batch)
+    {
+        int count = 0;
+        LoggingEvent event;
+        while (count < batch.length && (event = poll()) != null) {
+            batch[count++] = event;
+        }
+        return count;
+    }
+
+    boolean isEmpty ()
+    {
+        return size() == 0;
+    }
+
+    int size ()
+    {
+        long size = (enqueuePosition.get() & ~Retired) - dequeuePosition.get();
+        return size < 0 ? 0 : (int)Math.min(size, capacity());
+    }
+
+    int capacity ()
+    {
+        return mask + 1;
+    }
+
+    public String toString ()
+    {
+        return "EventRing[" + size() + "/" + capacity() + "]";
+    }
+}
+
+class Dispatcher extends Thread
+{
 
     AppenderAttachableImpl aai;
 
-    boolean interrupted = false;
+    volatile boolean interrupted = false;
+
+    private volatile boolean sleeping = false;
 
     AsyncAppender container;
 
-    Dispatcher (BoundedFIFO bf, AsyncAppender container)
+    Dispatcher (AsyncAppender container)
     {
-        this.bf = bf;
         this.container = container;
         this.aai = container.aai;
         // It is the user's responsibility to close appenders before
@@ -327,72 +713,93 @@ class Dispatcher extends Thread
 
     }
 
-    void close ()
+    /**
+        Called by producers after adding an event. Cheap (a volatile read)
+        unless the dispatcher is actually parked.
+    */
+    void wakeUp ()
     {
-        synchronized (bf) {
-            interrupted = true;
-            // We have a waiting dispacther if and only if bf.length is
-            // zero.  In that case, we need to give it a death kiss.
-            bf.notify();
+        if (sleeping) {
+            sleeping = false;
+            LockSupport.unpark(this);
         }
     }
 
-    /**
-     The dispatching strategy is to wait until there are events in the
-     buffer to process. After having processed an event, we release
-     the monitor (variable bf) so that new events can be placed in the
-     buffer, instead of keeping the monitor and processing the remaining
-     events in the buffer.
-
-     <p>Other approaches might yield better results.
+    void close ()
+    {
+        interrupted = true;
+        LockSupport.unpark(this);
+    }
 
+    /**
+     The dispatching strategy is to drain up to BatchSize events from the
+     ring and append them all while holding the appenders lock once. When
+     the ring is empty the dispatcher parks until a producer wakes it up
+     (or a short timeout expires, which protects against missed wake ups).
     */
     public void run ()
     {
-
-        //Category cat = Category.getInstance(Dispatcher.class.getName());
-
-        LoggingEvent event;
+        LoggingEvent[] batch = new LoggingEvent[container.batchSize];
 
         while (true) {
-            synchronized (bf) {
-                if (bf.length() == 0) {
-                    // Exit loop if interrupted but only if the the buffer is empty.
-                    if (interrupted) {
-                        break;
-                    }
-                    try {
-                        bf.wait();
-                    }
-                    catch (InterruptedException e) {
-                        LogLog.error("The dispatcher should not be interrupted.");
-                        break;
-                    }
+            EventRing ring = container.ring;
+            if (batch.length != container.batchSize) {
+                batch = new LoggingEvent[container.batchSize];
+            }
+            int count = ring.drainTo(batch);
+            if (count == 0) {
+                // Exit loop if interrupted but only if the the buffer is empty.
+                if (interrupted) {
+                    break;
                 }
-                event = bf.get();
-                bf.notify();
-            } // synchronized
+                sleeping = true;
+                if (ring.isEmpty() && !interrupted) {
+                    LockSupport.parkNanos(100 * 1000 * 1000L);
+                }
+                sleeping = false;
+                if (Thread.interrupted()) {
+                    LogLog.error("The dispatcher should not be interrupted.");
+                    break;
+                }
+                continue;
+            }
 
+            long now = System.currentTimeMillis();
+            long totalLatency = 0;
+            long maxLatency = container.maxDispatchLatencyMillis;
             // The synchronization on parent is necessary to protect against
             // operations on the aai object of the parent
             synchronized (container.aai) {
-                if (aai != null && event != null) {
-                        // This is a key difference from the log4j code--we
-                        // enclose the appending call in a try catch block
-                        // so that event processing errors don't bring down
-                        // the dispatcher thread.
-                    try {
-                        aai.appendLoopOnAppenders(event);
+                for (int i = 0; i < count; i++) {
+                    LoggingEvent event = batch[i];
+                    batch[i] = null;
+                    long latency = now - event.timeStamp;
+                    totalLatency += latency;
+                    if (latency > maxLatency) {
+                        maxLatency = latency;
                     }
-                    catch (Throwable t) { // OK
-                            // Post a message to the container indicating
-                            // that we had a problem appending the event
-                            // to one or more appender.
-                        container.printMessage("dispatcher exception.",
-                            container, bf, t);
+                    if (aai != null) {
+                            // This is a key difference from the log4j code--we
+                            // enclose the appending call in a try catch block
+                            // so that event processing errors don't bring down
+                            // the dispatcher thread.
+                        try {
+                            aai.appendLoopOnAppenders(event);
+                        }
+                        catch (Throwable t) { // OK
+                                // Post a message to the container indicating
+                                // that we had a problem appending the event
+                                // to one or more appender.
+                            container.printMessage("dispatcher exception.",
+                                container, ring, t);
+                        }
                     }
                 }
             }
+            container.dispatchedCount += count;
+            container.batchCount++;
+            container.totalDispatchLatencyMillis += totalLatency;
+            container.maxDispatchLatencyMillis = maxLatency;
         } // while
 
         // close and remove all appenders
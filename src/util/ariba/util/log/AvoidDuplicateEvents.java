@@ -39,10 +39,14 @@ public class AvoidDuplicateEvents extends Filter
 
     public int decide (org.apache.log4j.spi.LoggingEvent event)
     {
-        if (recentEvents.get(event) == exists) {
-            return DENY;
+            // AsyncAppender calls filters without holding the appender
+            // lock, so guard the (non thread safe) WeakHashMap here
+        synchronized (recentEvents) {
+            if (recentEvents.get(event) == exists) {
+                return DENY;
+            }
+            recentEvents.put(event, exists);
         }
-        recentEvents.put(event, exists);
         return NEUTRAL;
     }
         
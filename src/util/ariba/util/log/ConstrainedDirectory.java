@@ -17,7 +17,10 @@
 
 package ariba.util.log;
 
+import ariba.util.core.SetUtil;
 import java.io.File;
+import java.util.Collections;
+import java.util.Set;
 
 /**
     A subclass Directory whose size can be "constrained": methods are provided
@@ -117,13 +120,49 @@ public class ConstrainedDirectory extends Directory
         return this.maxPrecentFull;
     }
 
+    /**
+        Files that are still being worked on (e.g. compressed in the
+        background) and so must not be purged.
+    */
+    private final Set inUse = Collections.synchronizedSet(SetUtil.set());
+
+    /**
+        Marks a file in this directory as in use so that it is skipped by
+        {@link #purge}. Every call must be balanced by {@link #release}.
+        @param file the file to protect
+        @aribaapi ariba
+    */
+    public void reserve (File file)
+    {
+        inUse.add(file.getAbsoluteFile());
+    }
+
+    /**
+        Allows a file previously passed to {@link #reserve} to be purged again.
+        @param file the file to release
+        @aribaapi ariba
+    */
+    public void release (File file)
+    {
+        inUse.remove(file.getAbsoluteFile());
+    }
+
+    /**
+        @return the number of files currently reserved
+        @aribaapi ariba
+    */
+    public int reservedCount ()
+    {
+        return inUse.size();
+    }
+
     /**
         Purges this constrained directory of any bytes in
         excess of the max size allowed.
         @return the number of Mega bytes purged.
         @aribaapi ariba
     */
-    public int purgeOnConstraint ()
+    public synchronized int purgeOnConstraint ()
     {
         int megaBytesToPurge = this.testConstraints();
         if (megaBytesToPurge > 0) {
@@ -167,7 +206,7 @@ public class ConstrainedDirectory extends Directory
         @return the number of Mega bytes purged
         @aribaapi ariba
     */
-    public int purge (int megaBytesToPurge)
+    public synchronized int purge (int megaBytesToPurge)
     {
         this.sortOnDate();
         long bytesPurged = 0;
@@ -175,6 +214,9 @@ public class ConstrainedDirectory extends Directory
         for (int idx = 0; idx < this.listing().size(); idx++)
         {
             File cursor = (File)this.listing().get(idx);
+            if (inUse.contains(cursor.getAbsoluteFile())) {
+                continue;
+            }
             long bytesInFile = cursor.length();
             if (cursor.delete()) {
                 if (logger != null) {
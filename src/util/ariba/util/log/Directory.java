@@ -106,7 +106,7 @@ class Directory extends File
         return true;
     }
 
-    private static int listFiles (File directory, List listing)
+    private static long listFiles (File directory, List listing)
     {
         String [] directoryList = directory.list();
 
@@ -116,7 +116,7 @@ class Directory extends File
             // for each file copy the computed data from the File object
             // into our File object
 
-        int sumBytes = 0;
+        long sumBytes = 0;
         for (int idx = 0; idx < directoryList.length; idx++)
         {
             File cursorFile = new File(directory, directoryList[idx]);
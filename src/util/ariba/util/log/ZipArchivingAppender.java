@@ -18,12 +18,17 @@
 
 package ariba.util.log;
 
+import ariba.util.core.RejectedExecutionException;
+import ariba.util.core.ThreadManager;
+import ariba.util.core.ThreadPool;
 import java.io.File;
 import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.FileInputStream;
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry; 
 import java.util.zip.ZipOutputStream;
 import org.apache.log4j.helpers.LogLog;
@@ -31,27 +36,174 @@ import org.apache.log4j.helpers.LogLog;
 /**
    This class extends ariba.util.log.ArhivingAppender to provide
    zipping support.
+   <p>
+   By default the archived file is compressed on a background thread so
+   that rolling over a large log file does not block logging threads. At
+   most <code>MaxConcurrentCompressions</code> files are compressed at
+   the same time; if the compression queue is full the file is compressed
+   on the calling thread. While a file is being compressed it is reserved
+   in the archive {@link ConstrainedDirectory} so that it is not purged,
+   and the directory constraints are re-applied once the (smaller) zip
+   file replaces it.
    @aribaapi documented
 */
 
 
 public class ZipArchivingAppender extends ArchivingAppender {
-    
+
+    private static final int BufferSize = 64 * 1024;
+    private static final int CompressionQueueCapacity = 100;
+    private static final long CompressorInactivityTimeOut = 60 * 1000;
+
+    private static int maxConcurrentCompressions = 1;
+    private static ThreadPool compressors;
+
+    private static final AtomicInteger pendingCompressions = new AtomicInteger();
+    private static final AtomicLong compressionCount = new AtomicLong();
+    private static final AtomicLong compressedBytes = new AtomicLong();
+    private static final AtomicLong compressionMillis = new AtomicLong();
+
+    private boolean asyncCompression = true;
+
     public ZipArchivingAppender () 
     {
         super();
     }
-    
-    protected LogFile createLogFile(String fileName)
+
+    /**
+       Sets whether archived files are compressed on a background
+       thread (the default) or on the thread that rolls the log over.
+       @param asyncCompression "true" or "false"
+       @aribaapi documented
+    */
+    public void setAsyncCompression (String asyncCompression)
+    {
+        this.asyncCompression = !"false".equalsIgnoreCase(asyncCompression);
+    }
+
+    public String getAsyncCompression ()
+    {
+        return String.valueOf(asyncCompression);
+    }
+
+    /**
+       Sets the maximum number of log files compressed at the same time,
+       for all ZipArchivingAppenders in the VM. Only takes effect if set
+       before the first background compression.
+       @param count the number of compression threads as a String
+       @aribaapi documented
+    */
+    public void setMaxConcurrentCompressions (String count)
+    {
+        try {
+            int value = Integer.parseInt(count.trim());
+            if (value > 0) {
+                synchronized (ZipArchivingAppender.class) {
+                    maxConcurrentCompressions = value;
+                }
+            }
+        }
+        catch (NumberFormatException e) {
+            LogLog.error("Invalid MaxConcurrentCompressions: " + count);
+        }
+    }
+
+    public String getMaxConcurrentCompressions ()
+    {
+        synchronized (ZipArchivingAppender.class) {
+            return String.valueOf(maxConcurrentCompressions);
+        }
+    }
+
+    private static synchronized ThreadPool compressors ()
+    {
+        if (compressors == null) {
+            compressors = new ThreadPool("LogCompressor",
+                                         new ThreadManager.NoOp(),
+                                         0,
+                                         maxConcurrentCompressions,
+                                         CompressorInactivityTimeOut,
+                                         CompressionQueueCapacity,
+                                         null);
+        }
+        return compressors;
+    }
+
+    protected void logFileArchived (LogFile logFile)
     {
-        LogFile logFile = super.createLogFile(fileName);
         if (logFile.archivedFileName() != null ) {
-          zip(archiveDirectory, logFile.archivedFileName());
+            if (asyncCompression) {
+                scheduleZip(archiveDirectory, logFile.archivedFileName());
+            }
+            else {
+                zip(archiveDirectory, logFile.archivedFileName());
+            }
         }
-        return logFile;
     }
-    
-    
+
+    /**
+       Queue the already archived log file for compression on a
+       background thread. Falls back to compressing on the calling
+       thread when the compression queue is full.
+
+       @aribaapi private
+    */
+    public void scheduleZip (final ConstrainedDirectory archiveDirectory,
+                             final String archiveFileName)
+    {
+        final File archivedFile = new File(archiveDirectory, archiveFileName);
+        archiveDirectory.reserve(archivedFile);
+        pendingCompressions.incrementAndGet();
+        Runnable task = new Runnable() {
+            public void run ()
+            {
+                try {
+                    zip(archiveDirectory, archiveFileName);
+                    archiveDirectory.purgeOnConstraint();
+                }
+                finally {
+                    archiveDirectory.release(archivedFile);
+                    pendingCompressions.decrementAndGet();
+                }
+            }
+        };
+        try {
+            compressors().execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+       @return the number of archived files waiting to be or being compressed
+       @aribaapi ariba
+    */
+    public static int getPendingCompressions ()
+    {
+        return pendingCompressions.get();
+    }
+
+    /**
+       @return the number of files compressed since startup
+       @aribaapi ariba
+    */
+    public static long getCompressionCount ()
+    {
+        return compressionCount.get();
+    }
+
+    /**
+       @return the compression throughput, in kilobytes of uncompressed
+       input per second, over all compressions since startup
+       @aribaapi ariba
+    */
+    public static long getCompressionKBPerSecond ()
+    {
+        long millis = compressionMillis.get();
+        return millis == 0 ? 0 : (compressedBytes.get() * 1000 / 1024) / millis;
+    }
+
     /**
        Zip the already archived log file
 
@@ -65,14 +217,17 @@ public class ZipArchivingAppender extends ArchivingAppender {
 
         File saveToFile =
             new File(archiveDirectory, archiveFileName);
+        long start = System.currentTimeMillis();
+        long inputBytes = saveToFile.length();
         try {
             out = new ZipOutputStream(new BufferedOutputStream(
-                    new FileOutputStream(saveToFile.getAbsolutePath() + ".gz")));
-            in = new BufferedInputStream(new FileInputStream(saveToFile.getAbsolutePath()));
+                    new FileOutputStream(saveToFile.getAbsolutePath() + ".gz"), BufferSize));
+            in = new BufferedInputStream(new FileInputStream(saveToFile.getAbsolutePath()),
+                                         BufferSize);
             int count;
-            byte[] data = new byte[1000];
+            byte[] data = new byte[BufferSize];
             out.putNextEntry(new ZipEntry(saveToFile.getAbsolutePath()));
-            while ((count = in.read(data, 0, 1000)) != -1) {
+            while ((count = in.read(data, 0, BufferSize)) != -1) {
                 out.write(data, 0, count);
             }
             
@@ -98,9 +253,11 @@ public class ZipArchivingAppender extends ArchivingAppender {
           }
         }
         saveToFile.delete();
-        
-                    
+        compressionCount.incrementAndGet();
+        compressedBytes.addAndGet(inputBytes);
+        compressionMillis.addAndGet(System.currentTimeMillis() - start);
+        LogLog.debug("Zipped log file " + archiveFileName + " (" + inputBytes +
+                     " bytes) in " + (System.currentTimeMillis() - start) + " ms");
     }
 
 }
-
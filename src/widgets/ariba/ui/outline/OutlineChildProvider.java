@@ -0,0 +1,43 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.ui.outline;
+
+import java.util.List;
+
+/**
+    Supplies the children of outline nodes on demand, for hierarchies too large
+    to materialize (see OutlineState.setChildProvider()).  The children of a node
+    are only requested when the node is expanded, and are then cached by the
+    OutlineState until evicted or until the sort state is invalidated.
+
+    @aribaapi private
+*/
+public interface OutlineChildProvider
+{
+    /**
+        The children of <code>parent</code>, or of the root if parent is null.
+        May return null for a leaf.
+    */
+    public List childrenForParent (Object parent);
+
+    /**
+        Called for every visible node to decide whether to render an expansion
+        control, so this should not fetch the children if it can be avoided.
+    */
+    public boolean hasChildren (Object parent);
+}
@@ -171,6 +171,9 @@ public final class OutlineRepetition extends AWComponent
         // check for external changes to bindings
         checkBindings();
 
+        // evict cached child lists between renderings, not while they are in use
+        _outlineState.trimChildListCache();
+
         pushFullList();
 
         prepareForPhase();
@@ -212,10 +215,13 @@ public final class OutlineRepetition extends AWComponent
         _currentItemChildren = null;  // invalidate for lazy recalc
 
         // recalculate
-        // if they don't have a hasChildren binding, use $^children!=null
+        // if they don't have a hasChildren binding, ask the child provider (unless its
+        // children are already cached) or use $^children!=null
         _hasChildren = (_hasChildrenBinding != null)
                                 ? booleanValueForBinding(_hasChildrenBinding)
-                                : (currentItemChildrenCount() > 0);
+                                : ((_outlineState.childProvider() != null)
+                                    ? _outlineState.providedHasChildren(_currentItem)
+                                    : (currentItemChildrenCount() > 0));
 
         if (_expandAll) {
             _isExpanded = _hasChildren;
@@ -240,7 +246,10 @@ public final class OutlineRepetition extends AWComponent
     {
         // compute lazily
         if (_currentItemChildren == null) {
-            if (_useCachedChildren) {
+            if (_outlineState.childProvider() != null) {
+                // fetched on first expansion, then cached by the outline state
+                _currentItemChildren = _outlineState.providedChildren(_currentItem);
+            } else if (_useCachedChildren) {
                 _currentItemChildren = _outlineState.lookupListForParent(_currentItem);
             } else {
                 _currentItemChildren = _outlineState.displayListForChildren(_currentItem, valueForBinding(_childrenBinding));
@@ -251,8 +260,14 @@ public final class OutlineRepetition extends AWComponent
 
     public int currentItemChildrenCount ()
     {
-        Object children = currentItemChildren();
-        return (children == null) ? 0 : OrderedList.get(children).size(children);
+        if (_currentItemChildren != null || _outlineState.childProvider() != null) {
+            Object children = currentItemChildren();
+            return (children == null) ? 0 : OrderedList.get(children).size(children);
+        }
+        // count without sorting: the children are only sorted if expanded
+        return _useCachedChildren
+            ? _outlineState.cachedChildCount(_currentItem)
+            : _outlineState.childCount(_currentItem, valueForBinding(_childrenBinding));
     }
 
     public boolean isExpanded ()
@@ -19,11 +19,21 @@ package ariba.ui.outline;
 import java.util.List;
 import ariba.util.core.ListUtil;
 import ariba.util.core.EqHashtable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
 import ariba.ui.table.AWTDisplayGroup;
 
 public final class OutlineState
 {
+    /**
+        Soft cap on the number of cached child lists.  The least recently used
+        lists beyond it are evicted between renderings (see trimChildListCache()).
+    */
+    public static int MaxCachedChildLists = 2000;
+
     public AWTDisplayGroup _displayGroup;
     public List _crumbTrailPath;
     public List _expansionPath;
@@ -33,6 +43,8 @@ public final class OutlineState
     protected Map _expansionStates;
     protected boolean _defaultExpansionState = false;  // i.e. closed
     protected boolean _didExecuteCollapseAll = false;
+    protected OutlineChildProvider _childProvider;
+    protected long _recordUseCount;
 
     // state for current rendering -- pushed through by OutlineRepetition
     protected int _nestingLevel;
@@ -115,6 +127,37 @@ public final class OutlineState
         _childrenForObject = null;  // invalidate sort cache
     }
 
+    /**
+        The provider of the children of expanded nodes: the one set explicitly, or
+        else the DataSource of our display group if it is an OutlineChildProvider.
+        Null if children come from the children binding.
+    */
+    public OutlineChildProvider childProvider ()
+    {
+        if (_childProvider == null && _displayGroup != null
+                && _displayGroup.dataSource() instanceof OutlineChildProvider) {
+            return (OutlineChildProvider)_displayGroup.dataSource();
+        }
+        return _childProvider;
+    }
+
+    public void setChildProvider (OutlineChildProvider childProvider)
+    {
+        _childProvider = childProvider;
+        invalidateSortState();
+    }
+
+    /**
+        Drops the cached children of parent, so that they are fetched (or read from
+        the children binding) and sorted again on next use.
+    */
+    public void invalidateChildren (Object parent)
+    {
+        if (_childrenForObject != null) {
+            _childrenForObject.remove((parent == null) ? this : parent);
+        }
+    }
+
     public boolean isExpanded (Object o)
     {
         Boolean value = (Boolean)_expansionStates.get(o);
@@ -159,6 +202,9 @@ public final class OutlineState
         }
 
         SortedListRecord rec = (SortedListRecord)_childrenForObject.get(parent);
+        if (rec != null) {
+            rec._lastUse = ++_recordUseCount;
+        }
         return rec;
     }
 
@@ -169,29 +215,116 @@ public final class OutlineState
         return (rec != null) ? rec.list() : null;
     }
 
+    public int cachedChildCount (Object parent)
+    {
+        SortedListRecord rec = listRecordForParent(parent);
+        return (rec != null) ? rec.size() : 0;
+    }
+
     public Object displayListForChildren (Object parent, Object children)
     {
-        Object returnList = null;
+        SortedListRecord rec = recordForChildren(parent, children);
+        return (rec != null) ? rec.list() : null;
+    }
+
+    /**
+        The number of children, without sorting them.  Sorting is deferred until
+        the children are displayed, i.e. until parent is expanded.
+    */
+    public int childCount (Object parent, Object children)
+    {
+        SortedListRecord rec = recordForChildren(parent, children);
+        return (rec != null) ? rec.size() : 0;
+    }
 
+    /**
+        The sorted children of parent from the child provider.  They are fetched once
+        and cached, so repeated renderings of an expanded node don't fetch again.
+    */
+    public Object providedChildren (Object parent)
+    {
+        return providedRecord(parent).list();
+    }
+
+    /**
+        The number of children of parent from the child provider, without sorting them.
+        Fetches and caches the children like providedChildren().
+    */
+    public int providedChildCount (Object parent)
+    {
+        return providedRecord(parent).size();
+    }
+
+    /**
+        Whether parent has children from the child provider: answered from the cached
+        children once they have been fetched, else by the provider's hasChildren().
+    */
+    public boolean providedHasChildren (Object parent)
+    {
+        SortedListRecord rec = listRecordForParent(parent);
+        return (rec != null) ? (rec.size() > 0) : childProvider().hasChildren(parent);
+    }
+
+    private SortedListRecord providedRecord (Object parent)
+    {
+        SortedListRecord rec = listRecordForParent(parent);
+        if (rec == null) {
+            List children = childProvider().childrenForParent(parent);
+                // cache leaves too, so they aren't fetched again
+            rec = recordForChildren(parent, (children != null) ? children : ListUtil.list());
+        }
+        return rec;
+    }
+
+    protected SortedListRecord recordForChildren (Object parent, Object children)
+    {
+        if (children == null) {
+            return null;
+        }
         SortedListRecord rec = listRecordForParent(parent);
 
         // check if we have a cached record and its list is still valid
-        if ((children != null) && ((rec == null) || ((returnList = rec.listForOrig(children)) == null))) {
-            // compute new sorted list and cache it
-            if (_displayGroup != null) {
-                List origVector = AWTDisplayGroup.vectorFromOrderedList(children);
-                returnList = _displayGroup.sortedChildList(origVector);
-            } else {
-                // Copy?
-                returnList = children;
-            }
-            rec = new SortedListRecord(children, returnList);
+        if ((rec == null) || !rec.matches(children)) {
+            // record the new list, to be sorted when first displayed
+            rec = new SortedListRecord(children, _displayGroup);
+            rec._lastUse = ++_recordUseCount;
             if (parent == null) parent = this;
             _childrenForObject.put(parent, rec);
         }
-        return returnList;
+        return rec;
     }
 
+    /**
+        Evicts the least recently used child lists beyond MaxCachedChildLists.
+        Called by OutlineRepetition before rendering, i.e. not while the cached
+        lists of the current rendering are in use.
+    */
+    public void trimChildListCache ()
+    {
+        if (_childrenForObject == null || _childrenForObject.size() <= MaxCachedChildLists) {
+            return;
+        }
+        List entries = new ArrayList(_childrenForObject.entrySet());
+        Collections.sort(entries, LeastRecentlyUsedFirst);
+        int removeCount = entries.size() - MaxCachedChildLists * 3 / 4;
+        for (Iterator iter = entries.iterator(); iter.hasNext() && removeCount > 0; ) {
+            Map.Entry entry = (Map.Entry)iter.next();
+            if (entry.getKey() != this) {
+                _childrenForObject.remove(entry.getKey());
+                removeCount--;
+            }
+        }
+    }
+
+    private static final Comparator LeastRecentlyUsedFirst = new Comparator() {
+        public int compare (Object o1, Object o2)
+        {
+            long use1 = ((SortedListRecord)((Map.Entry)o1).getValue())._lastUse;
+            long use2 = ((SortedListRecord)((Map.Entry)o2).getValue())._lastUse;
+            return (use1 < use2) ? -1 : ((use1 == use2) ? 0 : 1);
+        }
+    };
+
     public void setExpansionState (Object o, boolean isOpen)
     {
         if (isOpen == _defaultExpansionState) {
@@ -201,31 +334,48 @@ public final class OutlineState
         }
     }
 
-    /** Cache record for sorted child arrays */
+    /** Cache record for sorted child arrays.  The list is sorted on first use. */
     static class SortedListRecord
     {
         protected Object[] _copy;
+        protected Object _orig;
+        protected AWTDisplayGroup _displayGroup;
         protected Object _processed;
+        protected long _lastUse;
         // checksum hashcodes as a way to detect object substitution?
 
-        public SortedListRecord (Object orig, Object processed) {
+        public SortedListRecord (Object orig, AWTDisplayGroup displayGroup) {
             if (orig != null) {
                 _copy = AWTDisplayGroup.arrayFromOrderedList(orig);
             }
-            _processed = processed;
+            _orig = orig;
+            _displayGroup = displayGroup;
         }
 
-        /** Returns null if cached value is invalid */
-        Object listForOrig (Object orig)
+        /** Returns false if cached value is invalid */
+        boolean matches (Object orig)
         {
-            if (AWTDisplayGroup.orderedListArrayMatch(orig, _copy)) {
-                return list();
-            }
-            return null;
+            return AWTDisplayGroup.orderedListArrayMatch(orig, _copy);
+        }
+
+        int size ()
+        {
+            return (_copy != null) ? _copy.length : 0;
         }
 
         Object list ()
         {
+            if (_processed == null && _orig != null) {
+                if (_displayGroup != null) {
+                    // sort the copy: the original may have changed since
+                    _processed = _displayGroup.sortedChildList(ListUtil.arrayToList(_copy));
+                } else {
+                    // Copy?
+                    _processed = _orig;
+                }
+                _orig = null;
+                _displayGroup = null;
+            }
             return _processed;
         }
     }
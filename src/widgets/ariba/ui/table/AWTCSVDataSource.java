@@ -147,7 +147,7 @@ protected Entity (List keys, List classes)
         AWTCSVDataSource dataSource = new AWTCSVDataSource();
         CSVReader reader = new CSVReader(dataSource);
         try {
-            reader.read(file, I18NUtil.EncodingUTF8);
+            reader.readMapped(file, I18NUtil.EncodingUTF8);
         } catch (IOException e) {
             throw new AWGenericException(e);
         }
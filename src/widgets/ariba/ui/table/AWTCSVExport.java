@@ -0,0 +1,341 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+package ariba.ui.table;
+
+import ariba.ui.aribaweb.core.AWBaseResponse;
+import ariba.ui.aribaweb.core.AWLocal;
+import ariba.ui.aribaweb.core.AWRequestContext;
+import ariba.ui.aribaweb.core.AWResponse;
+import ariba.ui.aribaweb.core.AWSession;
+import ariba.ui.aribaweb.util.AWCharacterEncoding;
+import ariba.ui.aribaweb.util.AWContentType;
+import ariba.ui.aribaweb.util.AWDisposable;
+import ariba.ui.aribaweb.util.AWFormatting;
+import ariba.ui.aribaweb.util.AWGenericException;
+import ariba.ui.widgets.Util;
+import ariba.util.core.FastStringBuffer;
+import ariba.util.core.IOUtil;
+import ariba.util.core.ListUtil;
+import ariba.util.core.ProgressMonitor;
+import ariba.util.fieldvalue.FieldPath;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Exports the rows of an AWTDataTable as CSV without rendering the table.
+ *
+ * The export to Excel renders the table (in export mode) into the response, i.e. the whole
+ * document is built in memory, which for tables with many rows is prohibitive.  This export
+ * instead evaluates the key path and formatter of each data column directly against each row of
+ * the display group and writes the cells to a temporary file as it goes, so memory use does not
+ * depend on the number of rows.  The response then streams the file to the browser (and deletes
+ * it when done, or failed).  Files of responses that are never written are deleted with the session
+ * (or with its next export).  Progress is reported through the ProgressMonitor of the session (the page
+ * loading status panel).
+ *
+ * Only the values of AWTColumn and AWTMetaColumn columns are exported: columns with custom
+ * content are exported by their key path, and other value columns are left blank.  The file is
+ * UTF-8 with a byte order mark, so Excel recognizes the encoding.
+ *
+ * @aribaapi private
+ */
+public final class AWTCSVExport
+{
+    public static int ProgressInterval = 500;
+
+    private static final char ByteOrderMark = '\uFEFF';
+    private static final int BufferSize = 64 * 1024;
+    private static final String PendingExportsKey = "AWTCSVExport.PendingExports";
+
+    private final AWTDataTable _table;
+    private final List _columns;
+    private final Locale _locale;
+    private final FastStringBuffer _line = new FastStringBuffer(256);
+
+    private AWTCSVExport (AWTDataTable table)
+    {
+        _table = table;
+        _columns = table.dataColumns();
+        _locale = table.preferredLocale();
+    }
+
+    /**
+     * Returns a response with all (filtered) rows of <code>table</code> as CSV.
+     */
+    public static AWResponse exportAll (AWTDataTable table, String fileName)
+    {
+        AWTCSVExport export = new AWTCSVExport(table);
+        File file = export.writeFile(table.displayGroup().filteredObjects());
+        TemporaryFileInputStream stream;
+        try {
+            stream = new TemporaryFileInputStream(file);
+        }
+        catch (FileNotFoundException e) {
+            file.delete();
+            throw new AWGenericException(e);
+        }
+        registerPendingExport(table.session(), stream);
+
+        try {
+            AWRequestContext requestContext = table.requestContext();
+            AWResponse response = table.application().createResponse();
+            response.setContentType(AWContentType.ApplicationCsv);
+            response.setCharacterEncoding(AWCharacterEncoding.UTF8);
+            Util.setHeadersForDownload(requestContext, response, fileName);
+            ((AWBaseResponse)response).setContentFromStream(stream);
+            return response;
+        }
+        catch (RuntimeException e) {
+            IOUtil.close(stream);
+            throw e;
+        }
+    }
+
+    /**
+     * The response closes the stream (deleting the file) once written.  Until then the session
+     * holds on to it, so that the file is deleted when the session is disposed should the response
+     * never be written.  Streams already closed are dropped on each new export.
+     */
+    private static void registerPendingExport (AWSession session, TemporaryFileInputStream stream)
+    {
+        List pendingExports = (List)session.dict().get(PendingExportsKey);
+        if (pendingExports == null) {
+            pendingExports = ListUtil.list();
+            session.dict().put(PendingExportsKey, pendingExports);
+        }
+        for (int index = pendingExports.size() - 1; index > -1; index--) {
+            if (((TemporaryFileInputStream)pendingExports.get(index)).isClosed()) {
+                pendingExports.remove(index);
+            }
+        }
+        pendingExports.add(stream);
+    }
+
+    private File writeFile (List rows)
+    {
+        File file = null;
+        Writer writer = null;
+        AWTDisplayGroup displayGroup = _table.displayGroup();
+        Object originalItem = displayGroup.currentItem();
+        ProgressMonitor progress = ProgressMonitor.instance();
+        String progressMessage = localizedJavaString(1, "Exported %s of %s rows..." /* */);
+        int rowCount = rows.size();
+        progress.prepare(progressMessage, rowCount);
+        try {
+            file = File.createTempFile("awtexport", ".csv");
+            writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), AWCharacterEncoding.UTF8.name),
+                BufferSize);
+            writer.write(ByteOrderMark);
+            writeHeader(writer);
+            for (int index = 0; index < rowCount; index++) {
+                Object row = rows.get(index);
+                _table.setCurrentItem(row);
+                writeRow(writer, row);
+                if (index % ProgressInterval == 0) {
+                    progress.setCurrentCount(index);
+                }
+            }
+            writer.close();
+            writer = null;
+            File result = file;
+            file = null;
+            return result;
+        }
+        catch (IOException e) {
+            throw new AWGenericException(e);
+        }
+        finally {
+            IOUtil.close(writer);
+            if (file != null) {
+                file.delete();
+            }
+            _table.setCurrentItem(originalItem);
+        }
+    }
+
+    private void writeHeader (Writer writer)
+        throws IOException
+    {
+        for (int index = 0, count = _columns.size(); index < count; index++) {
+            AWTDataTable.Column column = (AWTDataTable.Column)_columns.get(index);
+            appendCell(column.label(_table), index);
+        }
+        writeLine(writer);
+    }
+
+    private void writeRow (Writer writer, Object row)
+        throws IOException
+    {
+        for (int index = 0, count = _columns.size(); index < count; index++) {
+            appendCell(cellValue((AWTDataTable.Column)_columns.get(index), row), index);
+        }
+        writeLine(writer);
+    }
+
+    /**
+     * The formatted value of <code>column</code> for <code>row</code>, evaluating the formatter
+     * binding with <code>row</code> as the current item, like the column renderer does.
+     */
+    private String cellValue (AWTDataTable.Column column, Object row)
+    {
+        FieldPath fieldPath;
+        Object formatter;
+        if (column instanceof AWTColumn) {
+            AWTColumn valueColumn = (AWTColumn)column;
+            if (valueColumn._keyPath == null || valueColumn.isBlank(_table)) {
+                return null;
+            }
+            fieldPath = valueColumn._keyPath;
+            formatter = (valueColumn._formatterBinding == null)
+                ? null : _table.valueForBinding(valueColumn._formatterBinding);
+        }
+        else if (column instanceof AWTMetaColumn) {
+            AWTMetaColumn metaColumn = (AWTMetaColumn)column;
+            fieldPath = metaColumn.fieldPath();
+            formatter = metaColumn.formatter();
+        }
+        else {
+            return null;
+        }
+        if (fieldPath == null) {
+            return null;
+        }
+        Object value = fieldPath.getFieldValue(row);
+        if (formatter != null) {
+            return AWFormatting.get(formatter).format(formatter, value, _locale);
+        }
+        return (value == null) ? null : value.toString();
+    }
+
+    private void appendCell (String value, int index)
+    {
+        if (index > 0) {
+            _line.append(',');
+        }
+        if (value == null || value.length() == 0) {
+            return;
+        }
+        boolean needsQuotes = isFormula(value);
+        for (int position = 0, length = value.length(); position < length && !needsQuotes;
+             position++) {
+            char current = value.charAt(position);
+            needsQuotes = current == ',' || current == '"' || current == '\n' || current == '\r';
+        }
+        if (!needsQuotes) {
+            _line.append(value);
+            return;
+        }
+        _line.append('"');
+        if (isFormula(value)) {
+                // keep spreadsheets from evaluating cell content
+            _line.append('\'');
+        }
+        for (int position = 0, length = value.length(); position < length; position++) {
+            char current = value.charAt(position);
+            if (current == '"') {
+                _line.append('"');
+            }
+            _line.append(current);
+        }
+        _line.append('"');
+    }
+
+    /**
+     * Whether a spreadsheet would take the cell for a formula.  Signed numbers are not.  A
+     * leading tab or carriage return counts too, since some spreadsheets skip it before looking
+     * for a formula.
+     */
+    private static boolean isFormula (String value)
+    {
+        char first = value.charAt(0);
+        if (first == '=' || first == '@' || first == '\t' || first == '\r') {
+            return true;
+        }
+        if ((first == '+' || first == '-') && value.length() > 1) {
+            char second = value.charAt(1);
+            return !(Character.isDigit(second) || second == '.' || second == ','
+                     || second == ' ');
+        }
+        return false;
+    }
+
+    /**
+     * Looks the string up under this class (not the table component, whose string ids are
+     * its own).
+     */
+    private String localizedJavaString (int stringId, String originalString)
+    {
+        return AWLocal.localizedJavaString(stringId, originalString, AWTCSVExport.class,
+                                           _table.requestContext());
+    }
+
+    private void writeLine (Writer writer)
+        throws IOException
+    {
+        _line.append("\r\n");
+        writer.write(_line.toString());
+        _line.truncateToLength(0);
+    }
+
+    /**
+     * Deletes the export file once the response has been written, or when the session is disposed.
+     */
+    private static final class TemporaryFileInputStream extends FileInputStream
+        implements AWDisposable
+    {
+        private final File _file;
+        private volatile boolean _isClosed;
+
+        TemporaryFileInputStream (File file)
+            throws FileNotFoundException
+        {
+            super(file);
+            _file = file;
+        }
+
+        public void close ()
+            throws IOException
+        {
+            _isClosed = true;
+            try {
+                super.close();
+            }
+            finally {
+                _file.delete();
+            }
+        }
+
+        boolean isClosed ()
+        {
+            return _isClosed;
+        }
+
+        public void dispose ()
+        {
+            IOUtil.close(this);
+        }
+    }
+}
@@ -39,6 +39,7 @@ import ariba.ui.aribaweb.util.AWContentType;
 import ariba.ui.aribaweb.util.AWEncodedString;
 import ariba.ui.aribaweb.util.AWSemanticKeyProvider;
 import ariba.ui.aribaweb.util.AWPagedVector;
+import ariba.ui.outline.OutlineChildProvider;
 import ariba.ui.outline.OutlineState;
 import ariba.ui.widgets.Util;
 import ariba.util.core.Assert;
@@ -679,7 +680,7 @@ public final class AWTDataTable extends AWComponent
             booleanValueForBinding("useRefresh") : true;
         _isOutline = (!hasBinding(DisableChildrenBinding) ||
             !booleanValueForBinding(DisableChildrenBinding)) &&
-            hasBinding(ChildrenBinding);
+            (hasBinding(ChildrenBinding) || hasOutlineChildProvider());
 
         Assert.that(!(_isOutline && hasBinding(ReorderActionBinding)),
                     "ReorderActionBinding not compatible with outline control.  "+
@@ -802,6 +803,20 @@ public final class AWTDataTable extends AWComponent
         return null;
     }
 
+    /**
+     * Exports all rows as CSV straight from the display group, without rendering the table
+     * (see AWTCSVExport).  Not available for pivot tables.
+     */
+    public AWResponseGenerating downloadToCSVAll ()
+    {
+        return AWTCSVExport.exportAll(this, "data.csv");
+    }
+
+    public boolean canDownloadToCSV ()
+    {
+        return _pivotState == null;
+    }
+
     public boolean renderToExcel ()
     {
         return _exportState != EXPORT_NONE;
@@ -1498,6 +1513,21 @@ public final class AWTDataTable extends AWComponent
         }
     }
 
+    /**
+     * True if the children come from an OutlineChildProvider (e.g. an AWTOutlineDataSource)
+     * rather than from the children binding.  Checked before the display group is set up,
+     * so the dataSource binding is looked at too.
+     */
+    private boolean hasOutlineChildProvider ()
+    {
+        if (valueForBinding("dataSource") instanceof OutlineChildProvider) {
+            return true;
+        }
+        AWTDisplayGroup displayGroup = (_displayGroup != null) ? _displayGroup
+            : (AWTDisplayGroup)valueForBinding(BindingNames.displayGroup);
+        return displayGroup != null && displayGroup.outlineState().childProvider() != null;
+    }
+
     public Object currentItemChildren ()
     {
         return (_pivotState == null) ? valueForBinding(ariba.ui.outline.BindingNames.children)
@@ -1510,6 +1540,12 @@ public final class AWTDataTable extends AWComponent
             return (_pivotState == null) ? booleanValueForBinding(ariba.ui.outline.BindingNames.hasChildren)
                     : _pivotState.currentItemHasChildren();
         }
+        if (_pivotState == null) {
+            OutlineState outlineState = _displayGroup.outlineState();
+            if (outlineState.childProvider() != null) {
+                return outlineState.providedHasChildren(_displayGroup.currentItem());
+            }
+        }
         Object children = currentItemChildren();
         return (children != null) && (OrderedList.get(children).size(children) > 0);
     }
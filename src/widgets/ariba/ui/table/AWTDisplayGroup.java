@@ -1531,6 +1531,9 @@ public final class AWTDisplayGroup
     {
         _dataSource = dataSource;
         _didInitialFetch = false;
+        if (dataSource instanceof AWTOutlineDataSource) {
+            ((AWTOutlineDataSource)dataSource).setDisplayGroup(this);
+        }
     }
 
     public void fetch ()
@@ -0,0 +1,77 @@
+/*
+    Copyright 1996-2008 Ariba, Inc.
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+        http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+    $Id$
+*/
+
+package ariba.ui.table;
+
+import ariba.ui.outline.OutlineChildProvider;
+import ariba.util.core.ListUtil;
+
+import java.util.List;
+
+/**
+ * DataSource for outline tables over large hierarchies: the root objects are fetched
+ * through fetchObjects() like any DataSource, while the children of a node are fetched
+ * by childrenForParent() only when the node is first expanded.  A DataTable whose
+ * DisplayGroup has this DataSource is an outline table, and uses it in place of the
+ * children binding (which need not be bound).
+ *
+ * Subclasses should override hasChildren() with a check that does not fetch the children
+ * (e.g. a child count column), since it is called for every visible node that the table's
+ * hasChildren binding (which takes precedence) or the children already cached by the
+ * OutlineState do not answer for.  The default fetches the children, and caches them in
+ * the OutlineState of its DisplayGroup so that expanding the node doesn't fetch them again.
+ *
+ * @aribaapi private
+ */
+public abstract class AWTOutlineDataSource extends AWTDataSource
+    implements OutlineChildProvider
+{
+    public List fetchObjects ()
+    {
+        return childrenForParent(null);
+    }
+
+    public abstract List childrenForParent (Object parent);
+
+    protected AWTDisplayGroup _displayGroup;
+
+    public boolean hasChildren (Object parent)
+    {
+        if (_displayGroup != null && _displayGroup.outlineState().childProvider() == this) {
+            return _displayGroup.outlineState().providedChildCount(parent) > 0;
+        }
+        return !ListUtil.nullOrEmptyList(childrenForParent(parent));
+    }
+
+    /**
+     * Called by AWTDisplayGroup.setDataSource(): the children fetched by hasChildren()
+     * are cached in this display group's OutlineState.
+     */
+    public void setDisplayGroup (AWTDisplayGroup displayGroup)
+    {
+        _displayGroup = displayGroup;
+    }
+
+    /**
+     * The root objects are fetched once (and again after the DisplayGroup is hibernated
+     * or given a new DataSource); override to refetch on other events.
+     */
+    public boolean hasChanges ()
+    {
+        return false;
+    }
+}
@@ -5,6 +5,7 @@ import ariba.ui.aribaweb.core.AWChecksum;
 import ariba.ui.aribaweb.core.AWResponseGenerating;
 import ariba.ui.aribaweb.util.AWEncodedString;
 import ariba.util.core.ArrayUtil;
+import ariba.util.core.Constants;
 import ariba.util.core.ListUtil;
 import ariba.util.core.StringUtil;
 import ariba.util.core.Assert;
@@ -16,6 +17,7 @@ import ariba.ui.table.AWTDataTable.ProxyColumn;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Iterator;
 import java.util.Collection;
@@ -69,6 +71,7 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
     public boolean _showingRowAttributes;
     long _layoutChecksum;
     private AWTDataTable _dataTable;
+    PivotCube _cube;
 
     // called when initing columns
     protected static void checkPivotLayout (AWTDataTable dataTable)
@@ -606,9 +609,12 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
         Map groupingStates = _dataTable._displayGroup.groupingValueState();
         List rowSorts = _sortOrderingArray(_rowFields);
         int rowFieldCount = rowSorts.size();
+        int row = -1, lastGroupRow = -1;
 
         // TODO: need to use sort orderings from DisplayGroup to get right sort selector...
         CellVisitor vistorRoot = createVistors(_columnFields, _dataTable);
+        PivotCube cube = pivotCube(rowSorts, vistorRoot);
+        cube.extract(rowSorts, vistorRoot, sortedObjects);
         int beforeGroupSize = groupSize();
 
         int lastSlot = -1, rowBasePos = 0, rowCurPos = 0;
@@ -616,8 +622,9 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
         while (e.hasNext()) {
             Object object = e.next();
             int arrayDiffIndex = 0;
+            row++;
 
-            if (lastGroupObject == null || (arrayDiffIndex = _sortDiffIndex(rowSorts, object, lastGroupObject)) != -1) {
+            if (lastGroupObject == null || (arrayDiffIndex = cube.diffIndex(row, lastGroupRow)) != -1) {
                 // new group row keyed by current object
                 groupingState = new PivotGroup(object, groupSize(), arrayDiffIndex);
 
@@ -631,9 +638,10 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
 
                 // remember base object
                 lastGroupObject = object;
+                lastGroupRow = row;
             }
             // Find the object slot for this object and store in in groupingState
-            EdgeCell leafCell = _columnEdgeRoot.addOrFind(object, vistorRoot);
+            EdgeCell leafCell = cube.leafCell(row, object, _columnEdgeRoot, vistorRoot);
             int slot = leafCell.groupSlot();
             if (slot == lastSlot) {
                 // slot collision -- two objects were not unique by their pivot field keys
@@ -659,6 +667,9 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
             groupingStates.put(object, groupingState);
         }
 
+        // only the dictionaries and the leaf cell index are kept in the session
+        cube.clearRows();
+
         // if we added columns, or a column went unused, force a recompute
         if (beforeGroupSize < groupSize()) _dataTable.invalidateColumnData();
         _detailAttributeExpansionMapInvalidated = true;
@@ -666,6 +677,17 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
         return groupedObjects;
     }
 
+    /*
+        The cube for the current orderings, kept across regroupings (see PivotCube).
+     */
+    PivotCube pivotCube (List rowSorts, CellVisitor visitorRoot)
+    {
+        if (_cube == null || !_cube.matches(rowSorts, visitorRoot)) {
+            _cube = new PivotCube(rowSorts, visitorRoot);
+        }
+        return _cube;
+    }
+
     public void validateFilteredList (List filteredList)
     {
 /* Debug -- display ids of items in groups
@@ -706,13 +728,16 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
 
     public List objectsInGroups (List groupLeadItems)
     {
-        List result = ListUtil.list();
-        for (int i=0, count=groupLeadItems.size(); i < count; i++) {
-            PivotGroup group = (PivotGroup) _dataTable._displayGroup.groupingState(groupLeadItems.get(i));
-            Iterator iter = group.iterator();
-            while (iter.hasNext()) {
-                result.add(iter.next());
-            }
+        int count = groupLeadItems.size();
+        PivotGroup[] groups = new PivotGroup[count];
+        int objectCount = 0;
+        for (int i=0; i < count; i++) {
+            groups[i] = (PivotGroup) _dataTable._displayGroup.groupingState(groupLeadItems.get(i));
+            objectCount += groups[i]._objectCount;
+        }
+        List result = ListUtil.list(objectCount);
+        for (int i=0; i < count; i++) {
+            groups[i].addObjectsTo(result);
         }
         return result;
     }
@@ -1188,6 +1213,7 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
         // _rowNestingLevel: the level on the row edge that this differs from the previous group
         Object[] _objects;
         int _rowNestingLevel;
+        int _objectCount;
 
         public PivotGroup (Object groupingObject, int slots, int rowNestingLevel)
         {
@@ -1212,6 +1238,14 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
                 Assert.that(_objects[slot] == null, "Assigning to already used grouping slot -- you likely haven't included all of the necessary row/column fields, Object1=%s, Object2=%s", _objects[slot], o);
             }
             _objects[slot] = o;
+            _objectCount++;
+        }
+
+        void addObjectsTo (List list)
+        {
+            for (int i=0, c=_objects.length; i < c; i++) {
+                if (_objects[i] != null) list.add(_objects[i]);
+            }
         }
 
         public Object get(int slot)
@@ -1381,7 +1415,7 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
                 if (_children == null) _children = ListUtil.list();
                 matchingChild = visitor.matchingChild(this, object);
                 if (matchingChild == null) {
-                    Object value = visitor._sortOrdering.getSortValue(object);
+                    Object value = visitor.sortValue(object);
                     matchingChild = new EdgeCell(object, value, column, this, null);
                     visitor.insertChildAtCurrentPos(this, matchingChild);
                 } else {
@@ -1746,6 +1780,8 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
         AWTSortOrdering _sortOrdering;
         int _nextPos;
         CellVisitor _next;
+        Object _valueObject;
+        Object _value;
 
         protected CellVisitor (Column column, AWTDataTable table)
         {
@@ -1762,9 +1798,9 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
             List children = parent._children;
             if (children == null) return null;
             boolean alreadyResetChildren = false;
+            Object value = (_nextPos < children.size()) ? sortValue(object) : null;
             while (_nextPos < children.size()) {
                 EdgeCell child = (EdgeCell)children.get(_nextPos);
-                Object value = _sortOrdering.getSortValue(object);
                 int comp = (_sortOrdering != null) ? _sortOrdering.compareValues(value, child._value) : 0;
                 if (comp == 0) return child;
 
@@ -1783,6 +1819,28 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
             return null;
         }
 
+        /*
+            The sort value of object on this level.  The value of the last object is
+            kept so that searching and then inserting evaluate the key path only once.
+        */
+        public Object sortValue (Object object)
+        {
+            if (object != _valueObject || _valueObject == null) {
+                _value = _sortOrdering.getSortValue(object);
+                _valueObject = object;
+            }
+            return _value;
+        }
+
+        /*
+            Presets the sort value of object (see PivotCube.leafCell()).
+        */
+        void setSortValue (Object object, Object value)
+        {
+            _valueObject = object;
+            _value = value;
+        }
+
         public void insertChildAtCurrentPos (EdgeCell parent, EdgeCell child)
         {
             parent._children.add(_nextPos, child);
@@ -2002,6 +2060,247 @@ public class AWTPivotState implements AWTDisplayGroup.Grouper
         return -1;
     }
 
+    /*
+        The pivot's data in columnar form: the sort values of the row and column fields of
+        all objects being grouped, extracted once up front (one array per field) rather
+        than re-evaluating key paths for every comparison and every edge level.
+
+        Each field's values are dictionary coded: equal values share a code, so comparing
+        two rows is usually an int comparison and only rows with different codes fall back
+        to the sort ordering (which, e.g., may consider values equal ignoring case).  The
+        column field codes of an object are hashed to find its leaf EdgeCell, so only the
+        first object with a given combination of column values walks the EdgeCell tree.
+
+        EdgeCells are never removed and never change their value, so the dictionaries and
+        the leaf cell index stay valid as long as the sort orderings do: the cube is kept
+        across invalidate() and regrouping only has to extract the values again.
+     */
+    protected static class PivotCube
+    {
+        // dictionaries only grow; past this (relative to the rows grouped) they start over
+        static final int MaxDictionarySize = 1024;
+
+        AWTSortOrdering[] _rowSorts;
+        AWTSortOrdering[] _columnSorts;
+        CellVisitor[] _columnVisitors;
+        Map[] _rowDictionaries;
+        Map[] _columnDictionaries;
+        Map _leafCells = new HashMap();
+        CellKey _probe;
+
+        Object[][] _rowValues;
+        int[][] _rowCodes;
+        Object[][] _columnValues;
+        int[][] _columnCodes;
+
+        protected PivotCube (List rowSorts, CellVisitor visitorRoot)
+        {
+            _rowSorts = new AWTSortOrdering[rowSorts.size()];
+            rowSorts.toArray(_rowSorts);
+            List visitors = ListUtil.list();
+            for (CellVisitor visitor = visitorRoot; visitor != null; visitor = visitor._next) {
+                if (visitor._sortOrdering != null) visitors.add(visitor);
+            }
+            _columnVisitors = new CellVisitor[visitors.size()];
+            visitors.toArray(_columnVisitors);
+            _columnSorts = new AWTSortOrdering[_columnVisitors.length];
+            for (int field=0; field < _columnSorts.length; field++) {
+                _columnSorts[field] = _columnVisitors[field]._sortOrdering;
+            }
+            _rowDictionaries = newDictionaries(_rowSorts.length);
+            _columnDictionaries = newDictionaries(_columnVisitors.length);
+            _probe = new CellKey(new int[_columnVisitors.length]);
+        }
+
+        private static Map[] newDictionaries (int count)
+        {
+            Map[] dictionaries = new Map[count];
+            for (int field=0; field < count; field++) {
+                dictionaries[field] = new HashMap();
+            }
+            return dictionaries;
+        }
+
+        /*
+            Whether this cube was built for the same orderings (key, direction and
+            comparator) on the same levels.
+        */
+        boolean matches (List rowSorts, CellVisitor visitorRoot)
+        {
+            if (rowSorts.size() != _rowSorts.length) return false;
+            for (int field=0; field < _rowSorts.length; field++) {
+                if (!sameOrdering(_rowSorts[field], (AWTSortOrdering)rowSorts.get(field))) {
+                    return false;
+                }
+            }
+            int field = 0;
+            for (CellVisitor visitor = visitorRoot; visitor != null; visitor = visitor._next) {
+                if (visitor._sortOrdering == null) continue;
+                if (field == _columnSorts.length
+                    || !sameOrdering(_columnSorts[field], visitor._sortOrdering)) {
+                    return false;
+                }
+                field++;
+            }
+            return field == _columnSorts.length;
+        }
+
+        private static boolean sameOrdering (AWTSortOrdering a, AWTSortOrdering b)
+        {
+            Object comparatorA = (a.comparator() != null) ? a.comparator().getClass() : null;
+            Object comparatorB = (b.comparator() != null) ? b.comparator().getClass() : null;
+            return a.equals(b) && a.selector() == b.selector() && comparatorA == comparatorB;
+        }
+
+        /*
+            Extracts the row and column field values of objects, which become the rows of
+            the cube, using the (current) orderings of rowSorts and the visitors.
+        */
+        void extract (List rowSorts, CellVisitor visitorRoot, List objects)
+        {
+            rowSorts.toArray(_rowSorts);
+            int field = 0;
+            for (CellVisitor visitor = visitorRoot; visitor != null; visitor = visitor._next) {
+                if (visitor._sortOrdering != null) _columnVisitors[field++] = visitor;
+            }
+            int rowCount = objects.size();
+            if (dictionarySize() > Math.max(MaxDictionarySize, 2 * rowCount)) {
+                _rowDictionaries = newDictionaries(_rowSorts.length);
+                _columnDictionaries = newDictionaries(_columnVisitors.length);
+                _leafCells.clear();
+            }
+            _rowValues = new Object[_rowSorts.length][rowCount];
+            _rowCodes = new int[_rowSorts.length][rowCount];
+            _columnValues = new Object[_columnVisitors.length][rowCount];
+            _columnCodes = new int[_columnVisitors.length][rowCount];
+            int row = 0;
+            for (Iterator iter = objects.iterator(); iter.hasNext(); row++) {
+                Object object = iter.next();
+                for (field=0; field < _rowSorts.length; field++) {
+                    Object value = _rowSorts[field].getSortValue(object);
+                    _rowValues[field][row] = value;
+                    _rowCodes[field][row] = code(_rowDictionaries[field], value);
+                }
+                for (field=0; field < _columnVisitors.length; field++) {
+                    Object value = _columnVisitors[field]._sortOrdering.getSortValue(object);
+                    _columnValues[field][row] = value;
+                    _columnCodes[field][row] = code(_columnDictionaries[field], value);
+                }
+            }
+        }
+
+        private int dictionarySize ()
+        {
+            int size = _leafCells.size();
+            for (int field=0; field < _rowDictionaries.length; field++) {
+                size += _rowDictionaries[field].size();
+            }
+            for (int field=0; field < _columnDictionaries.length; field++) {
+                size += _columnDictionaries[field].size();
+            }
+            return size;
+        }
+
+        private static int code (Map dictionary, Object value)
+        {
+            Object key = (value == null) ? PivotCube.class : value;
+            Integer code = (Integer)dictionary.get(key);
+            if (code == null) {
+                code = Constants.getInteger(dictionary.size());
+                dictionary.put(key, code);
+            }
+            return code.intValue();
+        }
+
+        /*
+            Equivalent to _sortDiffIndex() on the objects at rows a and b.
+        */
+        public int diffIndex (int a, int b)
+        {
+            for (int field=0, count=_rowSorts.length; field < count; field++) {
+                int[] codes = _rowCodes[field];
+                if (codes[a] != codes[b]) {
+                    Object[] values = _rowValues[field];
+                    if (_rowSorts[field].compareValues(values[a], values[b]) != 0) return field;
+                }
+            }
+            return -1;
+        }
+
+        /*
+            The leaf EdgeCell for the object at row, equivalent to root.addOrFind().
+            Objects whose column values were seen before are looked up by their codes;
+            the others are added with the extracted values handed to the visitors.
+        */
+        EdgeCell leafCell (int row, Object object, EdgeCell root, CellVisitor visitorRoot)
+        {
+            int[] codes = _probe._codes;
+            for (int field=0; field < codes.length; field++) {
+                codes[field] = _columnCodes[field][row];
+            }
+            _probe.rehash();
+            EdgeCell leafCell = (EdgeCell)_leafCells.get(_probe);
+            if (leafCell != null) {
+                // as addOrFind() does, cells keep the most recent object for their value
+                for (EdgeCell cell = leafCell; cell._parent != null; cell = cell._parent) {
+                    if (!cell.isAttributeCell()) cell._object = object;
+                }
+                return leafCell;
+            }
+            for (int field=0; field < _columnVisitors.length; field++) {
+                _columnVisitors[field].setSortValue(object, _columnValues[field][row]);
+            }
+            leafCell = root.addOrFind(object, visitorRoot);
+            _leafCells.put(new CellKey((int[])codes.clone()), leafCell);
+            return leafCell;
+        }
+
+        void clearRows ()
+        {
+            _rowValues = null;
+            _rowCodes = null;
+            _columnValues = null;
+            _columnCodes = null;
+            for (int field=0; field < _columnVisitors.length; field++) {
+                _columnVisitors[field] = null;
+            }
+        }
+    }
+
+    /*
+        Hash key for the column field codes of an object.
+     */
+    static final class CellKey
+    {
+        int[] _codes;
+        int _hash;
+
+        CellKey (int[] codes)
+        {
+            _codes = codes;
+            rehash();
+        }
+
+        void rehash ()
+        {
+            int hash = 1;
+            for (int i=0; i < _codes.length; i++) {
+                hash = 31 * hash + _codes[i];
+            }
+            _hash = hash;
+        }
+
+        public int hashCode ()
+        {
+            return _hash;
+        }
+
+        public boolean equals (Object o)
+        {
+            return (o instanceof CellKey) && java.util.Arrays.equals(_codes, ((CellKey)o)._codes);
+        }
+    }
+
     protected Column[] createColumnArray (List columns)
     {
         int c = columns.size();
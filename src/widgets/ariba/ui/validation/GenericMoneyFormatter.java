@@ -33,6 +33,7 @@ import ariba.util.core.ClassUtil;
 
 import java.util.List;
 import ariba.util.formatter.BigDecimalFormatter;
+import ariba.util.formatter.DecimalCodec;
 import ariba.util.formatter.DecimalParseInfo;
 import ariba.util.formatter.Formatter;
 import ariba.util.formatter.IntegerFormatter;
@@ -44,6 +45,7 @@ import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.Locale;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
     Responsible for formatting, parsing, and comparing money values.
@@ -309,6 +311,15 @@ public class GenericMoneyFormatter extends Formatter
     */
     private static Map currencyFormats = MapUtil.map();
 
+    /**
+        Codecs for the formats above, read without locking.  Hash key: locale
+        @aribaapi private
+    */
+    private static final Map valueCodecs = new ConcurrentHashMap();
+    private static final Map valueNoSuffixCodecs = new ConcurrentHashMap();
+    private static final Map parseCodecs = new ConcurrentHashMap();
+    private static final Map currencyCodecs = new ConcurrentHashMap();
+
     private MoneyAdapter    _moneyAdapter;
     private CurrencyAdapter _currencyAdapter;
     private boolean         _appendSuffix;
@@ -572,12 +583,12 @@ public class GenericMoneyFormatter extends Formatter
 
             // Generate a format string that embeds the currency amount in it.
             // e.g., "{1}1,243.11 {2}"
-        DecimalFormat fmt = getDecimalFormat(locale, false, suffix);
+        DecimalCodec codec = getDecimalCodec(locale, false, suffix);
         String amtFmt =
             BigDecimalFormatter.getStringValue(amount,
                                             precision,
                                             locale,
-                                            fmt);
+                                            codec);
 
         /*
             Some locales use the single quote character as a
@@ -718,6 +729,42 @@ public class GenericMoneyFormatter extends Formatter
         return getStringValue(MoneyAdapter.get(money).convertToCurrency(money, forcedCurrency), suffix);
     }
 
+    /**
+        Returns the codec for the standard currency format of the given
+        <code>locale</code>.  Does not lock once the codec is cached.
+        @aribaapi private
+    */
+    private static DecimalCodec getCurrencyCodec (Locale locale)
+    {
+        DecimalCodec codec = (DecimalCodec)currencyCodecs.get(locale);
+        if (codec == null) {
+                // cached formats are never changed, so the codec may keep it
+            codec = new DecimalCodec(getCurrencyFormat(locale));
+            currencyCodecs.put(locale, codec);
+        }
+        return codec;
+    }
+
+    /**
+        Returns the codec for the format <code>getDecimalFormat</code>
+        returns for the same arguments.  Does not lock once the codec is
+        cached.
+        @aribaapi private
+    */
+    private static DecimalCodec getDecimalCodec (
+        Locale locale, boolean forParsing, boolean suffix)
+    {
+        Map codecs = forParsing ? parseCodecs :
+            (suffix ? valueCodecs : valueNoSuffixCodecs);
+        DecimalCodec codec = (DecimalCodec)codecs.get(locale);
+        if (codec == null) {
+                // cached formats are never changed, so the codec may keep it
+            codec = new DecimalCodec(getDecimalFormat(locale, forParsing, suffix));
+            codecs.put(locale, codec);
+        }
+        return codec;
+    }
+
     /**
         Returns a standard currency format object for the given <code>locale</code>.
         @aribaapi private
@@ -1115,8 +1162,7 @@ public class GenericMoneyFormatter extends Formatter
             // or a decimal separator, then it must be currency suffix.
         moneyString = moneyString.trim();
         char lastChar = moneyString.charAt(moneyString.length() - 1);
-        DecimalFormat fmt = getDecimalFormat(locale, true, true);
-        char decimalSeparator = fmt.getDecimalFormatSymbols().getDecimalSeparator();
+        char decimalSeparator = getDecimalCodec(locale, true, true).getDecimalSeparator();
         boolean moneyStringHasSuffix = !Character.isDigit(lastChar) &&
                                        lastChar != decimalSeparator;
         DecimalParseInfo info = parseMoneyNumber(moneyString, locale,
@@ -1264,8 +1310,8 @@ public class GenericMoneyFormatter extends Formatter
     public DecimalParseInfo moneyInfo (String  moneyString)
       throws ParseException
     {
-        DecimalFormat fmt = getDecimalFormat(getDefaultLocale(), true, true);
-        return BigDecimalFormatter.parseBigDecimal(moneyString, fmt);
+        DecimalCodec codec = getDecimalCodec(getDefaultLocale(), true, true);
+        return BigDecimalFormatter.parseBigDecimal(moneyString, codec);
     }
 
 
@@ -1307,12 +1353,12 @@ public class GenericMoneyFormatter extends Formatter
         string = LocaleSupport.normalizeMoney(string, locale);
 
         try {
-            DecimalFormat fmt = getDecimalFormat(locale, true, suffix);
-            return parseBigDecimal(string, fmt, locale);
+            DecimalCodec codec = getDecimalCodec(locale, true, suffix);
+            return parseBigDecimal(string, codec, locale);
         }
         catch (ParseException e) {
-            DecimalFormat fmt = getCurrencyFormat(locale);
-            return BigDecimalFormatter.parseBigDecimal(string, fmt);
+            DecimalCodec codec = getCurrencyCodec(locale);
+            return BigDecimalFormatter.parseBigDecimal(string, codec);
         }
     }
 
@@ -1327,11 +1373,11 @@ public class GenericMoneyFormatter extends Formatter
 
         @aribaapi private
     */
-    private DecimalParseInfo parseBigDecimal (String string, DecimalFormat fmt, Locale locale)
+    private DecimalParseInfo parseBigDecimal (String string, DecimalCodec codec, Locale locale)
       throws ParseException
     {
         DecimalParseInfo info =
-            BigDecimalFormatter.parseBigDecimal(string, fmt);
+            BigDecimalFormatter.parseBigDecimal(string, codec);
 
         /*
             If we find the euro prefix, then we'll set the suffix to be